@@ -0,0 +1,11 @@
+/**
+ * AcceptResult is the response of an acceptor to an accept request.
+ */
+public enum AcceptResult {
+
+    /** The value was accepted and written to the write-ahead log. */
+    ACCEPTED,
+
+    /** The acceptor has promised a higher ballot and ignored the value. */
+    REJECTED
+}
@@ -0,0 +1,150 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AcceptedSlots holds the values an acceptor has accepted for the slots that have not been
+ * truncated yet. Slots are dense, so they are kept in a ring of parallel arrays indexed by
+ * slot rather than in a map with a boxed key and node per slot. Once slots are truncated the
+ * ring is reused, so its size follows the number of slots in flight rather than the length
+ * of the log.
+ */
+public class AcceptedSlots {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Ballot[] ballots;
+    private byte[][] values;
+    private long firstSlot;
+    private long endSlot;
+    private int count;
+
+    /**
+     * Constructs an empty AcceptedSlots.
+     */
+    public AcceptedSlots() {
+        this.ballots = new Ballot[INITIAL_CAPACITY];
+        this.values = new byte[INITIAL_CAPACITY][];
+        this.firstSlot = 0;
+        this.endSlot = 0;
+        this.count = 0;
+    }
+
+    /**
+     * Records the value accepted for a slot. Slots that have already been truncated are
+     * ignored.
+     * 
+     * @param slot The slot the value was accepted for.
+     * @param ballot The ballot the value was accepted in.
+     * @param value The accepted value.
+     */
+    public void put(long slot, Ballot ballot, byte[] value) {
+        if (slot < firstSlot) {
+            return;
+        }
+        ensureCapacity(slot);
+        int index = index(slot);
+        if (values[index] == null) {
+            count++;
+        }
+        ballots[index] = ballot;
+        values[index] = value;
+        endSlot = Math.max(endSlot, slot + 1);
+    }
+
+    /**
+     * Returns the value accepted for a slot.
+     * 
+     * @param slot The slot to look up.
+     * @return The accepted value, or null if nothing is accepted or the slot was truncated.
+     */
+    public AcceptedValue get(long slot) {
+        if (slot < firstSlot || slot >= endSlot) {
+            return null;
+        }
+        int index = index(slot);
+        return values[index] == null ? null : new AcceptedValue(ballots[index], values[index]);
+    }
+
+    /**
+     * Returns every accepted value at or above the given slot.
+     * 
+     * @param fromSlot The first slot to return.
+     * @return The accepted values keyed by slot.
+     */
+    public Map<Long, AcceptedValue> from(long fromSlot) {
+        Map<Long, AcceptedValue> result = new HashMap<>();
+        for (long slot = Math.max(fromSlot, firstSlot); slot < endSlot; slot++) {
+            AcceptedValue accepted = get(slot);
+            if (accepted != null) {
+                result.put(slot, accepted);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Discards every slot up to and including the given slot.
+     * 
+     * @param upToSlot The last slot to discard.
+     */
+    public void truncate(long upToSlot) {
+        long end = Math.min(upToSlot + 1, endSlot);
+        for (long slot = firstSlot; slot < end; slot++) {
+            int index = index(slot);
+            if (values[index] != null) {
+                count--;
+            }
+            ballots[index] = null;
+            values[index] = null;
+        }
+        firstSlot = Math.max(firstSlot, upToSlot + 1);
+        endSlot = Math.max(endSlot, firstSlot);
+    }
+
+    /**
+     * Returns the first slot that has not been truncated.
+     * 
+     * @return The first retained slot.
+     */
+    public long getFirstSlot() {
+        return firstSlot;
+    }
+
+    /**
+     * Returns the number of accepted values held.
+     * 
+     * @return The number of accepted values.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Grows the ring so that it can hold the given slot.
+     * 
+     * @param slot The slot that needs to fit.
+     */
+    private void ensureCapacity(long slot) {
+        long needed = slot - firstSlot + 1;
+        if (needed <= ballots.length) {
+            return;
+        }
+        int capacity = ballots.length;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        Ballot[] newBallots = new Ballot[capacity];
+        byte[][] newValues = new byte[capacity][];
+        for (long s = firstSlot; s < endSlot; s++) {
+            int from = index(s);
+            int to = (int) Math.floorMod(s, (long) capacity);
+            newBallots[to] = ballots[from];
+            newValues[to] = values[from];
+        }
+        ballots = newBallots;
+        values = newValues;
+    }
+
+    private int index(long slot) {
+        return (int) Math.floorMod(slot, (long) ballots.length);
+    }
+}
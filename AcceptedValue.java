@@ -0,0 +1,41 @@
+import java.io.Serializable;
+
+/**
+ * AcceptedValue is the value an acceptor has accepted for a log slot, together with the
+ * ballot it was accepted in.
+ */
+public final class AcceptedValue implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Ballot ballot;
+    private final byte[] value;
+
+    /**
+     * Constructs an AcceptedValue.
+     * 
+     * @param ballot The ballot in which the value was accepted.
+     * @param value The accepted value.
+     */
+    public AcceptedValue(Ballot ballot, byte[] value) {
+        this.ballot = ballot;
+        this.value = value;
+    }
+
+    /**
+     * Returns the ballot in which the value was accepted.
+     * 
+     * @return The ballot of the accepted value.
+     */
+    public Ballot getBallot() {
+        return ballot;
+    }
+
+    /**
+     * Returns the accepted value.
+     * 
+     * @return The accepted value.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+}
@@ -1,5 +1,8 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The Acceptor interface is the role of an Acceptor in the PAXOS algorithm. The role of 
@@ -10,18 +13,118 @@ public interface Acceptor extends Remote {
     /**
      * Deals with accepting a request for any received proposal.
      * 
-     * @param proposalID A proposal's unique identifier.
-     * @param value The value associated with the proposal.
-     * @return A String depicting the response from the Acceptor, either "ACCEPTED" or "REJECTED".
+     * @param ballot The ballot of the proposal.
+     * @param slot The log slot the value is proposed for.
+     * @param value The encoded batch of commands associated with the proposal.
+     * @return ACCEPTED if the Acceptor accepted the value, REJECTED otherwise.
      * @throws RemoteException If an error occurs during remote communication.
      */
-    String accept(String proposalID, String value) throws RemoteException;
+    AcceptResult accept(Ballot ballot, long slot, byte[] value) throws RemoteException;
 
     /**
-     * Deals with preparing a request for any received proposal.
-     * @param proposalID A proposal's unique identifier.
-     * @return A String depicting the response from the Acceptor: "PROMISE".
+     * Deals with preparing a request for any received proposal. A single prepare covers
+     * every slot from fromSlot onwards, so a leader only needs to run it once.
+     * 
+     * @param ballot The ballot of the proposal.
+     * @param fromSlot The first log slot the prepare applies to.
+     * @return The Promise of the Acceptor, along with the values it has accepted.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    Promise prepare(Ballot ballot, long fromSlot) throws RemoteException;
+
+    /**
+     * Confirms that the given ballot is still the highest ballot the Acceptor has promised,
+     * so that the leader can serve a linearizable read without a consensus round. A
+     * confirmation, like an accept, grants the leader a lease during which the Acceptor
+     * refuses to promise a ballot of any other proposer.
+     * 
+     * @param ballot The ballot of the leader.
+     * @return true if the ballot is still the promised ballot, false otherwise.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    boolean confirm(Ballot ballot) throws RemoteException;
+
+    /**
+     * Discards the values accepted for every slot up to and including the given slot. The
+     * proposer calls this once a majority of learners has applied those slots, so the
+     * acceptor only needs to keep the slots that are still in flight.
+     * 
+     * @param upToSlot The last slot to discard.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    void truncate(long upToSlot) throws RemoteException;
+
+    /**
+     * Discards every slot up to and including the given slot from the write-ahead log as
+     * well as from memory. The proposer calls this once every learner has a snapshot that
+     * covers those slots, so they are never needed again, not even after a restart.
+     * 
+     * @param upToSlot The last slot to discard.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    void compact(long upToSlot) throws RemoteException;
+
+    /**
+     * Pre-accepts an instance of the dependency-tracking consensus mode: the Acceptor adds
+     * every instance it knows of that touches the same keys to the dependencies and raises
+     * the sequence number above theirs. An instance the Acceptor already knows keeps the
+     * attributes it reported first.
+     * 
+     * @param id The ID of the instance.
+     * @param value The encoded batch of commands of the instance.
+     * @param attributes The dependencies the leader already knows of.
+     * @return The attributes the Acceptor reports for the instance.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    InstanceAttributes preAccept(InstanceId id, byte[] value, InstanceAttributes attributes) throws RemoteException;
+
+    /**
+     * Accepts the final attributes of an instance of the dependency-tracking consensus mode,
+     * which the leader sends when the acceptors did not all report the same attributes.
+     * 
+     * @param instance The instance with the attributes to accept.
+     * @return ACCEPTED once the attributes are in the write-ahead log.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    AcceptResult acceptInstance(Instance instance) throws RemoteException;
+
+    /**
+     * Records that an instance of the dependency-tracking consensus mode has been committed.
+     * 
+     * @param instance The committed instance.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    void commitInstance(Instance instance) throws RemoteException;
+
+    /**
+     * Returns the number of the last instance the Acceptor knows of, for every leader.
+     * 
+     * @return The last instance number, keyed by the ID of the leader.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    Map<Integer, Long> getLastInstances() throws RemoteException;
+
+    /**
+     * Returns the instances of one leader the Acceptor knows of, in number order, so that
+     * leaders can recover instances they abandoned and learners can fetch the ones they
+     * missed.
+     * 
+     * @param leader The ID of the leader.
+     * @param fromNumber The number of the first instance to return.
+     * @param maxInstances The maximum number of instances to return.
+     * @return The instances, with their status at the Acceptor.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    List<Instance> getInstances(int leader, long fromNumber, int maxInstances) throws RemoteException;
+
+    /**
+     * Returns the newest instance of every leader the Acceptor knows of that touches one of
+     * the given keys. Together with the dependencies of these instances, they are every
+     * write to the keys a read has to observe.
+     * 
+     * @param keys The keys to look up.
+     * @return The newest instance touching each key, for every leader.
      * @throws RemoteException If an error occurs during remote communication.
      */
-    String prepare(String proposalID) throws RemoteException;
+    Set<InstanceId> getInterfering(List<String> keys) throws RemoteException;
 }
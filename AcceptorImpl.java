@@ -1,60 +1,414 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The AcceptorImpl class implements the Acceptor interface, dealing with prepare and accept
- * requests from the Proposer in the PAXOS algorithm.
+ * requests from the Proposer in the PAXOS algorithm. Every promise and accept is written to
+ * an AcceptorLog before the acceptor responds, so its state survives a restart.
+ * 
+ * Every accept and confirmation from the leader grants it a lease of paxos.leaseMs, during
+ * which prepares from other proposers are refused. Leases are not logged; instead a restarted
+ * acceptor grants the proposer of its promised ballot a fresh lease.
+ * 
+ * In the dependency-tracking mode the acceptor keeps every instance it has seen, and for
+ * every key the newest instance of each leader that touches it, from which it derives the
+ * dependencies of new instances. Instances have no ballots: only their own leader ever
+ * proposes attributes for them.
  */
 public class AcceptorImpl extends UnicastRemoteObject implements Acceptor {
-    private final ConcurrentHashMap<String, String> promises;
-    private final ConcurrentHashMap<String, String> acceptedValues;
+    private Ballot promisedBallot;
+    private final AcceptedSlots acceptedValues;
+    private final AcceptorLog log;
+    private final Map<Integer, TreeMap<Long, Instance>> instances;
+    private final Map<String, Map<Integer, InstanceId>> interfering;
+    // The proposer holding the lease, or -1 before any lease has been granted.
+    private int leaseHolder;
+    private long leaseExpiresNanos;
     private static final Logger logger = LoggerConfig.createLogger("Acceptor");
 
     /**
-     * Constrtucts an AcceptorImpl instance, initializing promises and acceptedValues maps.
+     * Constrtucts an AcceptorImpl instance, restoring the promised ballot and the
+     * acceptedValues map from the write-ahead log in the given directory.
      * 
+     * @param dataDir The directory the acceptor keeps its write-ahead log in.
      * @throws RemoteException If an error occurs during remote communication.
+     * @throws IOException If the write-ahead log cannot be opened.
      */
-    protected AcceptorImpl() throws RemoteException {
+    protected AcceptorImpl(Path dataDir) throws RemoteException, IOException {
         super();
-        this.promises = new ConcurrentHashMap<>();
-        this.acceptedValues = new ConcurrentHashMap<>();
+        this.promisedBallot = Ballot.ZERO;
+        this.acceptedValues = new AcceptedSlots();
+        this.instances = new HashMap<>();
+        this.interfering = new HashMap<>();
+        this.leaseHolder = -1;
+        this.log = new AcceptorLog(dataDir, PaxosConfig.FSYNC_POLICY, PaxosConfig.FSYNC_INTERVAL_MS,
+                PaxosConfig.WAL_SEGMENT_BYTES, new AcceptorLog.Replayer() {
+                    @Override
+                    public void promised(Ballot ballot) {
+                        promise(ballot);
+                    }
+
+                    @Override
+                    public void accepted(long slot, AcceptedValue accepted) {
+                        promise(accepted.getBallot());
+                        Ballot ballot = accepted.getBallot().equals(promisedBallot) ? promisedBallot : accepted.getBallot();
+                        acceptedValues.put(slot, ballot, accepted.getValue());
+                    }
+
+                    @Override
+                    public void truncated(long upToSlot) {
+                        acceptedValues.truncate(upToSlot);
+                    }
+
+                    @Override
+                    public void instance(Instance instance) {
+                        Instance existing = findInstance(instance.getId());
+                        store(instance.getValue() != null || existing == null ? instance
+                                : existing.with(instance.getAttributes(), instance.getStatus()));
+                    }
+                });
+        if (!promisedBallot.equals(Ballot.ZERO)) {
+            grantLease(promisedBallot);
+        }
+        logger.info("Acceptor in " + dataDir + " recovered with promised ballot: " + promisedBallot
+                + " and " + acceptedValues.size() + " accepted values");
+    }
+
+    /**
+     * Deals with preparing a request for any received proposal. A single prepare covers
+     * every slot from fromSlot onwards, so a leader only needs to run it once.
+     * 
+     * @param ballot The ballot of the proposal.
+     * @param fromSlot The first log slot the prepare applies to.
+     * @return The Promise of the Acceptor, along with the values it has accepted.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public Promise prepare(Ballot ballot, long fromSlot) throws RemoteException {
+        logger.log(Level.INFO, "Received 'prepare' request for ballot: {0} from slot: {1}", new Object[]{ballot, fromSlot});
+        Promise promise;
+        long position;
+        try {
+            synchronized (this) {
+                if (ballot.compareTo(promisedBallot) <= 0 || isLeasedToOther(ballot)) {
+                    return new Promise(false, promisedBallot, acceptedValues.getFirstSlot(), new HashMap<>());
+                }
+                promisedBallot = ballot;
+                promise = new Promise(true, ballot, acceptedValues.getFirstSlot(), acceptedValues.from(fromSlot));
+                position = log.appendPromise(ballot);
+            }
+            log.sync(position);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to persist promise for ballot " + ballot, e);
+        }
+        return promise;
     }
 
     /**
      * Deals with accepting a request for any received proposal.
      * 
-     * @param proposalID A proposal's unique identifier.
-     * @param value The value associated with the proposal.
-     * @return A String depicting the response from the Acceptor, either "ACCEPTED" or "REJECTED".
+     * @param ballot The ballot of the proposal.
+     * @param slot The log slot the value is proposed for.
+     * @param value The encoded batch of commands associated with the proposal.
+     * @return ACCEPTED if the Acceptor accepted the value, REJECTED otherwise.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public AcceptResult accept(Ballot ballot, long slot, byte[] value) throws RemoteException {
+        logger.log(Level.INFO, "Received 'accept' request for ballot: {0} slot: {1} with {2} bytes",
+                new Object[]{ballot, slot, value.length});
+        long position;
+        try {
+            synchronized (this) {
+                if (ballot.compareTo(promisedBallot) < 0) {
+                    return AcceptResult.REJECTED;
+                }
+                promise(ballot);
+                grantLease(ballot);
+                // Share the promised Ballot instance instead of keeping a copy per slot.
+                acceptedValues.put(slot, promisedBallot, value);
+                position = log.appendAccept(slot, ballot, value);
+            }
+            log.sync(position);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to persist accept for slot " + slot, e);
+        }
+        return AcceptResult.ACCEPTED;
+    }
+
+    /**
+     * Confirms that the given ballot is still the promised ballot and renews the lease of
+     * its proposer.
+     * 
+     * @param ballot The ballot of the leader.
+     * @return true if the ballot is still the promised ballot, false otherwise.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public synchronized boolean confirm(Ballot ballot) throws RemoteException {
+        if (!ballot.equals(promisedBallot)) {
+            return false;
+        }
+        grantLease(ballot);
+        return true;
+    }
+
+    /**
+     * Discards the values accepted for every slot up to and including the given slot from
+     * memory. The write-ahead log keeps its records until the slots are compacted.
+     * 
+     * @param upToSlot The last slot to discard.
      * @throws RemoteException If an error occurs during remote communication.
      */
     @Override
-    public String prepare(String proposalID) throws RemoteException {
-        logger.info("Received 'prepare' request for proposalID: " + proposalID);
-        if (promises.containsKey(proposalID) || acceptedValues.containsKey(proposalID)) {
-            return "PROMISE";
-        } else {
-            promises.put(proposalID, "");
-            return "PROMISE";
+    public synchronized void truncate(long upToSlot) throws RemoteException {
+        if (upToSlot < acceptedValues.getFirstSlot()) {
+            return;
         }
+        acceptedValues.truncate(upToSlot);
+        logger.info("Truncated accepted values up to slot " + upToSlot + ", " + acceptedValues.size() + " left");
     }
 
-     /**
-     * Deals with preparing a request for any received proposal.
-     * @param proposalID A proposal's unique identifier.
-     * @return A String depicting the response from the Acceptor: "PROMISE".
+    /**
+     * Discards every slot up to and including the given slot from the write-ahead log as
+     * well as from memory.
+     * 
+     * @param upToSlot The last slot to discard.
      * @throws RemoteException If an error occurs during remote communication.
      */
     @Override
-    public String accept(String proposalID, String value) throws RemoteException {
-        logger.info("Received 'accept' request for proposalID: " + proposalID + " with value: " + value);
-        if (promises.containsKey(proposalID)) {
-            acceptedValues.put(proposalID, value);
-            return "ACCEPTED";
+    public void compact(long upToSlot) throws RemoteException {
+        truncate(upToSlot);
+        try {
+            log.truncate(upToSlot);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to compact the write-ahead log up to slot " + upToSlot, e);
+        }
+        logger.info("Compacted write-ahead log up to slot " + upToSlot + ", " + log.segmentCount() + " segments left");
+    }
+
+    /**
+     * Pre-accepts an instance, adding the newest instance of every leader that touches one
+     * of its keys to its dependencies.
+     * 
+     * @param id The ID of the instance.
+     * @param value The encoded batch of commands of the instance.
+     * @param attributes The dependencies the leader already knows of.
+     * @return The attributes the Acceptor reports for the instance.
+     * @throws RemoteException If the instance cannot be written to the write-ahead log.
+     */
+    @Override
+    public InstanceAttributes preAccept(InstanceId id, byte[] value, InstanceAttributes attributes) throws RemoteException {
+        logger.log(Level.INFO, "Received 'preAccept' request for instance {0} with {1} bytes", new Object[]{id, value.length});
+        InstanceAttributes reported;
+        long position;
+        try {
+            synchronized (this) {
+                Instance existing = findInstance(id);
+                if (existing != null) {
+                    return existing.getAttributes();
+                }
+                long seq = attributes.getSeq();
+                Set<InstanceId> deps = new TreeSet<>(attributes.getDeps());
+                for (Command command : Command.decodeBatch(value)) {
+                    for (InstanceId other : interfering.getOrDefault(command.getKey(), Collections.emptyMap()).values()) {
+                        if (!other.equals(id)) {
+                            deps.add(other);
+                            seq = Math.max(seq, findInstance(other).getAttributes().getSeq() + 1);
+                        }
+                    }
+                }
+                reported = new InstanceAttributes(seq, deps);
+                Instance instance = new Instance(id, value, reported, InstanceStatus.PRE_ACCEPTED);
+                store(instance);
+                position = log.appendInstance(instance, true);
+            }
+            log.sync(position);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to persist instance " + id, e);
+        }
+        return reported;
+    }
+
+    /**
+     * Accepts the final attributes of an instance, unless it has been committed already.
+     * 
+     * @param instance The instance with the attributes to accept.
+     * @return ACCEPTED once the attributes are in the write-ahead log.
+     * @throws RemoteException If the instance cannot be written to the write-ahead log.
+     */
+    @Override
+    public AcceptResult acceptInstance(Instance instance) throws RemoteException {
+        logger.log(Level.INFO, "Received 'acceptInstance' request for instance {0}", instance.getId());
+        long position;
+        try {
+            synchronized (this) {
+                Instance existing = findInstance(instance.getId());
+                if (existing != null && existing.getStatus() == InstanceStatus.COMMITTED) {
+                    return AcceptResult.ACCEPTED;
+                }
+                Instance accepted = instance.with(instance.getAttributes(), InstanceStatus.ACCEPTED);
+                store(accepted);
+                position = log.appendInstance(accepted, existing == null
+                        || !Arrays.equals(existing.getValue(), accepted.getValue()));
+            }
+            log.sync(position);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to persist instance " + instance.getId(), e);
+        }
+        return AcceptResult.ACCEPTED;
+    }
+
+    /**
+     * Records that an instance has been committed. The record is not forced to disk: if it
+     * is lost, the instance is still pre-accepted or accepted with the attributes it was
+     * committed with, so recovering it commits the same attributes again.
+     * 
+     * @param instance The committed instance.
+     * @throws RemoteException If the instance cannot be written to the write-ahead log.
+     */
+    @Override
+    public synchronized void commitInstance(Instance instance) throws RemoteException {
+        Instance existing = findInstance(instance.getId());
+        if (existing != null && existing.getStatus() == InstanceStatus.COMMITTED) {
+            return;
+        }
+        store(instance);
+        try {
+            log.appendInstance(instance, existing == null || !Arrays.equals(existing.getValue(), instance.getValue()));
+        } catch (IOException e) {
+            throw new RemoteException("Failed to persist instance " + instance.getId(), e);
+        }
+    }
+
+    /**
+     * Returns the number of the last instance the Acceptor knows of, for every leader.
+     * 
+     * @return The last instance number, keyed by the ID of the leader.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public synchronized Map<Integer, Long> getLastInstances() throws RemoteException {
+        Map<Integer, Long> last = new HashMap<>();
+        for (Map.Entry<Integer, TreeMap<Long, Instance>> entry : instances.entrySet()) {
+            last.put(entry.getKey(), entry.getValue().lastKey());
+        }
+        return last;
+    }
+
+    /**
+     * Returns the instances of one leader the Acceptor knows of, in number order.
+     * 
+     * @param leader The ID of the leader.
+     * @param fromNumber The number of the first instance to return.
+     * @param maxInstances The maximum number of instances to return.
+     * @return The instances, with their status at the Acceptor.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public synchronized List<Instance> getInstances(int leader, long fromNumber, int maxInstances) throws RemoteException {
+        List<Instance> found = new ArrayList<>();
+        TreeMap<Long, Instance> ofLeader = instances.get(leader);
+        if (ofLeader != null) {
+            for (Instance instance : ofLeader.tailMap(fromNumber).values()) {
+                if (found.size() == maxInstances) {
+                    break;
+                }
+                found.add(instance);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the newest instance of every leader the Acceptor knows of that touches one of
+     * the given keys.
+     * 
+     * @param keys The keys to look up.
+     * @return The newest instance touching each key, for every leader.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public synchronized Set<InstanceId> getInterfering(List<String> keys) throws RemoteException {
+        Set<InstanceId> found = new HashSet<>();
+        for (String key : keys) {
+            found.addAll(interfering.getOrDefault(key, Collections.emptyMap()).values());
+        }
+        return found;
+    }
+
+    /**
+     * Looks up an instance the Acceptor knows of.
+     * 
+     * @param id The ID of the instance.
+     * @return The instance, or null if the Acceptor has not seen it.
+     */
+    private Instance findInstance(InstanceId id) {
+        TreeMap<Long, Instance> ofLeader = instances.get(id.getLeader());
+        return ofLeader != null ? ofLeader.get(id.getNumber()) : null;
+    }
+
+    /**
+     * Stores an instance and makes it the newest instance of its leader for each of its keys,
+     * unless a newer one is known already.
+     * 
+     * @param instance The instance to store.
+     */
+    private void store(Instance instance) {
+        InstanceId id = instance.getId();
+        instances.computeIfAbsent(id.getLeader(), leader -> new TreeMap<>()).put(id.getNumber(), instance);
+        for (Command command : Command.decodeBatch(instance.getValue())) {
+            interfering.computeIfAbsent(command.getKey(), key -> new HashMap<>())
+                    .merge(id.getLeader(), id, (current, stored) -> current.compareTo(stored) >= 0 ? current : stored);
+        }
+    }
+
+    /**
+     * Grants the proposer of the given ballot a lease of paxos.leaseMs from now.
+     * 
+     * @param ballot The ballot of the leader.
+     */
+    private void grantLease(Ballot ballot) {
+        leaseHolder = ballot.getProposerId();
+        leaseExpiresNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PaxosConfig.LEASE_MS);
+    }
+
+    /**
+     * Tells whether another proposer than the one of the given ballot holds a lease. Times
+     * are only compared once a lease has been granted, since System.nanoTime has no fixed
+     * origin and may well be negative.
+     * 
+     * @param ballot The ballot of a prepare.
+     * @return true if the prepare has to be refused because of the lease.
+     */
+    private boolean isLeasedToOther(Ballot ballot) {
+        return leaseHolder >= 0 && ballot.getProposerId() != leaseHolder
+                && System.nanoTime() - leaseExpiresNanos < 0;
+    }
+
+    /**
+     * Raises the promised ballot to the given ballot if it is higher.
+     * 
+     * @param ballot The ballot to promise.
+     */
+    private void promise(Ballot ballot) {
+        if (ballot.compareTo(promisedBallot) > 0) {
+            promisedBallot = ballot;
         }
-        return "REJECTED";
     }
 }
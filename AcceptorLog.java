@@ -0,0 +1,597 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * AcceptorLog is the append-only write-ahead log an acceptor keeps its promises and accepted
+ * values in, so that they survive a restart. Each record is written through a FileChannel as
+ * a length-prefixed, checksummed frame:
+ * 
+ * <pre>
+ * [int length][byte type][payload][int crc32]
+ * </pre>
+ * 
+ * The log is split into segment files. A new segment starts with the current promise and
+ * truncation point, so that older segments can be deleted once every slot in them has been
+ * truncated. When the log is opened, the segments are scanned once to rebuild the acceptor's
+ * state, a torn record at the end of the last segment is cut off, and a new segment is started
+ * for the records to come. Every earlier segment was forced to disk before the next one
+ * started, so a bad record in one of them means the log is corrupt, and the log refuses to
+ * open rather than lose promises. The FsyncPolicy decides whether a record is forced to disk
+ * on its own, together with the records written concurrently, or in the background.
+ * 
+ * Instances of the dependency-tracking mode are not slots and are never truncated, so a
+ * segment holding an instance record is kept for good.
+ */
+public class AcceptorLog implements Closeable {
+
+    /**
+     * Receives the records of the log while it is being recovered.
+     */
+    public interface Replayer {
+
+        /**
+         * Called for every promise record, in the order the records were written.
+         * 
+         * @param ballot The promised ballot.
+         */
+        void promised(Ballot ballot);
+
+        /**
+         * Called for every accept record, in the order the records were written.
+         * 
+         * @param slot The slot the value was accepted for.
+         * @param accepted The accepted value and its ballot.
+         */
+        void accepted(long slot, AcceptedValue accepted);
+
+        /**
+         * Called for every truncate record, in the order the records were written.
+         * 
+         * @param upToSlot The last slot that was truncated.
+         */
+        void truncated(long upToSlot);
+
+        /**
+         * Called for every instance record of the dependency-tracking mode, in the order the
+         * records were written.
+         * 
+         * @param instance The instance. Its value is null if the record only updated the
+         *        status and attributes of an instance that was logged before.
+         */
+        void instance(Instance instance);
+    }
+
+    private static final String SEGMENT_PREFIX = "acceptor-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final byte PROMISE = 1;
+    private static final byte ACCEPT = 2;
+    private static final byte TRUNCATE = 3;
+    private static final byte INSTANCE = 4;
+    private static final int HEADER_BYTES = 5;
+    private static final int CRC_BYTES = 4;
+
+    private final Path directory;
+    private final FsyncPolicy policy;
+    private final long segmentBytes;
+    private final CRC32 crc;
+    private final Object syncLock;
+    private final ScheduledExecutorService syncer;
+    private final TreeMap<Long, Long> segmentMaxSlots;
+    private ByteBuffer buffer;
+    private FileChannel channel;
+    private long segmentIndex;
+    private long segmentBase;
+    private long writtenPosition;
+    private volatile long syncedPosition;
+    private Ballot lastPromise;
+    private long truncatedUpTo;
+    private static final Logger logger = LoggerConfig.createLogger("Acceptor");
+
+    /**
+     * Opens the log in the given directory, creating it if needed, and replays its records.
+     * 
+     * @param directory The directory the segment files live in.
+     * @param policy When records are forced to disk.
+     * @param fsyncIntervalMs How often the log is forced to disk under the PERIODIC policy.
+     * @param segmentBytes The size at which a new segment file is started.
+     * @param replayer Receives the records that are already in the log.
+     * @throws IOException If the log cannot be opened or read.
+     */
+    public AcceptorLog(Path directory, FsyncPolicy policy, long fsyncIntervalMs, long segmentBytes,
+            Replayer replayer) throws IOException {
+        Files.createDirectories(directory);
+        this.directory = directory;
+        this.policy = policy;
+        this.segmentBytes = segmentBytes;
+        this.crc = new CRC32();
+        this.syncLock = new Object();
+        this.segmentMaxSlots = new TreeMap<>();
+        this.buffer = ByteBuffer.allocateDirect(64 * 1024);
+        this.lastPromise = Ballot.ZERO;
+        this.truncatedUpTo = -1;
+
+        recover(replayer);
+        // Appends always go to a fresh segment, so the last segment begins with the promise and
+        // truncation point even if the process died while starting one, or its header was torn.
+        this.segmentIndex = segmentMaxSlots.isEmpty() ? -1 : segmentMaxSlots.lastKey();
+        startSegment();
+        channel.force(false);
+        this.syncedPosition = writtenPosition;
+
+        if (policy == FsyncPolicy.PERIODIC) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "AcceptorLog-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleAtFixedRate(this::syncQuietly, fsyncIntervalMs, fsyncIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * Appends a promise record. The record is not durable until sync is called with the
+     * returned position.
+     * 
+     * @param ballot The promised ballot.
+     * @return The position of the log after the record.
+     * @throws IOException If the record cannot be written.
+     */
+    public synchronized long appendPromise(Ballot ballot) throws IOException {
+        rollIfFull(HEADER_BYTES + 12 + CRC_BYTES);
+        ByteBuffer record = begin(buffer, PROMISE, 12);
+        putBallot(record, ballot);
+        if (ballot.compareTo(lastPromise) > 0) {
+            lastPromise = ballot;
+        }
+        return finish(record);
+    }
+
+    /**
+     * Appends an accept record. The record is not durable until sync is called with the
+     * returned position.
+     * 
+     * @param slot The slot the value was accepted for.
+     * @param ballot The ballot the value was accepted in.
+     * @param value The accepted value.
+     * @return The position of the log after the record.
+     * @throws IOException If the record cannot be written.
+     */
+    public synchronized long appendAccept(long slot, Ballot ballot, byte[] value) throws IOException {
+        int payloadBytes = 8 + 12 + 4 + value.length;
+        rollIfFull(HEADER_BYTES + payloadBytes + CRC_BYTES);
+        ByteBuffer record = begin(buffer, ACCEPT, payloadBytes);
+        record.putLong(slot);
+        putBallot(record, ballot);
+        record.putInt(value.length);
+        record.put(value);
+        if (ballot.compareTo(lastPromise) > 0) {
+            lastPromise = ballot;
+        }
+        segmentMaxSlots.merge(segmentIndex, slot, Math::max);
+        return finish(record);
+    }
+
+    /**
+     * Appends an instance record of the dependency-tracking mode. The record is not durable
+     * until sync is called with the returned position.
+     * 
+     * @param instance The instance with its current status and attributes.
+     * @param withValue Whether to log the value too, or only the status and attributes of an
+     *        instance whose value has already been logged.
+     * @return The position of the log after the record.
+     * @throws IOException If the record cannot be written.
+     */
+    public synchronized long appendInstance(Instance instance, boolean withValue) throws IOException {
+        Set<InstanceId> deps = instance.getAttributes().getDeps();
+        int valueBytes = withValue ? instance.getValue().length : 0;
+        int payloadBytes = 1 + 12 + 8 + 4 + 12 * deps.size() + 4 + valueBytes;
+        rollIfFull(HEADER_BYTES + payloadBytes + CRC_BYTES);
+        ByteBuffer record = begin(buffer, INSTANCE, payloadBytes);
+        record.put((byte) instance.getStatus().ordinal());
+        putInstanceId(record, instance.getId());
+        record.putLong(instance.getAttributes().getSeq());
+        record.putInt(deps.size());
+        for (InstanceId dep : deps) {
+            putInstanceId(record, dep);
+        }
+        if (withValue) {
+            record.putInt(valueBytes);
+            record.put(instance.getValue());
+        } else {
+            record.putInt(-1);
+        }
+        segmentMaxSlots.put(segmentIndex, Long.MAX_VALUE);
+        return finish(record);
+    }
+
+    /**
+     * Records that every slot up to and including the given slot has been truncated, forces
+     * the log to disk and deletes the segments that only hold truncated slots.
+     * 
+     * @param upToSlot The last slot to truncate.
+     * @throws IOException If the record cannot be written or a segment cannot be deleted.
+     */
+    public synchronized void truncate(long upToSlot) throws IOException {
+        if (upToSlot <= truncatedUpTo) {
+            return;
+        }
+        rollIfFull(HEADER_BYTES + 8 + CRC_BYTES);
+        ByteBuffer record = begin(buffer, TRUNCATE, 8);
+        record.putLong(upToSlot);
+        truncatedUpTo = upToSlot;
+        finish(record);
+        channel.force(false);
+        syncedPosition = Math.max(syncedPosition, writtenPosition);
+
+        Iterator<Map.Entry<Long, Long>> segments = segmentMaxSlots.entrySet().iterator();
+        while (segments.hasNext()) {
+            Map.Entry<Long, Long> segment = segments.next();
+            if (segment.getKey() != segmentIndex && segment.getValue() <= upToSlot) {
+                Files.deleteIfExists(segmentFile(segment.getKey()));
+                segments.remove();
+                logger.info("Deleted write-ahead log segment " + segment.getKey() + " of " + directory);
+            }
+        }
+    }
+
+    /**
+     * Makes every record up to the given position durable, as far as the FsyncPolicy asks
+     * for. Under the GROUP policy, a thread that finds its records already forced by another
+     * thread returns without calling fsync itself.
+     * 
+     * @param position The position returned when the last record was appended.
+     * @throws IOException If the log cannot be forced to disk.
+     */
+    public void sync(long position) throws IOException {
+        if (policy == FsyncPolicy.PERIODIC || syncedPosition >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedPosition >= position) {
+                return;
+            }
+            forceWritten();
+        }
+    }
+
+    /**
+     * Returns the number of segment files of the log.
+     * 
+     * @return The number of segments.
+     */
+    public synchronized int segmentCount() {
+        return segmentMaxSlots.size();
+    }
+
+    /**
+     * Forces the log to disk and closes it.
+     * 
+     * @throws IOException If the log cannot be forced or closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        synchronized (this) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    /**
+     * Starts a new segment if the next record would not fit into the current one. The new
+     * segment begins with the current promise and truncation point.
+     * 
+     * @param recordBytes The size of the next record.
+     * @throws IOException If the segments cannot be switched.
+     */
+    private void rollIfFull(int recordBytes) throws IOException {
+        long segmentSize = writtenPosition - segmentBase;
+        if (segmentSize == 0 || segmentSize + recordBytes <= segmentBytes) {
+            return;
+        }
+        startSegment();
+    }
+
+    /**
+     * Forces and closes the current segment, if any, and starts the next one with the current
+     * promise and truncation point.
+     * 
+     * @throws IOException If the segments cannot be switched.
+     */
+    private void startSegment() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            syncedPosition = Math.max(syncedPosition, writtenPosition);
+        }
+
+        segmentIndex++;
+        segmentBase = writtenPosition;
+        segmentMaxSlots.put(segmentIndex, -1L);
+        channel = FileChannel.open(segmentFile(segmentIndex), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(2 * (HEADER_BYTES + 12 + CRC_BYTES));
+        putBallot(begin(header, PROMISE, 12), lastPromise);
+        seal(header, 0);
+        int truncateStart = header.position();
+        begin(header, TRUNCATE, 8).putLong(truncatedUpTo);
+        seal(header, truncateStart);
+        header.flip();
+        write(header);
+    }
+
+    /**
+     * Starts a record of the given type at the end of the buffer, growing the shared buffer
+     * if it is too small.
+     * 
+     * @param target The buffer to write the record to.
+     * @param type The type of the record.
+     * @param payloadBytes The size of the payload of the record.
+     * @return The buffer to write the payload to.
+     */
+    private ByteBuffer begin(ByteBuffer target, byte type, int payloadBytes) {
+        if (target == buffer) {
+            int recordBytes = HEADER_BYTES + payloadBytes + CRC_BYTES;
+            if (buffer.capacity() < recordBytes) {
+                buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(recordBytes) << 1);
+            }
+            buffer.clear();
+            target = buffer;
+        }
+        target.putInt(payloadBytes + 1);
+        target.put(type);
+        return target;
+    }
+
+    /**
+     * Appends the checksum of a record to the buffer.
+     * 
+     * @param record The buffer holding the record.
+     * @param start The offset of the length prefix of the record in the buffer.
+     */
+    private void seal(ByteBuffer record, int start) {
+        ByteBuffer body = record.duplicate();
+        body.limit(record.position()).position(start + 4);
+        crc.reset();
+        crc.update(body);
+        record.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Seals the record in the shared buffer and appends it to the current segment.
+     * 
+     * @param record The buffer holding the record.
+     * @return The position of the log after the record.
+     * @throws IOException If the record cannot be written.
+     */
+    private long finish(ByteBuffer record) throws IOException {
+        seal(record, 0);
+        record.flip();
+        write(record);
+        if (policy == FsyncPolicy.PER_OP) {
+            channel.force(false);
+            syncedPosition = writtenPosition;
+        }
+        return writtenPosition;
+    }
+
+    /**
+     * Writes the buffer to the current segment.
+     * 
+     * @param data The bytes to write.
+     * @throws IOException If the bytes cannot be written.
+     */
+    private void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            writtenPosition += channel.write(data);
+        }
+    }
+
+    /**
+     * Forces every record written so far to disk. If the segment is closed by a roll in the
+     * meantime, the roll has already forced it.
+     * 
+     * @throws IOException If the log cannot be forced to disk.
+     */
+    private void forceWritten() throws IOException {
+        FileChannel current;
+        long target;
+        synchronized (this) {
+            current = channel;
+            target = writtenPosition;
+        }
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            return;
+        }
+        syncedPosition = Math.max(syncedPosition, target);
+    }
+
+    /**
+     * Replays the intact records of every segment in order and cuts off anything after the
+     * last intact record of the last segment.
+     * 
+     * @param replayer Receives the records.
+     * @throws IOException If a segment cannot be read or a segment other than the last is corrupt.
+     */
+    private void recover(Replayer replayer) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String index = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                segmentMaxSlots.put(Long.parseLong(index), -1L);
+            }
+        }
+
+        int records = 0;
+        for (long index : segmentMaxSlots.keySet()) {
+            try (FileChannel segment = FileChannel.open(segmentFile(index), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                records += recoverSegment(index, segment, index == segmentMaxSlots.lastKey(), replayer);
+            }
+        }
+        logger.info("Recovered " + records + " records from " + segmentMaxSlots.size() + " segments in " + directory);
+    }
+
+    /**
+     * Replays the intact records of a single segment. Only the last segment can end in a torn
+     * record, which is cut off.
+     * 
+     * @param index The index of the segment.
+     * @param segment The channel of the segment file.
+     * @param last Whether this is the last segment.
+     * @param replayer Receives the records.
+     * @return The number of records replayed.
+     * @throws IOException If the segment cannot be read, or it is not the last and has a bad record.
+     */
+    private int recoverSegment(long index, FileChannel segment, boolean last, Replayer replayer)
+            throws IOException {
+        long fileSize = segment.size();
+        ByteBuffer data = ByteBuffer.allocate((int) Math.min(fileSize, Integer.MAX_VALUE));
+        int read = 0;
+        while (data.hasRemaining() && read >= 0) {
+            read = segment.read(data, data.position());
+        }
+        data.flip();
+
+        int records = 0;
+        while (data.remaining() >= HEADER_BYTES + CRC_BYTES) {
+            int start = data.position();
+            int length = data.getInt();
+            if (length < 1 || length > data.remaining() - CRC_BYTES) {
+                data.position(start);
+                break;
+            }
+            ByteBuffer body = data.slice();
+            body.limit(length);
+            crc.reset();
+            crc.update(body.duplicate());
+            data.position(data.position() + length);
+            if ((int) crc.getValue() != data.getInt()) {
+                data.position(start);
+                break;
+            }
+            replay(index, body, replayer);
+            records++;
+        }
+
+        long end = data.position();
+        if (end < fileSize && !last) {
+            throw new IOException("Segment " + index + " of " + directory + " is corrupt at offset " + end
+                    + "; refusing to recover past it");
+        }
+        if (end < fileSize) {
+            logger.warning("Cutting off " + (fileSize - end) + " bytes of torn records from segment "
+                    + index + " of " + directory);
+            segment.truncate(end);
+            segment.force(true);
+        }
+        return records;
+    }
+
+    /**
+     * Hands a single record to the replayer.
+     * 
+     * @param index The index of the segment the record is in.
+     * @param body The type and payload of the record.
+     * @param replayer Receives the record.
+     */
+    private void replay(long index, ByteBuffer body, Replayer replayer) {
+        byte type = body.get();
+        if (type == PROMISE) {
+            Ballot ballot = getBallot(body);
+            if (ballot.compareTo(lastPromise) > 0) {
+                lastPromise = ballot;
+            }
+            replayer.promised(ballot);
+        } else if (type == ACCEPT) {
+            long slot = body.getLong();
+            Ballot ballot = getBallot(body);
+            byte[] bytes = new byte[body.getInt()];
+            body.get(bytes);
+            if (ballot.compareTo(lastPromise) > 0) {
+                lastPromise = ballot;
+            }
+            segmentMaxSlots.merge(index, slot, Math::max);
+            replayer.accepted(slot, new AcceptedValue(ballot, bytes));
+        } else if (type == TRUNCATE) {
+            long upToSlot = body.getLong();
+            truncatedUpTo = Math.max(truncatedUpTo, upToSlot);
+            replayer.truncated(upToSlot);
+        } else if (type == INSTANCE) {
+            InstanceStatus status = InstanceStatus.values()[body.get()];
+            InstanceId id = getInstanceId(body);
+            long seq = body.getLong();
+            Set<InstanceId> deps = new TreeSet<>();
+            for (int count = body.getInt(); count > 0; count--) {
+                deps.add(getInstanceId(body));
+            }
+            int valueBytes = body.getInt();
+            byte[] value = null;
+            if (valueBytes >= 0) {
+                value = new byte[valueBytes];
+                body.get(value);
+            }
+            segmentMaxSlots.put(index, Long.MAX_VALUE);
+            replayer.instance(new Instance(id, value, new InstanceAttributes(seq, deps), status));
+        }
+    }
+
+    /**
+     * Forces the log to disk, logging instead of throwing on failure.
+     */
+    private void syncQuietly() {
+        try {
+            forceWritten();
+        } catch (IOException e) {
+            logger.warning("Periodic fsync of " + directory + " failed: " + e.getMessage());
+        }
+    }
+
+    private Path segmentFile(long index) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static void putBallot(ByteBuffer buffer, Ballot ballot) {
+        buffer.putLong(ballot.getRound());
+        buffer.putInt(ballot.getProposerId());
+    }
+
+    private static Ballot getBallot(ByteBuffer buffer) {
+        return new Ballot(buffer.getLong(), buffer.getInt());
+    }
+
+    private static void putInstanceId(ByteBuffer buffer, InstanceId id) {
+        buffer.putInt(id.getLeader());
+        buffer.putLong(id.getNumber());
+    }
+
+    private static InstanceId getInstanceId(ByteBuffer buffer) {
+        return new InstanceId(buffer.getInt(), buffer.getLong());
+    }
+}
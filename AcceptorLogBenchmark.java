@@ -0,0 +1,77 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * AcceptorLogBenchmark measures how many accept records per second the AcceptorLog makes
+ * durable under each FsyncPolicy, with a number of threads appending concurrently the way
+ * pipelined accepts from the proposer do.
+ */
+public class AcceptorLogBenchmark {
+
+    /**
+     * Main method for the benchmark.
+     * 
+     * @param args Optional arguments: number of threads, seconds per policy and value size in bytes.
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int valueSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        System.out.println("threads=" + threads + " seconds=" + seconds + " valueSize=" + valueSize);
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            long ops = run(policy, threads, seconds, new byte[valueSize]);
+            System.out.printf("%-8s %10.0f ops/s%n", policy, (double) ops / seconds);
+        }
+    }
+
+    /**
+     * Runs the benchmark for a single policy in a fresh directory.
+     * 
+     * @param policy The fsync policy to measure.
+     * @param threads The number of appending threads.
+     * @param seconds How long to run.
+     * @param value The value to write in every accept record.
+     * @return The number of records appended and synced.
+     */
+    private static long run(FsyncPolicy policy, int threads, int seconds, byte[] value) throws Exception {
+        Path directory = Files.createTempDirectory("acceptor-log-bench");
+        AtomicLong ops = new AtomicLong();
+        AtomicLong nextSlot = new AtomicLong();
+        Ballot ballot = new Ballot(1, 1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        try (AcceptorLog log = new AcceptorLog(directory, policy, PaxosConfig.FSYNC_INTERVAL_MS,
+                PaxosConfig.WAL_SEGMENT_BYTES, null)) {
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            log.sync(log.appendAccept(nextSlot.getAndIncrement(), ballot, value));
+                            ops.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                worker.start();
+                workers.add(worker);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        return ops.get();
+    }
+}
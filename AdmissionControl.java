@@ -0,0 +1,77 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AdmissionControl limits how many client requests the proposer works on at once. A request
+ * that finds every slot taken waits for one in a bounded queue for a bounded time; if the
+ * queue is full or the time runs out it is turned away with a ServerBusyException right
+ * away, so that an overloaded server answers quickly instead of piling up threads and
+ * memory.
+ */
+public class AdmissionControl {
+    private final Semaphore permits;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final long timeoutMs;
+    private final AtomicInteger queued;
+    private final LongAdder rejected;
+
+    /**
+     * Constructs an AdmissionControl and adds its counters and gauges to the given metrics.
+     * 
+     * @param maxInFlight How many requests may be worked on at once.
+     * @param maxQueued How many requests may wait for a slot at once.
+     * @param timeoutMs How long a request waits for a slot, in milliseconds.
+     * @param metrics The metrics of the role whose requests are admitted.
+     */
+    public AdmissionControl(int maxInFlight, int maxQueued, long timeoutMs, Metrics metrics) {
+        this.permits = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.timeoutMs = timeoutMs;
+        this.queued = new AtomicInteger();
+        this.rejected = metrics.counter("rejectedRequests");
+        metrics.gauge("inFlightRequests", () -> maxInFlight - permits.availablePermits());
+        metrics.gauge("queuedRequests", queued::get);
+    }
+
+    /**
+     * Admits a request, waiting for a slot if necessary. Every successful call must be
+     * followed by a call to release.
+     * 
+     * @throws ServerBusyException If the queue is full, the wait timed out or the thread was
+     *                             interrupted while waiting.
+     */
+    public void acquire() throws ServerBusyException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw new ServerBusyException("Server busy: " + maxInFlight + " requests in progress and "
+                    + maxQueued + " waiting.");
+        }
+        try {
+            if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                rejected.increment();
+                throw new ServerBusyException("Server busy: no request finished within " + timeoutMs + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            throw new ServerBusyException("Interrupted while waiting to be admitted.");
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Frees the slot of a request that has finished.
+     */
+    public void release() {
+        permits.release();
+    }
+}
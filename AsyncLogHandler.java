@@ -0,0 +1,213 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * AsyncLogHandler hands log records to a background thread instead of writing them itself,
+ * so that logging costs the PAXOS roles no more than queueing a record. The records wait in
+ * a ring buffer of fixed size, so the memory logging takes is bounded; when it is full the
+ * LogOverflow policy decides whether the record is dropped or the logging thread waits.
+ * 
+ * The writer thread takes every queued record at once, formats them, writes them with a
+ * single buffered write and flushes once per batch. Records keep their parameters until
+ * then, so a message logged with parameters is only formatted on the writer thread.
+ */
+public class AsyncLogHandler extends Handler {
+    private static final long CLOSE_TIMEOUT_MS = 5000;
+
+    private final LogRecord[] ring;
+    private final LogOverflow overflow;
+    private final Writer writer;
+    private final boolean ownsStream;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final Condition drained;
+    private final Thread writerThread;
+    private int head;
+    private int count;
+    private long dropped;
+    private boolean writing;
+    private boolean closed;
+
+    /**
+     * Constructs an AsyncLogHandler and starts its writer thread.
+     * 
+     * @param out The stream the records are written to.
+     * @param ownsStream Whether the stream is closed with the handler; false for System.out.
+     * @param capacity How many records can wait to be written.
+     * @param overflow What happens to a record that arrives while the queue is full.
+     * @param name The name of the writer thread.
+     */
+    public AsyncLogHandler(OutputStream out, boolean ownsStream, int capacity, LogOverflow overflow, String name) {
+        this.ring = new LogRecord[capacity];
+        this.overflow = overflow;
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        this.ownsStream = ownsStream;
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+        this.drained = lock.newCondition();
+        this.writerThread = new Thread(this::writeRecords, name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a record for the writer thread. Under the DROP policy a full queue drops the
+     * record; under BLOCK the caller waits for room, and drops the record only if it is
+     * interrupted while waiting.
+     * 
+     * @param record The record to log.
+     */
+    @Override
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (count == ring.length && !closed) {
+                if (overflow == LogOverflow.DROP) {
+                    dropped++;
+                    return;
+                }
+                try {
+                    notFull.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped++;
+                    return;
+                }
+            }
+            if (closed) {
+                return;
+            }
+            ring[(head + count) % ring.length] = record;
+            if (count++ == 0) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every record queued so far has been written and flushed.
+     */
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            while ((count > 0 || writing) && writerThread.isAlive()) {
+                drained.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the records still queued, stops the writer thread and closes the stream if the
+     * handler owns it. Records published afterwards are ignored.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writerThread.join(CLOSE_TIMEOUT_MS);
+            if (ownsStream) {
+                writer.close();
+            } else {
+                writer.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            reportError("Failed to close the log", e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    /**
+     * Runs on the writer thread: takes every queued record at once, writes them and flushes,
+     * until the handler is closed and the queue is empty.
+     */
+    private void writeRecords() {
+        LogRecord[] batch = new LogRecord[ring.length];
+        while (true) {
+            int taken;
+            long droppedSinceLast;
+            lock.lock();
+            try {
+                writing = false;
+                drained.signalAll();
+                while (count == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (count == 0) {
+                    return;
+                }
+                taken = count;
+                for (int i = 0; i < taken; i++) {
+                    int index = (head + i) % ring.length;
+                    batch[i] = ring[index];
+                    ring[index] = null;
+                }
+                head = (head + taken) % ring.length;
+                count = 0;
+                droppedSinceLast = dropped;
+                dropped = 0;
+                writing = true;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            write(batch, taken, droppedSinceLast);
+        }
+    }
+
+    /**
+     * Formats and writes a batch of records, followed by a note of how many were dropped,
+     * and flushes the stream once.
+     * 
+     * @param batch The records, starting at index 0.
+     * @param size How many records the batch holds.
+     * @param droppedCount How many records were dropped since the previous batch.
+     */
+    private void write(LogRecord[] batch, int size, long droppedCount) {
+        for (int i = 0; i < size; i++) {
+            try {
+                writer.write(getFormatter().format(batch[i]));
+            } catch (Exception e) {
+                reportError("Failed to write a log record", e, ErrorManager.WRITE_FAILURE);
+            }
+            batch[i] = null;
+        }
+        try {
+            if (droppedCount > 0) {
+                writer.write("Dropped " + droppedCount + " log records because the log queue was full."
+                        + System.lineSeparator());
+            }
+            writer.flush();
+        } catch (IOException e) {
+            reportError("Failed to flush the log", e, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.io.Closeable;
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * AsyncProposer lets a client submit commands without waiting for each response, so that
+ * its throughput is no longer bounded by one round trip per command. Every submission
+ * returns a future of the response. At most a fixed number of requests are outstanding at
+ * once; submitting more blocks until one of them completes, which keeps a fast client from
+ * flooding the server.
+ * 
+ * Over the NIO transport requests are pipelined on the stub's single connection. RMI calls
+ * block, so over RMI each outstanding request occupies one thread of a pool.
+ */
+public class AsyncProposer implements Closeable {
+    private final Proposer proposer;
+    private final Semaphore outstanding;
+    private final ExecutorService callers;
+
+    /**
+     * Constructs an AsyncProposer.
+     * 
+     * @param proposer The proposer to send the commands to.
+     * @param maxOutstanding How many requests may be outstanding at once.
+     */
+    public AsyncProposer(Proposer proposer, int maxOutstanding) {
+        this.proposer = proposer;
+        this.outstanding = new Semaphore(maxOutstanding);
+        this.callers = proposer instanceof NioProposerStub ? null
+                : Executors.newFixedThreadPool(maxOutstanding, runnable -> {
+                    Thread thread = new Thread(runnable, "AsyncProposer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Submits a command, waiting first if the maximum number of requests is outstanding.
+     * 
+     * @param command The command to propose (Example: 'GET', 'MPUT', 'DELETE').
+     * @param args Arguments for the command, if any.
+     * @return A future that completes with the response, or exceptionally with the
+     *         RemoteException of a failed request.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public CompletableFuture<String> submit(String command, String... args) throws InterruptedException {
+        outstanding.acquire();
+        CompletableFuture<String> response;
+        if (callers == null) {
+            response = ((NioProposerStub) proposer).proposeAsync(command, args);
+        } else {
+            response = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return proposer.propose(command, args);
+                } catch (RemoteException e) {
+                    throw new CompletionException(e);
+                }
+            }, callers);
+        }
+        return response.whenComplete((result, failure) -> outstanding.release());
+    }
+
+    /**
+     * Stops the threads of the RMI callers. Requests that are still outstanding complete.
+     */
+    @Override
+    public void close() {
+        if (callers != null) {
+            callers.shutdown();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.Serializable;
+
+/**
+ * A Ballot orders proposals in the PAXOS algorithm. Ballots are compared by round first and
+ * by the ID of the proposer second, so two proposers can never issue the same ballot.
+ */
+public final class Ballot implements Comparable<Ballot>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The lowest possible ballot, used by acceptors that have not promised anything yet. */
+    public static final Ballot ZERO = new Ballot(0, 0);
+
+    private final long round;
+    private final int proposerId;
+
+    /**
+     * Constructs a Ballot.
+     * 
+     * @param round The round of the ballot.
+     * @param proposerId The ID of the proposer that issued the ballot.
+     */
+    public Ballot(long round, int proposerId) {
+        this.round = round;
+        this.proposerId = proposerId;
+    }
+
+    /**
+     * Returns the round of this ballot.
+     * 
+     * @return The round of this ballot.
+     */
+    public long getRound() {
+        return round;
+    }
+
+    /**
+     * Returns the ID of the proposer that issued this ballot.
+     * 
+     * @return The ID of the proposer.
+     */
+    public int getProposerId() {
+        return proposerId;
+    }
+
+    @Override
+    public int compareTo(Ballot other) {
+        int byRound = Long.compare(round, other.round);
+        return byRound != 0 ? byRound : Integer.compare(proposerId, other.proposerId);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Ballot)) return false;
+        Ballot ballot = (Ballot) other;
+        return round == ballot.round && proposerId == ballot.proposerId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(round) * 31 + proposerId;
+    }
+
+    @Override
+    public String toString() {
+        return round + "." + proposerId;
+    }
+}
@@ -0,0 +1,94 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BatchStats keeps running statistics about the batches the CommandBatcher hands to
+ * consensus, so that the batching window can be tuned against latency.
+ */
+public class BatchStats {
+    private static final int BUCKETS = 12;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder commands = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAccumulator maxCommands = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxBytes = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray sizeHistogram = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a batch that has been handed to consensus.
+     * 
+     * @param commandCount The number of commands in the batch.
+     * @param byteCount The encoded size of the batch in bytes.
+     */
+    public void record(int commandCount, int byteCount) {
+        batches.increment();
+        commands.add(commandCount);
+        bytes.add(byteCount);
+        maxCommands.accumulate(commandCount);
+        maxBytes.accumulate(byteCount);
+        int bucket = Math.min(BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(commandCount));
+        sizeHistogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * Returns the number of batches recorded so far.
+     * 
+     * @return The number of batches.
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * Returns the number of commands recorded so far.
+     * 
+     * @return The number of commands.
+     */
+    public long getCommands() {
+        return commands.sum();
+    }
+
+    /**
+     * Returns the number of bytes recorded so far.
+     * 
+     * @return The number of bytes.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Summarises the statistics, including a histogram of commands per batch in
+     * power-of-two buckets.
+     * 
+     * @return A one-line summary of the statistics.
+     */
+    @Override
+    public String toString() {
+        long batchCount = getBatches();
+        StringBuilder sb = new StringBuilder();
+        sb.append("batches=").append(batchCount);
+        sb.append(" commands=").append(getCommands());
+        sb.append(" bytes=").append(getBytes());
+        if (batchCount > 0) {
+            sb.append(" avgCommands=").append(String.format("%.2f", (double) getCommands() / batchCount));
+            sb.append(" avgBytes=").append(getBytes() / batchCount);
+        }
+        sb.append(" maxCommands=").append(maxCommands.get());
+        sb.append(" maxBytes=").append(maxBytes.get());
+        sb.append(" sizes={");
+        boolean first = true;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = sizeHistogram.get(i);
+            if (count == 0) continue;
+            if (!first) sb.append(", ");
+            long low = 1L << i;
+            sb.append(i == BUCKETS - 1 ? low + "+" : low == 1 ? "1" : low + "-" + (2 * low - 1));
+            sb.append(':').append(count);
+            first = false;
+        }
+        return sb.append('}').toString();
+    }
+}
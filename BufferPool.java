@@ -0,0 +1,69 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BufferPool hands out direct buffers of a fixed size and takes them back for reuse, so that
+ * socket reads and writes neither allocate per message nor copy through a temporary direct
+ * buffer the way heap buffers do. At most a fixed number of idle buffers is kept.
+ */
+public class BufferPool {
+    private final int bufferBytes;
+    private final int maxIdle;
+    private final ConcurrentLinkedQueue<ByteBuffer> idle;
+    private final AtomicInteger idleCount;
+
+    /**
+     * Constructs an empty BufferPool.
+     * 
+     * @param bufferBytes The capacity of every buffer, in bytes.
+     * @param maxIdle The maximum number of buffers kept for reuse.
+     */
+    public BufferPool(int bufferBytes, int maxIdle) {
+        this.bufferBytes = bufferBytes;
+        this.maxIdle = maxIdle;
+        this.idle = new ConcurrentLinkedQueue<>();
+        this.idleCount = new AtomicInteger();
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, or allocates one if the pool is empty.
+     * 
+     * @return A direct buffer of the pool's size.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferBytes);
+        }
+        idleCount.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that were not handed out by this pool, e.g.
+     * larger ones allocated for a single big frame, are left to the garbage collector.
+     * 
+     * @param buffer The buffer to return.
+     */
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != bufferBytes) {
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        idle.offer(buffer);
+    }
+
+    /**
+     * Returns the capacity of the buffers of the pool.
+     * 
+     * @return The buffer size, in bytes.
+     */
+    public int getBufferBytes() {
+        return bufferBytes;
+    }
+}
@@ -0,0 +1,32 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Map;
+
+/**
+ * CacheListener is the remote interface of a client-side cache that a learner tells about
+ * the keys it changes, so that the cache can drop what it holds of them.
+ */
+public interface CacheListener extends Remote {
+
+    /**
+     * Tells the cache that keys have changed. A key that was deleted, or deleted and written
+     * again since the last call, is given version 0, so that the cache drops it whatever
+     * version it holds.
+     * 
+     * @param versions The version of every changed key after the change, or 0.
+     * @param appliedAtMillis When the learner applied the oldest of the changes, in
+     *        milliseconds since the epoch.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    void invalidate(Map<String, Long> versions, long appliedAtMillis) throws RemoteException;
+
+    /**
+     * Tells the cache that too many keys have changed to list them, e.g. because a snapshot
+     * was installed, so that it drops everything it holds.
+     * 
+     * @param appliedAtMillis When the learner applied the oldest of the changes, in
+     *        milliseconds since the epoch.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    void invalidateAll(long appliedAtMillis) throws RemoteException;
+}
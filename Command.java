@@ -0,0 +1,356 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Command is a single write to the key-value store. Commands travel through PAXOS in a
+ * length-prefixed binary encoding, so keys and values may contain any character and learners
+ * decode them without parsing text. A batch of commands is encoded as
+ * {@code [int count]} followed by each command as
+ * {@code [byte opcode][long clientId][long requestId][int keyLength][key][int valueLength][value]},
+ * with a value length of -1 for commands without a value. Commands whose opcode takes an
+ * expected value are followed by {@code [int expectedLength][expected]}. The empty batch is
+ * the no-op.
+ * 
+ * A large value does not travel through PAXOS itself: the proposer uploads it to the learners
+ * as a Payload and replaces it with its encoded PayloadRef, marking the command by setting
+ * PAYLOAD_FLAG in the opcode byte. Learners swap the value back in with withValue before
+ * they apply the command.
+ */
+public final class Command {
+    private static final int HEADER_BYTES = 1 + 8 + 8 + 4 + 4;
+    // Set in the opcode byte of a command whose value is an encoded PayloadRef.
+    private static final int PAYLOAD_FLAG = 0x40;
+
+    private final Opcode opcode;
+    private final String key;
+    private final String value;
+    private final long clientId;
+    private final String expected;
+    private final long requestId;
+    private final byte[] keyBytes;
+    private final byte[] valueBytes;
+    private final byte[] expectedBytes;
+    private final PayloadRef payloadRef;
+
+    /**
+     * Constructs a Command and encodes its key and value once.
+     * 
+     * @param opcode The operation of the command.
+     * @param key The key the command applies to.
+     * @param value The value of the command, or null if the operation takes none.
+     * @param clientId The ID of the client that issued the command.
+     * @param requestId The ID of the request among those of the client.
+     */
+    public Command(Opcode opcode, String key, String value, long clientId, long requestId) {
+        this(opcode, key, value, null, clientId, requestId);
+    }
+
+    /**
+     * Constructs a conditional Command and encodes its key, value and expected value once.
+     * 
+     * @param opcode The operation of the command.
+     * @param key The key the command applies to.
+     * @param value The value of the command, or null if the operation takes none.
+     * @param expected The value the key has to hold for the command to take effect; for
+     *        CAS_VERSION the version, in decimal.
+     * @param clientId The ID of the client that issued the command.
+     * @param requestId The ID of the request among those of the client.
+     */
+    public Command(Opcode opcode, String key, String value, String expected, long clientId, long requestId) {
+        this(opcode, key, value, expected, clientId, requestId, key.getBytes(StandardCharsets.UTF_8),
+                value != null ? value.getBytes(StandardCharsets.UTF_8) : null,
+                expected != null ? expected.getBytes(StandardCharsets.UTF_8) : null, null);
+    }
+
+    private Command(Opcode opcode, String key, String value, String expected, long clientId, long requestId,
+            byte[] keyBytes, byte[] valueBytes, byte[] expectedBytes, PayloadRef payloadRef) {
+        this.opcode = opcode;
+        this.key = key;
+        this.value = value;
+        this.expected = expected;
+        this.clientId = clientId;
+        this.requestId = requestId;
+        this.keyBytes = keyBytes;
+        this.valueBytes = valueBytes;
+        this.expectedBytes = expectedBytes;
+        this.payloadRef = payloadRef;
+    }
+
+    /**
+     * Returns a copy of the command whose value has been uploaded to the learners as a
+     * payload, carrying only the description of the payload.
+     * 
+     * @param ref The description of the payload holding the value.
+     * @return The command with the PayloadRef in place of its value.
+     */
+    public Command withPayload(PayloadRef ref) {
+        String encoded = ref.encode();
+        return new Command(opcode, key, encoded, expected, clientId, requestId, keyBytes,
+                encoded.getBytes(StandardCharsets.UTF_8), expectedBytes, ref);
+    }
+
+    /**
+     * Returns a copy of the command with the value of its payload swapped back in.
+     * 
+     * @param value The value the payload holds.
+     * @return The command with its value.
+     */
+    public Command withValue(String value) {
+        return new Command(opcode, key, value, expected, clientId, requestId);
+    }
+
+    /**
+     * Returns the operation of the command.
+     * 
+     * @return The opcode.
+     */
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Returns the key the command applies to.
+     * 
+     * @return The key.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value of the command.
+     * 
+     * @return The value, or null if the operation takes none.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Tells whether the value of the command is larger than paxos.largeValueBytes, so that it
+     * is better uploaded to the learners as a payload than sent through PAXOS.
+     * 
+     * @return true for a command that carries a large value itself.
+     */
+    public boolean isLarge() {
+        return PaxosConfig.LARGE_VALUE_BYTES > 0 && payloadRef == null && valueBytes != null
+                && valueBytes.length > PaxosConfig.LARGE_VALUE_BYTES;
+    }
+
+    /**
+     * Returns the description of the payload the value of the command was uploaded as.
+     * 
+     * @return The PayloadRef, or null if the command carries its value.
+     */
+    public PayloadRef getPayloadRef() {
+        return payloadRef;
+    }
+
+    /**
+     * Returns the value the key has to hold for a conditional command to take effect.
+     * 
+     * @return The expected value, the expected version in decimal for CAS_VERSION, or null
+     *         if the operation takes none.
+     */
+    public String getExpected() {
+        return expected;
+    }
+
+    /**
+     * Returns the ID of the client that issued the command.
+     * 
+     * @return The client ID.
+     */
+    public long getClientId() {
+        return clientId;
+    }
+
+    /**
+     * Returns the ID of the request among those of the client.
+     * 
+     * @return The request ID.
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Returns the number of bytes the command takes up in a batch.
+     * 
+     * @return The encoded size of the command.
+     */
+    public int encodedSize() {
+        int size = HEADER_BYTES + keyBytes.length + (valueBytes != null ? valueBytes.length : 0);
+        if (opcode.takesExpected()) {
+            size += 4 + (expectedBytes != null ? expectedBytes.length : 0);
+        }
+        return size;
+    }
+
+    /**
+     * Encodes a batch of commands into a single PAXOS value.
+     * 
+     * @param commands The commands of the batch, in order.
+     * @return The encoded batch.
+     */
+    public static byte[] encodeBatch(List<Command> commands) {
+        int size = 4;
+        for (Command command : commands) {
+            size += command.encodedSize();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(commands.size());
+        for (Command command : commands) {
+            buffer.put((byte) (command.opcode.getCode() | (command.payloadRef != null ? PAYLOAD_FLAG : 0)));
+            buffer.putLong(command.clientId);
+            buffer.putLong(command.requestId);
+            buffer.putInt(command.keyBytes.length);
+            buffer.put(command.keyBytes);
+            putBytes(buffer, command.valueBytes);
+            if (command.opcode.takesExpected()) {
+                putBytes(buffer, command.expectedBytes);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a PAXOS value into the batch of commands it holds.
+     * 
+     * @param batch The encoded batch.
+     * @return The commands of the batch, in order; empty for the no-op.
+     * @throws IllegalArgumentException If the value is not a valid batch.
+     */
+    public static List<Command> decodeBatch(byte[] batch) {
+        if (batch.length == 0) {
+            return Collections.emptyList();
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            int count = buffer.getInt();
+            List<Command> commands = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte code = buffer.get();
+                Opcode opcode = Opcode.fromCode((byte) (code & ~PAYLOAD_FLAG));
+                long clientId = buffer.getLong();
+                long requestId = buffer.getLong();
+                byte[] keyBytes = new byte[buffer.getInt()];
+                buffer.get(keyBytes);
+                byte[] valueBytes = getBytes(buffer);
+                byte[] expectedBytes = opcode.takesExpected() ? getBytes(buffer) : null;
+                String value = toString(valueBytes);
+                PayloadRef ref = (code & PAYLOAD_FLAG) != 0 ? PayloadRef.decode(value) : null;
+                commands.add(new Command(opcode, new String(keyBytes, StandardCharsets.UTF_8), value,
+                        toString(expectedBytes), clientId, requestId, keyBytes, valueBytes, expectedBytes, ref));
+            }
+            return commands;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed command batch of " + batch.length + " bytes", e);
+        }
+    }
+
+    /**
+     * Returns the payloads a batch of commands refers to, without decoding its keys and
+     * values, so that a learner can fetch them before it applies the batch.
+     * 
+     * @param batch The encoded batch.
+     * @return The descriptions of the payloads, in the order of the commands; usually empty.
+     * @throws IllegalArgumentException If the value is not a valid batch.
+     */
+    public static List<PayloadRef> payloadRefs(byte[] batch) {
+        if (batch.length == 0) {
+            return Collections.emptyList();
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            int count = buffer.getInt();
+            List<PayloadRef> refs = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                byte code = buffer.get();
+                Opcode opcode = Opcode.fromCode((byte) (code & ~PAYLOAD_FLAG));
+                buffer.position(buffer.position() + 16);
+                skipBytes(buffer);
+                if ((code & PAYLOAD_FLAG) != 0) {
+                    refs.add(PayloadRef.decode(toString(getBytes(buffer))));
+                } else {
+                    skipBytes(buffer);
+                }
+                if (opcode.takesExpected()) {
+                    skipBytes(buffer);
+                }
+            }
+            return refs;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed command batch of " + batch.length + " bytes", e);
+        }
+    }
+
+    /**
+     * Writes a byte array with its length, or a length of -1 for null.
+     * 
+     * @param buffer The buffer to write to.
+     * @param bytes The bytes to write, or null.
+     */
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes != null) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        } else {
+            buffer.putInt(-1);
+        }
+    }
+
+    /**
+     * Reads a byte array written by putBytes.
+     * 
+     * @param buffer The buffer to read from.
+     * @return The bytes, or null if a length of -1 was written.
+     */
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Skips a byte array written by putBytes.
+     * 
+     * @param buffer The buffer to read from.
+     */
+    private static void skipBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length > 0) {
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    /**
+     * Decodes UTF-8 bytes.
+     * 
+     * @param bytes The bytes to decode, or null.
+     * @return The decoded string, or null for null.
+     */
+    private static String toString(byte[] bytes) {
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Returns the command in the text form used in logs, e.g. "PUT key value" or
+     * "CAS key expected value". Large values are only described.
+     * 
+     * @return The command as text.
+     */
+    @Override
+    public String toString() {
+        String shown = payloadRef != null ? "<" + payloadRef + ">"
+                : isLarge() ? "<" + valueBytes.length + " bytes>" : value;
+        return opcode + " " + key + (expected != null ? " " + expected : "") + (shown != null ? " " + shown : "");
+    }
+}
@@ -0,0 +1,200 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * CommandBatcher sits in front of consensus and groups the commands that arrive within a
+ * small time window, or until a size limit is hit, into a single proposal value. Up to a
+ * configurable number of batches are decided concurrently; while that pipeline is full,
+ * new commands keep joining the next batch. Each caller gets back a future that completes
+ * once its batch has been decided.
+ */
+public class CommandBatcher {
+
+    /**
+     * Decides a batch of commands using PAXOS.
+     */
+    public interface BatchDecider {
+
+        /**
+         * Gets consensus on the given batch of commands, in order.
+         * 
+         * @param commands The commands in the batch.
+         * @return true if the batch was chosen, false otherwise.
+         */
+        boolean decide(List<Command> commands);
+    }
+
+    private final BatchDecider decider;
+    private final long windowNanos;
+    private final int maxBatchBytes;
+    private final BlockingQueue<PendingCommand> queue;
+    private final Semaphore inFlight;
+    private final ExecutorService pipeline;
+    private final BatchStats stats;
+    private PendingCommand carryOver;
+    private static final Logger logger = LoggerConfig.createLogger("Proposer");
+
+    /**
+     * Constructs a CommandBatcher and starts its flushing thread.
+     * 
+     * @param decider The decider batches are handed to.
+     * @param windowMs How long a batch stays open after its first command, in milliseconds.
+     * @param maxBatchBytes The size at which a batch is closed early, in bytes.
+     * @param maxInFlight How many batches may be decided concurrently.
+     */
+    public CommandBatcher(BatchDecider decider, long windowMs, int maxBatchBytes, int maxInFlight) {
+        this.decider = decider;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        this.maxBatchBytes = maxBatchBytes;
+        this.queue = new LinkedBlockingQueue<>();
+        this.inFlight = new Semaphore(maxInFlight);
+        this.pipeline = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, "CommandBatcher-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.stats = new BatchStats();
+        Thread flusher = new Thread(this::run, "CommandBatcher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Adds a command to the current batch.
+     * 
+     * @param command The command to get consensus on.
+     * @return A future that completes with true once the batch is chosen, or false if the
+     *         batch failed to get consensus.
+     */
+    public CompletableFuture<Boolean> submit(Command command) {
+        return submitAll(Collections.singletonList(command));
+    }
+
+    /**
+     * Adds several commands to the current batch together, so that they are decided in the
+     * same batch and applied atomically. If they exceed the size limit on their own, they
+     * make up a batch by themselves.
+     * 
+     * @param commands The commands to get consensus on, in order.
+     * @return A future that completes with true once the batch is chosen, or false if the
+     *         batch failed to get consensus.
+     */
+    public CompletableFuture<Boolean> submitAll(List<Command> commands) {
+        PendingCommand pending = new PendingCommand(commands);
+        queue.add(pending);
+        return pending.result;
+    }
+
+    /**
+     * Returns the statistics of the batches decided so far.
+     * 
+     * @return The batch statistics.
+     */
+    public BatchStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Collects batches from the queue and hands them to the decider until interrupted. A
+     * new batch is only opened once a slot in the pipeline is free.
+     */
+    private void run() {
+        try {
+            while (true) {
+                inFlight.acquire();
+                List<PendingCommand> batch = nextBatch();
+                pipeline.execute(() -> {
+                    try {
+                        flush(batch);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the first command and collects more until the window closes or the next
+     * command would exceed the size limit.
+     * 
+     * @return The commands of the next batch.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private List<PendingCommand> nextBatch() throws InterruptedException {
+        PendingCommand first = carryOver != null ? carryOver : queue.take();
+        carryOver = null;
+        List<PendingCommand> batch = new ArrayList<>();
+        batch.add(first);
+        int bytes = first.size;
+        long deadline = System.nanoTime() + windowNanos;
+        while (bytes < maxBatchBytes) {
+            PendingCommand next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            if (bytes + next.size > maxBatchBytes) {
+                carryOver = next;
+                break;
+            }
+            batch.add(next);
+            bytes += next.size;
+        }
+        return batch;
+    }
+
+    /**
+     * Hands a batch to the decider and completes the futures of its commands.
+     * 
+     * @param batch The commands of the batch.
+     */
+    private void flush(List<PendingCommand> batch) {
+        List<Command> commands = new ArrayList<>(batch.size());
+        int bytes = 0;
+        for (PendingCommand pending : batch) {
+            commands.addAll(pending.commands);
+            bytes += pending.size;
+        }
+        stats.record(commands.size(), bytes);
+
+        boolean chosen;
+        try {
+            chosen = decider.decide(commands);
+        } catch (RuntimeException e) {
+            logger.warning("Batch of " + commands.size() + " commands failed: " + e);
+            chosen = false;
+        }
+        for (PendingCommand pending : batch) {
+            pending.result.complete(chosen);
+        }
+    }
+
+    /**
+     * Commands that were submitted together and are waiting for their batch to be decided.
+     */
+    private static final class PendingCommand {
+        private final List<Command> commands;
+        private final int size;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        private PendingCommand(List<Command> commands) {
+            this.commands = commands;
+            int bytes = 0;
+            for (Command command : commands) {
+                bytes += command.encodedSize();
+            }
+            this.size = bytes;
+        }
+    }
+}
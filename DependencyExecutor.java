@@ -0,0 +1,260 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DependencyExecutor executes the committed instances of the dependency-tracking consensus
+ * mode in an order every learner agrees on. An instance is executed once everything it
+ * depends on has been committed: the strongly connected components of the dependency graph
+ * are found with Tarjan's algorithm and executed dependencies first, and the instances within
+ * a component by sequence number, with the instance ID breaking ties. Instances that do not
+ * depend on each other are executed in whatever order they are committed.
+ * 
+ * For every leader the executor remembers the number up to which all instances have been
+ * executed, plus the executed instances above it, so that the set of executed instances
+ * stays small.
+ */
+public class DependencyExecutor {
+
+    /**
+     * Executes a single instance.
+     */
+    public interface Action {
+
+        /**
+         * Executes an instance. Called once per instance, in dependency order.
+         * 
+         * @param instance The instance to execute.
+         */
+        void execute(Instance instance);
+    }
+
+    private static final Comparator<Instance> EXECUTION_ORDER = Comparator
+            .comparingLong((Instance instance) -> instance.getAttributes().getSeq())
+            .thenComparing(Instance::getId);
+
+    private final Action action;
+    private final Map<InstanceId, Instance> committed;
+    private final Map<InstanceId, Set<InstanceId>> blockedOn;
+    private final Map<Integer, Long> executedUpTo;
+    private final Map<Integer, Set<Long>> executedAbove;
+    private final Set<InstanceId> awaited;
+
+    /**
+     * Constructs a DependencyExecutor.
+     * 
+     * @param action Executes the instances.
+     */
+    public DependencyExecutor(Action action) {
+        this.action = action;
+        this.committed = new HashMap<>();
+        this.blockedOn = new HashMap<>();
+        this.executedUpTo = new HashMap<>();
+        this.executedAbove = new HashMap<>();
+        this.awaited = new HashSet<>();
+    }
+
+    /**
+     * Adds a committed instance and executes it, along with every instance that was waiting
+     * for it, as far as their dependencies allow.
+     * 
+     * @param instance The committed instance.
+     */
+    public synchronized void committed(Instance instance) {
+        InstanceId id = instance.getId();
+        if (isExecuted(id) || committed.containsKey(id)) {
+            return;
+        }
+        committed.put(id, instance);
+        Deque<InstanceId> ready = new ArrayDeque<>();
+        ready.add(id);
+        Set<InstanceId> unblocked = blockedOn.remove(id);
+        if (unblocked != null) {
+            ready.addAll(unblocked);
+        }
+        while (!ready.isEmpty()) {
+            InstanceId next = ready.poll();
+            if (committed.containsKey(next)) {
+                execute(next, ready);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Tells whether an instance has been executed.
+     * 
+     * @param id The ID of the instance.
+     * @return true if the instance has been executed.
+     */
+    public synchronized boolean isExecuted(InstanceId id) {
+        Long upTo = executedUpTo.get(id.getLeader());
+        if (upTo != null && id.getNumber() <= upTo) {
+            return true;
+        }
+        Set<Long> above = executedAbove.get(id.getLeader());
+        return above != null && above.contains(id.getNumber());
+    }
+
+    /**
+     * Waits until every given instance has been executed. Instances that have not even been
+     * committed yet are reported by getMissing while the wait lasts.
+     * 
+     * @param ids The instances to wait for.
+     * @param timeoutMs How long to wait, in milliseconds.
+     * @return true if every instance has been executed, false if the wait timed out.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitExecuted(Collection<InstanceId> ids, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        List<InstanceId> waiting = new ArrayList<>();
+        try {
+            for (InstanceId id : ids) {
+                while (!isExecuted(id)) {
+                    if (!committed.containsKey(id) && awaited.add(id)) {
+                        waiting.add(id);
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+            return true;
+        } finally {
+            awaited.removeAll(waiting);
+        }
+    }
+
+    /**
+     * Returns the instances that committed instances or waiting reads depend on, but that
+     * have not been committed here, so that they can be fetched from the acceptors.
+     * 
+     * @return The missing instances.
+     */
+    public synchronized Set<InstanceId> getMissing() {
+        Set<InstanceId> missing = new TreeSet<>(blockedOn.keySet());
+        missing.addAll(awaited);
+        missing.removeIf(id -> committed.containsKey(id) || isExecuted(id));
+        return missing;
+    }
+
+    /**
+     * Returns the number up to which every instance of each leader has been executed.
+     * 
+     * @return The executed instance number, keyed by the ID of the leader.
+     */
+    public synchronized Map<Integer, Long> getExecutedUpTo() {
+        return new HashMap<>(executedUpTo);
+    }
+
+    /**
+     * Executes an instance with an iterative version of Tarjan's algorithm that only walks
+     * committed instances which have not been executed yet. Each strongly connected
+     * component is executed as soon as it is complete, since every component it depends on
+     * has been executed by then. If a dependency has not been committed, the walk stops and
+     * the instance is retried once that dependency is committed.
+     * 
+     * @param start The instance to execute.
+     * @param ready Receives the instances that become worth retrying.
+     */
+    private void execute(InstanceId start, Deque<InstanceId> ready) {
+        Map<InstanceId, Integer> index = new HashMap<>();
+        Map<InstanceId, Integer> lowLink = new HashMap<>();
+        Deque<InstanceId> stack = new ArrayDeque<>();
+        Set<InstanceId> onStack = new HashSet<>();
+        Deque<Map.Entry<InstanceId, Iterator<InstanceId>>> path = new ArrayDeque<>();
+
+        visit(start, index, lowLink, stack, onStack, path);
+        while (!path.isEmpty()) {
+            Map.Entry<InstanceId, Iterator<InstanceId>> frame = path.peek();
+            InstanceId id = frame.getKey();
+            if (frame.getValue().hasNext()) {
+                InstanceId dep = frame.getValue().next();
+                if (isExecuted(dep)) {
+                    continue;
+                }
+                if (!committed.containsKey(dep)) {
+                    blockedOn.computeIfAbsent(dep, missing -> new HashSet<>()).add(start);
+                    return;
+                }
+                if (!index.containsKey(dep)) {
+                    visit(dep, index, lowLink, stack, onStack, path);
+                } else if (onStack.contains(dep)) {
+                    lowLink.put(id, Math.min(lowLink.get(id), index.get(dep)));
+                }
+                continue;
+            }
+
+            path.pop();
+            if (!path.isEmpty()) {
+                InstanceId parent = path.peek().getKey();
+                lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(id)));
+            }
+            if (lowLink.get(id).equals(index.get(id))) {
+                List<Instance> component = new ArrayList<>();
+                InstanceId member;
+                do {
+                    member = stack.pop();
+                    onStack.remove(member);
+                    component.add(committed.remove(member));
+                } while (!member.equals(id));
+                component.sort(EXECUTION_ORDER);
+                for (Instance instance : component) {
+                    action.execute(instance);
+                    markExecuted(instance.getId());
+                    Set<InstanceId> unblocked = blockedOn.remove(instance.getId());
+                    if (unblocked != null) {
+                        ready.addAll(unblocked);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts visiting an instance in Tarjan's algorithm.
+     * 
+     * @param id The instance to visit.
+     * @param index The order in which the instances were visited.
+     * @param lowLink The lowest index reachable from each instance on the stack.
+     * @param stack The instances whose component is not complete yet.
+     * @param onStack The instances on the stack.
+     * @param path The instances being visited, with the dependencies left to walk.
+     */
+    private void visit(InstanceId id, Map<InstanceId, Integer> index, Map<InstanceId, Integer> lowLink,
+            Deque<InstanceId> stack, Set<InstanceId> onStack, Deque<Map.Entry<InstanceId, Iterator<InstanceId>>> path) {
+        index.put(id, index.size());
+        lowLink.put(id, index.get(id));
+        stack.push(id);
+        onStack.add(id);
+        path.push(Map.entry(id, committed.get(id).getAttributes().getDeps().iterator()));
+    }
+
+    /**
+     * Records that an instance has been executed, advancing the executed number of its
+     * leader past every instance that has been executed without a gap.
+     * 
+     * @param id The ID of the executed instance.
+     */
+    private void markExecuted(InstanceId id) {
+        long upTo = executedUpTo.getOrDefault(id.getLeader(), -1L);
+        Set<Long> above = executedAbove.computeIfAbsent(id.getLeader(), leader -> new HashSet<>());
+        above.add(id.getNumber());
+        while (above.remove(upTo + 1)) {
+            upTo++;
+        }
+        executedUpTo.put(id.getLeader(), upTo);
+    }
+}
@@ -0,0 +1,469 @@
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * EPaxosLeader commits batches of commands in the dependency-tracking consensus mode, in the
+ * style of EPaxos. Instead of putting every batch into the next slot of one log, each batch
+ * becomes an instance that only depends on the earlier instances touching the same keys, so
+ * batches on disjoint keys neither wait for each other nor need a shared leader.
+ * 
+ * The leader pre-accepts an instance at every acceptor. If all of them report the same
+ * dependencies, the instance is committed after that single round trip (fast path).
+ * Otherwise the leader merges the dependencies of a majority and has a majority accept them
+ * first (slow path). Since the leader is not an acceptor itself, the fast path needs every
+ * acceptor instead of a fast quorum among replicas.
+ * 
+ * Only the leader of an instance ever proposes attributes for it, so instances have no
+ * ballots. Instances the leader abandoned, e.g. because a phase timed out or the leader
+ * restarted, are finished by recover: with the attributes a majority accepted, by running
+ * the instance again if some acceptor pre-accepted it, or with a no-op otherwise.
+ */
+public class EPaxosLeader {
+    private final int leaderId;
+    private final Map<Integer, Acceptor> acceptors;
+    private final Map<Integer, Learner> learners;
+    private final ExecutorService rpcExecutor;
+    private final Map<String, InstanceId> lastByKey;
+    private final Set<Long> inFlight;
+    private final Set<Long> committedAbove;
+    private final AtomicLong fastPath;
+    private final AtomicLong slowPath;
+    private final AtomicLong recovered;
+    private volatile boolean started;
+    private long nextNumber;
+    private long committedUpTo;
+    private static final Logger logger = LoggerConfig.createLogger("Proposer");
+
+    /**
+     * Constructs an EPaxosLeader. It finds out where its instance numbers continue from the
+     * acceptors when it commits its first batch.
+     * 
+     * @param leaderId The ID of the proposer, which names its instances.
+     * @param acceptors The acceptors of the PAXOS group, keyed by their ID.
+     * @param learners The learners of the PAXOS group, keyed by their ID.
+     * @param rpcExecutor The executor remote calls are made on.
+     */
+    public EPaxosLeader(int leaderId, Map<Integer, Acceptor> acceptors, Map<Integer, Learner> learners,
+            ExecutorService rpcExecutor) {
+        this.leaderId = leaderId;
+        this.acceptors = acceptors;
+        this.learners = learners;
+        this.rpcExecutor = rpcExecutor;
+        this.lastByKey = new ConcurrentHashMap<>();
+        this.inFlight = new HashSet<>();
+        this.committedAbove = new HashSet<>();
+        this.fastPath = new AtomicLong();
+        this.slowPath = new AtomicLong();
+        this.recovered = new AtomicLong();
+        this.committedUpTo = -1;
+    }
+
+    /**
+     * Commits a batch of commands as a new instance. The instance depends on this leader's
+     * previous instance on each of its keys, because acceptors that missed that instance
+     * would not report it.
+     * 
+     * @param commands The commands in the batch.
+     * @return true if the instance was committed, false if it was abandoned.
+     */
+    public boolean decide(List<Command> commands) {
+        if (!ensureStarted()) {
+            return false;
+        }
+        long number;
+        synchronized (inFlight) {
+            number = nextNumber++;
+            inFlight.add(number);
+        }
+        InstanceId id = new InstanceId(leaderId, number);
+        try {
+            Set<InstanceId> deps = new TreeSet<>();
+            for (Command command : commands) {
+                InstanceId previous = lastByKey.put(command.getKey(), id);
+                if (previous != null && !previous.equals(id)) {
+                    deps.add(previous);
+                }
+            }
+            return run(id, Command.encodeBatch(commands), new InstanceAttributes(0, deps));
+        } finally {
+            synchronized (inFlight) {
+                inFlight.remove(number);
+            }
+        }
+    }
+
+    /**
+     * Returns the instances a linearizable read of the given keys has to wait for: the
+     * newest instance of every leader touching the keys at a majority of acceptors. Every
+     * write to the keys that completed before the read is one of them or one of their
+     * dependencies.
+     * 
+     * @param keys The keys to read.
+     * @return The instances to wait for.
+     * @throws RemoteException If no majority of acceptors responds.
+     */
+    public Set<InstanceId> interfering(List<String> keys) throws RemoteException {
+        List<Callable<Set<InstanceId>>> calls = new ArrayList<>();
+        for (Acceptor acceptor : acceptors.values()) {
+            calls.add(() -> acceptor.getInterfering(keys));
+        }
+        List<Set<InstanceId>> replies = awaitQuorum(calls, reply -> true, 0);
+        if (replies == null) {
+            throw new RemoteException("Could not reach a majority of acceptors to serve a linearizable read");
+        }
+        Set<InstanceId> instances = new TreeSet<>();
+        for (Set<InstanceId> reply : replies) {
+            instances.addAll(reply);
+        }
+        return instances;
+    }
+
+    /**
+     * Finishes every instance of this leader that is neither committed nor in flight.
+     */
+    public synchronized void recover() {
+        if (!ensureStarted()) {
+            return;
+        }
+        long from;
+        synchronized (committedAbove) {
+            from = committedUpTo + 1;
+        }
+        long until;
+        synchronized (inFlight) {
+            until = nextNumber;
+        }
+        while (from < until) {
+            long batchEnd = Math.min(until, from + PaxosConfig.CATCH_UP_BATCH_SLOTS);
+            List<Long> candidates = new ArrayList<>();
+            for (long number = from; number < batchEnd; number++) {
+                if (!isCommitted(number) && !isInFlight(number)) {
+                    candidates.add(number);
+                }
+            }
+            if (!candidates.isEmpty() && !recoverBatch(candidates, batchEnd)) {
+                return;
+            }
+            from = batchEnd;
+        }
+    }
+
+    /**
+     * Returns how many instances were committed on the fast path, on the slow path and by
+     * recovery.
+     * 
+     * @return The statistics of this leader.
+     */
+    public String getStats() {
+        return "fastPath=" + fastPath.get() + " slowPath=" + slowPath.get() + " recovered=" + recovered.get();
+    }
+
+    /**
+     * Reads the number of the last instance of this leader from the acceptors the first
+     * time it is called, so that a restarted leader never reuses an instance number. The
+     * leader waits for every acceptor for up to a phase, since an instance that only one
+     * acceptor knows of must not be reused either.
+     * 
+     * @return true if the leader knows where its instance numbers continue.
+     */
+    private boolean ensureStarted() {
+        if (started) {
+            return true;
+        }
+        synchronized (this) {
+            if (started) {
+                return true;
+            }
+            List<Callable<Map<Integer, Long>>> calls = new ArrayList<>();
+            for (Acceptor acceptor : acceptors.values()) {
+                calls.add(acceptor::getLastInstances);
+            }
+            List<Map<Integer, Long>> replies = awaitQuorum(calls, reply -> true, PaxosConfig.PHASE_TIMEOUT_MS);
+            if (replies == null) {
+                return false;
+            }
+            long last = -1;
+            for (Map<Integer, Long> reply : replies) {
+                last = Math.max(last, reply.getOrDefault(leaderId, -1L));
+            }
+            synchronized (inFlight) {
+                nextNumber = last + 1;
+            }
+            started = true;
+            logger.info("Leader " + leaderId + " continues from instance " + (last + 1));
+            return true;
+        }
+    }
+
+    /**
+     * Recovers a batch of instances from what the acceptors know of them.
+     * 
+     * @param candidates The numbers of the instances to recover, in order.
+     * @param batchEnd The number after the last instance of the batch.
+     * @return true if a majority of acceptors reported their instances.
+     */
+    private boolean recoverBatch(List<Long> candidates, long batchEnd) {
+        long first = candidates.get(0);
+        List<Callable<List<Instance>>> calls = new ArrayList<>();
+        for (Acceptor acceptor : acceptors.values()) {
+            calls.add(() -> acceptor.getInstances(leaderId, first, (int) (batchEnd - first)));
+        }
+        List<List<Instance>> replies = awaitQuorum(calls, reply -> true, PaxosConfig.PHASE_TIMEOUT_MS);
+        if (replies == null) {
+            return false;
+        }
+        Map<Long, List<Instance>> states = new HashMap<>();
+        for (List<Instance> reply : replies) {
+            for (Instance instance : reply) {
+                states.computeIfAbsent(instance.getId().getNumber(), number -> new ArrayList<>()).add(instance);
+            }
+        }
+        for (long number : candidates) {
+            if (!isInFlight(number)) {
+                recoverInstance(new InstanceId(leaderId, number), states.getOrDefault(number, Collections.emptyList()));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finishes an abandoned instance. An instance committed at some acceptor only needs to
+     * be recorded as committed, since learners fetch it from there. Attributes accepted on
+     * the slow path are committed as they are. An instance that was only pre-accepted is run
+     * again, for which acceptors that pre-accepted it report the attributes they reported
+     * before; if every acceptor did, the instance may have been committed on the fast path
+     * and is committed with the same attributes again. An instance no acceptor of a
+     * majority knows of cannot have been committed and is filled with a no-op.
+     * 
+     * @param id The ID of the instance.
+     * @param states The instance as reported by the acceptors that know of it.
+     */
+    private void recoverInstance(InstanceId id, List<Instance> states) {
+        Instance preAccepted = null;
+        Instance accepted = null;
+        for (Instance state : states) {
+            if (state.getStatus() == InstanceStatus.COMMITTED) {
+                markCommitted(id.getNumber());
+                return;
+            }
+            if (state.getStatus() == InstanceStatus.ACCEPTED) {
+                accepted = state;
+            } else {
+                preAccepted = state;
+            }
+        }
+
+        boolean done;
+        if (accepted != null) {
+            done = runAccept(accepted);
+        } else if (preAccepted != null) {
+            done = run(id, preAccepted.getValue(), InstanceAttributes.NONE);
+        } else {
+            done = runAccept(new Instance(id, ReplicatedLog.NOOP, InstanceAttributes.NONE, InstanceStatus.ACCEPTED));
+        }
+        if (done) {
+            recovered.incrementAndGet();
+            logger.info("Recovered instance " + id);
+        }
+    }
+
+    /**
+     * Pre-accepts an instance and commits it on the fast path if every acceptor reported
+     * the same attributes, or on the slow path otherwise.
+     * 
+     * @param id The ID of the instance.
+     * @param value The encoded batch of commands of the instance.
+     * @param initial The dependencies the leader knows of.
+     * @return true if the instance was committed.
+     */
+    private boolean run(InstanceId id, byte[] value, InstanceAttributes initial) {
+        List<Callable<InstanceAttributes>> calls = new ArrayList<>();
+        for (Acceptor acceptor : acceptors.values()) {
+            calls.add(() -> acceptor.preAccept(id, value, initial));
+        }
+        List<InstanceAttributes> replies = awaitQuorum(calls, reply -> true, PaxosConfig.FAST_PATH_WAIT_MS);
+        if (replies == null) {
+            return false;
+        }
+
+        InstanceAttributes attributes = replies.get(0);
+        boolean identical = replies.size() == acceptors.size();
+        for (InstanceAttributes reply : replies) {
+            identical &= reply.equals(attributes);
+            attributes = attributes.merge(reply);
+        }
+        if (identical) {
+            fastPath.incrementAndGet();
+            commit(new Instance(id, value, attributes, InstanceStatus.COMMITTED));
+            return true;
+        }
+        slowPath.incrementAndGet();
+        return runAccept(new Instance(id, value, attributes, InstanceStatus.ACCEPTED));
+    }
+
+    /**
+     * Has a majority of acceptors accept the attributes of an instance and commits it.
+     * 
+     * @param instance The instance with its final attributes.
+     * @return true if the instance was committed.
+     */
+    private boolean runAccept(Instance instance) {
+        List<Callable<AcceptResult>> calls = new ArrayList<>();
+        for (Acceptor acceptor : acceptors.values()) {
+            calls.add(() -> acceptor.acceptInstance(instance));
+        }
+        if (awaitQuorum(calls, AcceptResult.ACCEPTED::equals, 0) == null) {
+            return false;
+        }
+        commit(instance.with(instance.getAttributes(), InstanceStatus.COMMITTED));
+        return true;
+    }
+
+    /**
+     * Records an instance as committed and sends it to every learner and acceptor without
+     * waiting for them. Once every acceptor has recorded it, the acceptors report it as a
+     * dependency themselves, so the leader stops adding it to its next instances.
+     * 
+     * @param instance The committed instance.
+     */
+    private void commit(Instance instance) {
+        markCommitted(instance.getId().getNumber());
+        for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
+            rpcExecutor.execute(() -> {
+                try {
+                    entry.getValue().commit(instance);
+                } catch (RemoteException e) {
+                    logger.warning("Learner" + entry.getKey() + " failed to learn instance: " + e.getMessage());
+                }
+            });
+        }
+        AtomicInteger remaining = new AtomicInteger(acceptors.size());
+        for (Map.Entry<Integer, Acceptor> entry : acceptors.entrySet()) {
+            rpcExecutor.execute(() -> {
+                try {
+                    entry.getValue().commitInstance(instance);
+                    if (remaining.decrementAndGet() == 0) {
+                        for (Command command : Command.decodeBatch(instance.getValue())) {
+                            lastByKey.remove(command.getKey(), instance.getId());
+                        }
+                    }
+                } catch (RemoteException e) {
+                    logger.warning("Acceptor" + entry.getKey() + " failed to commit instance: " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Records that an instance of this leader has been committed.
+     * 
+     * @param number The number of the instance.
+     */
+    private void markCommitted(long number) {
+        synchronized (committedAbove) {
+            if (number <= committedUpTo) {
+                return;
+            }
+            committedAbove.add(number);
+            while (committedAbove.remove(committedUpTo + 1)) {
+                committedUpTo++;
+            }
+        }
+    }
+
+    /**
+     * Tells whether an instance of this leader is known to be committed.
+     * 
+     * @param number The number of the instance.
+     * @return true if the instance has been committed.
+     */
+    private boolean isCommitted(long number) {
+        synchronized (committedAbove) {
+            return number <= committedUpTo || committedAbove.contains(number);
+        }
+    }
+
+    /**
+     * Tells whether a call to decide is still working on an instance.
+     * 
+     * @param number The number of the instance.
+     * @return true if the instance is in flight.
+     */
+    private boolean isInFlight(long number) {
+        synchronized (inFlight) {
+            return inFlight.contains(number);
+        }
+    }
+
+    /**
+     * Sends the given calls to all acceptors in parallel and waits until a majority has
+     * voted in favour, a majority can no longer be reached or the phase times out. Once a
+     * majority has voted, the leader waits up to graceMs longer for the remaining acceptors,
+     * which the fast path needs.
+     * 
+     * @param calls One call per acceptor.
+     * @param isVote Tells whether a response counts as a vote in favour.
+     * @param graceMs How long to wait for the remaining acceptors after a majority, in milliseconds.
+     * @return The responses that voted in favour, or null if they are not a majority.
+     */
+    private <T> List<T> awaitQuorum(List<Callable<T>> calls, Predicate<T> isVote, long graceMs) {
+        int majority = acceptors.size() / 2 + 1;
+        CompletionService<T> completionService = new ExecutorCompletionService<>(rpcExecutor);
+        for (Callable<T> call : calls) {
+            completionService.submit(call);
+        }
+
+        List<T> votes = new ArrayList<>();
+        int pending = calls.size();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PaxosConfig.PHASE_TIMEOUT_MS);
+        boolean inGrace = false;
+        try {
+            while (pending > 0 && votes.size() + pending >= majority) {
+                if (!inGrace && votes.size() >= majority) {
+                    deadline = Math.min(deadline, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMs));
+                    inGrace = true;
+                }
+                long remaining = deadline - System.nanoTime();
+                Future<T> done = remaining > 0 ? completionService.poll(remaining, TimeUnit.NANOSECONDS)
+                        : completionService.poll();
+                if (done == null) {
+                    if (!inGrace) {
+                        logger.warning("Phase timed out with " + votes.size() + " of " + majority + " votes.");
+                    }
+                    break;
+                }
+                pending--;
+                try {
+                    T response = done.get();
+                    if (isVote.test(response)) {
+                        votes.add(response);
+                    }
+                } catch (ExecutionException e) {
+                    logger.warning("Acceptor call failed: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return votes.size() >= majority ? votes : null;
+    }
+}
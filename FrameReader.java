@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * FrameReader splits the bytes read from a socket into length-prefixed frames. Each frame is
+ * an int length followed by that many bytes of body. Reads go into a pooled direct buffer;
+ * a frame larger than it is collected in a heap buffer of its own size, which is dropped once
+ * the frame is complete.
+ */
+public class FrameReader {
+
+    /** The largest frame body accepted, in bytes. */
+    public static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    private final BufferPool pool;
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a FrameReader with a buffer from the given pool.
+     * 
+     * @param pool The pool to take the read buffer from.
+     */
+    public FrameReader(BufferPool pool) {
+        this.pool = pool;
+        this.buffer = pool.acquire();
+    }
+
+    /**
+     * Returns the buffer the next socket read should go into. It is in write mode.
+     * 
+     * @return The read buffer.
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the body of the next complete frame in the buffer, if there is one.
+     * 
+     * @return The frame body, or null if more bytes need to be read first.
+     * @throws IOException If the next frame is larger than MAX_FRAME_BYTES.
+     */
+    public byte[] nextFrame() throws IOException {
+        buffer.flip();
+        boolean consumed = false;
+        try {
+            if (buffer.remaining() < 4) {
+                return null;
+            }
+            int length = buffer.getInt(buffer.position());
+            if (length < 0 || length > MAX_FRAME_BYTES) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            if (buffer.remaining() < 4 + length) {
+                if (4 + length > buffer.capacity()) {
+                    grow(4 + length);
+                }
+                return null;
+            }
+            buffer.position(buffer.position() + 4);
+            byte[] body = new byte[length];
+            buffer.get(body);
+            consumed = true;
+            return body;
+        } finally {
+            buffer.compact();
+            if (consumed && !buffer.isDirect() && buffer.position() <= pool.getBufferBytes()) {
+                shrink();
+            }
+        }
+    }
+
+    /**
+     * Returns the read buffer to the pool. The reader must not be used afterwards.
+     */
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Moves the unread bytes into a heap buffer large enough for a big frame.
+     * 
+     * @param capacity The size of the frame including its length prefix.
+     */
+    private void grow(int capacity) {
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        larger.put(buffer);
+        larger.flip();
+        pool.release(buffer);
+        buffer = larger;
+    }
+
+    /**
+     * Moves the unread bytes back into a pooled buffer once a big frame has been consumed.
+     */
+    private void shrink() {
+        ByteBuffer pooled = pool.acquire();
+        buffer.flip();
+        pooled.put(buffer);
+        buffer = pooled;
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * FsyncPolicy decides when the write-ahead log of an acceptor forces its records to disk.
+ */
+public enum FsyncPolicy {
+
+    /** Every record is forced to disk on its own before the acceptor responds. */
+    PER_OP,
+
+    /**
+     * Records written concurrently are forced to disk together by a single fsync before
+     * the acceptor responds.
+     */
+    GROUP,
+
+    /**
+     * Records are forced to disk by a background thread at a fixed interval. The acceptor
+     * responds before its records are durable, so a crash can lose the latest promises and
+     * accepts. Only meant for benchmarking.
+     */
+    PERIODIC
+}
@@ -0,0 +1,84 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * HeapStore keeps the key-value pairs in a ConcurrentHashMap, each as a String key and a
+ * VersionedValue holding a String value. It is the simplest engine, but every entry takes
+ * four objects and a map node on the heap.
+ */
+public class HeapStore implements KeyValueStore {
+    private final Map<String, VersionedValue> entries;
+
+    /**
+     * Constructs an empty HeapStore.
+     */
+    public HeapStore() {
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Looks up a key.
+     * 
+     * @param key The key.
+     * @return The value of the key with its version, or null if the key does not exist.
+     */
+    @Override
+    public VersionedValue get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Stores a value under a key, replacing its current value.
+     * 
+     * @param key The key.
+     * @param value The value with its version.
+     * @return The value the key had before, or null if it did not exist.
+     */
+    @Override
+    public VersionedValue put(String key, VersionedValue value) {
+        return entries.put(key, value);
+    }
+
+    /**
+     * Removes a key.
+     * 
+     * @param key The key.
+     * @return The value the key had, or null if it did not exist.
+     */
+    @Override
+    public VersionedValue remove(String key) {
+        return entries.remove(key);
+    }
+
+    /**
+     * Returns the number of keys in the store.
+     * 
+     * @return The number of keys.
+     */
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Calls the action for every key and its value, through the weakly consistent iteration
+     * of the map.
+     * 
+     * @param action The action to call.
+     */
+    @Override
+    public void forEach(BiConsumer<String, VersionedValue> action) {
+        entries.forEach(action);
+    }
+
+    /**
+     * Returns -1, as the heap taken by the map and its objects is not tracked.
+     * 
+     * @return -1.
+     */
+    @Override
+    public long memoryBytes() {
+        return -1;
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.Serializable;
+
+/**
+ * Instance is a batch of commands in the dependency-tracking consensus mode, together with
+ * its attributes and how far it has got.
+ */
+public final class Instance implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final InstanceId id;
+    private final byte[] value;
+    private final InstanceAttributes attributes;
+    private final InstanceStatus status;
+
+    /**
+     * Constructs an Instance.
+     * 
+     * @param id The ID of the instance.
+     * @param value The encoded batch of commands of the instance.
+     * @param attributes The dependencies and sequence number of the instance.
+     * @param status How far the instance has got.
+     */
+    public Instance(InstanceId id, byte[] value, InstanceAttributes attributes, InstanceStatus status) {
+        this.id = id;
+        this.value = value;
+        this.attributes = attributes;
+        this.status = status;
+    }
+
+    /**
+     * Returns the ID of the instance.
+     * 
+     * @return The ID of the instance.
+     */
+    public InstanceId getId() {
+        return id;
+    }
+
+    /**
+     * Returns the encoded batch of commands of the instance.
+     * 
+     * @return The value of the instance.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the dependencies and sequence number of the instance.
+     * 
+     * @return The attributes of the instance.
+     */
+    public InstanceAttributes getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Returns how far the instance has got.
+     * 
+     * @return The status of the instance.
+     */
+    public InstanceStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns a copy of the instance with another status and attributes.
+     * 
+     * @param attributes The attributes of the copy.
+     * @param status The status of the copy.
+     * @return The copy of the instance.
+     */
+    public Instance with(InstanceAttributes attributes, InstanceStatus status) {
+        return new Instance(id, value, attributes, status);
+    }
+
+    @Override
+    public String toString() {
+        return "Instance " + id + " (" + status + ", " + attributes + ", " + value.length + " bytes)";
+    }
+}
@@ -0,0 +1,79 @@
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * InstanceAttributes are what the acceptors agree on for an instance of the
+ * dependency-tracking consensus mode: the instances it has to be executed after, because
+ * they touch the same keys, and a sequence number that orders the instances of a dependency
+ * cycle.
+ */
+public final class InstanceAttributes implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The attributes of an instance that depends on nothing. */
+    public static final InstanceAttributes NONE = new InstanceAttributes(0, new TreeSet<>());
+
+    private final long seq;
+    private final Set<InstanceId> deps;
+
+    /**
+     * Constructs InstanceAttributes.
+     * 
+     * @param seq The sequence number of the instance.
+     * @param deps The instances the instance depends on.
+     */
+    public InstanceAttributes(long seq, Set<InstanceId> deps) {
+        this.seq = seq;
+        this.deps = Collections.unmodifiableSet(new TreeSet<>(deps));
+    }
+
+    /**
+     * Returns the sequence number of the instance.
+     * 
+     * @return The sequence number.
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Returns the instances the instance depends on.
+     * 
+     * @return The dependencies, in InstanceId order.
+     */
+    public Set<InstanceId> getDeps() {
+        return deps;
+    }
+
+    /**
+     * Returns the attributes that cover both these and the given attributes: the union of
+     * the dependencies and the higher sequence number.
+     * 
+     * @param other The attributes to merge with.
+     * @return The merged attributes.
+     */
+    public InstanceAttributes merge(InstanceAttributes other) {
+        Set<InstanceId> merged = new TreeSet<>(deps);
+        merged.addAll(other.deps);
+        return new InstanceAttributes(Math.max(seq, other.seq), merged);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof InstanceAttributes)) return false;
+        InstanceAttributes attributes = (InstanceAttributes) other;
+        return seq == attributes.seq && deps.equals(attributes.deps);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(seq) * 31 + deps.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "seq=" + seq + " deps=" + deps;
+    }
+}
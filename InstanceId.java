@@ -0,0 +1,65 @@
+import java.io.Serializable;
+
+/**
+ * InstanceId names an instance of the dependency-tracking consensus mode. Every command
+ * leader numbers its own instances, so two leaders never issue the same ID and no leader has
+ * to coordinate with another to start an instance.
+ */
+public final class InstanceId implements Comparable<InstanceId>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int leader;
+    private final long number;
+
+    /**
+     * Constructs an InstanceId.
+     * 
+     * @param leader The ID of the proposer that leads the instance.
+     * @param number The number of the instance among the instances of its leader.
+     */
+    public InstanceId(int leader, long number) {
+        this.leader = leader;
+        this.number = number;
+    }
+
+    /**
+     * Returns the ID of the proposer that leads the instance.
+     * 
+     * @return The ID of the leader.
+     */
+    public int getLeader() {
+        return leader;
+    }
+
+    /**
+     * Returns the number of the instance among the instances of its leader.
+     * 
+     * @return The number of the instance.
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    @Override
+    public int compareTo(InstanceId other) {
+        int byLeader = Integer.compare(leader, other.leader);
+        return byLeader != 0 ? byLeader : Long.compare(number, other.number);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof InstanceId)) return false;
+        InstanceId id = (InstanceId) other;
+        return leader == id.leader && number == id.number;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * leader + Long.hashCode(number);
+    }
+
+    @Override
+    public String toString() {
+        return leader + "." + number;
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * InstanceStatus is how far an instance of the dependency-tracking consensus mode has got at
+ * an acceptor.
+ */
+public enum InstanceStatus {
+
+    /** The acceptor has reported the dependencies it knows of for the instance. */
+    PRE_ACCEPTED,
+
+    /** The acceptor has accepted the dependencies of the instance on the slow path. */
+    ACCEPTED,
+
+    /** The dependencies of the instance are final and learners may execute it. */
+    COMMITTED
+}
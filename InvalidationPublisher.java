@@ -0,0 +1,130 @@
+import java.rmi.RemoteException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * InvalidationPublisher sends the keys a learner changes to the client caches that
+ * subscribed to it. Changes are collected while the learner applies and sent on a thread of
+ * their own, so applying never waits for a client; everything that changed while the last
+ * push was on its way goes out in the next one, with only the newest version of each key.
+ * Once more keys than paxos.invalidationBatchKeys are waiting, they are dropped and the
+ * caches are told to drop everything instead.
+ * 
+ * A cache that cannot be reached is unsubscribed. It finds out the next time it subscribes,
+ * and then drops everything itself, since it may have missed changes.
+ */
+public final class InvalidationPublisher {
+    private final CopyOnWriteArrayList<CacheListener> listeners;
+    private final ExecutorService pusher;
+    private Map<String, Long> pending;
+    private boolean overflowed;
+    private long oldestChangeMillis;
+    private boolean pushing;
+    private final LongAdder pushes;
+    private final LongAdder droppedListeners;
+    private static final Logger logger = LoggerConfig.createLogger("Learner");
+
+    /**
+     * Constructs an InvalidationPublisher.
+     * 
+     * @param metrics The metrics of the learner, to count pushes and unsubscribed caches in.
+     */
+    public InvalidationPublisher(Metrics metrics) {
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.pusher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "InvalidationPublisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pending = new LinkedHashMap<>();
+        this.pushes = metrics.counter("invalidationPushes");
+        this.droppedListeners = metrics.counter("droppedCacheListeners");
+        metrics.gauge("cacheListeners", listeners::size);
+    }
+
+    /**
+     * Subscribes a cache to the changes.
+     * 
+     * @param listener The cache.
+     * @return true if the cache was not subscribed yet.
+     */
+    public boolean subscribe(CacheListener listener) {
+        return listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Tells whether any cache is subscribed, so that the learner only collects changes when
+     * someone wants them.
+     * 
+     * @return true if a cache is subscribed.
+     */
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Records that a key has changed and makes sure a push is on its way.
+     * 
+     * @param key The key.
+     * @param version The version of the key after the change, or 0 if it was deleted.
+     */
+    public synchronized void changed(String key, long version) {
+        if (pending.isEmpty() && !overflowed) {
+            oldestChangeMillis = System.currentTimeMillis();
+        }
+        if (!overflowed) {
+            // A key deleted since the last push keeps version 0, even if it was written again.
+            pending.merge(key, version, (before, after) -> before == 0 || after < before ? 0L : after);
+            if (pending.size() > PaxosConfig.INVALIDATION_BATCH_KEYS) {
+                overflowed = true;
+                pending = new LinkedHashMap<>();
+            }
+        }
+        if (!pushing) {
+            pushing = true;
+            pusher.execute(this::push);
+        }
+    }
+
+    /**
+     * Sends everything that has changed since the last push to every cache, until nothing
+     * more has.
+     */
+    private void push() {
+        while (true) {
+            Map<String, Long> versions;
+            boolean all;
+            long appliedAtMillis;
+            synchronized (this) {
+                if (pending.isEmpty() && !overflowed) {
+                    pushing = false;
+                    return;
+                }
+                versions = pending;
+                all = overflowed;
+                appliedAtMillis = oldestChangeMillis;
+                pending = new LinkedHashMap<>();
+                overflowed = false;
+            }
+            for (CacheListener listener : listeners) {
+                try {
+                    if (all) {
+                        listener.invalidateAll(appliedAtMillis);
+                    } else {
+                        listener.invalidate(versions, appliedAtMillis);
+                    }
+                } catch (RemoteException e) {
+                    listeners.remove(listener);
+                    droppedListeners.increment();
+                    logger.warning("Unsubscribed a cache that could not be reached: " + e.getMessage());
+                }
+            }
+            pushes.increment();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.function.BiConsumer;
+
+/**
+ * KeyValueStore is the storage engine a learner keeps its key-value pairs in. The learner
+ * changes the store from one thread at a time, holding the store's monitor, while reads of
+ * single keys and the background snapshot writer use it without locking. Engines are
+ * chosen with paxos.storeEngine.
+ */
+public interface KeyValueStore {
+
+    /**
+     * Looks up a key. Safe to call while the store is being changed.
+     * 
+     * @param key The key.
+     * @return The value of the key with its version, or null if the key does not exist.
+     */
+    VersionedValue get(String key);
+
+    /**
+     * Stores a value under a key, replacing its current value.
+     * 
+     * @param key The key.
+     * @param value The value with its version.
+     * @return The value the key had before, or null if it did not exist.
+     */
+    VersionedValue put(String key, VersionedValue value);
+
+    /**
+     * Removes a key.
+     * 
+     * @param key The key.
+     * @return The value the key had, or null if it did not exist.
+     */
+    VersionedValue remove(String key);
+
+    /**
+     * Returns the number of keys in the store.
+     * 
+     * @return The number of keys.
+     */
+    int size();
+
+    /**
+     * Calls the action for every key and its value. Safe to call while the store is being
+     * changed: every key that exists throughout the call is visited exactly once, with its
+     * value; keys added, changed or removed during the call may or may not be visited, with
+     * either value.
+     * 
+     * @param action The action to call.
+     */
+    void forEach(BiConsumer<String, VersionedValue> action);
+
+    /**
+     * Returns how much memory the store takes, if the engine keeps track of it.
+     * 
+     * @return The size of the store in bytes, or -1 if it is not known.
+     */
+    long memoryBytes();
+}
@@ -0,0 +1,152 @@
+/**
+ * LatencyHistogram counts latencies in buckets whose width grows with the latency, so that
+ * every recorded value is kept to within 1/64 of its size in a few kilobytes, however many
+ * values are recorded. Values below 128 get a bucket each; above that, every power of two is
+ * split into 64 buckets. A histogram is not thread-safe: every thread records into its own
+ * and the histograms are added up at the end, or records into a shared LatencyRecorder.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    static final int BUCKETS = LINEAR_BUCKETS + (64 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final long[] counts;
+    private long total;
+    private long max;
+
+    /**
+     * Constructs an empty LatencyHistogram.
+     */
+    public LatencyHistogram() {
+        this.counts = new long[BUCKETS];
+    }
+
+    /**
+     * Constructs a LatencyHistogram with the given counts, e.g. copied from a LatencyRecorder.
+     * 
+     * @param counts The count of every bucket, BUCKETS long. The array is kept, not copied.
+     * @param max The highest latency counted.
+     */
+    LatencyHistogram(long[] counts, long max) {
+        this.counts = counts;
+        for (long count : counts) {
+            total += count;
+        }
+        this.max = max;
+    }
+
+    /**
+     * Records a single latency.
+     * 
+     * @param value The latency, in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts[indexOf(value)]++;
+        total++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     * 
+     * @param other The histogram to add.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the latencies recorded since an earlier copy of the same histogram was taken.
+     * The maximum is only known to within a bucket, so it is the highest value of the
+     * highest bucket that changed, capped at the overall maximum.
+     * 
+     * @param earlier The earlier copy.
+     * @return A new histogram with the difference of the counts.
+     */
+    public LatencyHistogram minus(LatencyHistogram earlier) {
+        long[] difference = new long[BUCKETS];
+        long highest = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            difference[i] = counts[i] - earlier.counts[i];
+            if (difference[i] > 0) {
+                highest = Math.min(max, highestValueOf(i));
+            }
+        }
+        return new LatencyHistogram(difference, highest);
+    }
+
+    /**
+     * Returns how many latencies have been recorded.
+     * 
+     * @return The number of recorded latencies.
+     */
+    public long getCount() {
+        return total;
+    }
+
+    /**
+     * Returns the highest latency recorded.
+     * 
+     * @return The maximum latency, in nanoseconds, or 0 if nothing has been recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the latency below which the given fraction of the recorded latencies lie.
+     * 
+     * @param quantile The fraction, e.g. 0.99 for the 99th percentile.
+     * @return The highest latency of the bucket the quantile falls into, in nanoseconds, or 0
+     *         if nothing has been recorded.
+     */
+    public long percentile(double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValueOf(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the bucket a value is counted in.
+     * 
+     * @param value The value, at least 0.
+     * @return The index of the bucket.
+     */
+    static int indexOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the highest value counted in a bucket.
+     * 
+     * @param index The index of the bucket.
+     * @return The highest value of the bucket.
+     */
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long top = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,55 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * LatencyRecorder counts latencies in the buckets of a LatencyHistogram, but can be recorded
+ * into by many threads at once: recording a latency increments a single bucket atomically,
+ * without locking or allocating, so it can sit on the hot path of the PAXOS roles. Reading
+ * the latencies back copies the buckets into a LatencyHistogram.
+ */
+public class LatencyRecorder {
+    private final AtomicLongArray counts;
+    private final LongAccumulator max;
+
+    /**
+     * Constructs an empty LatencyRecorder.
+     */
+    public LatencyRecorder() {
+        this.counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a single latency.
+     * 
+     * @param nanos The latency, in nanoseconds. Negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(LatencyHistogram.indexOf(nanos));
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Records the time that has passed since the given start.
+     * 
+     * @param startNanos The start, as returned by System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Copies the latencies recorded so far. Latencies recorded while the copy is taken may
+     * or may not be part of it.
+     * 
+     * @return A histogram of the recorded latencies.
+     */
+    public LatencyHistogram snapshot() {
+        long[] copy = new long[LatencyHistogram.BUCKETS];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new LatencyHistogram(copy, max.get());
+    }
+}
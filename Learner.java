@@ -1,5 +1,8 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The Learner interface is the role of a Learner in the PAXOS algorithm. The role of 
@@ -11,8 +14,166 @@ public interface Learner extends Remote {
      * The learn method is called to notify the Learner that has been chosen once consensus
      * is achieved.
      * 
+     * @param slot The log slot the value was decided for.
      * @param value The final value decided after gaining consensus.
      * @throws RemoteException If an error occurs during remote communication.
      */
-    void learn(String value) throws RemoteException;
-}
\ No newline at end of file
+    void learn(long slot, byte[] value) throws RemoteException;
+
+    /**
+     * Notifies the Learner that an instance of the dependency-tracking consensus mode has
+     * been committed. The Learner executes it once everything it depends on has been
+     * committed too.
+     * 
+     * @param instance The committed instance.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    void commit(Instance instance) throws RemoteException;
+
+    /**
+     * Reads keys from the key-value store of the Learner once it has executed the given
+     * instances of the dependency-tracking consensus mode, and with them everything they
+     * depend on. All keys are read at the same point.
+     * 
+     * @param keys The keys to read.
+     * @param instances The instances the Learner has to have executed before reading.
+     * @param timeoutMs How long to wait for the Learner to execute them, in milliseconds.
+     * @return The value of each key with its version, in the order of the keys, with null
+     *         for a key that has no value.
+     * @throws RemoteException If the Learner has not executed the instances in time, or if
+     *         an error occurs during remote communication.
+     */
+    List<VersionedValue> readAfter(List<String> keys, Set<InstanceId> instances, long timeoutMs) throws RemoteException;
+
+    /**
+     * Returns the outcome of a conditional command or INCREMENT, waiting until the Learner
+     * has applied it. Every learner applies commands in the same order against the same
+     * state, so every learner computes the same outcome.
+     * 
+     * @param clientId The ID of the client that issued the command.
+     * @param requestId The ID of the request among those of the client.
+     * @param timeoutMs How long to wait for the Learner to apply the command, in milliseconds.
+     * @return The outcome to send back to the client.
+     * @throws RemoteException If the Learner has not applied the command in time, or if an
+     *         error occurs during remote communication.
+     */
+    String awaitOutcome(long clientId, long requestId, long timeoutMs) throws RemoteException;
+
+    /**
+     * Reads keys from the key-value store of the Learner once it has applied every slot up
+     * to the given slot, so that the read reflects every write decided in those slots. All
+     * keys are read at the same slot.
+     * 
+     * @param keys The keys to read.
+     * @param minSlot The slot the Learner has to have applied before reading, or -1.
+     * @param timeoutMs How long to wait for the Learner to apply minSlot, in milliseconds.
+     * @return The value of each key with its version, in the order of the keys, with null
+     *         for a key that has no value.
+     * @throws RemoteException If the Learner has not applied minSlot in time, or if an error
+     *         occurs during remote communication.
+     */
+    List<VersionedValue> read(List<String> keys, long minSlot, long timeoutMs) throws RemoteException;
+
+    /**
+     * Reads a page of the keys in a range, in order, once the Learner has applied every slot
+     * up to the given slot. The whole page is read at the same slot.
+     * 
+     * @param query The range and the maximum number of keys on the page.
+     * @param minSlot The slot the Learner has to have applied before reading, or -1.
+     * @param timeoutMs How long to wait for the Learner to apply minSlot, in milliseconds.
+     * @return The page.
+     * @throws RemoteException If the Learner keeps no ordered index, has not applied minSlot
+     *         in time, or if an error occurs during remote communication.
+     */
+    ScanPage scan(RangeQuery query, long minSlot, long timeoutMs) throws RemoteException;
+
+    /**
+     * Stores one chunk of the payload of a large value, which the proposer uploads before it
+     * runs consensus on the command that refers to the payload.
+     * 
+     * @param ref The description of the payload.
+     * @param index The index of the chunk.
+     * @param chunk The bytes of the chunk.
+     * @throws RemoteException If the chunk does not fit the payload, the complete payload
+     *         does not match its digest, or an error occurs during remote communication.
+     */
+    void storePayloadChunk(PayloadRef ref, int index, byte[] chunk) throws RemoteException;
+
+    /**
+     * Returns one chunk of a payload the Learner holds, so that a Learner that is missing it
+     * can fetch it.
+     * 
+     * @param ref The description of the payload.
+     * @param index The index of the chunk.
+     * @return The bytes of the chunk, or null if the Learner does not hold the whole payload.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    byte[] getPayloadChunk(PayloadRef ref, int index) throws RemoteException;
+
+    /**
+     * Subscribes a client-side cache to the keys this Learner changes from now on. Subscribing
+     * again is harmless, and is how a cache checks that it is still subscribed.
+     * 
+     * @param listener The cache.
+     * @return true if the cache was not subscribed, e.g. because this Learner restarted or
+     *         could not reach it, so that it may have missed changes.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    boolean subscribe(CacheListener listener) throws RemoteException;
+
+    /**
+     * Returns the highest slot up to which the Learner has applied every value.
+     * 
+     * @return The highest contiguous applied slot, or -1 if nothing has been applied.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    long getAppliedUpTo() throws RemoteException;
+
+    /**
+     * Returns the slot of the newest snapshot the Learner has written to disk.
+     * 
+     * @return The slot of the newest snapshot, or -1 if there is none.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    long getSnapshotSlot() throws RemoteException;
+
+    /**
+     * Returns the newest snapshot the Learner has written to disk, so that another replica
+     * can start from it instead of replaying the log.
+     * 
+     * @return The newest snapshot, or null if there is none.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    LearnerSnapshot getSnapshot() throws RemoteException;
+
+    /**
+     * Returns the values decided for a range of slots the Learner has applied, so that a
+     * lagging Learner can catch up in bulk.
+     * 
+     * @param fromSlot The first slot to return.
+     * @param maxSlots The maximum number of slots to return.
+     * @return The decided values keyed by slot, empty if fromSlot has not been applied yet,
+     *         or null if the Learner no longer keeps fromSlot and a snapshot is needed.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    Map<Long, byte[]> getDecided(long fromSlot, int maxSlots) throws RemoteException;
+
+    /**
+     * Returns a Merkle digest of the key-value store of the Learner, so that learners can
+     * find out whether and where they diverge without comparing every key.
+     * 
+     * @return The digest of the key-value store.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    MerkleDigest getDigest() throws RemoteException;
+
+    /**
+     * Returns the entries of the key-value store that fall into one bucket of the Merkle
+     * digest, along with the slot they were read at.
+     * 
+     * @param bucket The index of the bucket.
+     * @return The entries of the bucket.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    LearnerSnapshot getBucket(int bucket) throws RemoteException;
+}
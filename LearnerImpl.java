@@ -1,47 +1,1184 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * LearnerImpl class is the implementation of the Learner interface. It receives the value
- * decided after consensus and updates the key-value store accordingly.
+ * decided after consensus and updates the key-value store accordingly. Learners serve the
+ * GET commands of clients, once they have applied the slot the proposer asks them to read at.
+ * 
+ * Every few slots the learner writes a snapshot of its key-value store to disk in the
+ * background, and on startup it restores the newest snapshot, so that only the slots after it
+ * need to be learned again. Snapshots are copy-on-write: while one is being written, the
+ * first change to each key remembers the value the key had when the snapshot started.
+ * 
+ * A learner that misses values, e.g. because a learn call failed, fetches them in bulk from
+ * a peer that has applied further, or restores a peer's snapshot if the peer no longer keeps
+ * them. Learners also compare Merkle digests of their stores in the background and repair
+ * the buckets in which they disagree with a majority.
+ * 
+ * Every key carries a version that goes up with each write to it. A deleted key leaves a
+ * tombstone with its last version, which snapshots and bucket repairs carry along, so that
+ * a key written again goes on from there and a CASV against an old version cannot succeed
+ * after the key was deleted and recreated. Conditional commands and
+ * INCREMENT are evaluated against the key's current value and version when they are
+ * applied, which is deterministic because every learner applies the same commands in the
+ * same order; the learner remembers the outcome of the most recent ones until the proposer
+ * asks for it.
+ * 
+ * Next to the store the learner keeps its keys in a skip list, so that SCAN and PREFIX can
+ * page through a range of keys in order without looking at the keys outside it.
+ * 
+ * Large values reach the learner out of band: the proposer uploads them into the learner's
+ * PayloadStore before consensus, and the decided commands only carry their PayloadRef. Before
+ * a slot is applied the learner makes sure it holds every payload the slot refers to,
+ * fetching missing ones from its peers, and applies the values the payloads hold. A payload
+ * is kept while a slot that refers to it is in the history peers catch up from, and deleted
+ * paxos.payloadRetentionMs after that.
+ * 
+ * The learner's Metrics record how long each slot waits between arriving and being applied,
+ * how long applying takes and how many slots it is behind the highest one it has heard of.
+ * Client near caches subscribe to the learner, and an InvalidationPublisher pushes them every
+ * key it changes, with the key's new version.
+ * 
+ * In the dependency-tracking mode the learner executes committed instances through a
+ * DependencyExecutor instead of applying slots, and fetches committed instances it is
+ * missing from the acceptors. Snapshots and digests are tied to slots, so learners neither
+ * write snapshots nor compare digests in that mode.
  */
 public class LearnerImpl extends UnicastRemoteObject implements Learner {
-    private final Map<String, String> keyValueStore;
+    // Marks a key that did not exist when the snapshot started. Compared by identity.
+    private static final VersionedValue ABSENT = new VersionedValue("", 0);
+    private static final int OUTCOMES_KEPT = 65536;
+    // Arrival times are kept for this many slots, a power of two, to measure the apply lag.
+    private static final int ARRIVALS_KEPT = 4096;
+
+    private final KeyValueStore keyValueStore;
+    private final ConcurrentSkipListSet<String> orderedKeys;
+    // The last version of every deleted key. Guarded by the lock of the keyValueStore.
+    private final Map<String, Long> tombstones;
+    private final Map<String, String> outcomes;
+    private final ReplicatedLog log;
+    private final Path dataDir;
+    private final ExecutorService snapshotter;
+    private final ScheduledExecutorService maintenance;
+    private final ConcurrentSkipListMap<Long, byte[]> history;
+    private final PayloadStore payloads;
+    // The last slot that referred to each payload, by digest; Long.MAX_VALUE keeps it for good.
+    private final Map<String, Long> payloadSlots;
+    private final long[] bucketHashes;
+    private final InvalidationPublisher invalidations;
+    private volatile Map<Integer, Learner> peers;
+    private final DependencyExecutor instances;
+    private volatile Map<Integer, Acceptor> acceptors;
+    private Map<Integer, Long> lastExecutedUpTo;
+    private long appliedSlot;
+    private volatile Map<String, VersionedValue> snapshotUndo;
+    private volatile long snapshotSlot;
+    private long lastSnapshotStart;
+    private final AtomicLong highestArrivedSlot;
+    private final AtomicLongArray arrivalSlots;
+    private final AtomicLongArray arrivalNanos;
+    private final Metrics metrics;
+    private final LongAdder learnedCount;
+    private final LongAdder caughtUpCount;
+    private final LongAdder committedCount;
+    private final LongAdder payloadsFetched;
+    private final LatencyRecorder applyLatency;
+    private final LatencyRecorder applyLag;
     private static final Logger logger = LoggerConfig.createLogger("Learner");
 
     /**
-     * Contructs a LearnerImpl with mentioned key-value store.
+     * Contructs a LearnerImpl, restoring its key-value store from the newest snapshot in the
+     * given directory.
      * 
-     * @param keyValueStore The key-value store that the learner updates.
+     * @param dataDir The directory the learner keeps its snapshots in.
      * @throws RemoteException If an error occurs during remote communication.
+     * @throws IOException If the snapshot directory cannot be read.
      */
-    protected LearnerImpl(Map<String, String> keyValueStore) throws RemoteException {
+    protected LearnerImpl(Path dataDir) throws RemoteException, IOException {
         super();
-        this.keyValueStore = keyValueStore;
+        this.keyValueStore = PaxosConfig.STORE_ENGINE.newStore();
+        this.orderedKeys = PaxosConfig.ORDERED_INDEX ? new ConcurrentSkipListSet<>() : null;
+        this.tombstones = new HashMap<>();
+        this.outcomes = new LinkedHashMap<String, String>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > OUTCOMES_KEPT;
+            }
+        };
+        this.dataDir = dataDir;
+        this.snapshotter = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LearnerImpl-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LearnerImpl-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.history = new ConcurrentSkipListMap<>();
+        this.payloads = new PayloadStore(dataDir.resolve("payloads"));
+        this.payloadSlots = new ConcurrentHashMap<>();
+        this.bucketHashes = new long[MerkleDigest.BUCKETS];
+        this.peers = new HashMap<>();
+        this.instances = new DependencyExecutor(this::executeInstance);
+        this.acceptors = new HashMap<>();
+        this.lastExecutedUpTo = new HashMap<>();
+        this.highestArrivedSlot = new AtomicLong(-1);
+        this.arrivalSlots = new AtomicLongArray(ARRIVALS_KEPT);
+        this.arrivalNanos = new AtomicLongArray(ARRIVALS_KEPT);
+        this.metrics = new Metrics("Learner");
+        this.learnedCount = metrics.counter("learned");
+        this.caughtUpCount = metrics.counter("caughtUp");
+        this.committedCount = metrics.counter("committed");
+        this.payloadsFetched = metrics.counter("payloadsFetched");
+        this.applyLatency = metrics.histogram("apply");
+        this.applyLag = metrics.histogram("applyLag");
+        this.invalidations = new InvalidationPublisher(metrics);
+
+        LearnerSnapshot snapshot = LearnerSnapshot.loadNewest(dataDir);
+        if (snapshot != null) {
+            for (Map.Entry<String, VersionedValue> entry : snapshot.getEntries().entrySet()) {
+                putEntry(entry.getKey(), entry.getValue());
+            }
+            tombstones.putAll(snapshot.getTombstones());
+            logger.info("Restored " + keyValueStore.size() + " keys from the snapshot at slot " + snapshot.getSlot());
+        }
+        this.snapshotSlot = snapshot != null ? snapshot.getSlot() : -1;
+        this.appliedSlot = snapshotSlot;
+        this.lastSnapshotStart = snapshotSlot;
+        this.log = new ReplicatedLog(this::applyBatch, snapshotSlot + 1);
+        metrics.gauge("appliedSlot", log::getAppliedUpTo);
+        metrics.gauge("bufferedSlots", log::getBufferedCount);
+        metrics.gauge("slotsBehind", () -> Math.max(0, highestArrivedSlot.get() - log.getAppliedUpTo()));
+        metrics.gauge("storeKeys", keyValueStore::size);
+        metrics.gauge("storeBytes", keyValueStore::memoryBytes);
+
+        long sweepInterval = Math.max(1000, PaxosConfig.PAYLOAD_RETENTION_MS / 10);
+        maintenance.scheduleWithFixedDelay(this::sweepPayloads, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        if (PaxosConfig.EPAXOS) {
+            maintenance.scheduleWithFixedDelay(this::catchUpInstances, PaxosConfig.CATCH_UP_INTERVAL_MS,
+                    PaxosConfig.CATCH_UP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        maintenance.scheduleWithFixedDelay(this::catchUp, PaxosConfig.CATCH_UP_INTERVAL_MS,
+                PaxosConfig.CATCH_UP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::compareDigests, PaxosConfig.ANTI_ENTROPY_INTERVAL_MS,
+                PaxosConfig.ANTI_ENTROPY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the other learners this learner catches up from and compares its store with.
+     * 
+     * @param peers The other learners, keyed by their ID.
+     */
+    public void setPeers(Map<Integer, Learner> peers) {
+        this.peers = peers;
+    }
+
+    /**
+     * Sets the acceptors this learner fetches committed instances from in the
+     * dependency-tracking mode.
+     * 
+     * @param acceptors The acceptors, keyed by their ID.
+     */
+    public void setAcceptors(Map<Integer, Acceptor> acceptors) {
+        this.acceptors = acceptors;
     }
 
     /**
      * The learn method is called to notify the Learner that has been chosen once consensus
-     * is achieved.
+     * is achieved. Values are applied strictly in slot order, so a value that arrives before
+     * the slots preceding it is buffered until they have been learned.
+     * 
+     * @param slot The log slot the value was decided for.
+     * @param value The encoded batch of commands decided after gaining consensus.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public void learn(long slot, byte[] value) throws RemoteException {
+        logger.log(Level.INFO, "Value learned for slot {0}: {1} bytes", new Object[]{slot, value.length});
+        learnedCount.increment();
+        arrived(slot, value);
+    }
+
+    /**
+     * Notes when the value of a slot arrived, for the apply lag, and hands it to the log once
+     * the payloads it refers to are at hand. A value whose payloads no peer could provide is
+     * left out of the log, which applies under its lock, and delivered again by catch-up.
+     * 
+     * @param slot The log slot the value was decided for.
+     * @param value The encoded batch of commands.
+     */
+    private void arrived(long slot, byte[] value) {
+        if (!prefetchPayloads(value, slot)) {
+            logger.warning("Slot " + slot + " refers to a payload no peer holds yet; leaving it to catch-up");
+            return;
+        }
+        int index = (int) (slot & (ARRIVALS_KEPT - 1));
+        arrivalNanos.set(index, System.nanoTime());
+        arrivalSlots.set(index, slot);
+        highestArrivedSlot.accumulateAndGet(slot, Math::max);
+        log.decided(slot, value);
+    }
+
+    /**
+     * Notifies the Learner that an instance has been committed. It is executed right away if
+     * everything it depends on has been executed, otherwise once that is the case.
+     * 
+     * @param instance The committed instance.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public void commit(Instance instance) throws RemoteException {
+        logger.log(Level.INFO, "Committed {0}", instance);
+        committedCount.increment();
+        executeWhenHeld(instance);
+    }
+
+    /**
+     * Hands a committed instance to the DependencyExecutor once the payloads it refers to are
+     * at hand. An instance whose payloads no peer could provide is left to catch-up, since the
+     * executor runs instances under its lock.
+     * 
+     * @param instance The committed instance.
+     * @return true if the instance was handed on.
+     */
+    private boolean executeWhenHeld(Instance instance) {
+        if (!prefetchPayloads(instance.getValue(), Long.MAX_VALUE)) {
+            logger.warning(instance.getId() + " refers to a payload no peer holds yet; leaving it to catch-up");
+            return false;
+        }
+        instances.committed(instance);
+        return true;
+    }
+
+    /**
+     * Reads keys from the key-value store once the given instances have been executed.
+     * 
+     * @param keys The keys to read.
+     * @param ids The instances the Learner has to have executed before reading.
+     * @param timeoutMs How long to wait for the Learner to execute them, in milliseconds.
+     * @return The value of each key with its version, in the order of the keys, with null
+     *         for a key that has no value.
+     * @throws RemoteException If the Learner has not executed the instances in time.
+     */
+    @Override
+    public List<VersionedValue> readAfter(List<String> keys, Set<InstanceId> ids, long timeoutMs) throws RemoteException {
+        try {
+            if (!instances.awaitExecuted(ids, timeoutMs)) {
+                throw new RemoteException("Learner has not executed every instance of " + ids);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for instances " + ids, e);
+        }
+        return lookUp(keys);
+    }
+
+    /**
+     * Reads keys from the key-value store once every slot up to minSlot has been applied.
+     * 
+     * @param keys The keys to read.
+     * @param minSlot The slot the Learner has to have applied before reading, or -1.
+     * @param timeoutMs How long to wait for the Learner to apply minSlot, in milliseconds.
+     * @return The value of each key with its version, in the order of the keys, with null
+     *         for a key that has no value.
+     * @throws RemoteException If the Learner has not applied minSlot in time.
+     */
+    @Override
+    public List<VersionedValue> read(List<String> keys, long minSlot, long timeoutMs) throws RemoteException {
+        try {
+            if (!log.awaitApplied(minSlot, timeoutMs)) {
+                throw new RemoteException("Learner has applied up to slot " + log.getAppliedUpTo()
+                        + " but the read needs slot " + minSlot);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for slot " + minSlot, e);
+        }
+        return lookUp(keys);
+    }
+
+    /**
+     * Reads a page of the keys in a range, in order, once every slot up to minSlot has been
+     * applied. The page is read while no batch is being applied, so it reflects the same
+     * writes throughout; the ordered index is walked lazily, so the page takes no more memory
+     * than the keys on it.
+     * 
+     * @param query The range and the maximum number of keys on the page.
+     * @param minSlot The slot the Learner has to have applied before reading, or -1.
+     * @param timeoutMs How long to wait for the Learner to apply minSlot, in milliseconds.
+     * @return The page.
+     * @throws RemoteException If the Learner keeps no ordered index or has not applied
+     *         minSlot in time.
+     */
+    @Override
+    public ScanPage scan(RangeQuery query, long minSlot, long timeoutMs) throws RemoteException {
+        if (orderedKeys == null) {
+            throw new RemoteException("Range queries need paxos.orderedIndex=true");
+        }
+        try {
+            if (!log.awaitApplied(minSlot, timeoutMs)) {
+                throw new RemoteException("Learner has applied up to slot " + log.getAppliedUpTo()
+                        + " but the scan needs slot " + minSlot);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for slot " + minSlot, e);
+        }
+        SortedMap<String, String> entries = new TreeMap<>();
+        if (query.isEmpty()) {
+            return new ScanPage(entries, true);
+        }
+        synchronized (keyValueStore) {
+            NavigableSet<String> range = query.getTo() != null ? orderedKeys.subSet(query.getFrom(), query.getTo())
+                    : orderedKeys.tailSet(query.getFrom());
+            long chars = 0;
+            for (String key : range) {
+                if (entries.size() >= query.getLimit() || chars >= PaxosConfig.SCAN_PAGE_CHARS) {
+                    return new ScanPage(entries, false);
+                }
+                VersionedValue value = keyValueStore.get(key);
+                entries.put(key, value.getValue());
+                chars += key.length() + value.getValue().length();
+            }
+        }
+        return new ScanPage(entries, true);
+    }
+
+    /**
+     * Returns the outcome of a conditional command or INCREMENT once this learner has
+     * applied it.
+     * 
+     * @param clientId The ID of the client that issued the command.
+     * @param requestId The ID of the request among those of the client.
+     * @param timeoutMs How long to wait for the command to be applied, in milliseconds.
+     * @return The outcome of the command.
+     * @throws RemoteException If the command has not been applied in time.
+     */
+    @Override
+    public String awaitOutcome(long clientId, long requestId, long timeoutMs) throws RemoteException {
+        String request = clientId + "/" + requestId;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (outcomes) {
+            try {
+                String outcome;
+                while ((outcome = outcomes.remove(request)) == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new RemoteException("Learner has not applied request " + request);
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(outcomes, remaining);
+                }
+                return outcome;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while waiting for request " + request, e);
+            }
+        }
+    }
+
+    /**
+     * Looks up keys in the key-value store. A single key is read without locking; several
+     * keys are read while no batch is being applied, so they reflect the same writes.
+     * 
+     * @param keys The keys to read.
+     * @return The value of each key with its version, in the order of the keys, with null
+     *         for a missing key.
+     */
+    private List<VersionedValue> lookUp(List<String> keys) {
+        if (keys.size() == 1) {
+            return Collections.singletonList(keyValueStore.get(keys.get(0)));
+        }
+        List<VersionedValue> values = new ArrayList<>(keys.size());
+        synchronized (keyValueStore) {
+            for (String key : keys) {
+                values.add(keyValueStore.get(key));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Stores one chunk of the payload of a large value.
+     * 
+     * @param ref The description of the payload.
+     * @param index The index of the chunk.
+     * @param chunk The bytes of the chunk.
+     * @throws RemoteException If the chunk does not fit the payload, the complete payload
+     *         does not match its digest, or the chunk cannot be written.
+     */
+    @Override
+    public void storePayloadChunk(PayloadRef ref, int index, byte[] chunk) throws RemoteException {
+        try {
+            if (payloads.storeChunk(ref, index, chunk) && index == ref.getChunkCount() - 1) {
+                logger.info("Stored " + ref);
+            }
+        } catch (IOException e) {
+            throw new RemoteException("Failed to store chunk " + index + " of " + ref, e);
+        }
+    }
+
+    /**
+     * Returns one chunk of a payload this learner holds.
+     * 
+     * @param ref The description of the payload.
+     * @param index The index of the chunk.
+     * @return The bytes of the chunk, or null if the learner does not hold the whole payload.
+     * @throws RemoteException If the payload cannot be read.
+     */
+    @Override
+    public byte[] getPayloadChunk(PayloadRef ref, int index) throws RemoteException {
+        try {
+            return payloads.readChunk(ref, index);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read chunk " + index + " of " + ref, e);
+        }
+    }
+
+    /**
+     * Subscribes a client-side cache to the keys this Learner changes from now on.
+     * 
+     * @param listener The cache.
+     * @return true if the cache was not subscribed.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public boolean subscribe(CacheListener listener) throws RemoteException {
+        boolean added = invalidations.subscribe(listener);
+        if (added) {
+            logger.info("Subscribed a client cache");
+        }
+        return added;
+    }
+
+    /**
+     * Returns the highest slot up to which the Learner has applied every value.
+     * 
+     * @return The highest contiguous applied slot, or -1 if nothing has been applied.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public long getAppliedUpTo() throws RemoteException {
+        return log.getAppliedUpTo();
+    }
+
+    /**
+     * Returns the slot of the newest snapshot the Learner has written to disk.
+     * 
+     * @return The slot of the newest snapshot, or -1 if there is none.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public long getSnapshotSlot() throws RemoteException {
+        return snapshotSlot;
+    }
+
+    /**
+     * Returns the newest snapshot the Learner has written to disk.
      * 
-     * @param value The final value decided after gaining consensus.
+     * @return The newest snapshot, or null if there is none.
      * @throws RemoteException If an error occurs during remote communication.
      */
     @Override
-    public void learn(String value) throws RemoteException {
-        logger.info("Value learned: " + value);
-        String[] parts = value.split(" ", 3);
-        String command = parts[0];
-        String key = parts[1];
-        if (command.equals("PUT")) {
-            String val = parts[2];
-            keyValueStore.put(key, val);
-            logger.info("Stored PUT key: " + key + " value: " + val);
-        } else if (command.equals("DELETE")) {
-            keyValueStore.remove(key);
-            logger.info("Stored DELETE key: " + key);
+    public LearnerSnapshot getSnapshot() throws RemoteException {
+        try {
+            return LearnerSnapshot.loadNewest(dataDir);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to read snapshot", e);
+        }
+    }
+
+    /**
+     * Returns the values decided for a range of slots the Learner has applied, so that a
+     * lagging Learner can catch up in bulk.
+     * 
+     * @param fromSlot The first slot to return.
+     * @param maxSlots The maximum number of slots to return.
+     * @return The decided values keyed by slot, empty if fromSlot has not been applied yet,
+     *         or null if the Learner no longer keeps fromSlot and a snapshot is needed.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public Map<Long, byte[]> getDecided(long fromSlot, int maxSlots) throws RemoteException {
+        long applied = log.getAppliedUpTo();
+        if (fromSlot > applied) {
+            return new TreeMap<>();
+        }
+        Long first = history.isEmpty() ? null : history.firstKey();
+        if (first == null || first > fromSlot) {
+            return null;
+        }
+        long toSlot = Math.min(applied, fromSlot + maxSlots - 1);
+        return new TreeMap<>(history.subMap(fromSlot, true, toSlot, true));
+    }
+
+    /**
+     * Returns a Merkle digest of the key-value store of the Learner, so that learners can
+     * find out whether and where they diverge without comparing every key.
+     * 
+     * @return The digest of the key-value store.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public MerkleDigest getDigest() throws RemoteException {
+        synchronized (keyValueStore) {
+            return new MerkleDigest(appliedSlot, bucketHashes);
+        }
+    }
+
+    /**
+     * Returns the entries and tombstones of the key-value store that fall into one bucket of
+     * the Merkle digest, along with the slot they were read at.
+     * 
+     * @param bucket The index of the bucket.
+     * @return The entries of the bucket.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public LearnerSnapshot getBucket(int bucket) throws RemoteException {
+        synchronized (keyValueStore) {
+            Map<String, VersionedValue> entries = new HashMap<>();
+            keyValueStore.forEach((key, value) -> {
+                if (MerkleDigest.bucketOf(key) == bucket) {
+                    entries.put(key, value);
+                }
+            });
+            Map<String, Long> deleted = new HashMap<>();
+            for (Map.Entry<String, Long> tombstone : tombstones.entrySet()) {
+                if (MerkleDigest.bucketOf(tombstone.getKey()) == bucket) {
+                    deleted.put(tombstone.getKey(), tombstone.getValue());
+                }
+            }
+            return new LearnerSnapshot(appliedSlot, entries, deleted);
+        }
+    }
+
+    /**
+     * Fetches the slots this learner is missing from the peer that has applied the most.
+     * If that peer no longer keeps them, the learner restores the peer's snapshot first.
+     */
+    private void catchUp() {
+        long applied = log.getAppliedUpTo();
+        Learner source = null;
+        long best = applied;
+        for (Map.Entry<Integer, Learner> entry : peers.entrySet()) {
+            try {
+                long peerApplied = entry.getValue().getAppliedUpTo();
+                if (peerApplied > best) {
+                    best = peerApplied;
+                    source = entry.getValue();
+                }
+            } catch (RemoteException e) {
+                logger.warning("Learner" + entry.getKey() + " did not report its applied slot: " + e.getMessage());
+            }
+        }
+        if (source == null) {
+            return;
+        }
+
+        try {
+            Map<Long, byte[]> decided = source.getDecided(applied + 1, PaxosConfig.CATCH_UP_BATCH_SLOTS);
+            if (decided == null) {
+                LearnerSnapshot snapshot = source.getSnapshot();
+                if (snapshot != null) {
+                    installSnapshot(snapshot);
+                }
+                decided = source.getDecided(log.getAppliedUpTo() + 1, PaxosConfig.CATCH_UP_BATCH_SLOTS);
+            }
+            if (decided != null) {
+                for (Map.Entry<Long, byte[]> entry : decided.entrySet()) {
+                    arrived(entry.getKey(), entry.getValue());
+                }
+                caughtUpCount.add(decided.size());
+            }
+            logger.info("Caught up from slot " + applied + " to slot " + log.getAppliedUpTo() + " of " + best);
+        } catch (RemoteException e) {
+            logger.warning("Failed to catch up: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fetches the committed instances this learner is missing from the acceptors: first the
+     * ones that committed instances or reads are waiting for, then, for every leader whose
+     * instances this learner has not executed any further since the last run, the instances
+     * after the last one it executed.
+     */
+    private void catchUpInstances() {
+        Map<Integer, Long> executed = instances.getExecutedUpTo();
+        for (Map.Entry<Integer, Acceptor> entry : acceptors.entrySet()) {
+            try {
+                for (InstanceId id : instances.getMissing()) {
+                    fetchCommitted(entry.getValue(), id.getLeader(), id.getNumber(), 1);
+                }
+                for (Map.Entry<Integer, Long> last : entry.getValue().getLastInstances().entrySet()) {
+                    Long upTo = executed.getOrDefault(last.getKey(), -1L);
+                    if (last.getValue() > upTo && upTo.equals(lastExecutedUpTo.getOrDefault(last.getKey(), -1L))) {
+                        fetchCommitted(entry.getValue(), last.getKey(), upTo + 1, PaxosConfig.CATCH_UP_BATCH_SLOTS);
+                    }
+                }
+            } catch (RemoteException e) {
+                logger.warning("Failed to fetch instances from Acceptor" + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        lastExecutedUpTo = executed;
+    }
+
+    /**
+     * Hands the committed instances among a range of instances of one leader at an acceptor
+     * to the DependencyExecutor.
+     * 
+     * @param acceptor The acceptor to fetch the instances from.
+     * @param leader The ID of the leader.
+     * @param fromNumber The number of the first instance to fetch.
+     * @param maxInstances The maximum number of instances to fetch.
+     * @throws RemoteException If the acceptor cannot be reached.
+     */
+    private void fetchCommitted(Acceptor acceptor, int leader, long fromNumber, int maxInstances) throws RemoteException {
+        int fetched = 0;
+        for (Instance instance : acceptor.getInstances(leader, fromNumber, maxInstances)) {
+            if (instance.getStatus() == InstanceStatus.COMMITTED && executeWhenHeld(instance)) {
+                fetched++;
+            }
+        }
+        if (fetched > 0) {
+            logger.info("Fetched " + fetched + " committed instances of leader " + leader + " from instance " + fromNumber);
+        }
+    }
+
+    /**
+     * Replaces the key-value store with a peer's snapshot, if it is ahead of this learner.
+     * 
+     * @param snapshot The snapshot of the peer.
+     */
+    private void installSnapshot(LearnerSnapshot snapshot) {
+        Map<String, VersionedValue> entries = snapshot.getEntries();
+        boolean installed = log.resetTo(snapshot.getSlot() + 1, () -> {
+            synchronized (keyValueStore) {
+                List<String> removed = new ArrayList<>();
+                keyValueStore.forEach((key, value) -> {
+                    if (!entries.containsKey(key)) {
+                        removed.add(key);
+                    }
+                });
+                for (String key : removed) {
+                    removeEntry(key);
+                }
+                for (Map.Entry<String, VersionedValue> entry : entries.entrySet()) {
+                    putEntry(entry.getKey(), entry.getValue());
+                }
+                tombstones.clear();
+                tombstones.putAll(snapshot.getTombstones());
+                appliedSlot = snapshot.getSlot();
+                history.clear();
+            }
+        });
+        if (installed) {
+            releasePayloads(snapshot.getSlot());
+            logger.info("Restored " + entries.size() + " keys from a peer snapshot at slot " + snapshot.getSlot());
+        }
+    }
+
+    /**
+     * Compares the Merkle digest of this learner with its peers. If a majority of all
+     * learners agrees on a digest at the same slot that differs from this learner's, the
+     * buckets that differ are copied from one of them.
+     */
+    private void compareDigests() {
+        try {
+            MerkleDigest mine = getDigest();
+            Map<Long, List<Learner>> byRoot = new HashMap<>();
+            Map<Long, MerkleDigest> digests = new HashMap<>();
+            for (Learner peer : peers.values()) {
+                try {
+                    MerkleDigest digest = peer.getDigest();
+                    if (digest.getSlot() == mine.getSlot()) {
+                        byRoot.computeIfAbsent(digest.getRoot(), root -> new ArrayList<>()).add(peer);
+                        digests.put(digest.getRoot(), digest);
+                    }
+                } catch (RemoteException e) {
+                    logger.warning("Peer did not send its digest: " + e.getMessage());
+                }
+            }
+
+            int majority = (peers.size() + 1) / 2 + 1;
+            for (Map.Entry<Long, List<Learner>> entry : byRoot.entrySet()) {
+                if (entry.getKey() != mine.getRoot() && entry.getValue().size() >= majority) {
+                    List<Integer> buckets = mine.diff(digests.get(entry.getKey()));
+                    logger.warning("Store diverged from a majority at slot " + mine.getSlot() + " in "
+                            + buckets.size() + " buckets");
+                    Learner source = entry.getValue().get(0);
+                    for (int bucket : buckets) {
+                        repairBucket(bucket, source.getBucket(bucket));
+                    }
+                }
+            }
+        } catch (RemoteException e) {
+            logger.warning("Failed to compare digests: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the entries of one bucket with a peer's, if both are at the same slot.
+     * 
+     * @param bucket The index of the bucket.
+     * @param source The entries of the bucket at the peer.
+     */
+    private void repairBucket(int bucket, LearnerSnapshot source) {
+        synchronized (keyValueStore) {
+            if (source.getSlot() != appliedSlot) {
+                return;
+            }
+            List<String> removed = new ArrayList<>();
+            keyValueStore.forEach((key, value) -> {
+                if (MerkleDigest.bucketOf(key) == bucket && !source.getEntries().containsKey(key)) {
+                    removed.add(key);
+                }
+            });
+            for (String key : removed) {
+                removeEntry(key);
+            }
+            for (Map.Entry<String, VersionedValue> entry : source.getEntries().entrySet()) {
+                putEntry(entry.getKey(), entry.getValue());
+            }
+            tombstones.keySet().removeIf(key -> MerkleDigest.bucketOf(key) == bucket);
+            tombstones.putAll(source.getTombstones());
+        }
+        logger.warning("Repaired bucket " + bucket + " at slot " + source.getSlot());
+    }
+
+    /**
+     * Applies a decided batch of commands atomically and in order, and starts a snapshot
+     * once enough slots have been applied since the last one.
+     * 
+     * @param slot The slot the batch was decided for.
+     * @param value The encoded batch of commands.
+     */
+    private void applyBatch(long slot, byte[] value) {
+        long start = System.nanoTime();
+        int index = (int) (slot & (ARRIVALS_KEPT - 1));
+        if (arrivalSlots.get(index) == slot) {
+            applyLag.record(start - arrivalNanos.get(index));
+        }
+        List<Command> commands = resolvePayloads(Command.decodeBatch(value), slot);
+        synchronized (keyValueStore) {
+            for (Command command : commands) {
+                apply(command);
+            }
+            appliedSlot = slot;
+        }
+        applyLatency.recordSince(start);
+        history.put(slot, value);
+        if (slot - lastSnapshotStart >= PaxosConfig.SNAPSHOT_EVERY_SLOTS && snapshotUndo == null) {
+            startSnapshot(slot);
+        }
+    }
+
+    /**
+     * Executes the commands of a committed instance atomically and in order.
+     * 
+     * @param instance The instance to execute.
+     */
+    private void executeInstance(Instance instance) {
+        List<Command> commands = resolvePayloads(Command.decodeBatch(instance.getValue()), Long.MAX_VALUE);
+        synchronized (keyValueStore) {
+            for (Command command : commands) {
+                apply(command);
+            }
+        }
+    }
+
+    /**
+     * Makes sure this learner holds the payloads a decided batch refers to before the batch
+     * is handed on to be applied, so that applying it never has to wait for a peer: a
+     * payload that is still being uploaded is waited for, a missing one fetched. The payloads
+     * it holds are kept for the slot from now on, so that the sweep does not delete them
+     * before the batch is applied.
+     * 
+     * @param value The encoded batch of commands.
+     * @param slot The slot that refers to the payloads, or Long.MAX_VALUE to keep them for good.
+     * @return true if this learner holds every payload the batch refers to.
+     */
+    private boolean prefetchPayloads(byte[] value, long slot) {
+        boolean held = true;
+        for (PayloadRef ref : Command.payloadRefs(value)) {
+            if (awaitPayload(ref) || fetchPayload(ref)) {
+                payloadSlots.merge(ref.getDigest(), slot, Math::max);
+            } else {
+                held = false;
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Swaps the values of the payloads a batch refers to into its commands. The payloads have
+     * been made sure of before the batch was handed on.
+     * 
+     * @param commands The decoded batch.
+     * @param slot The slot that refers to the payloads, or Long.MAX_VALUE to keep them for good.
+     * @return The commands with their values; the same list if none refers to a payload.
+     */
+    private List<Command> resolvePayloads(List<Command> commands, long slot) {
+        List<Command> resolved = null;
+        for (int i = 0; i < commands.size(); i++) {
+            PayloadRef ref = commands.get(i).getPayloadRef();
+            if (ref != null) {
+                if (resolved == null) {
+                    resolved = new ArrayList<>(commands);
+                }
+                resolved.set(i, commands.get(i).withValue(loadPayload(ref)));
+                payloadSlots.merge(ref.getDigest(), slot, Math::max);
+            }
+        }
+        return resolved != null ? resolved : commands;
+    }
+
+    /**
+     * Reads the value a payload holds from this learner's disk. It does not wait for a peer,
+     * since it is called while the log or the executor is locked.
+     * 
+     * @param ref The description of the payload.
+     * @return The value.
+     * @throws UncheckedIOException If the payload cannot be read.
+     * @throws IllegalStateException If this learner does not hold the payload.
+     */
+    private String loadPayload(PayloadRef ref) {
+        try {
+            byte[] stored = payloads.load(ref);
+            if (stored == null) {
+                throw new IllegalStateException(ref + " was deleted before it was applied");
+            }
+            return Payload.decode(ref, stored);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + ref, e);
+        }
+    }
+
+    /**
+     * Waits for a payload to be complete if its chunks are arriving.
+     * 
+     * @param ref The description of the payload.
+     * @return true if this learner holds the whole payload.
+     */
+    private boolean awaitPayload(PayloadRef ref) {
+        try {
+            return payloads.awaitComplete(ref, PaxosConfig.PHASE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Fetches a payload chunk by chunk from the first peer that holds all of it.
+     * 
+     * @param ref The description of the payload.
+     * @return true if this learner now holds the whole payload.
+     */
+    private boolean fetchPayload(PayloadRef ref) {
+        for (Map.Entry<Integer, Learner> entry : peers.entrySet()) {
+            try {
+                boolean complete = false;
+                for (int index = 0; index < ref.getChunkCount() && !complete; index++) {
+                    byte[] chunk = entry.getValue().getPayloadChunk(ref, index);
+                    if (chunk == null) {
+                        break;
+                    }
+                    complete = payloads.storeChunk(ref, index, chunk);
+                }
+                if (complete) {
+                    payloadsFetched.increment();
+                    logger.info("Fetched " + ref + " from Learner" + entry.getKey());
+                    return true;
+                }
+            } catch (IOException e) {
+                logger.warning("Failed to fetch " + ref + " from Learner" + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops keeping the payloads that only slots up to the given slot refer to, once those
+     * slots are no longer in the history. The sweep deletes them after the retention period.
+     * 
+     * @param upToSlot The last slot that was dropped from the history.
+     */
+    private void releasePayloads(long upToSlot) {
+        payloadSlots.values().removeIf(slot -> slot <= upToSlot);
+    }
+
+    /**
+     * Deletes the payloads that no slot in the history refers to and that have not been
+     * written to for paxos.payloadRetentionMs: uploads of commands that were never decided,
+     * and payloads of slots that are only in snapshots by now.
+     */
+    private void sweepPayloads() {
+        try {
+            int deleted = payloads.sweep(PaxosConfig.PAYLOAD_RETENTION_MS, payloadSlots.keySet());
+            if (deleted > 0) {
+                logger.info("Deleted " + deleted + " payloads no longer needed");
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to sweep payloads: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a single command to the key-value store. The outcome of a conditional command
+     * or INCREMENT is remembered for the proposer to pick up.
+     * 
+     * @param command The command to apply.
+     */
+    private void apply(Command command) {
+        String key = command.getKey();
+        VersionedValue current = keyValueStore.get(key);
+        String outcome = null;
+        switch (command.getOpcode()) {
+            case PUT:
+                putEntry(key, write(key, current, command.getValue()));
+                break;
+            case DELETE:
+                removeEntry(key);
+                break;
+            case CAS:
+                outcome = current != null && current.getValue().equals(command.getExpected())
+                        ? succeed(key, current.next(command.getValue())) : conditionFailed(current);
+                break;
+            case CAS_VERSION:
+                outcome = String.valueOf(current != null ? current.getVersion() : 0).equals(command.getExpected())
+                        ? succeed(key, write(key, current, command.getValue())) : conditionFailed(current);
+                break;
+            case PUT_IF_ABSENT:
+                outcome = current == null ? succeed(key, write(key, null, command.getValue())) : conditionFailed(current);
+                break;
+            case DELETE_IF_EQUALS:
+                if (current != null && current.getValue().equals(command.getExpected())) {
+                    removeEntry(key);
+                    outcome = "Operation successful.";
+                } else {
+                    outcome = conditionFailed(current);
+                }
+                break;
+            case INCREMENT:
+                outcome = increment(key, current, command.getValue());
+                break;
+        }
+        if (outcome != null) {
+            synchronized (outcomes) {
+                outcomes.put(command.getClientId() + "/" + command.getRequestId(), outcome);
+                outcomes.notifyAll();
+            }
+        }
+        logger.log(Level.INFO, "Stored {0}", command);
+    }
+
+    /**
+     * Adds a whole number to the number stored under a key; a missing key counts as 0.
+     * 
+     * @param key The key to increment.
+     * @param current The current value of the key, or null if it has none.
+     * @param delta The number to add, in decimal.
+     * @return The new value, or why the key could not be incremented.
+     */
+    private String increment(String key, VersionedValue current, String delta) {
+        long sum;
+        try {
+            sum = Math.addExact(current != null ? Long.parseLong(current.getValue()) : 0, Long.parseLong(delta));
+        } catch (NumberFormatException | ArithmeticException e) {
+            return "Condition failed. Not a whole number: " + (current != null ? current : delta);
+        }
+        putEntry(key, write(key, current, Long.toString(sum)));
+        return Long.toString(sum);
+    }
+
+    /**
+     * Returns the entry that a write of the given value to a key leaves behind.
+     * 
+     * @param key The key written.
+     * @param current The current value of the key, or null if it has none.
+     * @param value The value written.
+     * @return The value at the next version of the key, after the version it had when it was
+     *         last deleted, or at version 1 for a key that never existed.
+     */
+    private VersionedValue write(String key, VersionedValue current, String value) {
+        if (current != null) {
+            return current.next(value);
+        }
+        return new VersionedValue(value, tombstones.getOrDefault(key, 0L) + 1);
+    }
+
+    /**
+     * Stores the value of a conditional command whose condition holds.
+     * 
+     * @param key The key to store the value under.
+     * @param value The value to store, with its new version.
+     * @return The outcome of the command.
+     */
+    private String succeed(String key, VersionedValue value) {
+        putEntry(key, value);
+        return "Operation successful. (version " + value.getVersion() + ")";
+    }
+
+    /**
+     * Describes a conditional command whose condition does not hold.
+     * 
+     * @param current The current value of the key, or null if it has none.
+     * @return The outcome of the command, with the current value and version of the key.
+     */
+    private static String conditionFailed(VersionedValue current) {
+        return "Condition failed. " + (current != null ? "Current value: " + current : "No record found.");
+    }
+
+    /**
+     * Stores a value, keeping the bucket hash of the key and the ordered index up to date,
+     * and telling the subscribed client caches.
+     * 
+     * @param key The key to store the value under.
+     * @param value The value to store, with its version.
+     */
+    private void putEntry(String key, VersionedValue value) {
+        rememberForSnapshot(key);
+        tombstones.remove(key);
+        VersionedValue old = keyValueStore.put(key, value);
+        if (old == null && orderedKeys != null) {
+            orderedKeys.add(key);
+        }
+        int bucket = MerkleDigest.bucketOf(key);
+        bucketHashes[bucket] += MerkleDigest.entryHash(key, value);
+        if (old != null) {
+            bucketHashes[bucket] -= MerkleDigest.entryHash(key, old);
+        }
+        if (invalidations.hasListeners()) {
+            invalidations.changed(key, value.getVersion());
+        }
+    }
+
+    /**
+     * Removes a key, leaving a tombstone with its last version, keeping its bucket hash and
+     * the ordered index up to date, and telling the subscribed client caches.
+     * 
+     * @param key The key to remove.
+     */
+    private void removeEntry(String key) {
+        rememberForSnapshot(key);
+        VersionedValue old = keyValueStore.remove(key);
+        if (old != null && orderedKeys != null) {
+            orderedKeys.remove(key);
+        }
+        if (old != null) {
+            tombstones.put(key, old.getVersion());
+            bucketHashes[MerkleDigest.bucketOf(key)] -= MerkleDigest.entryHash(key, old);
+            if (invalidations.hasListeners()) {
+                invalidations.changed(key, 0);
+            }
+        }
+    }
+
+    /**
+     * Remembers the current value of a key before it is changed for the first time while a
+     * snapshot is being written.
+     * 
+     * @param key The key that is about to change.
+     */
+    private void rememberForSnapshot(String key) {
+        Map<String, VersionedValue> undo = snapshotUndo;
+        if (undo != null && !undo.containsKey(key)) {
+            VersionedValue current = keyValueStore.get(key);
+            undo.put(key, current != null ? current : ABSENT);
+        }
+    }
+
+    /**
+     * Starts writing a snapshot of the key-value store as of the given slot. Called by the
+     * apply thread between two slots, so the snapshot reflects exactly the slots up to it.
+     * 
+     * @param slot The last slot applied.
+     */
+    private void startSnapshot(long slot) {
+        Map<String, VersionedValue> undo = new ConcurrentHashMap<>();
+        Map<String, Long> deleted;
+        synchronized (keyValueStore) {
+            deleted = new HashMap<>(tombstones);
+        }
+        lastSnapshotStart = slot;
+        snapshotUndo = undo;
+        snapshotter.execute(() -> writeSnapshot(slot, undo, deleted));
+    }
+
+    /**
+     * Streams the key-value store as of the given slot to disk while writes continue. Keys
+     * that changed after the snapshot started are written with the value remembered in the
+     * undo map instead.
+     * 
+     * @param slot The slot the snapshot is taken at.
+     * @param undo The values keys had when the snapshot started.
+     * @param deleted The tombstones when the snapshot started.
+     */
+    private void writeSnapshot(long slot, Map<String, VersionedValue> undo, Map<String, Long> deleted) {
+        try (LearnerSnapshot.Writer writer = LearnerSnapshot.create(dataDir, slot)) {
+            try {
+                keyValueStore.forEach((key, value) -> {
+                    // Checked after the value was read: a change that slipped in is in the undo map.
+                    if (!undo.containsKey(key)) {
+                        try {
+                            writer.write(key, value);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            for (Map.Entry<String, VersionedValue> entry : undo.entrySet()) {
+                if (entry.getValue() != ABSENT) {
+                    writer.write(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, Long> tombstone : deleted.entrySet()) {
+                writer.writeTombstone(tombstone.getKey(), tombstone.getValue());
+            }
+            writer.commit();
+            // Keep the slots since the previous snapshot for peers that are slightly behind.
+            if (snapshotSlot >= 0) {
+                history.headMap(snapshotSlot, true).clear();
+                releasePayloads(snapshotSlot);
+            }
+            snapshotSlot = slot;
+        } catch (IOException e) {
+            logger.warning("Failed to write snapshot at slot " + slot + ": " + e.getMessage());
+        } finally {
+            snapshotUndo = null;
         }
     }
 }
@@ -0,0 +1,288 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * LearnerSnapshot is the state of a learner's key-value store after every slot up to a given
+ * slot has been applied. Snapshots are stored in a compact binary format:
+ * 
+ * <pre>
+ * [int magic][byte version][long slot]
+ * ([byte 1][int key length][key][int value length][value][long version]
+ *  | [byte 2][int key length][key][long version])*
+ * [byte 0][long crc32]
+ * </pre>
+ * 
+ * Records of type 2 are tombstones: the last version of a deleted key, from which the key's
+ * versions go on if it is written again. Snapshots of format version 1 carry no key versions;
+ * their keys are read at version 1. Snapshots before format version 3 carry no tombstones.
+ * 
+ * They are written to a temporary file that is renamed once complete, so a crash never
+ * leaves a partial snapshot behind.
+ */
+public final class LearnerSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int MAGIC = 0x50584E53;
+    private static final byte VERSION = 3;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int SNAPSHOTS_KEPT = 2;
+    private static final Logger logger = LoggerConfig.createLogger("Learner");
+
+    private final long slot;
+    private final Map<String, VersionedValue> entries;
+    private final Map<String, Long> tombstones;
+
+    /**
+     * Constructs a LearnerSnapshot.
+     * 
+     * @param slot The last slot applied to the entries.
+     * @param entries The entries of the key-value store.
+     * @param tombstones The last version of every deleted key.
+     */
+    public LearnerSnapshot(long slot, Map<String, VersionedValue> entries, Map<String, Long> tombstones) {
+        this.slot = slot;
+        this.entries = entries;
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Returns the last slot applied to the entries of the snapshot.
+     * 
+     * @return The slot of the snapshot.
+     */
+    public long getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns the entries of the key-value store.
+     * 
+     * @return The entries of the snapshot.
+     */
+    public Map<String, VersionedValue> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the last version of every key that was deleted.
+     * 
+     * @return The tombstones of the snapshot.
+     */
+    public Map<String, Long> getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * Loads the newest intact snapshot in the given directory.
+     * 
+     * @param directory The directory the snapshots are stored in.
+     * @return The newest snapshot, or null if there is none.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public static LearnerSnapshot loadNewest(Path directory) throws IOException {
+        for (Path file : list(directory)) {
+            try {
+                return read(file);
+            } catch (IOException e) {
+                logger.warning("Skipping unreadable snapshot " + file + ": " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts writing a new snapshot to the given directory.
+     * 
+     * @param directory The directory the snapshots are stored in.
+     * @param slot The last slot applied to the entries that are going to be written.
+     * @return The writer for the entries of the snapshot.
+     * @throws IOException If the snapshot file cannot be created.
+     */
+    public static Writer create(Path directory, long slot) throws IOException {
+        Files.createDirectories(directory);
+        return new Writer(directory, slot);
+    }
+
+    /**
+     * Reads a single snapshot file and verifies its checksum.
+     * 
+     * @param file The snapshot file.
+     * @return The snapshot.
+     * @throws IOException If the file cannot be read or is corrupt.
+     */
+    private static LearnerSnapshot read(Path file) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file.toFile()), 64 * 1024), new CRC32());
+        try (DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a snapshot file");
+            }
+            byte format = in.readByte();
+            if (format < 1 || format > VERSION) {
+                throw new IOException("Unsupported snapshot version " + format);
+            }
+            long slot = in.readLong();
+            Map<String, VersionedValue> entries = new HashMap<>();
+            Map<String, Long> tombstones = new HashMap<>();
+            byte type;
+            while ((type = in.readByte()) != 0) {
+                String key = readString(in);
+                if (type == 2) {
+                    tombstones.put(key, in.readLong());
+                    continue;
+                }
+                String value = readString(in);
+                entries.put(key, new VersionedValue(value, format >= 2 ? in.readLong() : 1));
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Checksum mismatch");
+            }
+            return new LearnerSnapshot(slot, entries, tombstones);
+        }
+    }
+
+    /**
+     * Lists the snapshot files in the given directory, newest first.
+     * 
+     * @param directory The directory the snapshots are stored in.
+     * @return The snapshot files.
+     * @throws IOException If the directory cannot be listed.
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files, Collections.reverseOrder());
+        return files;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writer streams the entries of a snapshot to a temporary file and publishes it once
+     * committed. Closing a writer that has not been committed discards the file.
+     */
+    public static final class Writer implements Closeable {
+        private final Path directory;
+        private final Path file;
+        private final Path tempFile;
+        private final FileOutputStream fileOut;
+        private final CheckedOutputStream checked;
+        private final DataOutputStream out;
+        private long count;
+        private boolean committed;
+
+        private Writer(Path directory, long slot) throws IOException {
+            this.directory = directory;
+            this.file = directory.resolve(String.format("%s%020d%s", PREFIX, slot, SUFFIX));
+            this.tempFile = directory.resolve(file.getFileName() + ".tmp");
+            this.fileOut = new FileOutputStream(tempFile.toFile());
+            this.checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 64 * 1024), new CRC32());
+            this.out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(slot);
+        }
+
+        /**
+         * Writes a single entry of the key-value store.
+         * 
+         * @param key The key of the entry.
+         * @param value The value of the entry, with its version.
+         * @throws IOException If the entry cannot be written.
+         */
+        public void write(String key, VersionedValue value) throws IOException {
+            out.writeByte(1);
+            writeString(key);
+            writeString(value.getValue());
+            out.writeLong(value.getVersion());
+            count++;
+        }
+
+        /**
+         * Writes the tombstone of a deleted key.
+         * 
+         * @param key The deleted key.
+         * @param version The last version the key had.
+         * @throws IOException If the tombstone cannot be written.
+         */
+        public void writeTombstone(String key, long version) throws IOException {
+            out.writeByte(2);
+            writeString(key);
+            out.writeLong(version);
+        }
+
+        /**
+         * Finishes the snapshot, forces it to disk, publishes it under its final name and
+         * deletes all but the newest snapshots.
+         * 
+         * @throws IOException If the snapshot cannot be finished.
+         */
+        public void commit() throws IOException {
+            out.writeByte(0);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+            logger.info("Wrote snapshot " + file + " with " + count + " entries");
+
+            List<Path> files = list(directory);
+            for (Path old : files.subList(Math.min(SNAPSHOTS_KEPT, files.size()), files.size())) {
+                Files.deleteIfExists(old);
+            }
+        }
+
+        /**
+         * Closes the writer, discarding the snapshot if it has not been committed.
+         * 
+         * @throws IOException If the temporary file cannot be deleted.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,420 @@
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LoadGenerator measures the throughput and latency of a running server. A number of client
+ * threads send a mix of GET, PUT and DELETE commands on keys drawn from a uniform or a
+ * Zipfian distribution, either back to back (closed loop) or at a fixed total rate (open
+ * loop), and latency percentiles are read from a histogram.
+ * 
+ * In the open loop every request has a time at which it should be sent, and its latency is
+ * measured from that time rather than from when it was actually sent. A request that has to
+ * wait because the one before it was slow is therefore charged for the wait, so a stall of
+ * the server shows up in the percentiles instead of being hidden by fewer requests being sent
+ * (coordinated omission). In the closed loop the latencies are the response times of
+ * back-to-back requests.
+ * 
+ * A request that fails is counted as an error. Over RMI the generator looks up the proposer
+ * again after a failure, so that it keeps running while the FailureSimulator of the server
+ * unbinds and rebinds it.
+ */
+public class LoadGenerator {
+    private static final String[] OPERATIONS = {"GET", "PUT", "DELETE"};
+    private static final int VALUES_PER_THREAD = 16;
+
+    private final String hostname;
+    private final int port;
+    private final Map<String, String> options;
+    private final int threads;
+    private final int seconds;
+    private final int warmupSeconds;
+    private final double rate;
+    private final int keys;
+    private final int valueSize;
+    private final int[] mix;
+    private final ZipfianGenerator zipfian;
+    private final AtomicLong errors;
+
+    /**
+     * Main method for the load generator.
+     * 
+     * @param args The hostname and port of the server, followed by options of the form
+     *             name=value: threads (16), seconds (30), warmup seconds (5), rate in requests
+     *             per second for the open loop (0, closed loop), keys (10000), distribution
+     *             (uniform or zipfian), theta of the Zipfian distribution (0.99), valueSize in
+     *             bytes (100), mix of GET, PUT and DELETE percentages (80,15,5) and preload
+     *             (true to PUT every key before the run). With -Dpaxos.transport=NIO the
+     *             generator connects to the NIO endpoint on the next port.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Example Usage: java LoadGenerator <hostname> <port> [threads=16] [seconds=30] "
+                    + "[warmup=5] [rate=0] [keys=10000] [distribution=zipfian] [theta=0.99] [valueSize=100] "
+                    + "[mix=80,15,5] [preload=false]");
+            return;
+        }
+        Map<String, String> options = new HashMap<>();
+        for (String option : Arrays.asList(args).subList(2, args.length)) {
+            String[] parts = option.split("=", 2);
+            if (parts.length != 2) {
+                System.out.println("Options are written as name=value: " + option);
+                return;
+            }
+            options.put(parts[0], parts[1]);
+        }
+        new LoadGenerator(args[0], Integer.parseInt(args[1]), options).run();
+    }
+
+    /**
+     * Constructs a LoadGenerator.
+     * 
+     * @param hostname The hostname of the server.
+     * @param port The port of the RMI registry of the server.
+     * @param options The options of the run, by name.
+     */
+    private LoadGenerator(String hostname, int port, Map<String, String> options) {
+        this.hostname = hostname;
+        this.port = port;
+        this.options = options;
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        this.seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.keys = Integer.parseInt(options.getOrDefault("keys", "10000"));
+        this.valueSize = Integer.parseInt(options.getOrDefault("valueSize", "100"));
+        this.mix = Arrays.stream(options.getOrDefault("mix", "80,15,5").split(",")).mapToInt(Integer::parseInt).toArray();
+        if (mix.length != OPERATIONS.length || Arrays.stream(mix).sum() != 100) {
+            throw new IllegalArgumentException("mix must be three percentages (GET,PUT,DELETE) adding up to 100");
+        }
+        double theta = Double.parseDouble(options.getOrDefault("theta", "0.99"));
+        if (theta <= 0 || theta >= 1) {
+            throw new IllegalArgumentException("theta must be between 0 and 1");
+        }
+        String distribution = options.getOrDefault("distribution", "zipfian");
+        if (!distribution.equals("zipfian") && !distribution.equals("uniform")) {
+            throw new IllegalArgumentException("distribution must be uniform or zipfian");
+        }
+        this.zipfian = distribution.equals("zipfian") ? new ZipfianGenerator(keys, theta) : null;
+        this.errors = new AtomicLong();
+    }
+
+    /**
+     * Preloads the keys if asked to, runs the warm-up and the measured run, and prints the
+     * results.
+     * 
+     * @throws Exception If the server cannot be reached.
+     */
+    private void run() throws Exception {
+        if (Boolean.parseBoolean(options.getOrDefault("preload", "false"))) {
+            preload();
+        }
+        System.out.println("threads=" + threads + " seconds=" + seconds + " rate=" + (rate > 0 ? rate + "/s (open loop)"
+                : "unbounded (closed loop)") + " keys=" + keys + " distribution=" + (zipfian != null ? "zipfian" : "uniform")
+                + " valueSize=" + valueSize + " mix=" + Arrays.toString(mix));
+        if (warmupSeconds > 0) {
+            measure(warmupSeconds);
+            errors.set(0);
+        }
+        long start = System.nanoTime();
+        LatencyHistogram[] histograms = measure(seconds);
+        // An overloaded open loop keeps sending after the end until its schedule is done.
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        LatencyHistogram all = new LatencyHistogram();
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            report(OPERATIONS[i], histograms[i]);
+            all.add(histograms[i]);
+        }
+        report("ALL", all);
+        System.out.printf("throughput=%.0f ops/s errors=%d elapsed=%.1fs%n", all.getCount() / elapsedSeconds, errors.get(),
+                elapsedSeconds);
+    }
+
+    /**
+     * Stores a value under every key with MPUT requests of paxos.loadBatchKeys keys, so that
+     * GETs find values from the start.
+     * 
+     * @throws Exception If the server cannot be reached or a request fails.
+     */
+    private void preload() throws Exception {
+        Proposer proposer = connect();
+        String value = randomValue(new Random(0));
+        List<String> args = new ArrayList<>();
+        for (int key = 0; key < keys; key++) {
+            args.add(keyName(key));
+            args.add(value);
+            if (args.size() == 2 * PaxosConfig.LOAD_BATCH_KEYS || key == keys - 1) {
+                String result = proposer.propose("MPUT", args.toArray(new String[0]));
+                if (!result.equals("Operation successful.")) {
+                    throw new RemoteException("Preload failed: " + result);
+                }
+                args.clear();
+            }
+        }
+        disconnect(proposer);
+        System.out.println("Preloaded " + keys + " keys");
+    }
+
+    /**
+     * Runs every client thread for the given time.
+     * 
+     * @param runSeconds How long to run.
+     * @return The latencies of each operation, in the order of OPERATIONS.
+     * @throws Exception If the server cannot be reached.
+     */
+    private LatencyHistogram[] measure(int runSeconds) throws Exception {
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(runSeconds);
+        LatencyHistogram[][] results = new LatencyHistogram[threads][];
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int worker = i;
+            Proposer proposer = connect();
+            Thread thread = new Thread(() -> results[worker] = runClient(proposer, worker, start, end),
+                    "LoadGenerator-" + worker);
+            thread.start();
+            workers.add(thread);
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            histograms[op] = new LatencyHistogram();
+            for (LatencyHistogram[] result : results) {
+                histograms[op].add(result[op]);
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * Sends requests from one client thread until the end of the run. In the open loop each
+     * thread sends its share of the rate, at evenly spaced intended send times that are
+     * staggered between the threads.
+     * 
+     * @param proposer The proposer stub of the thread.
+     * @param worker The index of the thread.
+     * @param start When the run started, from System.nanoTime.
+     * @param end When the run ends, from System.nanoTime.
+     * @return The latencies of each operation, in the order of OPERATIONS.
+     */
+    private LatencyHistogram[] runClient(Proposer proposer, int worker, long start, long end) {
+        LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS.length];
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            histograms[op] = new LatencyHistogram();
+        }
+        Random random = new Random(worker * 31L + System.nanoTime());
+        String[] values = new String[VALUES_PER_THREAD];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = randomValue(random);
+        }
+        long intervalNanos = rate > 0 ? (long) (1e9 * threads / rate) : 0;
+        long intended = start + intervalNanos * worker / Math.max(1, threads);
+
+        while (true) {
+            long now = System.nanoTime();
+            if (rate > 0) {
+                if (intended - end >= 0) {
+                    break;
+                }
+                if (intended - now > 0) {
+                    sleepUntil(intended);
+                }
+            } else {
+                if (now - end >= 0) {
+                    break;
+                }
+                intended = now;
+            }
+
+            int op = chooseOperation(random);
+            String key = keyName(zipfian != null ? zipfian.next(random) : random.nextInt(keys));
+            String[] args = op == 1 ? new String[]{key, values[random.nextInt(values.length)]} : new String[]{key};
+            try {
+                proposer.propose(OPERATIONS[op], args);
+                histograms[op].record(System.nanoTime() - intended);
+            } catch (Exception e) {
+                errors.incrementAndGet();
+                proposer = reconnect(proposer);
+            }
+            intended += intervalNanos;
+        }
+        disconnect(proposer);
+        return histograms;
+    }
+
+    /**
+     * Picks an operation according to the mix.
+     * 
+     * @param random The random number generator of the thread.
+     * @return The index of the operation in OPERATIONS.
+     */
+    private int chooseOperation(Random random) {
+        int percent = random.nextInt(100);
+        for (int op = 0; op < mix.length; op++) {
+            percent -= mix[op];
+            if (percent < 0) {
+                return op;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns a random value of the configured size.
+     * 
+     * @param random The random number generator to use.
+     * @return A value of letters and digits.
+     */
+    private String randomValue(Random random) {
+        String alphabet = "abcdefghijklmnopqrstuvwxyz0123456789";
+        StringBuilder value = new StringBuilder(valueSize);
+        for (int i = 0; i < valueSize; i++) {
+            value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return value.toString();
+    }
+
+    /**
+     * Returns the name of a key. Key 0 is the most popular one under the Zipfian
+     * distribution.
+     * 
+     * @param key The index of the key.
+     * @return The name of the key.
+     */
+    private static String keyName(int key) {
+        return "key" + key;
+    }
+
+    /**
+     * Connects to the proposer of the server over the configured transport.
+     * 
+     * @return The proposer stub.
+     * @throws Exception If the server cannot be reached.
+     */
+    private Proposer connect() throws Exception {
+        if (PaxosConfig.TRANSPORT == Transport.NIO) {
+            return new NioProposerStub(hostname, port + 1);
+        }
+        return (Proposer) LocateRegistry.getRegistry(hostname, port).lookup("Proposer");
+    }
+
+    /**
+     * Replaces a stub after a failed request. If the proposer cannot be looked up right
+     * now, e.g. because the FailureSimulator unbound it, the old stub is kept and the next
+     * failure tries again.
+     * 
+     * @param proposer The stub the request failed on.
+     * @return The new stub, or the old one if the proposer cannot be reached.
+     */
+    private Proposer reconnect(Proposer proposer) {
+        try {
+            Proposer replacement = connect();
+            disconnect(proposer);
+            return replacement;
+        } catch (Exception e) {
+            return proposer;
+        }
+    }
+
+    /**
+     * Closes the connection of an NIO stub. RMI stubs need no closing.
+     * 
+     * @param proposer The stub to close.
+     */
+    private static void disconnect(Proposer proposer) {
+        if (proposer instanceof NioProposerStub) {
+            try {
+                ((NioProposerStub) proposer).close();
+            } catch (IOException e) {
+                System.out.println("Failed to close connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Sleeps until the given time.
+     * 
+     * @param deadline The time to wake up at, from System.nanoTime.
+     */
+    private static void sleepUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Prints the number of requests and the latency percentiles of an operation.
+     * 
+     * @param operation The name of the operation.
+     * @param histogram The latencies of the operation.
+     */
+    private static void report(String operation, LatencyHistogram histogram) {
+        System.out.printf("%-6s count=%-9d p50=%8.2fms  p99=%8.2fms  p99.9=%8.2fms  max=%8.2fms%n", operation,
+                histogram.getCount(), histogram.percentile(0.50) / 1e6, histogram.percentile(0.99) / 1e6,
+                histogram.percentile(0.999) / 1e6, histogram.getMax() / 1e6);
+    }
+
+    /**
+     * ZipfianGenerator draws integers from 0 to n - 1, where smaller integers are more
+     * popular, following the method of Gray et al. ("Quickly generating billion-record
+     * synthetic databases"). The normalisation constant is computed once, in O(n).
+     */
+    private static final class ZipfianGenerator {
+        private final int items;
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        private ZipfianGenerator(int items, double theta) {
+            this.items = items;
+            this.theta = theta;
+            this.alpha = 1 / (1 - theta);
+            this.zetaN = zeta(items, theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        /**
+         * Draws the next integer.
+         * 
+         * @param random The random number generator to use.
+         * @return An integer from 0 to n - 1.
+         */
+        private int next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) {
+                return 0;
+            }
+            if (uz < 1 + Math.pow(0.5, theta)) {
+                return Math.min(1, items - 1);
+            }
+            return (int) Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * LogFormatter writes every record on a single line, starting with its timestamp, and fills
+ * in the parameters of a message such as "Value learned for slot {0}" with String.valueOf.
+ * Unlike MessageFormat it gives numbers no thousands separators and leaves quotes alone, so
+ * messages read the same whether they were logged with parameters or concatenated. A String[]
+ * parameter, such as the arguments of a command, is written as its elements separated by
+ * spaces, so callers need not join it before they know the record is written.
+ * 
+ * Records are formatted on the writer thread of an AsyncLogHandler, which is why the caller
+ * of a record is not looked up: that would walk the wrong stack.
+ */
+public class LogFormatter extends Formatter {
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final boolean messageOnly;
+
+    /**
+     * Constructs a LogFormatter.
+     * 
+     * @param messageOnly Whether lines hold only the timestamp and message, as for the
+     *                    requests echoed to the console, rather than also the level and the
+     *                    logger.
+     */
+    public LogFormatter(boolean messageOnly) {
+        this.messageOnly = messageOnly;
+    }
+
+    /**
+     * Formats a record as "[timestamp] LEVEL logger: message", or "[timestamp] message",
+     * followed by the stack trace of its exception, if any.
+     * 
+     * @param record The record to format.
+     * @return The formatted record, ending with a line separator.
+     */
+    @Override
+    public String format(LogRecord record) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append('[');
+        TIMESTAMP.formatTo(record.getInstant(), sb);
+        sb.append("] ");
+        if (!messageOnly) {
+            sb.append(record.getLevel().getName()).append(' ').append(record.getLoggerName()).append(": ");
+        }
+        sb.append(formatMessage(record)).append(System.lineSeparator());
+        if (record.getThrown() != null) {
+            StringWriter trace = new StringWriter();
+            record.getThrown().printStackTrace(new PrintWriter(trace));
+            sb.append(trace);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Fills in the parameters of a message: every {n} is replaced by the nth parameter, and
+     * a String[] by its elements separated by spaces. Placeholders without a matching
+     * parameter are left as they are.
+     * 
+     * @param record The record whose message to format.
+     * @return The message with its parameters filled in.
+     */
+    @Override
+    public String formatMessage(LogRecord record) {
+        String message = record.getMessage();
+        Object[] params = record.getParameters();
+        if (message == null || params == null || params.length == 0) {
+            return message;
+        }
+        StringBuilder sb = new StringBuilder(message.length() + 16 * params.length);
+        int from = 0;
+        int open;
+        while ((open = message.indexOf('{', from)) >= 0) {
+            int close = message.indexOf('}', open);
+            int index = close > open + 1 ? parseIndex(message, open + 1, close) : -1;
+            if (index < 0 || index >= params.length) {
+                sb.append(message, from, open + 1);
+                from = open + 1;
+                continue;
+            }
+            sb.append(message, from, open);
+            if (params[index] instanceof String[]) {
+                sb.append(String.join(" ", (String[]) params[index]));
+            } else {
+                sb.append(params[index]);
+            }
+            from = close + 1;
+        }
+        return sb.append(message, from, message.length()).toString();
+    }
+
+    /**
+     * Reads the index of a placeholder.
+     * 
+     * @param message The message.
+     * @param start The first character of the index.
+     * @param end The character after the index.
+     * @return The index, or -1 if the characters are not a number.
+     */
+    private static int parseIndex(String message, int start, int end) {
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            char c = message.charAt(i);
+            if (c < '0' || c > '9' || index > 1000) {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+}
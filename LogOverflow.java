@@ -0,0 +1,15 @@
+/**
+ * LogOverflow decides what a thread that logs does when the queue of the asynchronous log
+ * handler is full because the disk cannot keep up.
+ */
+public enum LogOverflow {
+
+    /**
+     * The record is dropped and the thread carries on. The number of dropped records is
+     * written to the log once there is room again.
+     */
+    DROP,
+
+    /** The thread waits until the writer has made room, so that no record is lost. */
+    BLOCK
+}
@@ -1,30 +1,65 @@
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.logging.FileHandler;
+import java.util.logging.Handler;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 /**
  * LoggerConfig is a helper class to implement loggers for the Proposer, Acceptor and
- * Learner.
+ * Learner. Loggers write through an AsyncLogHandler, so the roles only queue their records
+ * and a background thread writes them; log messages on hot paths pass their values as
+ * parameters, e.g. {@code logger.log(Level.INFO, "Value learned for slot {0}", slot)}, so
+ * that they are only formatted on that thread.
  */
 public class LoggerConfig {
 
     /**
-     * A Logger instance is created along with a file handler. 
+     * A Logger instance is created along with an asynchronous handler writing to a file.
+     * Classes asking for the same name share the logger and its handler.
      * 
      * @param name The name of the log file.
      * @return The instance of the configured logger.
      */
-    public static Logger createLogger(String name) {
+    public static synchronized Logger createLogger(String name) {
         Logger logger = Logger.getLogger(name);
+        if (logger.getHandlers().length > 0) {
+            return logger;
+        }
         try {
-            FileHandler fileHandler = new FileHandler(name + ".log", true);
-            fileHandler.setFormatter(new SimpleFormatter());
-            logger.addHandler(fileHandler);
-            logger.setUseParentHandlers(false);
+            addHandler(logger, new AsyncLogHandler(new FileOutputStream(name + ".log", true), true,
+                    PaxosConfig.LOG_QUEUE_RECORDS, PaxosConfig.LOG_OVERFLOW, "AsyncLogHandler-" + name), false);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return logger;
     }
+
+    /**
+     * A Logger instance is created that writes its messages to the console, each with a
+     * timestamp, from a background thread. Classes asking for the same name share the logger.
+     * 
+     * @param name The name of the logger.
+     * @return The instance of the configured logger.
+     */
+    public static synchronized Logger createConsoleLogger(String name) {
+        Logger logger = Logger.getLogger(name);
+        if (logger.getHandlers().length > 0) {
+            return logger;
+        }
+        addHandler(logger, new AsyncLogHandler(System.out, false, PaxosConfig.LOG_QUEUE_RECORDS,
+                PaxosConfig.LOG_OVERFLOW, "AsyncLogHandler-" + name), true);
+        return logger;
+    }
+
+    /**
+     * Attaches a handler to a logger in place of the console handler it would inherit.
+     * 
+     * @param logger The logger.
+     * @param handler The handler.
+     * @param messageOnly Whether lines hold only the timestamp and message.
+     */
+    private static void addHandler(Logger logger, Handler handler, boolean messageOnly) {
+        handler.setFormatter(new LogFormatter(messageOnly));
+        logger.addHandler(handler);
+        logger.setUseParentHandlers(false);
+    }
 }
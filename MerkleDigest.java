@@ -0,0 +1,113 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MerkleDigest summarises a learner's key-value store after a given slot. Keys are hashed
+ * into a fixed number of buckets, the hash of a bucket is the sum of the hashes of its
+ * entries, and the buckets form the leaves of a binary hash tree. Because the bucket hash is
+ * a sum, the learner keeps it up to date on every write instead of scanning the store, and
+ * two learners find the buckets they disagree on by descending only into the subtrees whose
+ * hashes differ.
+ */
+public final class MerkleDigest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** The number of buckets keys are hashed into. Must be a power of two. */
+    public static final int BUCKETS = 256;
+
+    private final long slot;
+    private final long[][] levels;
+
+    /**
+     * Constructs a MerkleDigest from the bucket hashes.
+     * 
+     * @param slot The last slot applied to the store the digest was taken from.
+     * @param buckets The hashes of the buckets.
+     */
+    public MerkleDigest(long slot, long[] buckets) {
+        this.slot = slot;
+        int depth = Integer.numberOfTrailingZeros(buckets.length);
+        this.levels = new long[depth + 1][];
+        levels[depth] = buckets.clone();
+        for (int level = depth - 1; level >= 0; level--) {
+            long[] children = levels[level + 1];
+            long[] nodes = new long[children.length / 2];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = mix(children[2 * i] * 31 + children[2 * i + 1]);
+            }
+            levels[level] = nodes;
+        }
+    }
+
+    /**
+     * Returns the last slot applied to the store the digest was taken from.
+     * 
+     * @return The slot of the digest.
+     */
+    public long getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns the hash of the root of the tree.
+     * 
+     * @return The root hash.
+     */
+    public long getRoot() {
+        return levels[0][0];
+    }
+
+    /**
+     * Finds the buckets in which this digest and the other digest differ, by descending
+     * only into subtrees whose hashes differ.
+     * 
+     * @param other The digest to compare with.
+     * @return The indices of the buckets that differ.
+     */
+    public List<Integer> diff(MerkleDigest other) {
+        List<Integer> differing = new ArrayList<>();
+        diff(other, 0, 0, differing);
+        return differing;
+    }
+
+    private void diff(MerkleDigest other, int level, int index, List<Integer> differing) {
+        if (levels[level][index] == other.levels[level][index]) {
+            return;
+        }
+        if (level == levels.length - 1) {
+            differing.add(index);
+            return;
+        }
+        diff(other, level + 1, 2 * index, differing);
+        diff(other, level + 1, 2 * index + 1, differing);
+    }
+
+    /**
+     * Returns the bucket a key belongs to.
+     * 
+     * @param key The key.
+     * @return The index of the bucket.
+     */
+    public static int bucketOf(String key) {
+        return (int) (mix(key.hashCode()) & (BUCKETS - 1));
+    }
+
+    /**
+     * Returns the hash an entry contributes to its bucket.
+     * 
+     * @param key The key of the entry.
+     * @param value The value of the entry, with its version.
+     * @return The hash of the entry.
+     */
+    public static long entryHash(String key, VersionedValue value) {
+        return mix(key.hashCode() * 0x9E3779B97F4A7C15L + value.getValue().hashCode() * 31L + value.getVersion());
+    }
+
+    // The finalizer of SplitMix64, spreading every input bit over the whole hash.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
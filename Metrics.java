@@ -0,0 +1,317 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Metrics is the group of counters, gauges and latency histograms of one PAXOS role. Roles
+ * create their counters and histograms once and keep them in fields, so that recording is a
+ * LongAdder increment or a LatencyRecorder bucket increment, neither of which locks or
+ * allocates.
+ * 
+ * Every group is registered as an MBean named paxos:type=Role,name=RoleN, where N counts the
+ * roles of that type in the JVM, so the metrics can be watched with jconsole or any other
+ * JMX client. Counters and gauges are attributes of their own; every histogram becomes the
+ * attributes name.count, name.p50Micros, name.p99Micros, name.p999Micros and name.maxMicros,
+ * counted since the role started. Every paxos.metricsDumpMs milliseconds all groups are also
+ * written to Metrics.log, with the histograms covering only the latencies recorded since the
+ * previous dump.
+ */
+public class Metrics implements DynamicMBean {
+    private static final String[] HISTOGRAM_STATS = {"count", "p50Micros", "p99Micros", "p999Micros", "maxMicros"};
+    private static final List<Metrics> groups = new CopyOnWriteArrayList<>();
+    private static final Map<String, AtomicInteger> instances = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService dumper;
+    private static final Logger logger = LoggerConfig.createLogger("Metrics");
+
+    private final String name;
+    private final Map<String, LongAdder> counters;
+    private final Map<String, LongSupplier> gauges;
+    private final Map<String, LatencyRecorder> histograms;
+    private final Map<String, Long> dumpedCounts;
+    private final Map<String, LatencyHistogram> dumpedHistograms;
+
+    /**
+     * Constructs an empty group of metrics for a role and registers it as an MBean.
+     * 
+     * @param type The type of the role, e.g. Proposer.
+     */
+    public Metrics(String type) {
+        this.name = type + instances.computeIfAbsent(type, t -> new AtomicInteger()).incrementAndGet();
+        this.counters = new ConcurrentSkipListMap<>();
+        this.gauges = new ConcurrentSkipListMap<>();
+        this.histograms = new ConcurrentSkipListMap<>();
+        this.dumpedCounts = new HashMap<>();
+        this.dumpedHistograms = new HashMap<>();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("paxos:type=" + type + ",name=" + name));
+        } catch (JMException e) {
+            logger.warning("Could not register the metrics of " + name + ": " + e.getMessage());
+        }
+        groups.add(this);
+        startDumping();
+    }
+
+    /**
+     * Returns the name the group is registered under, e.g. Proposer1.
+     * 
+     * @return The name of the group.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if necessary.
+     * 
+     * @param counterName The name of the counter.
+     * @return The counter.
+     */
+    public LongAdder counter(String counterName) {
+        return counters.computeIfAbsent(counterName, n -> new LongAdder());
+    }
+
+    /**
+     * Adds a gauge, a value that is read whenever the metrics are.
+     * 
+     * @param gaugeName The name of the gauge.
+     * @param value Reads the current value. It must not block for long.
+     */
+    public void gauge(String gaugeName, LongSupplier value) {
+        gauges.put(gaugeName, value);
+    }
+
+    /**
+     * Returns the latency histogram with the given name, creating it if necessary.
+     * 
+     * @param histogramName The name of the histogram.
+     * @return The histogram.
+     */
+    public LatencyRecorder histogram(String histogramName) {
+        return histograms.computeIfAbsent(histogramName, n -> new LatencyRecorder());
+    }
+
+    /**
+     * Summarises the group on one line: every counter with its change since the previous
+     * dump, every gauge, and the percentiles of the latencies recorded since the previous
+     * dump.
+     * 
+     * @return A one-line summary of the metrics.
+     */
+    public synchronized String dump() {
+        StringBuilder sb = new StringBuilder(name);
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            long count = entry.getValue().sum();
+            Long previous = dumpedCounts.put(entry.getKey(), count);
+            sb.append(' ').append(entry.getKey()).append('=').append(count);
+            sb.append("(+").append(count - (previous != null ? previous : 0)).append(')');
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue().getAsLong());
+        }
+        for (Map.Entry<String, LatencyRecorder> entry : histograms.entrySet()) {
+            LatencyHistogram total = entry.getValue().snapshot();
+            LatencyHistogram previous = dumpedHistograms.put(entry.getKey(), total);
+            LatencyHistogram interval = previous != null ? total.minus(previous) : total;
+            sb.append(' ').append(entry.getKey()).append("{n=").append(interval.getCount());
+            if (interval.getCount() > 0) {
+                sb.append(" p50=").append(millis(interval.percentile(0.5)));
+                sb.append(" p99=").append(millis(interval.percentile(0.99)));
+                sb.append(" p99.9=").append(millis(interval.percentile(0.999)));
+                sb.append(" max=").append(millis(interval.getMax()));
+            }
+            sb.append('}');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats a latency in milliseconds.
+     * 
+     * @param nanos The latency, in nanoseconds.
+     * @return The latency in milliseconds, with three decimals and the unit.
+     */
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+
+    /**
+     * Starts writing every group to Metrics.log periodically, unless that is already
+     * happening or paxos.metricsDumpMs is 0.
+     */
+    private static synchronized void startDumping() {
+        if (dumper != null || PaxosConfig.METRICS_DUMP_MS <= 0) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(Metrics::dumpAll, PaxosConfig.METRICS_DUMP_MS, PaxosConfig.METRICS_DUMP_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes every group to Metrics.log. A group whose gauge fails is skipped, so that it does
+     * not stop the periodic dump.
+     */
+    private static void dumpAll() {
+        for (Metrics group : groups) {
+            try {
+                logger.info(group.dump());
+            } catch (RuntimeException e) {
+                logger.warning("Could not dump the metrics of " + group.name + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Reads a counter, a gauge or a statistic of a histogram.
+     * 
+     * @param attribute The name of the counter or gauge, or name.statistic for a histogram.
+     * @return The current value, as a Long.
+     * @throws AttributeNotFoundException If there is no such metric.
+     */
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        LongAdder counter = counters.get(attribute);
+        if (counter != null) {
+            return counter.sum();
+        }
+        LongSupplier gauge = gauges.get(attribute);
+        if (gauge != null) {
+            return gauge.getAsLong();
+        }
+        int dot = attribute.lastIndexOf('.');
+        LatencyRecorder histogram = dot > 0 ? histograms.get(attribute.substring(0, dot)) : null;
+        if (histogram == null) {
+            throw new AttributeNotFoundException("No metric named " + attribute);
+        }
+        LatencyHistogram latencies = histogram.snapshot();
+        switch (attribute.substring(dot + 1)) {
+            case "count":
+                return latencies.getCount();
+            case "p50Micros":
+                return TimeUnit.NANOSECONDS.toMicros(latencies.percentile(0.5));
+            case "p99Micros":
+                return TimeUnit.NANOSECONDS.toMicros(latencies.percentile(0.99));
+            case "p999Micros":
+                return TimeUnit.NANOSECONDS.toMicros(latencies.percentile(0.999));
+            case "maxMicros":
+                return TimeUnit.NANOSECONDS.toMicros(latencies.getMax());
+            default:
+                throw new AttributeNotFoundException("No metric named " + attribute);
+        }
+    }
+
+    /**
+     * Rejects every change, since metrics are read-only.
+     * 
+     * @param attribute The attribute to change.
+     * @throws AttributeNotFoundException Always.
+     */
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    /**
+     * Reads several metrics. Names that do not exist are left out.
+     * 
+     * @param attributes The names of the metrics.
+     * @return The metrics that exist.
+     */
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Left out, as the JMX contract asks.
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Rejects every change, since metrics are read-only.
+     * 
+     * @param attributes The attributes to change.
+     * @return An empty list, as none were changed.
+     */
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    /**
+     * Rejects every operation, since the group has none.
+     * 
+     * @param actionName The name of the operation.
+     * @param params The arguments of the operation.
+     * @param signature The parameter types of the operation.
+     * @return Never returns.
+     * @throws ReflectionException Always.
+     */
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    /**
+     * Describes the metrics of the group as read-only attributes of type long.
+     * 
+     * @return The description of the MBean.
+     */
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String counterName : counters.keySet()) {
+            attributes.add(attributeInfo(counterName, "Counter"));
+        }
+        for (String gaugeName : gauges.keySet()) {
+            attributes.add(attributeInfo(gaugeName, "Gauge"));
+        }
+        for (String histogramName : histograms.keySet()) {
+            for (String stat : HISTOGRAM_STATS) {
+                attributes.add(attributeInfo(histogramName + "." + stat, "Latency histogram"));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics of " + name,
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    /**
+     * Describes a single read-only metric.
+     * 
+     * @param attribute The name of the metric.
+     * @param description What kind of metric it is.
+     * @return The description of the attribute.
+     */
+    private static MBeanAttributeInfo attributeInfo(String attribute, String description) {
+        return new MBeanAttributeInfo(attribute, "long", description, true, false, false);
+    }
+}
@@ -0,0 +1,353 @@
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NearCache keeps the results of recent GETs on the client, so that reads of hot keys do not
+ * go to the server. It holds a bounded number of keys and evicts them in the manner of
+ * W-TinyLFU: a key that is read is first kept in a small window of the most recently read
+ * keys, and when it falls out of the window it only takes the place of the least recently
+ * used key of the main part if it has been read more often, going by a sketch of how often
+ * keys were read lately. A burst of keys that are read once cannot push the hot keys out.
+ * 
+ * The cache stays coherent because the learners push the keys they change to it, with the
+ * version of each key after the change; an entry older than that is dropped. A GET that was
+ * on its way while its key changed may bring back the value from before the change, so its
+ * result is only kept if it is at least as new as every change heard of in the meantime.
+ * Entries are served for a limited time at most, in case a change is lost on the way.
+ */
+public class NearCache extends UnicastRemoteObject implements CacheListener {
+    private static final long serialVersionUID = 1L;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int MAX_FREQUENCY = 15;
+    // Counters per row of the sketch for every key the cache holds, so that few keys share one.
+    private static final int SKETCH_WIDTH_PER_KEY = 4;
+    // Odd multipliers that spread the hash of a key differently for every row of the sketch.
+    private static final int[] SKETCH_SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+
+    private final LinkedHashMap<String, Entry> window;
+    private final LinkedHashMap<String, Entry> main;
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final byte[][] sketch;
+    private int sketchReads;
+    private final Map<String, Fill> fills;
+    private final long ttlNanos;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder rejections;
+    private final LongAdder invalidations;
+    private final LongAdder discardedFills;
+    private final LongAdder flushes;
+    private final LatencyRecorder invalidationLag;
+
+    /**
+     * Constructs a NearCache and exports it, so that learners can push changes to it.
+     * 
+     * @param capacity How many keys the cache holds at most.
+     * @param ttlMs How long an entry is served at most, in milliseconds.
+     * @param metrics The metrics of the client, to record hits, misses and invalidations in.
+     * @throws RemoteException If the cache cannot be exported.
+     */
+    public NearCache(int capacity, long ttlMs, Metrics metrics) throws RemoteException {
+        super();
+        this.windowCapacity = Math.max(1, capacity * WINDOW_PERCENT / 100);
+        this.mainCapacity = Math.max(0, capacity - windowCapacity);
+        this.window = new LinkedHashMap<>(16, 0.75f, true);
+        this.main = new LinkedHashMap<>(16, 0.75f, true);
+        this.sketch = new byte[SKETCH_SEEDS.length][Integer.highestOneBit(Math.max(16, capacity) - 1) << 1
+                << Integer.numberOfTrailingZeros(SKETCH_WIDTH_PER_KEY)];
+        this.fills = new HashMap<>();
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.hits = metrics.counter("cacheHits");
+        this.misses = metrics.counter("cacheMisses");
+        this.evictions = metrics.counter("cacheEvictions");
+        this.rejections = metrics.counter("cacheRejections");
+        this.invalidations = metrics.counter("cacheInvalidations");
+        this.discardedFills = metrics.counter("cacheDiscardedFills");
+        this.flushes = metrics.counter("cacheFlushes");
+        this.invalidationLag = metrics.histogram("invalidationLag");
+        metrics.gauge("cacheEntries", this::size);
+        metrics.gauge("cacheHitPercent", () -> {
+            long hitCount = hits.sum();
+            long total = hitCount + misses.sum();
+            return total == 0 ? 0 : hitCount * 100 / total;
+        });
+    }
+
+    /**
+     * Returns the cached result of a GET on a key, and counts the read in the sketch.
+     * 
+     * @param key The key.
+     * @return The result of the GET, or null if the key is not cached or its entry is too old.
+     */
+    public synchronized String get(String key) {
+        countRead(key);
+        Entry entry = window.get(key);
+        if (entry == null) {
+            entry = main.get(key);
+        }
+        if (entry != null && System.nanoTime() - entry.loadedNanos <= ttlNanos) {
+            hits.increment();
+            return entry.answer;
+        }
+        if (entry != null) {
+            window.remove(key);
+            main.remove(key);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Notes that a GET of a key is on its way to the server, so that changes to the key
+     * heard of before its result comes back are held against the result.
+     * 
+     * @param key The key.
+     */
+    public synchronized void startFill(String key) {
+        fills.computeIfAbsent(key, k -> new Fill()).readers++;
+    }
+
+    /**
+     * Caches the result of a GET started with startFill, unless the key has changed to a
+     * newer version, or was deleted, while the GET was on its way.
+     * 
+     * @param key The key.
+     * @param answer The result of the GET, or null if it failed or is not to be cached.
+     * @param version The version of the key the result was read at, or 0 if it has none.
+     */
+    public synchronized void finishFill(String key, String answer, long version) {
+        Fill fill = fills.get(key);
+        if (fill == null) {
+            return;
+        }
+        if (--fill.readers == 0) {
+            fills.remove(key);
+        }
+        if (answer == null) {
+            return;
+        }
+        if (fill.newestChange == 0 || version < fill.newestChange) {
+            discardedFills.increment();
+            return;
+        }
+        Entry cached = main.containsKey(key) ? main.remove(key) : window.remove(key);
+        if (cached != null && cached.version > version) {
+            version = cached.version;
+            answer = cached.answer;
+        }
+        window.put(key, new Entry(answer, version, System.nanoTime()));
+        if (window.size() > windowCapacity) {
+            Iterator<Map.Entry<String, Entry>> eldest = window.entrySet().iterator();
+            Map.Entry<String, Entry> candidate = eldest.next();
+            eldest.remove();
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    /**
+     * Drops a key the client has written itself, whatever version it is at now.
+     * 
+     * @param key The key.
+     */
+    public synchronized void invalidate(String key) {
+        drop(key, 0);
+    }
+
+    /**
+     * Drops the keys a learner has changed, if they are cached at an older version.
+     * 
+     * @param versions The version of every changed key after the change, or 0.
+     * @param appliedAtMillis When the learner applied the oldest of the changes, in
+     *        milliseconds since the epoch.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public void invalidate(Map<String, Long> versions, long appliedAtMillis) throws RemoteException {
+        synchronized (this) {
+            for (Map.Entry<String, Long> change : versions.entrySet()) {
+                drop(change.getKey(), change.getValue());
+            }
+        }
+        recordLag(appliedAtMillis);
+    }
+
+    /**
+     * Drops everything, since a learner has changed too many keys to list them.
+     * 
+     * @param appliedAtMillis When the learner applied the oldest of the changes, in
+     *        milliseconds since the epoch.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public void invalidateAll(long appliedAtMillis) throws RemoteException {
+        flush();
+        recordLag(appliedAtMillis);
+    }
+
+    /**
+     * Drops everything, and holds every change against the GETs that are on their way, e.g.
+     * because changes may have been missed.
+     */
+    public synchronized void flush() {
+        window.clear();
+        main.clear();
+        for (Fill fill : fills.values()) {
+            fill.newestChange = 0;
+        }
+        flushes.increment();
+    }
+
+    /**
+     * Returns the number of keys cached.
+     * 
+     * @return The number of keys.
+     */
+    public synchronized long size() {
+        return window.size() + main.size();
+    }
+
+    /**
+     * Drops a key if it is cached at an older version than the one it has changed to, and
+     * holds the change against the GETs of the key that are on their way.
+     * 
+     * @param key The key.
+     * @param version The version of the key after the change, or 0 if it was deleted or the
+     *        version is not known.
+     */
+    private void drop(String key, long version) {
+        Entry cached = window.containsKey(key) ? window.get(key) : main.get(key);
+        if (cached != null && (version == 0 || cached.version < version)) {
+            window.remove(key);
+            main.remove(key);
+            invalidations.increment();
+        }
+        Fill fill = fills.get(key);
+        if (fill != null && fill.newestChange != 0) {
+            fill.newestChange = version == 0 ? 0 : Math.max(fill.newestChange, version);
+        }
+    }
+
+    /**
+     * Moves a key that fell out of the window into the main part, if there is room or it has
+     * been read more often than the key it would evict.
+     * 
+     * @param key The key.
+     * @param entry The cached entry of the key.
+     */
+    private void admit(String key, Entry entry) {
+        if (main.size() < mainCapacity) {
+            main.put(key, entry);
+            return;
+        }
+        Iterator<String> eldest = main.keySet().iterator();
+        if (eldest.hasNext()) {
+            String victim = eldest.next();
+            if (frequency(key) > frequency(victim)) {
+                eldest.remove();
+                main.put(key, entry);
+                evictions.increment();
+                return;
+            }
+        }
+        rejections.increment();
+    }
+
+    /**
+     * Counts a read of a key in the sketch. Once the sketch has counted ten reads for every
+     * key the cache holds, all counters are halved, so that keys that were hot long ago fade.
+     * 
+     * @param key The key.
+     */
+    private void countRead(String key) {
+        for (int row = 0; row < sketch.length; row++) {
+            int index = index(key, row);
+            if (sketch[row][index] < MAX_FREQUENCY) {
+                sketch[row][index]++;
+            }
+        }
+        if (++sketchReads >= 10 * (windowCapacity + mainCapacity)) {
+            for (byte[] counters : sketch) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>= 1;
+                }
+            }
+            sketchReads = 0;
+        }
+    }
+
+    /**
+     * Returns how often a key was read lately: the lowest of its counters, which other keys
+     * can only have raised.
+     * 
+     * @param key The key.
+     * @return The estimated number of reads, at most 15.
+     */
+    private int frequency(String key) {
+        int frequency = MAX_FREQUENCY;
+        for (int row = 0; row < sketch.length; row++) {
+            frequency = Math.min(frequency, sketch[row][index(key, row)]);
+        }
+        return frequency;
+    }
+
+    /**
+     * Returns the counter of a key in one row of the sketch.
+     * 
+     * @param key The key.
+     * @param row The row.
+     * @return The index of the counter in the row.
+     */
+    private int index(String key, int row) {
+        int hash = key.hashCode() * SKETCH_SEEDS[row];
+        return (hash ^ (hash >>> 16)) & (sketch[row].length - 1);
+    }
+
+    /**
+     * Records how long a change took from being applied by a learner to reaching the cache,
+     * which is how long the cache may have served the value from before it.
+     * 
+     * @param appliedAtMillis When the learner applied the change, in milliseconds since the epoch.
+     */
+    private void recordLag(long appliedAtMillis) {
+        invalidationLag.record(TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - appliedAtMillis)));
+    }
+
+    /**
+     * Entry is the cached result of a GET.
+     */
+    private static final class Entry {
+        private final String answer;
+        private final long version;
+        private final long loadedNanos;
+
+        /**
+         * Constructs an Entry.
+         * 
+         * @param answer The result of the GET.
+         * @param version The version of the key the result was read at, or 0 if it has none.
+         * @param loadedNanos When the result came back, in System.nanoTime.
+         */
+        private Entry(String answer, long version, long loadedNanos) {
+            this.answer = answer;
+            this.version = version;
+            this.loadedNanos = loadedNanos;
+        }
+    }
+
+    /**
+     * Fill keeps track of the GETs of a key that are on their way to the server.
+     */
+    private static final class Fill {
+        private int readers;
+        // The newest version the key changed to meanwhile, 0 after a delete or flush, -1 if none.
+        private long newestChange = -1;
+    }
+}
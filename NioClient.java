@@ -0,0 +1,196 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NioClient sends requests to a NioServer over a single persistent connection. Any number of
+ * threads may send requests at once; each request carries an ID, and a reader thread matches
+ * the responses to the waiting callers in whatever order they arrive. Frames are encoded into
+ * pooled direct buffers.
+ */
+public class NioClient implements Closeable {
+    private final SocketChannel channel;
+    private final BufferPool pool;
+    private final Map<Long, CompletableFuture<byte[]>> pending;
+    private final AtomicLong nextRequestId;
+    private final Object writeLock;
+    private final Thread readerThread;
+    private volatile IOException failure;
+
+    /**
+     * Constructs a NioClient and connects it to the given server.
+     * 
+     * @param host The host of the server.
+     * @param port The port the server listens on.
+     * @throws IOException If the connection cannot be established.
+     */
+    public NioClient(String host, int port) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        this.pool = new BufferPool(PaxosConfig.NIO_BUFFER_BYTES, 16);
+        this.pending = new ConcurrentHashMap<>();
+        this.nextRequestId = new AtomicLong();
+        this.writeLock = new Object();
+        this.readerThread = new Thread(this::readResponses, "NioClient-" + host + ":" + port);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Sends a request without waiting for its response.
+     * 
+     * @param payload The payload of the request.
+     * @return A future that completes with the payload of the response, or exceptionally
+     *         with an IOException if the request failed on the server or the connection broke.
+     */
+    public CompletableFuture<byte[]> send(byte[] payload) {
+        CompletableFuture<byte[]> response = new CompletableFuture<>();
+        IOException broken = failure;
+        if (broken != null) {
+            response.completeExceptionally(broken);
+            return response;
+        }
+        long requestId = nextRequestId.incrementAndGet();
+        pending.put(requestId, response);
+        // The reader may have failed the pending requests just before this one was added.
+        broken = failure;
+        if (broken != null && pending.remove(requestId) != null) {
+            response.completeExceptionally(broken);
+            return response;
+        }
+        try {
+            write(requestId, payload);
+        } catch (IOException e) {
+            pending.remove(requestId);
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     * 
+     * @param payload The payload of the request.
+     * @return The payload of the response.
+     * @throws IOException If the request failed on the server or the connection broke.
+     */
+    public byte[] call(byte[] payload) throws IOException {
+        try {
+            return send(payload).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a response", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Closes the connection and fails every request still waiting for a response.
+     * 
+     * @throws IOException If the connection cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        try {
+            readerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a request frame. Frames that fit are encoded into a single pooled buffer; larger
+     * ones are streamed through it.
+     * 
+     * @param requestId The ID of the request.
+     * @param payload The payload of the request.
+     * @throws IOException If the connection is broken.
+     */
+    private void write(long requestId, byte[] payload) throws IOException {
+        ByteBuffer buffer = pool.acquire();
+        try {
+            synchronized (writeLock) {
+                buffer.putInt(8 + payload.length).putLong(requestId);
+                int offset = 0;
+                while (true) {
+                    int chunk = Math.min(buffer.remaining(), payload.length - offset);
+                    buffer.put(payload, offset, chunk);
+                    offset += chunk;
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                    if (offset == payload.length) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads response frames and completes the matching requests until the connection closes.
+     */
+    private void readResponses() {
+        FrameReader reader = new FrameReader(pool);
+        try {
+            while (true) {
+                if (channel.read(reader.buffer()) < 0) {
+                    throw new IOException("Connection closed by server");
+                }
+                byte[] frame;
+                while ((frame = reader.nextFrame()) != null) {
+                    complete(frame);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            for (Long requestId : pending.keySet()) {
+                CompletableFuture<byte[]> response = pending.remove(requestId);
+                if (response != null) {
+                    response.completeExceptionally(e);
+                }
+            }
+        } finally {
+            reader.release();
+        }
+    }
+
+    /**
+     * Completes the request a response frame belongs to.
+     * 
+     * @param frame The body of the response frame.
+     */
+    private void complete(byte[] frame) {
+        ByteBuffer response = ByteBuffer.wrap(frame);
+        long requestId = response.getLong();
+        byte status = response.get();
+        byte[] payload = new byte[response.remaining()];
+        response.get(payload);
+        CompletableFuture<byte[]> future = pending.remove(requestId);
+        if (future == null) {
+            return;
+        }
+        if (status == NioServer.OK) {
+            future.complete(payload);
+        } else {
+            future.completeExceptionally(new IOException(new String(payload, StandardCharsets.UTF_8)));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * NioProposerStub is the client side of a proposer exported over the NIO transport. It
+ * implements the Proposer interface, so callers do not need to know which transport they use.
+ */
+public class NioProposerStub implements Proposer, Closeable {
+    private final NioClient client;
+
+    /**
+     * Constructs a NioProposerStub connected to the NIO endpoint of a server.
+     * 
+     * @param host The host of the server.
+     * @param port The port of the NIO endpoint.
+     * @throws IOException If the connection cannot be established.
+     */
+    public NioProposerStub(String host, int port) throws IOException {
+        this.client = new NioClient(host, port);
+    }
+
+    /**
+     * A command that is proposed to the Distributed System by clients, using PAXOS. 
+     * 
+     * @param command The command that has been proposed (Example: 'GET', 'PUT', 'DELETE')
+     * @param args Arguments for the command, if any.
+     * @return A String depicting the result of execution of the command proposed.
+     * @throws RemoteException If the command fails or the connection is broken.
+     */
+    @Override
+    public String propose(String command, String[] args) throws RemoteException {
+        try {
+            return ProposerFrames.decodeResponse(client.call(ProposerFrames.encodeRequest(command, args)));
+        } catch (IOException e) {
+            throw new RemoteException("Error executing command", e);
+        }
+    }
+
+    /**
+     * Proposes a command without waiting for its result, so that a single thread can keep
+     * many commands in flight on the connection.
+     * 
+     * @param command The command that has been proposed.
+     * @param args Arguments for the command, if any.
+     * @return A future that completes with the result of the command.
+     */
+    public CompletableFuture<String> proposeAsync(String command, String[] args) {
+        return client.send(ProposerFrames.encodeRequest(command, args)).thenApply(ProposerFrames::decodeResponse);
+    }
+
+    /**
+     * Closes the connection to the server.
+     * 
+     * @throws IOException If the connection cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * NioServer serves requests sent as length-prefixed frames over persistent connections. A
+ * single selector thread accepts connections, reads and writes; requests are handled on an
+ * executor, so many requests from one connection can be in flight at once and their
+ * responses may be sent in any order.
+ * 
+ * A request frame body is {@code [long requestId][payload]}, a response frame body is
+ * {@code [long requestId][byte status][payload]}, where status is OK or ERROR and the payload
+ * of an error is its message in UTF-8.
+ */
+public class NioServer implements Closeable {
+
+    /**
+     * Handles the payload of a single request.
+     */
+    public interface Handler {
+
+        /**
+         * Handles a request.
+         * 
+         * @param request The payload of the request.
+         * @return The payload of the response.
+         * @throws Exception If the request fails; its message is sent back as an error.
+         */
+        byte[] handle(byte[] request) throws Exception;
+    }
+
+    /** Status of a response that carries the result of the request. */
+    public static final byte OK = 0;
+
+    /** Status of a response that carries the message of a failed request. */
+    public static final byte ERROR = 1;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Handler handler;
+    private final ExecutorService executor;
+    private final BufferPool pool;
+    private final Queue<Connection> pendingWrites;
+    private final Thread selectorThread;
+    private volatile boolean running;
+    private static final Logger logger = LoggerConfig.createLogger("Transport");
+
+    /**
+     * Constructs a NioServer listening on the given port and starts its selector thread.
+     * 
+     * @param port The port to listen on.
+     * @param handler The handler requests are passed to.
+     * @param executor The executor requests are handled on.
+     * @throws IOException If the port cannot be bound.
+     */
+    public NioServer(int port, Handler handler, ExecutorService executor) throws IOException {
+        this.handler = handler;
+        this.executor = executor;
+        this.pool = new BufferPool(PaxosConfig.NIO_BUFFER_BYTES, 256);
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.running = true;
+        this.selectorThread = new Thread(this::run, "NioServer-" + port);
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        logger.info("NIO transport listening on port " + port);
+    }
+
+    /**
+     * Stops the selector thread and closes every connection.
+     * 
+     * @throws IOException If the server channel cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        selector.close();
+        serverChannel.close();
+    }
+
+    /**
+     * Runs the selector loop until the server is closed.
+     */
+    private void run() {
+        while (running) {
+            try {
+                selector.select();
+                Connection connection;
+                while ((connection = pendingWrites.poll()) != null) {
+                    if (connection.key.isValid()) {
+                        connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection current = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            current.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            current.write();
+                        }
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Closing connection: {0}", e.getMessage());
+                        current.close();
+                    }
+                }
+            } catch (IOException e) {
+                logger.warning("Selector failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accepts a new connection and registers it for reading.
+     * 
+     * @throws IOException If the connection cannot be set up.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    /**
+     * Handles a request on the executor. If the executor turns it away, e.g. because its
+     * queue is full, the request is answered with an error right away.
+     * 
+     * @param connection The connection the request arrived on.
+     * @param frame The body of the request frame.
+     */
+    private void dispatch(Connection connection, byte[] frame) {
+        ByteBuffer request = ByteBuffer.wrap(frame);
+        long requestId = request.getLong();
+        try {
+            executor.execute(() -> handle(connection, requestId, request));
+        } catch (RejectedExecutionException e) {
+            connection.send(requestId, ERROR, "Server busy: too many requests waiting.".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Runs the handler for a request and queues its response on the connection.
+     * 
+     * @param connection The connection the request arrived on.
+     * @param requestId The ID of the request, echoed in the response.
+     * @param request The body of the request frame, positioned after the request ID.
+     */
+    private void handle(Connection connection, long requestId, ByteBuffer request) {
+        byte[] payload = new byte[request.remaining()];
+        request.get(payload);
+        byte status = OK;
+        byte[] response;
+        try {
+            response = handler.handle(payload);
+        } catch (Exception e) {
+            status = ERROR;
+            response = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+        }
+        connection.send(requestId, status, response);
+    }
+
+    /**
+     * A client connection with its partly read frame and the responses waiting to be written.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final FrameReader reader;
+        private final Queue<ByteBuffer> writes;
+        private boolean closed;
+        private SelectionKey key;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.reader = new FrameReader(pool);
+            this.writes = new ArrayDeque<>();
+        }
+
+        /**
+         * Reads what the socket has and dispatches every complete request.
+         * 
+         * @throws IOException If the connection is closed or sends an invalid frame.
+         */
+        private void read() throws IOException {
+            if (channel.read(reader.buffer()) < 0) {
+                throw new IOException("Connection closed by peer");
+            }
+            byte[] frame;
+            while ((frame = reader.nextFrame()) != null) {
+                dispatch(this, frame);
+            }
+        }
+
+        /**
+         * Encodes a response into a pooled buffer and writes it right away if no other
+         * response is queued and the socket takes all of it. Otherwise the selector thread is
+         * asked to write it once the socket is writable.
+         * 
+         * @param requestId The ID of the request the response belongs to.
+         * @param status OK or ERROR.
+         * @param payload The payload of the response.
+         */
+        private void send(long requestId, byte status, byte[] payload) {
+            int frameBytes = 4 + 8 + 1 + payload.length;
+            ByteBuffer buffer = frameBytes <= pool.getBufferBytes() ? pool.acquire() : ByteBuffer.allocate(frameBytes);
+            buffer.putInt(8 + 1 + payload.length).putLong(requestId).put(status).put(payload).flip();
+            synchronized (this) {
+                if (writes.isEmpty()) {
+                    try {
+                        channel.write(buffer);
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Closing connection: {0}", e.getMessage());
+                        close();
+                        return;
+                    }
+                    if (!buffer.hasRemaining()) {
+                        pool.release(buffer);
+                        return;
+                    }
+                }
+                writes.add(buffer);
+            }
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Writes queued responses until the socket would block or the queue is empty.
+         * 
+         * @throws IOException If the connection is closed.
+         */
+        private synchronized void write() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = writes.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                writes.poll();
+                pool.release(buffer);
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (!writes.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Closes the connection and returns its read buffer to the pool.
+         */
+        private synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed to close connection: {0}", e.getMessage());
+            }
+            // Only the selector thread reads, so only it may hand the read buffer back.
+            if (Thread.currentThread() == selectorThread || !selectorThread.isAlive()) {
+                reader.release();
+            }
+            writes.clear();
+        }
+    }
+}
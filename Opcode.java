@@ -0,0 +1,83 @@
+/**
+ * Opcode identifies the operation of a Command in its binary encoding.
+ */
+public enum Opcode {
+
+    /** Stores a value under a key. */
+    PUT((byte) 1),
+
+    /** Removes a key. */
+    DELETE((byte) 2),
+
+    /** Stores a value under a key if the key currently holds the expected value. */
+    CAS((byte) 3),
+
+    /** Stores a value under a key if the key is currently at the expected version. */
+    CAS_VERSION((byte) 4),
+
+    /** Stores a value under a key if the key does not exist. */
+    PUT_IF_ABSENT((byte) 5),
+
+    /** Removes a key if it currently holds the expected value. */
+    DELETE_IF_EQUALS((byte) 6),
+
+    /** Adds the value, a whole number, to the number stored under a key. */
+    INCREMENT((byte) 7);
+
+    private static final Opcode[] BY_CODE = new Opcode[8];
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code] = opcode;
+        }
+    }
+
+    private final byte code;
+
+    Opcode(byte code) {
+        this.code = code;
+    }
+
+    /**
+     * Returns the byte the opcode is encoded as.
+     * 
+     * @return The code of the opcode.
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Tells whether the operation depends on the current state of the key, so that its
+     * outcome is only known once a learner has applied it.
+     * 
+     * @return true for the conditional operations and INCREMENT.
+     */
+    public boolean isConditional() {
+        return this != PUT && this != DELETE;
+    }
+
+    /**
+     * Tells whether commands with this opcode carry an expected value in their encoding.
+     * 
+     * @return true for CAS, CAS_VERSION and DELETE_IF_EQUALS.
+     */
+    public boolean takesExpected() {
+        return this == CAS || this == CAS_VERSION || this == DELETE_IF_EQUALS;
+    }
+
+    /**
+     * Returns the opcode encoded as the given byte.
+     * 
+     * @param code The encoded opcode.
+     * @return The opcode.
+     * @throws IllegalArgumentException If no opcode has that code.
+     */
+    public static Opcode fromCode(byte code) {
+        Opcode opcode = code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+        if (opcode == null) {
+            throw new IllegalArgumentException("Unknown opcode: " + code);
+        }
+        return opcode;
+    }
+}
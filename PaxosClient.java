@@ -0,0 +1,575 @@
+import java.io.Closeable;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * PaxosClient is a Proposer for clients that keeps working while roles come and go. It looks
+ * up the stub of every role bound in the server's registry once and keeps it, so that a role
+ * the FailureSimulator unbinds stays reachable through its cached stub; a stub is only
+ * dropped once a call on it finds nothing listening, and looked up again when the role is
+ * rebound. Every few seconds the client looks for roles it has not seen yet.
+ * 
+ * With several shards, commands on a single key go straight to the proposer of the key's
+ * shard instead of through the ShardRouter, as long as that proposer is reachable; the
+ * number of shards is taken from the router, so a key is never sent to the wrong shard.
+ * 
+ * Requests that fail are retried after an exponential backoff with full jitter, so that
+ * clients that failed together do not retry together: always if the request never reached
+ * the server or the server turned it away as busy, and otherwise only for reads. The server
+ * does not recognise a request it has already applied, and every write bumps the version of
+ * its key, so a write that failed after reaching the server is not sent again. A GET that
+ * has not been answered after the 95th percentile of recent GET latencies is sent a second
+ * time, to the router if the first went to a shard's proposer and otherwise to the same
+ * proposer, which serves it from its next learner; the first answer wins.
+ * 
+ * With paxos.clientCacheEntries set, GETs are served from a NearCache where possible. The
+ * client subscribes the cache to a learner of every shard, which pushes it the keys it
+ * changes; every refresh the client subscribes again, and if a learner had lost the
+ * subscription, or the client has to move to another learner, the cache is flushed, since
+ * changes may have been missed. Until every shard has a subscribed learner, GETs go to the
+ * server. The client drops the keys it writes itself from the cache, so it always reads its
+ * own writes.
+ */
+public class PaxosClient implements Proposer, Closeable {
+    private static final String ROUTER = "Proposer";
+    private static final Pattern SHARD_ROLE = Pattern.compile("Shard\\d+-.*");
+    private static final Pattern SHARD_LINE = Pattern.compile("shard\\d+: .*");
+    private static final Pattern LEARNER_ROLE = Pattern.compile("(Shard\\d+-)?Learner\\d+");
+    private static final Set<String> ROUTED =
+            Set.of("MGET", "MPUT", "MDELETE", "SCAN", "PREFIX", "STATS");
+    private static final Set<String> READS = Set.of("GET", "GETV", "MGET", "SCAN", "PREFIX", "STATS");
+    private static final String VERSION_SUFFIX = " (version ";
+    private static final String NOT_FOUND = "No record found.";
+    private static final double HEDGE_QUANTILE = 0.95;
+    private static final int HEDGE_MIN_SAMPLES = 20;
+
+    private final Registry registry;
+    private final Map<String, Remote> stubs;
+    private final ScheduledExecutorService refresher;
+    private final ExecutorService hedger;
+    private volatile int shardCount;
+    private volatile boolean sharded;
+    private volatile long hedgeDelayNanos;
+    private LatencyHistogram lastGets;
+    private final NearCache cache;
+    // The learner the cache is subscribed to for every shard, by the prefix of the shard's roles.
+    private final Map<String, String> subscriptions;
+    private volatile boolean subscribed;
+    private final Metrics metrics;
+    private final LatencyRecorder getLatency;
+    private final LongAdder retries;
+    private final LongAdder hedges;
+    private final LongAdder hedgeWins;
+    private final LongAdder droppedStubs;
+    private static final Logger logger = LoggerConfig.createLogger("Client");
+
+    /**
+     * Constructs a PaxosClient and looks up the roles bound in the server's registry.
+     * 
+     * @param host The host of the server.
+     * @param port The port of the server's registry.
+     * @throws RemoteException If the registry cannot be reached.
+     */
+    public PaxosClient(String host, int port) throws RemoteException {
+        this.registry = LocateRegistry.getRegistry(host, port);
+        this.stubs = new ConcurrentHashMap<>();
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PaxosClient-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hedger = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "PaxosClient-hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hedgeDelayNanos = -1;
+        this.metrics = new Metrics("Client");
+        this.getLatency = metrics.histogram("get");
+        this.retries = metrics.counter("retries");
+        this.hedges = metrics.counter("hedges");
+        this.hedgeWins = metrics.counter("hedgeWins");
+        this.droppedStubs = metrics.counter("droppedStubs");
+        metrics.gauge("cachedStubs", stubs::size);
+        metrics.gauge("hedgeDelayMicros", () -> hedgeDelayNanos / 1000);
+        this.cache = PaxosConfig.CLIENT_CACHE_ENTRIES > 0
+                ? new NearCache(PaxosConfig.CLIENT_CACHE_ENTRIES, PaxosConfig.CLIENT_CACHE_TTL_MS, metrics) : null;
+        this.subscriptions = new ConcurrentHashMap<>();
+
+        refreshStubs();
+        if (cache != null) {
+            subscribe();
+        }
+        refresher.scheduleWithFixedDelay(this::refresh, PaxosConfig.CLIENT_REFRESH_MS, PaxosConfig.CLIENT_REFRESH_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a command to the proposer that serves it, retrying it if that is safe. A GET is
+     * served from the near cache if it holds the key.
+     * 
+     * @param command The command that has been proposed (Example: 'GET', 'PUT', 'DELETE')
+     * @param args Arguments for the command, if any.
+     * @return A String depicting the result of execution of the command proposed.
+     * @throws RemoteException If the command still fails after the last retry, or fails in
+     *         a way that is not safe to retry.
+     */
+    @Override
+    public String propose(String command, String[] args) throws RemoteException {
+        if (cache == null || (READS.contains(command) && !command.equals("GET")) || args.length == 0) {
+            return send(command, args);
+        }
+        if (command.equals("GET")) {
+            return cachedGet(args);
+        }
+        try {
+            return send(command, args);
+        } finally {
+            // Dropped even if the write failed, since it may have been applied anyway.
+            if (command.equals("MPUT")) {
+                for (int i = 0; i < args.length; i += 2) {
+                    cache.invalidate(args[i]);
+                }
+            } else if (command.equals("MDELETE")) {
+                for (String key : args) {
+                    cache.invalidate(key);
+                }
+            } else {
+                cache.invalidate(args[0]);
+            }
+        }
+    }
+
+    /**
+     * Serves a GET from the near cache, or reads the key with its version and caches the
+     * result.
+     * 
+     * @param args The arguments of the GET.
+     * @return The value of the key, or indicating no match found.
+     * @throws RemoteException If the read still fails after the last retry.
+     */
+    private String cachedGet(String[] args) throws RemoteException {
+        String key = args[0];
+        // Only results read while every shard had a subscribed learner are kept.
+        boolean coherent = subscribed;
+        if (coherent) {
+            String answer = cache.get(key);
+            if (answer != null) {
+                return answer;
+            }
+        }
+        cache.startFill(key);
+        String answer = null;
+        long version = 0;
+        try {
+            String result = send("GETV", args);
+            int suffix = result.lastIndexOf(VERSION_SUFFIX);
+            if (suffix >= 0 && result.endsWith(")")) {
+                version = Long.parseLong(result.substring(suffix + VERSION_SUFFIX.length(), result.length() - 1));
+                answer = result.substring(0, suffix);
+            } else if (result.equals(NOT_FOUND)) {
+                answer = result;
+            } else {
+                return result;
+            }
+            return answer;
+        } finally {
+            cache.finishFill(key, coherent && subscribed ? answer : null, version);
+        }
+    }
+
+    /**
+     * Sends a command to the proposer that serves it, retrying it if that is safe.
+     * 
+     * @param command The command.
+     * @param args The arguments of the command.
+     * @return The result of the command.
+     * @throws RemoteException If the command still fails after the last retry, or fails in
+     *         a way that is not safe to retry.
+     */
+    private String send(String command, String[] args) throws RemoteException {
+        boolean read = command.equals("GET") || command.equals("GETV");
+        for (int attempt = 0; ; attempt++) {
+            String name = endpointFor(command, args);
+            try {
+                Proposer proposer = proposer(name);
+                if (read && PaxosConfig.CLIENT_HEDGE_READS && hedgeDelayNanos >= 0) {
+                    return hedgedGet(name, proposer, command, args);
+                }
+                long start = System.nanoTime();
+                String result = proposer.propose(command, args);
+                if (read) {
+                    getLatency.recordSince(start);
+                }
+                return result;
+            } catch (RemoteException e) {
+                boolean unreached = isUnreached(e);
+                if (unreached) {
+                    dropStub(name);
+                }
+                if (attempt >= PaxosConfig.CLIENT_RETRIES
+                        || !(unreached || isBusy(e) || READS.contains(command))) {
+                    throw e;
+                }
+                logger.warning(command + " on " + name + " failed, retrying: " + e.getMessage());
+                retries.increment();
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Sends a GET or GETV and, if it has not been answered within the hedge delay, sends it
+     * a second time. The latency of the first request is recorded either way, so that the delay
+     * follows the latency of single requests rather than of hedged ones.
+     * 
+     * @param name The name of the proposer the GET goes to first.
+     * @param proposer The proposer the GET goes to first.
+     * @param command GET or GETV.
+     * @param args The arguments of the GET.
+     * @return The first answer.
+     * @throws RemoteException If the first request fails before the hedge delay, or both
+     *         fail; the failure of the first is thrown.
+     */
+    private String hedgedGet(String name, Proposer proposer, String command, String[] args) throws RemoteException {
+        long start = System.nanoTime();
+        CompletableFuture<String> first = call(proposer, command, args);
+        first.thenRun(() -> getLatency.recordSince(start));
+        try {
+            return first.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            hedges.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for GET", e);
+        } catch (ExecutionException e) {
+            throw asRemoteException(e.getCause());
+        }
+
+        Remote router = stubs.get(ROUTER);
+        Proposer second = !name.equals(ROUTER) && router != null ? (Proposer) router : proposer;
+        CompletableFuture<String> hedge = call(second, command, args);
+        CompletableFuture<String> answer = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        first.whenComplete((result, failure) -> {
+            if (failure == null) {
+                answer.complete(result);
+            } else if (failures.incrementAndGet() == 2) {
+                answer.completeExceptionally(failure);
+            }
+        });
+        hedge.whenComplete((result, failure) -> {
+            if (failure == null) {
+                if (answer.complete(result)) {
+                    hedgeWins.increment();
+                }
+            } else if (failures.incrementAndGet() == 2) {
+                first.whenComplete((r, firstFailure) -> answer.completeExceptionally(firstFailure));
+            }
+        });
+        try {
+            return answer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for GET", e);
+        } catch (ExecutionException e) {
+            throw asRemoteException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends a GET on a thread of the hedging pool.
+     * 
+     * @param proposer The proposer to send the GET to.
+     * @param command GET or GETV.
+     * @param args The arguments of the GET.
+     * @return A future of the answer, completing exceptionally with the RemoteException of a
+     *         failed request.
+     */
+    private CompletableFuture<String> call(Proposer proposer, String command, String[] args) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return proposer.propose(command, args);
+            } catch (RemoteException e) {
+                throw new CompletionException(e);
+            }
+        }, hedger);
+    }
+
+    /**
+     * Returns the name of the proposer a command goes to: the proposer of the key's shard for
+     * a command on a single key, if the number of shards is known and that proposer is
+     * reachable, and the router otherwise.
+     * 
+     * @param command The command.
+     * @param args The arguments of the command.
+     * @return The registry name of the proposer.
+     */
+    private String endpointFor(String command, String[] args) {
+        int shards = shardCount;
+        if (shards > 1 && args.length > 0 && !ROUTED.contains(command)) {
+            String name = "Shard" + ShardRouter.shardOf(args[0], shards) + "-Proposer";
+            if (stubs.containsKey(name)) {
+                return name;
+            }
+        }
+        return ROUTER;
+    }
+
+    /**
+     * Returns the cached stub of a proposer, looking it up if there is none.
+     * 
+     * @param name The registry name of the proposer.
+     * @return The stub.
+     * @throws RemoteException If the proposer is not bound or the registry cannot be reached.
+     */
+    private Proposer proposer(String name) throws RemoteException {
+        Remote stub = stubs.get(name);
+        if (stub == null) {
+            try {
+                stub = registry.lookup(name);
+            } catch (NotBoundException e) {
+                throw new NoSuchObjectException(name + " is not bound");
+            }
+            stubs.put(name, stub);
+        }
+        return (Proposer) stub;
+    }
+
+    /**
+     * Drops the cached stub of a role that could not be reached, so that the next request
+     * looks it up again or goes to another proposer.
+     * 
+     * @param name The registry name of the role.
+     */
+    private void dropStub(String name) {
+        if (stubs.remove(name) != null) {
+            droppedStubs.increment();
+        }
+    }
+
+    /**
+     * Tells whether a request failed before it reached the server, so that it cannot have
+     * taken effect: nothing was listening, the remote object is gone, or it was not bound.
+     * 
+     * @param e The failure.
+     * @return true if the request certainly did not reach the server.
+     */
+    private static boolean isUnreached(RemoteException e) {
+        return e instanceof ConnectException || e instanceof ConnectIOException || e instanceof NoSuchObjectException;
+    }
+
+    /**
+     * Tells whether the server turned a request away because it was busy, before running it.
+     * RMI hands an exception thrown by the server to the client wrapped in a ServerException.
+     * Only a ServerBusyException thrown by the proposer the request went to counts; one a
+     * multi-key command ran into on one of its shards is wrapped deeper and may come with
+     * the other shards having applied their part.
+     * 
+     * @param e The failure.
+     * @return true if the request was turned away as busy.
+     */
+    private static boolean isBusy(RemoteException e) {
+        return e instanceof ServerBusyException
+                || e instanceof ServerException && e.getCause() instanceof ServerBusyException;
+    }
+
+    /**
+     * Waits before a retry for a random time between 0 and the exponential backoff of the
+     * attempt.
+     * 
+     * @param attempt The number of the attempt that failed, starting at 0.
+     * @throws RemoteException If the thread is interrupted while waiting.
+     */
+    private static void backOff(int attempt) throws RemoteException {
+        long backoff = Math.min(PaxosConfig.CLIENT_MAX_BACKOFF_MS,
+                PaxosConfig.CLIENT_BACKOFF_MS << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while backing off", e);
+        }
+    }
+
+    /**
+     * Turns the failure of a request on the hedging pool back into a RemoteException.
+     * 
+     * @param failure The failure.
+     * @return The RemoteException.
+     */
+    private static RemoteException asRemoteException(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure instanceof RemoteException ? (RemoteException) failure
+                : new RemoteException("Error executing command", failure);
+    }
+
+    /**
+     * Looks up the roles that are bound but not cached yet, renews the subscriptions of the
+     * near cache and recomputes the hedge delay.
+     */
+    private void refresh() {
+        try {
+            refreshStubs();
+        } catch (RemoteException e) {
+            logger.warning("Failed to refresh the roles of the server: " + e.getMessage());
+        }
+        if (cache != null) {
+            subscribe();
+        }
+        updateHedgeDelay();
+    }
+
+    /**
+     * Subscribes the near cache to a learner of every shard, or checks that it still is.
+     * The cache only serves GETs while every shard has a subscribed learner.
+     */
+    private void subscribe() {
+        List<String> prefixes = new ArrayList<>();
+        if (!sharded) {
+            prefixes.add("");
+        }
+        for (int shard = 0; sharded && shard < shardCount; shard++) {
+            prefixes.add("Shard" + shard + "-");
+        }
+        boolean all = !prefixes.isEmpty();
+        for (String prefix : prefixes) {
+            all &= subscribe(prefix);
+        }
+        subscribed = all;
+    }
+
+    /**
+     * Subscribes the near cache to a learner of one shard, preferring the one it is
+     * subscribed to already, and flushes the cache if changes may have been missed.
+     * 
+     * @param prefix The prefix of the names of the shard's roles.
+     * @return true if the cache is subscribed to a learner of the shard.
+     */
+    private boolean subscribe(String prefix) {
+        String current = subscriptions.get(prefix);
+        List<String> learners = new ArrayList<>();
+        for (String name : stubs.keySet()) {
+            if (name.startsWith(prefix) && LEARNER_ROLE.matcher(name).matches() && !name.equals(current)) {
+                learners.add(name);
+            }
+        }
+        Collections.sort(learners);
+        if (current != null) {
+            learners.add(0, current);
+        }
+        for (String name : learners) {
+            Remote stub = stubs.get(name);
+            if (stub == null) {
+                continue;
+            }
+            try {
+                boolean added = ((Learner) stub).subscribe(cache);
+                if (added && current != null) {
+                    logger.warning("Flushing the near cache, since " + name + " may not have sent every change");
+                    cache.flush();
+                }
+                subscriptions.put(prefix, name);
+                return true;
+            } catch (RemoteException e) {
+                if (isUnreached(e)) {
+                    dropStub(name);
+                }
+                logger.warning("Failed to subscribe the near cache to " + name + ": " + e.getMessage());
+            }
+        }
+        if (subscriptions.remove(prefix) != null) {
+            cache.flush();
+        }
+        return false;
+    }
+
+    /**
+     * Looks up every role that is bound in the registry but not cached yet. Cached roles that
+     * are no longer bound are kept, since their stubs keep working. The first time roles of
+     * several shards show up, the number of shards is taken from the router.
+     * 
+     * @throws RemoteException If the registry cannot be reached.
+     */
+    private void refreshStubs() throws RemoteException {
+        for (String name : registry.list()) {
+            if (!stubs.containsKey(name)) {
+                try {
+                    stubs.put(name, registry.lookup(name));
+                } catch (NotBoundException e) {
+                    // Unbound since it was listed; looked for again next time.
+                }
+            }
+            sharded |= SHARD_ROLE.matcher(name).matches();
+        }
+        if (sharded && shardCount == 0 && stubs.containsKey(ROUTER)) {
+            int shards = 0;
+            for (String line : ((Proposer) stubs.get(ROUTER)).propose("STATS", new String[0]).split("\n")) {
+                if (SHARD_LINE.matcher(line).matches()) {
+                    shards++;
+                }
+            }
+            shardCount = shards;
+            logger.info("Routing single-key commands straight to the proposers of " + shards + " shards");
+        }
+    }
+
+    /**
+     * Sets the hedge delay to the 95th percentile of the GETs since the delay was last set,
+     * once there have been enough of them to tell.
+     */
+    private void updateHedgeDelay() {
+        LatencyHistogram all = getLatency.snapshot();
+        LatencyHistogram recent = lastGets != null ? all.minus(lastGets) : all;
+        if (recent.getCount() >= HEDGE_MIN_SAMPLES) {
+            hedgeDelayNanos = recent.percentile(HEDGE_QUANTILE);
+            lastGets = all;
+        }
+    }
+
+    /**
+     * Stops the background threads of the client and stops the learners from reaching its
+     * near cache. Requests that are still outstanding complete.
+     */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+        hedger.shutdown();
+        if (cache != null) {
+            try {
+                UnicastRemoteObject.unexportObject(cache, true);
+            } catch (NoSuchObjectException e) {
+                // Not exported any more.
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * PaxosConfig holds the tunable settings of the PAXOS roles. Every setting can be overridden
+ * with a system property, e.g. {@code java -Dpaxos.multiPaxos=false RMIServer 32000}.
+ */
+public final class PaxosConfig {
+
+    /** Whether the proposer keeps its ballot across writes and skips Phase 1 (Multi-PAXOS). */
+    public static final boolean MULTI_PAXOS =
+            Boolean.parseBoolean(System.getProperty("paxos.multiPaxos", "true"));
+
+    /** Whether writes are committed by tracking per-key dependencies instead of in log slots. */
+    public static final boolean EPAXOS =
+            Boolean.parseBoolean(System.getProperty("paxos.epaxos", "false"));
+
+    /** How long a dependency-tracking leader waits for the last acceptors after a majority, in milliseconds. */
+    public static final long FAST_PATH_WAIT_MS = Long.getLong("paxos.fastPathWaitMs", 10);
+
+    /** How many independent PAXOS groups the key space is split across. */
+    public static final int SHARDS = Integer.getInteger("paxos.shards", 1);
+
+    /** The ID of the proposer, used to make its ballots unique. */
+    public static final int PROPOSER_ID = Integer.getInteger("paxos.proposerId", 1);
+
+    /** How long a single phase waits for a majority of acceptors, in milliseconds. */
+    public static final long PHASE_TIMEOUT_MS = Long.getLong("paxos.phaseTimeoutMs", 2000);
+
+    /** How many ballots the proposer tries before giving up on becoming the leader. */
+    public static final int MAX_PREPARE_ATTEMPTS = Integer.getInteger("paxos.maxPrepareAttempts", 3);
+
+    /** How long a batch of commands stays open after its first command, in milliseconds. */
+    public static final long BATCH_WINDOW_MS = Long.getLong("paxos.batchWindowMs", 2);
+
+    /** The size at which a batch of commands is closed early, in bytes. */
+    public static final int MAX_BATCH_BYTES = Integer.getInteger("paxos.maxBatchBytes", 64 * 1024);
+
+    /** How many PAXOS instances the proposer keeps in flight at once. */
+    public static final int PIPELINE_DEPTH = Integer.getInteger("paxos.pipelineDepth", 8);
+
+    /** The size above which a value is uploaded to the learners as a payload instead of sent through PAXOS, in bytes; 0 turns it off. */
+    public static final int LARGE_VALUE_BYTES = Integer.getInteger("paxos.largeValueBytes", 64 * 1024);
+
+    /** The size of the chunks a payload is uploaded and fetched in, in bytes. */
+    public static final int PAYLOAD_CHUNK_BYTES = Integer.getInteger("paxos.payloadChunkBytes", 256 * 1024);
+
+    /** Whether payloads are compressed with Deflate when that makes them smaller. */
+    public static final boolean COMPRESS_PAYLOADS =
+            Boolean.parseBoolean(System.getProperty("paxos.compressPayloads", "true"));
+
+    /** How long a learner keeps a payload that no applied slot refers to, in milliseconds. */
+    public static final long PAYLOAD_RETENTION_MS = Long.getLong("paxos.payloadRetentionMs", 10 * 60 * 1000);
+
+    /** The directory the acceptors keep their write-ahead logs in. */
+    public static final String DATA_DIR = System.getProperty("paxos.dataDir", "paxos-data");
+
+    /** When acceptors force their write-ahead log to disk: PER_OP, GROUP or PERIODIC. */
+    public static final FsyncPolicy FSYNC_POLICY =
+            FsyncPolicy.valueOf(System.getProperty("paxos.fsyncPolicy", "GROUP"));
+
+    /** How often the write-ahead log is forced to disk under the PERIODIC policy, in milliseconds. */
+    public static final long FSYNC_INTERVAL_MS = Long.getLong("paxos.fsyncIntervalMs", 10);
+
+    /** The size at which an acceptor starts a new write-ahead log segment, in bytes. */
+    public static final long WAL_SEGMENT_BYTES = Long.getLong("paxos.walSegmentBytes", 16 * 1024 * 1024);
+
+    /** How many slots a learner applies between two snapshots of its key-value store. */
+    public static final long SNAPSHOT_EVERY_SLOTS = Long.getLong("paxos.snapshotEverySlots", 1000);
+
+    /** What a learner keeps its key-value pairs in: HEAP or SLAB. */
+    public static final StoreEngine STORE_ENGINE =
+            StoreEngine.valueOf(System.getProperty("paxos.storeEngine", "HEAP"));
+
+    /** Whether learners keep their keys in order as well, which SCAN and PREFIX need. */
+    public static final boolean ORDERED_INDEX =
+            Boolean.parseBoolean(System.getProperty("paxos.orderedIndex", "true"));
+
+    /** How many keys a page of SCAN or PREFIX holds if the client gives no limit. */
+    public static final int SCAN_PAGE_KEYS = Integer.getInteger("paxos.scanPageKeys", 100);
+
+    /** About how many characters of keys and values a page of SCAN or PREFIX holds at most. */
+    public static final int SCAN_PAGE_CHARS = Integer.getInteger("paxos.scanPageChars", 256 * 1024);
+
+    /** How often a learner checks whether its peers have applied slots it is missing, in milliseconds. */
+    public static final long CATCH_UP_INTERVAL_MS = Long.getLong("paxos.catchUpIntervalMs", 500);
+
+    /** How many slots a learner fetches from a peer at once while catching up. */
+    public static final int CATCH_UP_BATCH_SLOTS = Integer.getInteger("paxos.catchUpBatchSlots", 1000);
+
+    /** How often a learner compares the Merkle digest of its store with its peers, in milliseconds. */
+    public static final long ANTI_ENTROPY_INTERVAL_MS = Long.getLong("paxos.antiEntropyIntervalMs", 5000);
+
+    /** How GET commands are served by the learners: LEASE, READ_INDEX or STALE. */
+    public static final ReadMode READ_MODE =
+            ReadMode.valueOf(System.getProperty("paxos.readMode", "LEASE"));
+
+    /** How long acceptors refuse other proposers after hearing from the leader, in milliseconds. */
+    public static final long LEASE_MS = Long.getLong("paxos.leaseMs", 2000);
+
+    /** How long before a STALE read a write must have been acknowledged to be visible to it, in milliseconds. */
+    public static final long MAX_STALENESS_MS = Long.getLong("paxos.maxStalenessMs", 1000);
+
+    /** How clients reach the proposer: RMI or NIO. */
+    public static final Transport TRANSPORT =
+            Transport.valueOf(System.getProperty("paxos.transport", "RMI"));
+
+    /** The size of the pooled direct buffers the NIO transport reads and writes frames with, in bytes. */
+    public static final int NIO_BUFFER_BYTES = Integer.getInteger("paxos.nioBufferBytes", 64 * 1024);
+
+    /** How many client requests a proposer works on at once. */
+    public static final int MAX_IN_FLIGHT_REQUESTS = Integer.getInteger("paxos.maxInFlightRequests", 1024);
+
+    /** How many client requests may wait to be worked on before new ones are turned away as busy. */
+    public static final int MAX_QUEUED_REQUESTS = Integer.getInteger("paxos.maxQueuedRequests", 4096);
+
+    /** How long a client request waits to be worked on before it is turned away as busy, in milliseconds. */
+    public static final long ADMISSION_TIMEOUT_MS = Long.getLong("paxos.admissionTimeoutMs", 1000);
+
+    /** How many threads handle NIO requests and send multi-key commands to the shards. */
+    public static final int REQUEST_THREADS = Integer.getInteger("paxos.requestThreads", 256);
+
+    /** How many requests a client keeps outstanding at once when it submits asynchronously. */
+    public static final int CLIENT_MAX_OUTSTANDING = Integer.getInteger("paxos.clientMaxOutstanding", 64);
+
+    /** How often a client retries a request that failed in a way that is safe to retry. */
+    public static final int CLIENT_RETRIES = Integer.getInteger("paxos.clientRetries", 3);
+
+    /** The backoff before a client's first retry, doubled for every further retry, in milliseconds. */
+    public static final long CLIENT_BACKOFF_MS = Long.getLong("paxos.clientBackoffMs", 50);
+
+    /** The longest backoff before a client's retry, in milliseconds. */
+    public static final long CLIENT_MAX_BACKOFF_MS = Long.getLong("paxos.clientMaxBackoffMs", 2000);
+
+    /** How often a client looks for roles that were bound in the registry since it last looked, in milliseconds. */
+    public static final long CLIENT_REFRESH_MS = Long.getLong("paxos.clientRefreshMs", 5000);
+
+    /** Whether a client sends a GET a second time if the first has taken longer than 95% of GETs. */
+    public static final boolean CLIENT_HEDGE_READS =
+            Boolean.parseBoolean(System.getProperty("paxos.clientHedgeReads", "true"));
+
+    /** How many GET results a client keeps in its near cache; 0 turns the cache off. */
+    public static final int CLIENT_CACHE_ENTRIES = Integer.getInteger("paxos.clientCacheEntries", 0);
+
+    /** How long a client serves a GET result from its near cache at most, in milliseconds. */
+    public static final long CLIENT_CACHE_TTL_MS = Long.getLong("paxos.clientCacheTtlMs", 30000);
+
+    /** How many changed keys a learner collects for the client caches before it tells them to drop everything. */
+    public static final int INVALIDATION_BATCH_KEYS = Integer.getInteger("paxos.invalidationBatchKeys", 4096);
+
+    /** How many keys a bulk load puts into a single MPUT or MDELETE request. */
+    public static final int LOAD_BATCH_KEYS = Integer.getInteger("paxos.loadBatchKeys", 100);
+
+    /** Whether the server runs the FailureSimulator, which unbinds and rebinds random roles. */
+    public static final boolean SIMULATE_FAILURES =
+            Boolean.parseBoolean(System.getProperty("paxos.simulateFailures", "true"));
+
+    /** How many log records can wait to be written before paxos.logOverflow applies. */
+    public static final int LOG_QUEUE_RECORDS = Integer.getInteger("paxos.logQueueRecords", 8192);
+
+    /** What happens to a log record while the log queue is full: DROP or BLOCK. */
+    public static final LogOverflow LOG_OVERFLOW =
+            LogOverflow.valueOf(System.getProperty("paxos.logOverflow", "DROP"));
+
+    /** How often every role's metrics are written to Metrics.log, in milliseconds; 0 turns it off. */
+    public static final long METRICS_DUMP_MS = Long.getLong("paxos.metricsDumpMs", 60000);
+
+    /** How often the proposer truncates the acceptors up to the slot a majority of learners has applied, in milliseconds. */
+    public static final long TRUNCATE_INTERVAL_MS = Long.getLong("paxos.truncateIntervalMs", 1000);
+
+    private PaxosConfig() {
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Payload is a large value prepared for its trip to the learners: encoded in UTF-8,
+ * compressed if that makes it smaller and paxos.compressPayloads is on, and described by a
+ * PayloadRef. The learners turn the payload back into the value with decode, which checks it
+ * against the digest, so a payload that was corrupted or mixed up on the way is never
+ * applied.
+ */
+public final class Payload {
+    private final PayloadRef ref;
+    private final byte[] stored;
+
+    /**
+     * Constructs a Payload.
+     * 
+     * @param ref The description of the payload.
+     * @param stored The payload as stored and sent.
+     */
+    private Payload(PayloadRef ref, byte[] stored) {
+        this.ref = ref;
+        this.stored = stored;
+    }
+
+    /**
+     * Prepares a value for the trip to the learners.
+     * 
+     * @param value The value.
+     * @return The payload.
+     */
+    public static Payload of(String value) {
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        byte[] stored = valueBytes;
+        if (PaxosConfig.COMPRESS_PAYLOADS) {
+            byte[] compressed = compress(valueBytes);
+            if (compressed.length < valueBytes.length) {
+                stored = compressed;
+            }
+        }
+        PayloadRef ref = new PayloadRef(sha256(valueBytes), valueBytes.length, stored.length,
+                PaxosConfig.PAYLOAD_CHUNK_BYTES, stored != valueBytes);
+        return new Payload(ref, stored);
+    }
+
+    /**
+     * Returns the description of the payload.
+     * 
+     * @return The PayloadRef.
+     */
+    public PayloadRef getRef() {
+        return ref;
+    }
+
+    /**
+     * Returns one chunk of the payload.
+     * 
+     * @param index The index of the chunk.
+     * @return A copy of the bytes of the chunk.
+     */
+    public byte[] chunk(int index) {
+        int from = index * ref.getChunkBytes();
+        return Arrays.copyOfRange(stored, from, from + ref.chunkSize(index));
+    }
+
+    /**
+     * Turns a stored payload back into its value.
+     * 
+     * @param ref The description of the payload.
+     * @param stored The payload as stored.
+     * @return The value.
+     * @throws IOException If the payload cannot be decompressed or does not match the digest.
+     */
+    public static String decode(PayloadRef ref, byte[] stored) throws IOException {
+        byte[] valueBytes = stored;
+        if (ref.isCompressed()) {
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(stored))) {
+                // One byte more than expected is enough to tell that the payload is too large.
+                valueBytes = in.readNBytes(ref.getSize() + 1);
+            }
+        }
+        if (valueBytes.length != ref.getSize() || !sha256(valueBytes).equals(ref.getDigest())) {
+            throw new IOException("Payload does not match its digest: " + ref);
+        }
+        return new String(valueBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compresses bytes with Deflate at the fastest level, which already shrinks text a lot.
+     * 
+     * @param bytes The bytes to compress.
+     * @return The compressed bytes.
+     */
+    private static byte[] compress(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflating = new DeflaterOutputStream(out, deflater)) {
+            deflating.write(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Compressing in memory failed", e);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the SHA-256 digest of bytes.
+     * 
+     * @param bytes The bytes.
+     * @return The digest, in hex.
+     */
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM supports SHA-256", e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.Serializable;
+
+/**
+ * PayloadRef describes a large value that travels to the learners outside of PAXOS: the
+ * SHA-256 digest and size of its UTF-8 encoding, and how it is stored, possibly compressed
+ * and cut into chunks of a fixed size. Consensus runs on a command that carries the
+ * PayloadRef instead of the value, so acceptors only ever see a few dozen bytes however
+ * large the value is.
+ */
+public final class PayloadRef implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String digest;
+    private final int size;
+    private final int storedSize;
+    private final int chunkBytes;
+    private final boolean compressed;
+
+    /**
+     * Constructs a PayloadRef.
+     * 
+     * @param digest The SHA-256 digest of the value in UTF-8, in hex.
+     * @param size The size of the value in UTF-8, in bytes.
+     * @param storedSize The size of the payload as stored and sent, in bytes.
+     * @param chunkBytes The size of every chunk but the last, in bytes.
+     * @param compressed Whether the payload is the value compressed with Deflate.
+     */
+    public PayloadRef(String digest, int size, int storedSize, int chunkBytes, boolean compressed) {
+        this.digest = digest;
+        this.size = size;
+        this.storedSize = storedSize;
+        this.chunkBytes = chunkBytes;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Returns the SHA-256 digest of the value, which also names the payload.
+     * 
+     * @return The digest, in hex.
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Returns the size of the value in UTF-8.
+     * 
+     * @return The size, in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the size of the payload as stored and sent.
+     * 
+     * @return The size, in bytes.
+     */
+    public int getStoredSize() {
+        return storedSize;
+    }
+
+    /**
+     * Returns the size of every chunk but the last.
+     * 
+     * @return The chunk size, in bytes.
+     */
+    public int getChunkBytes() {
+        return chunkBytes;
+    }
+
+    /**
+     * Returns whether the payload is the value compressed with Deflate.
+     * 
+     * @return Whether the payload is compressed.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Returns the number of chunks the payload is cut into.
+     * 
+     * @return The number of chunks, at least 1.
+     */
+    public int getChunkCount() {
+        return Math.max(1, (int) ((storedSize + (long) chunkBytes - 1) / chunkBytes));
+    }
+
+    /**
+     * Returns the size of one chunk.
+     * 
+     * @param index The index of the chunk.
+     * @return The size of the chunk, in bytes.
+     */
+    public int chunkSize(int index) {
+        return Math.min(chunkBytes, storedSize - index * chunkBytes);
+    }
+
+    /**
+     * Encodes the PayloadRef as the value of a command, e.g. "9f86d0...:1048576:5120:262144:z".
+     * 
+     * @return The encoded PayloadRef.
+     */
+    public String encode() {
+        return digest + ":" + size + ":" + storedSize + ":" + chunkBytes + ":" + (compressed ? "z" : "raw");
+    }
+
+    /**
+     * Decodes a PayloadRef encoded by encode.
+     * 
+     * @param encoded The encoded PayloadRef.
+     * @return The PayloadRef.
+     * @throws IllegalArgumentException If the text is not an encoded PayloadRef.
+     */
+    public static PayloadRef decode(String encoded) {
+        String[] parts = encoded.split(":");
+        if (parts.length != 5 || !parts[0].matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("Not a payload reference: " + encoded);
+        }
+        return new PayloadRef(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                Integer.parseInt(parts[3]), parts[4].equals("z"));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PayloadRef)) return false;
+        PayloadRef ref = (PayloadRef) other;
+        return digest.equals(ref.digest) && size == ref.size && storedSize == ref.storedSize
+                && chunkBytes == ref.chunkBytes && compressed == ref.compressed;
+    }
+
+    @Override
+    public int hashCode() {
+        return digest.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "payload " + digest.substring(0, 12) + " (" + size + " bytes" + (compressed ? ", " + storedSize
+                + " compressed" : "") + ")";
+    }
+}
@@ -0,0 +1,204 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PayloadStore keeps the payloads of large values on a learner's disk, one file per payload
+ * named after its digest. Chunks may arrive in any order and more than once: each is written
+ * at its offset into a partial file, and once every chunk is there the file is checked
+ * against the digest, forced to disk and renamed, so a complete payload file is always
+ * intact. Which chunks of a partial file have arrived is only kept in memory; after a
+ * restart missing payloads are fetched again.
+ */
+public final class PayloadStore {
+    private static final String COMPLETE = ".bin";
+    private static final String PARTIAL = ".part";
+
+    private final Path directory;
+    private final Map<String, BitSet> receiving;
+
+    /**
+     * Constructs a PayloadStore.
+     * 
+     * @param directory The directory the payloads are kept in.
+     * @throws IOException If the directory cannot be created.
+     */
+    public PayloadStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.receiving = new HashMap<>();
+    }
+
+    /**
+     * Stores one chunk of a payload. Chunks of payloads that are already complete are
+     * ignored, but count as a write for the sweep, since the same value may be written again.
+     * 
+     * @param ref The description of the payload.
+     * @param index The index of the chunk.
+     * @param chunk The bytes of the chunk.
+     * @return true if the payload is complete.
+     * @throws IOException If the chunk does not fit the payload, the payload does not match
+     *         its digest, or the file cannot be written.
+     */
+    public synchronized boolean storeChunk(PayloadRef ref, int index, byte[] chunk) throws IOException {
+        if (Files.exists(complete(ref))) {
+            Files.setLastModifiedTime(complete(ref), FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        }
+        if (index < 0 || index >= ref.getChunkCount() || chunk.length != ref.chunkSize(index)) {
+            throw new IOException("Chunk " + index + " of " + chunk.length + " bytes does not fit " + ref);
+        }
+        Path partial = directory.resolve(ref.getDigest() + PARTIAL);
+        BitSet arrived = receiving.computeIfAbsent(ref.getDigest(), digest -> new BitSet());
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            long position = (long) index * ref.getChunkBytes();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            arrived.set(index);
+            if (arrived.cardinality() < ref.getChunkCount()) {
+                return false;
+            }
+            channel.force(false);
+        }
+        receiving.remove(ref.getDigest());
+        try {
+            Payload.decode(ref, Files.readAllBytes(partial));
+        } catch (IOException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, complete(ref), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Reads one chunk of a complete payload, for a peer that is fetching it.
+     * 
+     * @param ref The description of the payload.
+     * @param index The index of the chunk.
+     * @return The bytes of the chunk, or null if the payload is not complete here.
+     * @throws IOException If the file cannot be read.
+     */
+    public byte[] readChunk(PayloadRef ref, int index) throws IOException {
+        if (index < 0 || index >= ref.getChunkCount()) {
+            throw new IOException("No chunk " + index + " in " + ref);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(ref.chunkSize(index));
+        try (FileChannel channel = FileChannel.open(complete(ref), StandardOpenOption.READ)) {
+            long position = (long) index * ref.getChunkBytes();
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Payload file of " + ref + " is truncated");
+                }
+                position += read;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Reads a complete payload.
+     * 
+     * @param ref The description of the payload.
+     * @return The payload as stored, or null if it is not complete here.
+     * @throws IOException If the file cannot be read.
+     */
+    public byte[] load(PayloadRef ref) throws IOException {
+        try {
+            return Files.readAllBytes(complete(ref));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for a payload whose chunks are arriving to be complete.
+     * 
+     * @param ref The description of the payload.
+     * @param timeoutMs How long to wait at most, in milliseconds.
+     * @return true if the payload is complete, false if it is not and no chunks are arriving
+     *         or the wait timed out.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitComplete(PayloadRef ref, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (!Files.exists(complete(ref))) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (!receiving.containsKey(ref.getDigest()) || remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes a payload, complete or not.
+     * 
+     * @param digest The digest of the payload.
+     * @throws IOException If a file cannot be deleted.
+     */
+    public synchronized void delete(String digest) throws IOException {
+        receiving.remove(digest);
+        Files.deleteIfExists(directory.resolve(digest + COMPLETE));
+        Files.deleteIfExists(directory.resolve(digest + PARTIAL));
+    }
+
+    /**
+     * Deletes the payloads that have not been written to for a while: partial ones, whose
+     * upload was given up, and complete ones that are not to be kept, whose command was never
+     * decided or whose slot is long gone.
+     * 
+     * @param retentionMs How long a payload is left alone after it was last written to, in milliseconds.
+     * @param keep The digests of the complete payloads to keep.
+     * @return The number of payloads deleted.
+     * @throws IOException If the directory cannot be listed or a file cannot be deleted.
+     */
+    public synchronized int sweep(long retentionMs, Set<String> keep) throws IOException {
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        int deleted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                int dot = name.lastIndexOf('.');
+                if (dot < 0 || Files.getLastModifiedTime(file).toMillis() > cutoff) {
+                    continue;
+                }
+                String digest = name.substring(0, dot);
+                if (name.endsWith(PARTIAL) || (name.endsWith(COMPLETE) && !keep.contains(digest))) {
+                    receiving.remove(digest);
+                    Files.delete(file);
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns the file of a complete payload.
+     * 
+     * @param ref The description of the payload.
+     * @return The path of the file.
+     */
+    private Path complete(PayloadRef ref) {
+        return directory.resolve(ref.getDigest() + COMPLETE);
+    }
+}
@@ -0,0 +1,68 @@
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Promise is the response of an acceptor to a prepare request. If granted, it carries every
+ * value the acceptor has accepted at or above the requested slot so that the new leader can
+ * finish those slots before proposing anything new. It also tells the first slot the acceptor
+ * still holds, since every slot before it has been truncated after learners applied it.
+ */
+public final class Promise implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean granted;
+    private final Ballot promised;
+    private final long firstSlot;
+    private final Map<Long, AcceptedValue> accepted;
+
+    /**
+     * Constructs a Promise.
+     * 
+     * @param granted Whether the acceptor promised the requested ballot.
+     * @param promised The highest ballot the acceptor has promised.
+     * @param firstSlot The first slot the acceptor has not truncated.
+     * @param accepted The values accepted by the acceptor, keyed by slot.
+     */
+    public Promise(boolean granted, Ballot promised, long firstSlot, Map<Long, AcceptedValue> accepted) {
+        this.granted = granted;
+        this.promised = promised;
+        this.firstSlot = firstSlot;
+        this.accepted = accepted;
+    }
+
+    /**
+     * Returns whether the acceptor promised the requested ballot.
+     * 
+     * @return true if the promise was granted, false otherwise.
+     */
+    public boolean isGranted() {
+        return granted;
+    }
+
+    /**
+     * Returns the highest ballot the acceptor has promised.
+     * 
+     * @return The highest promised ballot.
+     */
+    public Ballot getPromised() {
+        return promised;
+    }
+
+    /**
+     * Returns the first slot the acceptor has not truncated.
+     * 
+     * @return The first slot the acceptor still holds.
+     */
+    public long getFirstSlot() {
+        return firstSlot;
+    }
+
+    /**
+     * Returns the values accepted by the acceptor at or above the requested slot.
+     * 
+     * @return The accepted values keyed by slot.
+     */
+    public Map<Long, AcceptedValue> getAccepted() {
+        return accepted;
+    }
+}
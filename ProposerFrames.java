@@ -0,0 +1,71 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ProposerFrames encodes calls to Proposer.propose for the NIO transport. A request is
+ * {@code [int commandLength][command][int argCount]([int argLength][arg])*} in UTF-8 and the
+ * response is the result string in UTF-8.
+ */
+public final class ProposerFrames {
+
+    private ProposerFrames() {
+    }
+
+    /**
+     * Encodes a call to propose.
+     * 
+     * @param command The command that has been proposed.
+     * @param args Arguments for the command.
+     * @return The payload of the request.
+     */
+    public static byte[] encodeRequest(String command, String[] args) {
+        byte[][] encoded = new byte[args.length + 1][];
+        int size = 4 + 4 * encoded.length;
+        encoded[0] = command.getBytes(StandardCharsets.UTF_8);
+        size += encoded[0].length;
+        for (int i = 0; i < args.length; i++) {
+            encoded[i + 1] = args[i].getBytes(StandardCharsets.UTF_8);
+            size += encoded[i + 1].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(encoded[0].length).put(encoded[0]).putInt(args.length);
+        for (int i = 1; i < encoded.length; i++) {
+            buffer.putInt(encoded[i].length).put(encoded[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes a call to propose, runs it on the given proposer and encodes the result.
+     * 
+     * @param proposer The proposer to run the call on.
+     * @param request The payload of the request.
+     * @return The payload of the response.
+     * @throws Exception If the call fails.
+     */
+    public static byte[] handle(Proposer proposer, byte[] request) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(request);
+        String command = getString(buffer);
+        String[] args = new String[buffer.getInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = getString(buffer);
+        }
+        return proposer.propose(command, args).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the result of a call to propose.
+     * 
+     * @param response The payload of the response.
+     * @return The result string.
+     */
+    public static String decodeResponse(byte[] response) {
+        return new String(response, StandardCharsets.UTF_8);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,88 +1,247 @@
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Callable;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Implementation of the Proposer Interface. It manages the key-value store and is
- * the most important entity in the PAXOS algorithm in our implementation.
+ * Implementation of the Proposer Interface. It is the most important entity in the PAXOS
+ * algorithm in our implementation: it gets consensus on writes and routes reads to the
+ * learners, which hold the key-value store.
+ * 
+ * With paxos.epaxos=true writes are committed by an EPaxosLeader instead, as instances that
+ * only depend on earlier instances touching the same keys, and linearizable reads wait for
+ * the instances that touch the key being read.
+ * 
+ * Client requests run on the thread that delivered them, RMI's or the NIO transport's, so a
+ * request never ties up a second thread. AdmissionControl bounds how many run at once and
+ * how many wait, and turns the rest away with a ServerBusyException.
+ * 
+ * The proposer's Metrics time every request end to end, every phase and every call to each
+ * acceptor, and count rejections, timeouts and retries.
  */
 public class ProposerImpl extends UnicastRemoteObject implements Proposer {
-    private final Map<String, String> keyValueStore;
-    private final ExecutorService executor;
-    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern
-    ("yyyy-MM-dd HH:mm:ss.SSS");
+    private final ExecutorService rpcExecutor;
+    private final CommandBatcher batcher;
+    private final EPaxosLeader epaxos;
+    private final ScheduledExecutorService maintenance;
+    private long truncatedUpTo;
+    private long compactedUpTo;
     private final Map<Integer, Acceptor> acceptors;
     private final Map<Integer, Learner> learners;
-    private int proposalNumber;
+    private final List<Learner> readers;
+    private final AtomicInteger nextReader;
+    private final AtomicLong highestDecidedSlot;
+    private final ConcurrentSkipListMap<Long, Long> decidedAt;
+    private final Object leaseLock;
+    private Ballot leaseBallot;
+    private long leaseExpiresNanos;
+    private final AtomicLong highestRoundSeen;
+    private final AtomicLong nextRequestId;
+    private final Set<Long> chosenSlots;
+    private final Object classicLock;
+    private Ballot leaderBallot;
+    private long nextSlot;
+    private long firstUnchosenSlot;
+    private final Metrics metrics;
+    private final AdmissionControl admission;
+    private final LatencyRecorder proposeLatency;
+    private final LatencyRecorder decideLatency;
+    private final LatencyRecorder prepareLatency;
+    private final LatencyRecorder acceptLatency;
+    private final LatencyRecorder confirmLatency;
+    private final LatencyRecorder learnFanOut;
+    private final LatencyRecorder payloadUpload;
+    private final Map<Integer, LatencyRecorder> acceptorLatency;
+    private final LongAdder promiseRejections;
+    private final LongAdder acceptRejections;
+    private final LongAdder confirmRejections;
+    private final LongAdder phaseTimeouts;
+    private final LongAdder rpcFailures;
+    private final LongAdder prepareRetries;
+    private final LongAdder readRetries;
+    private final LongAdder stepDowns;
+    private final LongAdder payloadsOffloaded;
     private static final Logger logger = LoggerConfig.createLogger("Proposer");
+    private static final Logger requests = LoggerConfig.createConsoleLogger("Requests");
 
     /**
-     * Constructs a ProposerImpl instance.
+     * Constructs a ProposerImpl instance. The proposer starts running Phase 1 right away, so
+     * that values the acceptors accepted before a restart are recovered before the first
+     * client request arrives.
      * 
-     * @param executor The executor service to perform asynchronus tasks.
      * @param acceptors This is the map of the acceptor nodes in our system.
      * @param learners This is the map of the learner nodes in our system. 
      * @throws RemoteException If an error occurs during remote communication.
      */
-    protected ProposerImpl(ExecutorService executor, Map<Integer, Acceptor> acceptors, 
-    Map<Integer, Learner> learners) throws RemoteException {
+    protected ProposerImpl(Map<Integer, Acceptor> acceptors, Map<Integer, Learner> learners)
+    throws RemoteException {
         super();
-        this.keyValueStore = new ConcurrentHashMap<>();
-        this.executor = executor;
+        this.rpcExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ProposerImpl-rpc");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batcher = new CommandBatcher(this::decideBatch, PaxosConfig.BATCH_WINDOW_MS,
+        PaxosConfig.MAX_BATCH_BYTES, PaxosConfig.PIPELINE_DEPTH);
         this.acceptors = acceptors;
         this.learners = learners;
-        this.proposalNumber = 0;
+        this.readers = new ArrayList<>(learners.values());
+        this.nextReader = new AtomicInteger();
+        this.highestDecidedSlot = new AtomicLong(-1);
+        this.decidedAt = new ConcurrentSkipListMap<>();
+        this.leaseLock = new Object();
+        this.leaseBallot = null;
+        this.highestRoundSeen = new AtomicLong();
+        // Learners remember outcomes by request ID, also of requests they replay after a
+        // restart, so request IDs must not start over when the proposer restarts.
+        this.nextRequestId = new AtomicLong(System.currentTimeMillis() << 20);
+        this.chosenSlots = new HashSet<>();
+        this.classicLock = new Object();
+        this.leaderBallot = null;
+        this.nextSlot = 0;
+        this.firstUnchosenSlot = 0;
+        this.truncatedUpTo = -1;
+        this.compactedUpTo = -1;
+        this.metrics = new Metrics("Proposer");
+        this.admission = new AdmissionControl(PaxosConfig.MAX_IN_FLIGHT_REQUESTS, PaxosConfig.MAX_QUEUED_REQUESTS,
+        PaxosConfig.ADMISSION_TIMEOUT_MS, metrics);
+        this.proposeLatency = metrics.histogram("propose");
+        this.decideLatency = metrics.histogram("decide");
+        this.prepareLatency = metrics.histogram("prepare");
+        this.acceptLatency = metrics.histogram("accept");
+        this.confirmLatency = metrics.histogram("confirm");
+        this.learnFanOut = metrics.histogram("learnFanOut");
+        this.payloadUpload = metrics.histogram("payloadUpload");
+        this.acceptorLatency = new HashMap<>();
+        for (Integer id : acceptors.keySet()) {
+            acceptorLatency.put(id, metrics.histogram("acceptor" + id + ".rpc"));
+        }
+        this.promiseRejections = metrics.counter("promiseRejections");
+        this.acceptRejections = metrics.counter("acceptRejections");
+        this.confirmRejections = metrics.counter("confirmRejections");
+        this.phaseTimeouts = metrics.counter("phaseTimeouts");
+        this.rpcFailures = metrics.counter("rpcFailures");
+        this.prepareRetries = metrics.counter("prepareRetries");
+        this.readRetries = metrics.counter("readRetries");
+        this.stepDowns = metrics.counter("stepDowns");
+        this.payloadsOffloaded = metrics.counter("payloadsOffloaded");
+        metrics.gauge("highestDecidedSlot", highestDecidedSlot::get);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ProposerImpl-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (PaxosConfig.EPAXOS) {
+            this.epaxos = new EPaxosLeader(PaxosConfig.PROPOSER_ID, acceptors, learners, rpcExecutor);
+            maintenance.scheduleWithFixedDelay(epaxos::recover, 0, PaxosConfig.TRUNCATE_INTERVAL_MS,
+            TimeUnit.MILLISECONDS);
+            return;
+        }
+        this.epaxos = null;
+        rpcExecutor.execute(this::ensureLeader);
+        maintenance.scheduleWithFixedDelay(this::truncateAcceptors, PaxosConfig.TRUNCATE_INTERVAL_MS,
+        PaxosConfig.TRUNCATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * A command that is proposed to the Distributed System by clients, using PAXOS. 
+     * A command that is proposed to the Distributed System by clients, using PAXOS. The
+     * command runs on the calling thread once AdmissionControl has admitted it.
      * 
      * @param command The command that has been proposed (Example: 'GET', 'PUT', 'DELETE')
      * @param args Arguments for the command, if any.
      * @return A String depicting the result of execution of the command proposed.
+     * @throws ServerBusyException If the proposer has too many requests in progress.
      * @throws RemoteException If an error occurs during remote communication.
      */
     @Override
     public String propose(String command, String[] args) throws RemoteException {
-        logger.info("Received command: " + command + " with args: " + String.join(" ", args));
-        Callable<String> task = () -> {
+        long start = System.nanoTime();
+        admission.acquire();
+        try {
             logClientRequest(command, args);
-            String result;
-            switch (command) {
-                case "PUT":
-                    result = proposePut(args);
-                    break;
-                case "GET":
-                    result = get(args);
-                    break;
-                case "DELETE":
-                    result = proposeDelete(args);
-                    break;
-                default:
-                    result = "Invalid Command. (Use: GET/PUT/DELETE)";
-            }
+            String result = execute(command, args);
             logClientResponse(result);
             return result;
-        };
-
-        Future<String> future = executor.submit(task);
-
-        try {
-            return future.get();
-        } catch (Exception e) {
+        } catch (RuntimeException e) {
             throw new RemoteException("Error executing command", e);
+        } finally {
+            admission.release();
+            proposeLatency.recordSince(start);
         }
     }
 
     /**
-     * Handles the proposal of the PUT command by the client.
+     * Runs a client command on the calling thread.
+     * 
+     * @param command The command that has been proposed (Example: 'GET', 'PUT', 'DELETE')
+     * @param args Arguments for the command, if any.
+     * @return A String depicting the result of execution of the command proposed.
+     * @throws RemoteException If the command could not be completed.
+     */
+    private String execute(String command, String[] args) throws RemoteException {
+        switch (command) {
+            case "PUT":
+                return proposePut(args);
+            case "GET":
+                return get(args);
+            case "DELETE":
+                return proposeDelete(args);
+            case "MGET":
+                return multiGet(args);
+            case "MPUT":
+                return proposeMultiPut(args);
+            case "MDELETE":
+                return proposeMultiDelete(args);
+            case "GETV":
+                return getVersioned(args);
+            case "CAS":
+                return proposeCas(args);
+            case "CASV":
+                return proposeCasVersion(args);
+            case "PUTIFABSENT":
+                return proposePutIfAbsent(args);
+            case "DELETEIFEQUALS":
+                return proposeDeleteIfEquals(args);
+            case "INCREMENT":
+                return proposeIncrement(args);
+            case "SCAN":
+            case "PREFIX":
+                return scan(command, args);
+            case "STATS":
+                return epaxos != null ? batcher.getStats() + " " + epaxos.getStats() : batcher.getStats().toString();
+            default:
+                return "Invalid Command. (Use: GET/PUT/DELETE/MGET/MPUT/MDELETE/GETV/CAS/CASV/PUTIFABSENT/"
+                        + "DELETEIFEQUALS/INCREMENT/SCAN/PREFIX/STATS)";
+        }
+    }
+
+    /**
+     * Handles the proposal of the PUT command by the client. Everything after the key is the
+     * value, so values may contain spaces even if the client split them into several
+     * arguments.
      * 
      * @param args The arguments used with the PUT command.
      * @return A result depicting whether the operation was successful or not.
@@ -91,77 +250,753 @@ public class ProposerImpl extends UnicastRemoteObject implements Proposer {
     private String proposePut(String[] args) throws RemoteException {
         if (args.length < 2) return "Example Usage: PUT <key> <value>";
         String key = args[0];
-        String value = args[1];
-        String proposalID = generateProposalID();
-        String proposalValue = "PUT " + key + " " + value;
+        String value = String.join(" ", Arrays.asList(args).subList(1, args.length));
+
+        return submit(new Command(Opcode.PUT, key, value, PaxosConfig.PROPOSER_ID, nextRequestId.incrementAndGet()));
+    }
+
+    /**
+     * Handles the proposal of the DELETE command by the client.
+     * 
+     * @param args The arguments used with the DELETE command.
+     * @return A result depicting whether the operation was successful or not.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    private String proposeDelete(String[] args) throws RemoteException {
+        if (args.length < 1) return "Example Usage: DELETE <key>";
+        String key = args[0];
 
-        int preparedCount = 0;
-        for (Acceptor acceptor : acceptors.values()) {
-            String response = acceptor.prepare(proposalID);
-            if (response.equals("PROMISE")) {
-                preparedCount++;
+        return submit(new Command(Opcode.DELETE, key, null, PaxosConfig.PROPOSER_ID, nextRequestId.incrementAndGet()));
+    }
+
+    /**
+     * Handles the proposal of the MPUT command by the client. The keys and values alternate,
+     * so values cannot contain spaces. All pairs are decided in the same batch and applied
+     * atomically.
+     * 
+     * @param args The keys and values used with the MPUT command.
+     * @return A result depicting whether the operation was successful or not.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    private String proposeMultiPut(String[] args) throws RemoteException {
+        if (args.length < 2 || args.length % 2 != 0) return "Example Usage: MPUT <key> <value> [<key> <value> ...]";
+        List<Command> commands = new ArrayList<>(args.length / 2);
+        for (int i = 0; i < args.length; i += 2) {
+            commands.add(new Command(Opcode.PUT, args[i], args[i + 1], PaxosConfig.PROPOSER_ID, nextRequestId.incrementAndGet()));
+        }
+        return submitAll(commands);
+    }
+
+    /**
+     * Handles the proposal of the MDELETE command by the client. All keys are removed in the
+     * same batch.
+     * 
+     * @param args The keys used with the MDELETE command.
+     * @return A result depicting whether the operation was successful or not.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    private String proposeMultiDelete(String[] args) throws RemoteException {
+        if (args.length < 1) return "Example Usage: MDELETE <key> [<key> ...]";
+        List<Command> commands = new ArrayList<>(args.length);
+        for (String key : args) {
+            commands.add(new Command(Opcode.DELETE, key, null, PaxosConfig.PROPOSER_ID, nextRequestId.incrementAndGet()));
+        }
+        return submitAll(commands);
+    }
+
+    /**
+     * Handles the proposal of the CAS command by the client, which stores a value only if
+     * the key holds the expected value. The expected value is the argument after the key;
+     * everything after it is the new value.
+     * 
+     * @param args The key, the expected value and the new value.
+     * @return The outcome of the condition, with the new version of the key on success.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    private String proposeCas(String[] args) throws RemoteException {
+        String[] parts = splitAfterKey(args, 3);
+        if (parts == null) return "Example Usage: CAS <key> <expected value> <new value>";
+        return submitConditional(new Command(Opcode.CAS, parts[0], parts[2], parts[1], PaxosConfig.PROPOSER_ID,
+                nextRequestId.incrementAndGet()));
+    }
+
+    /**
+     * Handles the proposal of the CASV command by the client, which stores a value only if
+     * the key is at the expected version. Version 0 stands for a key that does not exist.
+     * 
+     * @param args The key, the expected version and the new value.
+     * @return The outcome of the condition, with the new version of the key on success.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    private String proposeCasVersion(String[] args) throws RemoteException {
+        String[] parts = splitAfterKey(args, 3);
+        if (parts == null || !parts[1].matches("[0-9]+")) return "Example Usage: CASV <key> <expected version> <new value>";
+        String version = Long.toString(Long.parseLong(parts[1]));
+        return submitConditional(new Command(Opcode.CAS_VERSION, parts[0], parts[2], version, PaxosConfig.PROPOSER_ID,
+                nextRequestId.incrementAndGet()));
+    }
+
+    /**
+     * Handles the proposal of the PUTIFABSENT command by the client, which stores a value
+     * only if the key does not exist.
+     * 
+     * @param args The key and the value.
+     * @return The outcome of the condition, with the version of the key on success.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    private String proposePutIfAbsent(String[] args) throws RemoteException {
+        String[] parts = splitAfterKey(args, 2);
+        if (parts == null) return "Example Usage: PUTIFABSENT <key> <value>";
+        return submitConditional(new Command(Opcode.PUT_IF_ABSENT, parts[0], parts[1], PaxosConfig.PROPOSER_ID,
+                nextRequestId.incrementAndGet()));
+    }
+
+    /**
+     * Handles the proposal of the DELETEIFEQUALS command by the client, which removes a key
+     * only if it holds the expected value.
+     * 
+     * @param args The key and the expected value.
+     * @return The outcome of the condition.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    private String proposeDeleteIfEquals(String[] args) throws RemoteException {
+        String[] parts = splitAfterKey(args, 2);
+        if (parts == null) return "Example Usage: DELETEIFEQUALS <key> <expected value>";
+        return submitConditional(new Command(Opcode.DELETE_IF_EQUALS, parts[0], null, parts[1], PaxosConfig.PROPOSER_ID,
+                nextRequestId.incrementAndGet()));
+    }
+
+    /**
+     * Handles the proposal of the INCREMENT command by the client, which adds a whole number,
+     * 1 by default, to the number stored under a key. A missing key counts as 0.
+     * 
+     * @param args The key and optionally the number to add.
+     * @return The new value of the key, or why it could not be incremented.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    private String proposeIncrement(String[] args) throws RemoteException {
+        if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].matches("-?[0-9]+"))) {
+            return "Example Usage: INCREMENT <key> [<delta>]";
+        }
+        String delta = args.length == 2 ? args[1] : "1";
+        return submitConditional(new Command(Opcode.INCREMENT, args[0], delta, PaxosConfig.PROPOSER_ID,
+                nextRequestId.incrementAndGet()));
+    }
+
+    /**
+     * Splits the arguments of a command into the key followed by space-separated arguments,
+     * the last of which takes the rest of the text, so it may contain spaces. Clients may
+     * have split the text after the key or not.
+     * 
+     * @param args The arguments used with the command.
+     * @param count How many parts to split the arguments into, including the key.
+     * @return The parts, or null if there are fewer.
+     */
+    private static String[] splitAfterKey(String[] args, int count) {
+        if (args.length < 2) {
+            return null;
+        }
+        String[] rest = String.join(" ", Arrays.asList(args).subList(1, args.length)).split(" ", count - 1);
+        if (rest.length < count - 1) {
+            return null;
+        }
+        String[] parts = new String[count];
+        parts[0] = args[0];
+        System.arraycopy(rest, 0, parts, 1, rest.length);
+        return parts;
+    }
+
+    /**
+     * Gets consensus on a conditional command or INCREMENT and returns its outcome, which
+     * the learners compute when they apply it. The outcome is asked from the learners in
+     * turn until one of them has applied the command.
+     * 
+     * @param command The command to get consensus on.
+     * @return The outcome of the command, or "Operation failed." if it was not decided.
+     * @throws RemoteException If no learner applies the command in time.
+     */
+    private String submitConditional(Command command) throws RemoteException {
+        if (!decide(Collections.singletonList(command))) {
+            return "Operation failed.";
+        }
+        int first = Math.floorMod(nextReader.getAndIncrement(), readers.size());
+        RemoteException failure = null;
+        for (int attempt = 0; attempt < readers.size(); attempt++) {
+            try {
+                return readers.get((first + attempt) % readers.size()).awaitOutcome(command.getClientId(),
+                        command.getRequestId(), PaxosConfig.PHASE_TIMEOUT_MS);
+            } catch (RemoteException e) {
+                failure = e;
             }
         }
+        throw new RemoteException("No learner reported the outcome of " + command, failure);
+    }
+
+    /**
+     * Hands a command to the batcher and waits until its batch has been decided.
+     * 
+     * @param command The command to get consensus on.
+     * @return A result depicting whether the operation was successful or not.
+     * @throws RemoteException If the proposer is interrupted while waiting.
+     */
+    private String submit(Command command) throws RemoteException {
+        return submitAll(Collections.singletonList(command));
+    }
 
-        if (preparedCount > acceptors.size() / 2) {
-            int acceptedCount = 0;
-            for (Acceptor acceptor : acceptors.values()) {
-                String response = acceptor.accept(proposalID, proposalValue);
-                if (response.equals("ACCEPTED")) {
-                    acceptedCount++;
+    /**
+     * Hands commands to the batcher together and waits until their batch has been decided.
+     * 
+     * @param commands The commands to get consensus on.
+     * @return A result depicting whether the operation was successful or not.
+     * @throws RemoteException If the proposer is interrupted while waiting.
+     */
+    private String submitAll(List<Command> commands) throws RemoteException {
+        return decide(commands) ? "Operation successful." : "Operation failed.";
+    }
+
+    /**
+     * Hands commands to the batcher together and waits until their batch has been decided.
+     * Large values are uploaded to the learners first.
+     * 
+     * @param commands The commands to get consensus on.
+     * @return true if the batch was chosen, false otherwise.
+     * @throws RemoteException If the proposer is interrupted while waiting, or a large value
+     *         does not reach a majority of learners.
+     */
+    private boolean decide(List<Command> commands) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return batcher.submitAll(offloadLargeValues(commands)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for consensus", e);
+        } catch (ExecutionException e) {
+            throw new RemoteException("Error getting consensus", e.getCause());
+        } finally {
+            decideLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Uploads the values larger than paxos.largeValueBytes to the learners as payloads and
+     * replaces them with their PayloadRef, so that consensus only runs on the digests.
+     * 
+     * @param commands The commands to get consensus on.
+     * @return The commands to hand to the batcher; the same list if none has a large value.
+     * @throws RemoteException If a payload does not reach a majority of learners.
+     */
+    private List<Command> offloadLargeValues(List<Command> commands) throws RemoteException {
+        List<Command> offloaded = null;
+        for (int i = 0; i < commands.size(); i++) {
+            Command command = commands.get(i);
+            if (command.isLarge()) {
+                Payload payload = Payload.of(command.getValue());
+                uploadPayload(payload);
+                if (offloaded == null) {
+                    offloaded = new ArrayList<>(commands);
                 }
+                offloaded.set(i, command.withPayload(payload.getRef()));
             }
+        }
+        return offloaded != null ? offloaded : commands;
+    }
+
+    /**
+     * Uploads a payload to every learner in parallel, one chunk after the other, and waits
+     * until a majority of learners holds all of it. Once consensus is reached every learner
+     * either has the payload or fetches it from a learner of that majority. Learners that
+     * are still uploading keep going in the background.
+     * 
+     * @param payload The payload to upload.
+     * @throws RemoteException If a majority of learners does not store the payload in time.
+     */
+    private void uploadPayload(Payload payload) throws RemoteException {
+        long start = System.nanoTime();
+        PayloadRef ref = payload.getRef();
+        int majority = learners.size() / 2 + 1;
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(rpcExecutor);
+        for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
+            completionService.submit(() -> {
+                try {
+                    for (int index = 0; index < ref.getChunkCount(); index++) {
+                        entry.getValue().storePayloadChunk(ref, index, payload.chunk(index));
+                    }
+                    return true;
+                } catch (RemoteException e) {
+                    logger.warning("Learner" + entry.getKey() + " failed to store " + ref + ": " + e.getMessage());
+                    rpcFailures.increment();
+                    return false;
+                }
+            });
+        }
 
-            if (acceptedCount > acceptors.size() / 2) {
-                for (Learner learner : learners.values()) {
-                    learner.learn(proposalValue);
+        int stored = 0;
+        int pending = learners.size();
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(PaxosConfig.PHASE_TIMEOUT_MS * ref.getChunkCount());
+        try {
+            while (stored < majority && stored + pending >= majority) {
+                Future<Boolean> done = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    phaseTimeouts.increment();
+                    break;
+                }
+                pending--;
+                if (done.get()) {
+                    stored++;
                 }
-                keyValueStore.put(key, value);
-                return "Operation successful.";
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while uploading " + ref, e);
+        } catch (ExecutionException e) {
+            throw new RemoteException("Failed to upload " + ref, e.getCause());
+        } finally {
+            payloadUpload.recordSince(start);
         }
-        return "Operation failed.";
+        if (stored < majority) {
+            throw new RemoteException("Only " + stored + " of " + majority + " learners stored " + ref);
+        }
+        payloadsOffloaded.increment();
+        logger.info("Uploaded " + ref + " to " + stored + " learners");
     }
 
     /**
-     * Handles the proposal of the DELETE command by the client.
+     * Gets consensus on a batch of commands as a single value. Clients still read their own
+     * writes once it returns, because every later read waits for the learner to apply the
+     * slot the batch was chosen in.
      * 
-     * @param args The arguments used with the DELETE command.
-     * @return A result depicting whether the operation was successful or not.
-     * @throws RemoteException If an error occurs during remote communication.
+     * @param commands The commands in the batch.
+     * @return true if the batch was chosen, false otherwise.
      */
-    private String proposeDelete(String[] args) throws RemoteException {
-        if (args.length < 1) return "Example Usage: DELETE <key>";
-        String key = args[0];
-        String proposalID = generateProposalID();
-        String proposalValue = "DELETE " + key;
+    private boolean decideBatch(List<Command> commands) {
+        if (epaxos != null) {
+            return epaxos.decide(commands);
+        }
+        return runConsensus(Command.encodeBatch(commands)) >= 0;
+    }
 
-        int preparedCount = 0;
-        for (Acceptor acceptor : acceptors.values()) {
-            String response = acceptor.prepare(proposalID);
-            if (response.equals("PROMISE")) {
-                preparedCount++;
+    /**
+     * Gets consensus on the given value in the next free log slot. In Multi-PAXOS mode the
+     * proposer only runs Phase 1 when it is not the leader yet, so steady-state writes go
+     * straight to the accept phase. Otherwise every write runs both phases. Learners are
+     * notified in the background once the value has been chosen.
+     * 
+     * @param proposalValue The encoded batch to get consensus on.
+     * @return The slot the value was chosen in, or -1 if it failed to get consensus.
+     */
+    private long runConsensus(byte[] proposalValue) {
+        if (PaxosConfig.MULTI_PAXOS) {
+            return proposeInNextSlot(proposalValue);
+        }
+        synchronized (classicLock) {
+            stepDown(leaderBallot);
+            return proposeInNextSlot(proposalValue);
+        }
+    }
+
+    /**
+     * Makes sure this proposer is the leader and runs the accept phase for the given value
+     * in the next free log slot. If the accept phase fails, the proposer runs Phase 1 again
+     * right away so that the slot it leaves behind is filled and later slots can be applied.
+     * 
+     * @param proposalValue The encoded batch to get consensus on.
+     * @return The slot the value was chosen in, or -1 if it failed to get consensus.
+     */
+    private long proposeInNextSlot(byte[] proposalValue) {
+        Ballot ballot = ensureLeader();
+        if (ballot == null) {
+            return -1;
+        }
+        long slot = allocateSlot();
+        if (runAcceptPhase(ballot, slot, proposalValue)) {
+            decided(slot, proposalValue);
+            return slot;
+        }
+        stepDown(ballot);
+        ensureLeader();
+        return -1;
+    }
+
+    /**
+     * Returns the ballot this proposer leads with, running Phase 1 with a higher ballot
+     * first if it is not the leader. Values that acceptors have already accepted in slots
+     * that are not known to be chosen are proposed again under the new ballot.
+     * 
+     * @return The ballot of the leader, or null if no majority of acceptors promised it.
+     */
+    private synchronized Ballot ensureLeader() {
+        if (leaderBallot != null) {
+            return leaderBallot;
+        }
+        for (int attempt = 0; attempt < PaxosConfig.MAX_PREPARE_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                prepareRetries.increment();
+            }
+            Ballot ballot = new Ballot(highestRoundSeen.incrementAndGet(), PaxosConfig.PROPOSER_ID);
+            if (runPreparePhase(ballot)) {
+                leaderBallot = ballot;
+                logger.info("Became leader with ballot: " + ballot);
+                return ballot;
             }
         }
+        return null;
+    }
 
-        if (preparedCount > acceptors.size() / 2) {
-            int acceptedCount = 0;
-            for (Acceptor acceptor : acceptors.values()) {
-                String response = acceptor.accept(proposalID, proposalValue);
-                if (response.equals("ACCEPTED")) {
-                    acceptedCount++;
+    /**
+     * Runs Phase 1 for every slot from the first slot that is not known to be chosen, and
+     * finishes those slots: a slot some acceptor has accepted a value for gets that value
+     * proposed again, every other slot is filled with a no-op. Slots the acceptors have
+     * already truncated are known to be chosen and learned by a majority of learners.
+     * 
+     * @param ballot The ballot to prepare.
+     * @return true if a majority promised the ballot and all pending slots were finished.
+     */
+    private synchronized boolean runPreparePhase(Ballot ballot) {
+        long fromSlot = firstUnchosenSlot;
+        List<Callable<Promise>> prepareCalls = callEveryAcceptor(acceptor -> {
+            Promise promise = acceptor.prepare(ballot, fromSlot);
+            highestRoundSeen.accumulateAndGet(promise.getPromised().getRound(), Math::max);
+            return promise;
+        });
+        long start = System.nanoTime();
+        List<Promise> promises = awaitMajority(prepareCalls, Promise::isGranted, promiseRejections);
+        prepareLatency.recordSince(start);
+        if (promises == null) {
+            return false;
+        }
+
+        Map<Long, AcceptedValue> pending = new TreeMap<>();
+        for (Promise promise : promises) {
+            for (Map.Entry<Long, AcceptedValue> entry : promise.getAccepted().entrySet()) {
+                AcceptedValue current = pending.get(entry.getKey());
+                if (current == null || entry.getValue().getBallot().compareTo(current.getBallot()) > 0) {
+                    pending.put(entry.getKey(), entry.getValue());
                 }
             }
+        }
+
+        long floor = promises.stream().mapToLong(Promise::getFirstSlot).reduce(fromSlot, Math::max);
+        if (floor > fromSlot) {
+            highestDecidedSlot.accumulateAndGet(floor - 1, Math::max);
+            nextSlot = Math.max(nextSlot, floor);
+            firstUnchosenSlot = floor;
+            chosenSlots.removeIf(slot -> slot < floor);
+        }
+
+        for (long slot : pending.keySet()) {
+            nextSlot = Math.max(nextSlot, slot + 1);
+        }
+        for (long slot = floor; slot < nextSlot; slot++) {
+            if (chosenSlots.contains(slot)) {
+                continue;
+            }
+            AcceptedValue accepted = pending.get(slot);
+            byte[] value = accepted != null ? accepted.getValue() : ReplicatedLog.NOOP;
+            if (!runAcceptPhase(ballot, slot, value)) {
+                return false;
+            }
+            decided(slot, value);
+        }
+        return true;
+    }
+
+    /**
+     * Runs Phase 2 for a value in the given slot. A majority of accepts also renews the
+     * lease of the leader.
+     * 
+     * @param ballot The ballot of the leader.
+     * @param slot The log slot to propose the value for.
+     * @param value The value to propose.
+     * @return true if a majority of acceptors accepted the value, false otherwise.
+     */
+    private boolean runAcceptPhase(Ballot ballot, long slot, byte[] value) {
+        List<Callable<AcceptResult>> acceptCalls = callEveryAcceptor(acceptor -> acceptor.accept(ballot, slot, value));
+        long start = System.nanoTime();
+        List<AcceptResult> accepted = awaitMajority(acceptCalls, AcceptResult.ACCEPTED::equals, acceptRejections);
+        acceptLatency.recordSince(start);
+        if (accepted == null) {
+            return false;
+        }
+        renewLease(ballot, start);
+        return true;
+    }
+
+    /**
+     * Confirms with a majority of acceptors that the given ballot is still the highest one
+     * they have promised, which also renews the lease of the leader.
+     * 
+     * @param ballot The ballot of the leader.
+     * @return true if a majority confirmed the ballot, false otherwise.
+     */
+    private boolean confirmLeadership(Ballot ballot) {
+        List<Callable<Boolean>> confirmCalls = callEveryAcceptor(acceptor -> acceptor.confirm(ballot));
+        long start = System.nanoTime();
+        List<Boolean> confirmed = awaitMajority(confirmCalls, Boolean.TRUE::equals, confirmRejections);
+        confirmLatency.recordSince(start);
+        if (confirmed == null) {
+            return false;
+        }
+        renewLease(ballot, start);
+        return true;
+    }
+
+    /**
+     * Extends the lease of the leader after a majority of acceptors has responded to a
+     * request sent at the given time. Acceptors start their lease when they receive the
+     * request, so the leader's lease always ends first; a tenth of it is held back as a
+     * margin for clocks running at different speeds.
+     * 
+     * @param ballot The ballot the acceptors granted the lease to.
+     * @param startNanos When the request was sent.
+     */
+    private void renewLease(Ballot ballot, long startNanos) {
+        long expires = startNanos + TimeUnit.MILLISECONDS.toNanos(PaxosConfig.LEASE_MS) * 9 / 10;
+        synchronized (leaseLock) {
+            if (!ballot.equals(leaseBallot) || expires - leaseExpiresNanos > 0) {
+                leaseBallot = ballot;
+                leaseExpiresNanos = expires;
+            }
+        }
+    }
+
+    /**
+     * Tells whether the leader currently holds a lease for the given ballot.
+     * 
+     * @param ballot The ballot of the leader.
+     * @return true if no other proposer can become leader before the lease runs out.
+     */
+    private boolean holdsLease(Ballot ballot) {
+        synchronized (leaseLock) {
+            return ballot.equals(leaseBallot) && System.nanoTime() - leaseExpiresNanos < 0;
+        }
+    }
+
+    /**
+     * Hands out the next free log slot.
+     * 
+     * @return The slot to propose the next value in.
+     */
+    private synchronized long allocateSlot() {
+        return nextSlot++;
+    }
+
+    /**
+     * Records the value chosen in a slot and notifies the learners. The highest decided slot
+     * is raised before any learner can apply the slot, so a read can never observe a write
+     * that a later read might miss.
+     * 
+     * @param slot The slot the value was chosen in.
+     * @param value The chosen value.
+     */
+    private void decided(long slot, byte[] value) {
+        markChosen(slot);
+        long highest = highestDecidedSlot.accumulateAndGet(slot, Math::max);
+        if (PaxosConfig.READ_MODE == ReadMode.STALE) {
+            decidedAt.merge(System.nanoTime(), highest, Math::max);
+            staleReadSlot();
+        }
+        notifyLearners(slot, value);
+    }
+
+    /**
+     * Records that a value has been chosen in the given slot.
+     * 
+     * @param slot The slot that has been chosen.
+     */
+    private synchronized void markChosen(long slot) {
+        chosenSlots.add(slot);
+        while (chosenSlots.remove(firstUnchosenSlot)) {
+            firstUnchosenSlot++;
+        }
+    }
+
+    /**
+     * Gives up leadership if the proposer still leads with the given ballot, so that the
+     * next write runs Phase 1 again.
+     * 
+     * @param ballot The ballot that failed to get a majority.
+     */
+    private synchronized void stepDown(Ballot ballot) {
+        if (ballot != null && ballot.equals(leaderBallot)) {
+            leaderBallot = null;
+            stepDowns.increment();
+        }
+    }
+
+    /**
+     * Asks the learners how far they have applied the log and tells the acceptors to discard
+     * every slot that a majority of learners has applied from memory. Slots are only
+     * compacted out of the write-ahead logs once every learner has a snapshot covering them,
+     * so that any learner can restart from its snapshot plus the slots after it.
+     */
+    private void truncateAcceptors() {
+        compactAcceptors();
+        List<Long> applied = new ArrayList<>();
+        for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
+            try {
+                applied.add(entry.getValue().getAppliedUpTo());
+            } catch (RemoteException e) {
+                logger.warning("Learner" + entry.getKey() + " did not report its applied slot: " + e.getMessage());
+            }
+        }
+        int majority = learners.size() / 2 + 1;
+        if (applied.size() < majority) {
+            return;
+        }
+        applied.sort(Collections.reverseOrder());
+        long upToSlot = applied.get(majority - 1);
+        if (upToSlot <= truncatedUpTo) {
+            return;
+        }
+        for (Map.Entry<Integer, Acceptor> entry : acceptors.entrySet()) {
+            try {
+                entry.getValue().truncate(upToSlot);
+            } catch (RemoteException e) {
+                logger.warning("Acceptor" + entry.getKey() + " failed to truncate: " + e.getMessage());
+            }
+        }
+        truncatedUpTo = upToSlot;
+    }
+
+    /**
+     * Compacts the write-ahead logs of the acceptors up to the oldest snapshot slot among
+     * all learners.
+     */
+    private void compactAcceptors() {
+        long upToSlot = Long.MAX_VALUE;
+        for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
+            try {
+                upToSlot = Math.min(upToSlot, entry.getValue().getSnapshotSlot());
+            } catch (RemoteException e) {
+                logger.warning("Learner" + entry.getKey() + " did not report its snapshot slot: " + e.getMessage());
+                return;
+            }
+        }
+        if (upToSlot <= compactedUpTo) {
+            return;
+        }
+        for (Map.Entry<Integer, Acceptor> entry : acceptors.entrySet()) {
+            try {
+                entry.getValue().compact(upToSlot);
+            } catch (RemoteException e) {
+                logger.warning("Acceptor" + entry.getKey() + " failed to compact: " + e.getMessage());
+            }
+        }
+        compactedUpTo = upToSlot;
+    }
+
+    /**
+     * A call to a single acceptor.
+     */
+    private interface AcceptorCall<T> {
 
-            if (acceptedCount > acceptors.size() / 2) {
-                for (Learner learner : learners.values()) {
-                    learner.learn(proposalValue);
+        /**
+         * Calls the acceptor.
+         * 
+         * @param acceptor The acceptor to call.
+         * @return The response of the acceptor.
+         * @throws RemoteException If the acceptor cannot be reached.
+         */
+        T call(Acceptor acceptor) throws RemoteException;
+    }
+
+    /**
+     * Turns a call into one call per acceptor, each of which records how long its acceptor
+     * took to respond.
+     * 
+     * @param call The call to make to every acceptor.
+     * @return One call per acceptor.
+     */
+    private <T> List<Callable<T>> callEveryAcceptor(AcceptorCall<T> call) {
+        List<Callable<T>> calls = new ArrayList<>(acceptors.size());
+        for (Map.Entry<Integer, Acceptor> entry : acceptors.entrySet()) {
+            Acceptor acceptor = entry.getValue();
+            LatencyRecorder latency = acceptorLatency.get(entry.getKey());
+            calls.add(() -> {
+                long start = System.nanoTime();
+                try {
+                    return call.call(acceptor);
+                } finally {
+                    latency.recordSince(start);
+                }
+            });
+        }
+        return calls;
+    }
+
+    /**
+     * Sends the given calls to all acceptors in parallel and waits until either a majority
+     * has voted in favour, a majority can no longer be reached or the phase times out. Calls
+     * that are still outstanding at that point keep running in the background, so slow
+     * acceptors still catch up, but their responses are ignored.
+     * 
+     * @param calls One call per acceptor.
+     * @param isVote Tells whether a response counts as a vote in favour.
+     * @param rejections Counts the responses that did not vote in favour.
+     * @return The responses that voted in favour, or null if they are not a majority.
+     */
+    private <T> List<T> awaitMajority(List<Callable<T>> calls, Predicate<T> isVote, LongAdder rejections) {
+        int majority = acceptors.size() / 2 + 1;
+        CompletionService<T> completionService = new ExecutorCompletionService<>(rpcExecutor);
+        for (Callable<T> call : calls) {
+            completionService.submit(call);
+        }
+
+        List<T> votes = new ArrayList<>();
+        int pending = calls.size();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PaxosConfig.PHASE_TIMEOUT_MS);
+        try {
+            while (votes.size() < majority && votes.size() + pending >= majority) {
+                long remaining = deadline - System.nanoTime();
+                Future<T> done = completionService.poll(remaining, TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    logger.warning("Phase timed out with " + votes.size() + " of " + majority + " votes.");
+                    phaseTimeouts.increment();
+                    break;
+                }
+                pending--;
+                try {
+                    T response = done.get();
+                    if (isVote.test(response)) {
+                        votes.add(response);
+                    } else {
+                        rejections.increment();
+                    }
+                } catch (ExecutionException e) {
+                    logger.warning("Acceptor call failed: " + e.getCause());
+                    rpcFailures.increment();
                 }
-                keyValueStore.remove(key);
-                return "Operation successful.";
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return votes.size() >= majority ? votes : null;
+    }
+
+    /**
+     * Notifies every learner of the chosen value without waiting for them to respond. The
+     * time until the last learner has responded is recorded as the learn fan-out.
+     * 
+     * @param slot The slot the value was chosen in.
+     * @param value The value chosen by the acceptors.
+     */
+    private void notifyLearners(long slot, byte[] value) {
+        long start = System.nanoTime();
+        AtomicInteger outstanding = new AtomicInteger(learners.size());
+        for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
+            rpcExecutor.execute(() -> {
+                try {
+                    entry.getValue().learn(slot, value);
+                } catch (RemoteException e) {
+                    logger.warning("Learner" + entry.getKey() + " failed to learn value: " + e.getMessage());
+                    rpcFailures.increment();
+                }
+                if (outstanding.decrementAndGet() == 0) {
+                    learnFanOut.recordSince(start);
+                }
+            });
         }
-        return "Operation failed.";
     }
 
     /**
@@ -170,52 +1005,196 @@ public class ProposerImpl extends UnicastRemoteObject implements Proposer {
      * @param args The arguments used with the GET command.
      * @return The value associated with the key of the specified argument else 
      *         indicating no match found.
+     * @throws RemoteException If the read slot cannot be determined or no learner reaches it.
      */
-    private String get(String[] args) {
+    private String get(String[] args) throws RemoteException {
         if (args.length < 1) return "Example Usage: GET <key>";
-        String key = args[0];
-        String value = keyValueStore.get(key);
-        return value != null ? value : "No record found.";
+        VersionedValue value = read(Collections.singletonList(args[0])).get(0);
+        return value != null ? value.getValue() : "No record found.";
     }
 
     /**
-     * Generates a unique ID for proposals by the Proposer.
+     * Handles the GETV command issued by the client, which reads a value along with the
+     * version of its key, for use with CASV.
      * 
-     * @return A unique ID for the proposal.
+     * @param args The arguments used with the GETV command.
+     * @return The value and version of the key, or indicating no match found.
+     * @throws RemoteException If the read slot cannot be determined or no learner reaches it.
      */
-    private String generateProposalID() {
-        proposalNumber++;
-        return "PROPOSAL-" + proposalNumber;
+    private String getVersioned(String[] args) throws RemoteException {
+        if (args.length < 1) return "Example Usage: GETV <key>";
+        VersionedValue value = read(Collections.singletonList(args[0])).get(0);
+        return value != null ? value.toString() : "No record found.";
     }
 
     /**
-     * Logs the requests received from the client.
+     * Handles the MGET command issued by the client. All keys are read from the same learner
+     * at the same point, with a single read slot.
      * 
-     * @param command The command received by the client.
-     * @param args The arguments for the command. 
+     * @param args The keys to read.
+     * @return One line per key, holding the key and its value or indicating no match found.
+     * @throws RemoteException If the read slot cannot be determined or no learner reaches it.
      */
-    private void logClientRequest(String command, String[] args) {
-        String argsString = String.join(" ", args);
-        String message = "Received command: " + command + " " + argsString;
-        printWithTimestamp(message);
+    private String multiGet(String[] args) throws RemoteException {
+        if (args.length < 1) return "Example Usage: MGET <key> [<key> ...]";
+        List<String> keys = Arrays.asList(args);
+        List<VersionedValue> values = read(keys);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) {
+                result.append('\n');
+            }
+            result.append(keys.get(i)).append(": ").append(values.get(i) != null ? values.get(i).getValue() : "No record found.");
+        }
+        return result.toString();
     }
 
     /**
-     * Logs the response to be sent to the client.
+     * Handles the SCAN and PREFIX commands issued by the client, which read one page of the
+     * keys in a range from a learner, at the slot a GET would read at. In the
+     * dependency-tracking mode a range has no instances to wait for that could be known in
+     * advance, so the page shows whatever the learner has executed.
      * 
-     * @param response The response sent to the client.
+     * @param command SCAN or PREFIX.
+     * @param args The arguments of the command.
+     * @return The keys on the page and their values, followed by the continuation token or
+     *         the end of the range.
+     * @throws RemoteException If the read slot cannot be determined or no learner reaches it.
      */
-    private void logClientResponse(String response) {
-        String message = "Response: " + response;
-        printWithTimestamp(message);
+    private String scan(String command, String[] args) throws RemoteException {
+        RangeQuery query = RangeQuery.parse(command, args);
+        if (query == null) return RangeQuery.usage(command);
+        long minSlot = epaxos == null ? readSlot() : -1;
+        return readFromLearner((learner, timeoutMs) -> learner.scan(query, minSlot, timeoutMs),
+                "slot " + minSlot).format();
+    }
+
+    /**
+     * Reads keys from one of the learners once it has applied the slot returned by readSlot.
+     * In the dependency-tracking mode a linearizable read waits for the instances that touch
+     * the keys instead of a slot.
+     * 
+     * @param keys The keys to read.
+     * @return The value of each key with its version, in the order of the keys, with null
+     *         for a missing key.
+     * @throws RemoteException If the read slot cannot be determined or no learner reaches it.
+     */
+    private List<VersionedValue> read(List<String> keys) throws RemoteException {
+        Set<InstanceId> instances = epaxos != null && PaxosConfig.READ_MODE != ReadMode.STALE
+                ? epaxos.interfering(keys) : null;
+        long minSlot = instances == null ? readSlot() : -1;
+        String point = instances != null ? "instances " + instances : "slot " + minSlot;
+        return readFromLearner((learner, timeoutMs) -> instances != null
+                ? learner.readAfter(keys, instances, timeoutMs) : learner.read(keys, minSlot, timeoutMs), point);
+    }
+
+    /**
+     * Runs a read on one of the learners, taking turns between them. A learner that is
+     * behind is skipped at first; only if every learner is behind does the proposer wait for
+     * one to catch up.
+     * 
+     * @param <T> The type of the result of the read.
+     * @param read The read.
+     * @param point The point the read waits for, for the error message.
+     * @return The result of the read.
+     * @throws RemoteException If no learner serves the read.
+     */
+    private <T> T readFromLearner(LearnerRead<T> read, String point) throws RemoteException {
+        int first = Math.floorMod(nextReader.getAndIncrement(), readers.size());
+        RemoteException failure = null;
+        for (int attempt = 0; attempt < 2 * readers.size(); attempt++) {
+            if (attempt > 0) {
+                readRetries.increment();
+            }
+            Learner learner = readers.get((first + attempt) % readers.size());
+            long timeoutMs = attempt < readers.size() ? 0 : PaxosConfig.PHASE_TIMEOUT_MS;
+            try {
+                return read.read(learner, timeoutMs);
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        throw new RemoteException("No learner could serve the read at " + point, failure);
     }
 
     /**
-     * Helper method to print the message with a timestamp.
+     * A read served by a single learner.
+     */
+    private interface LearnerRead<T> {
+
+        /**
+         * Reads from the learner.
+         * 
+         * @param learner The learner to read from.
+         * @param timeoutMs How long the learner may wait to catch up, in milliseconds.
+         * @return The result of the read.
+         * @throws RemoteException If the learner cannot serve the read.
+         */
+        T read(Learner learner, long timeoutMs) throws RemoteException;
+    }
+
+    /**
+     * Returns the slot a learner has to have applied before it serves a read, according to
+     * paxos.readMode. For linearizable reads this is the highest slot decided before the
+     * read, read while the proposer is known to still be the leader.
      * 
-     * @param message The message to be printed along with the timestamp on the console.
+     * @return The slot to read at, or -1 if any state will do.
+     * @throws RemoteException If the proposer cannot confirm that it is the leader.
      */
-    private static void printWithTimestamp(String message) {
-        System.out.println("[" + LocalDateTime.now().format(formatter) + "] " + message);
+    private long readSlot() throws RemoteException {
+        if (PaxosConfig.READ_MODE == ReadMode.STALE) {
+            return staleReadSlot();
+        }
+        Ballot ballot = ensureLeader();
+        if (ballot == null) {
+            throw new RemoteException("Could not become the leader to serve a linearizable read");
+        }
+        long slot = highestDecidedSlot.get();
+        if (PaxosConfig.READ_MODE == ReadMode.LEASE && holdsLease(ballot)) {
+            return slot;
+        }
+        if (!confirmLeadership(ballot)) {
+            stepDown(ballot);
+            throw new RemoteException("Could not confirm leadership to serve a linearizable read");
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the highest slot that was decided at least paxos.maxStalenessMs ago, and
+     * forgets the decision times that are older than that.
+     * 
+     * @return The slot a STALE read has to see, or -1 if there is none.
+     */
+    private long staleReadSlot() {
+        long horizon = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(PaxosConfig.MAX_STALENESS_MS);
+        Map.Entry<Long, Long> entry = decidedAt.floorEntry(horizon);
+        if (entry == null) {
+            return -1;
+        }
+        decidedAt.headMap(entry.getKey()).clear();
+        return entry.getValue();
+    }
+
+    /**
+     * Echoes the request received from the client to the console, with a timestamp. The
+     * arguments are joined by the LogFormatter, and only if the record is written.
+     * 
+     * @param command The command sent by the client.
+     * @param args The arguments of the command.
+     */
+    private void logClientRequest(String command, String[] args) {
+        if (requests.isLoggable(Level.INFO)) {
+            requests.log(Level.INFO, "Received command: {0} {1}", new Object[]{command, args});
+        }
+    }
+
+    /**
+     * Echoes the response to be sent to the client to the console, with a timestamp.
+     * 
+     * @param response The response sent to the client.
+     */
+    private void logClientResponse(String response) {
+        requests.log(Level.INFO, "Response: {0}", response);
     }
 }
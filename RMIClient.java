@@ -1,17 +1,30 @@
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.rmi.RemoteException;
+import java.io.Closeable;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
 /**
  * RMIClient is the class to interact with the remote Proposer service with the help of
- * RMIServer.
+ * RMIServer. Over RMI it talks to the server through a PaxosClient, which keeps working while
+ * the FailureSimulator unbinds roles. Given a file, it bulk-loads the commands in it instead
+ * of reading commands from the console.
  */
 public class RMIClient {
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
@@ -31,11 +44,13 @@ public class RMIClient {
     /**
      * Main method for the RMI Client.
      * 
-     * @param args Command Line Arguments to run the client: hostname and port number of the server.
+     * @param args Command Line Arguments to run the client: hostname and port number of the server,
+     *             optionally followed by a file of commands to bulk-load.
+     *             With -Dpaxos.transport=NIO the client connects to the NIO endpoint on the next port.
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            printWithTimestamp("Example Usage: java RMIClient <hostname> <port number>");
+        if (args.length != 2 && args.length != 3) {
+            printWithTimestamp("Example Usage: java RMIClient <hostname> <port number> [<file to load>]");
             return;
         }
 
@@ -43,8 +58,18 @@ public class RMIClient {
         int port = Integer.parseInt(args[1]);
 
         try {
-            Registry registry = LocateRegistry.getRegistry(hostname, port);
-            Proposer proposer = (Proposer) registry.lookup("Proposer");
+            Proposer proposer;
+            if (PaxosConfig.TRANSPORT == Transport.NIO) {
+                proposer = new NioProposerStub(hostname, port + 1);
+            } else {
+                proposer = new PaxosClient(hostname, port);
+            }
+
+            if (args.length == 3) {
+                bulkLoad(proposer, Paths.get(args[2]));
+                ((Closeable) proposer).close();
+                return;
+            }
 
             prepopulateServer(proposer);
 
@@ -61,9 +86,13 @@ public class RMIClient {
 
                 String[] textParts = text.split(" ", 2);
                 String command = textParts[0];
-                String[] commandArgs = textParts.length > 1 ? textParts[1].split(" ", 2) : new String[]{};
+                String[] commandArgs = parseArgs(command, textParts.length > 1 ? textParts[1] : null);
 
                 try {
+                    if (command.equals("SCAN") || command.equals("PREFIX")) {
+                        streamRange(proposer, command, commandArgs);
+                        continue;
+                    }
                     String response = proposer.propose(command, commandArgs);
                     printWithTimestamp("Server response: " + response);
                 } catch (IOException e) {
@@ -72,6 +101,7 @@ public class RMIClient {
                     logger.warning(errorMessage);
                 }
             }
+            ((Closeable) proposer).close();
         } catch (Exception ex) {
             String errorMessage = "Client exception: " + ex.getMessage();
             printWithTimestamp(errorMessage);
@@ -80,37 +110,26 @@ public class RMIClient {
     }
     
     /**
-     * Prepopulate the server with 5 commands each GET, POST and DELETE.
+     * Prepopulate the server with 5 keys, reading and deleting them again, using one MPUT,
+     * MGET and MDELETE request each.
      * 
      * @param proposer The proposer object that handles the commands.
      */
     private static void prepopulateServer(Proposer proposer) {
         String[] commands = {
-            "PUT key1 value1",
-            "PUT key2 value2",
-            "PUT key3 value3",
-            "PUT key4 value4",
-            "PUT key5 value5",
-            "GET key1",
-            "GET key2",
-            "GET key3",
-            "GET key4",
-            "GET key5",
-            "DELETE key1",
-            "DELETE key2",
-            "DELETE key3",
-            "DELETE key4",
-            "DELETE key5"
+            "MPUT key1 value1 key2 value2 key3 value3 key4 value4 key5 value5",
+            "MGET key1 key2 key3 key4 key5",
+            "MDELETE key1 key2 key3 key4 key5"
         };
 
         for (String command : commands) {
             String[] commandParts = command.split(" ", 2);
             String cmd = commandParts[0];
-            String[] cmdArgs = commandParts.length > 1 ? commandParts[1].split(" ") : new String[]{};
+            String[] cmdArgs = parseArgs(cmd, commandParts.length > 1 ? commandParts[1] : null);
 
             try {
                 String response = proposer.propose(cmd, cmdArgs);
-                printWithTimestamp("Prepopulated command: " + command + ", response: " + response);
+                printWithTimestamp("Prepopulated command: " + command + ", response: " + response.replace('\n', ' '));
             } catch (IOException e) {
                 String errorMessage = "Error during prepopulation: " + e.getMessage();
                 printWithTimestamp(errorMessage);
@@ -119,6 +138,237 @@ public class RMIClient {
         }
     }
 
+    /**
+     * Streams the commands in a file to the server, one per line, keeping at most
+     * paxos.clientMaxOutstanding requests outstanding. Consecutive PUTs and DELETEs are sent
+     * as MPUT and MDELETE requests of up to paxos.loadBatchKeys keys; a PUT whose value
+     * contains spaces and every other command are sent on their own. A request waits for
+     * the outstanding requests that touch the same keys, so each key ends up with the value
+     * of its last command in the file. Empty lines and lines starting with # are skipped.
+     * 
+     * @param proposer The proposer object that handles the commands.
+     * @param file The file of commands to load.
+     */
+    private static void bulkLoad(Proposer proposer, Path file) {
+        long start = System.nanoTime();
+        BulkLoad load = new BulkLoad(proposer);
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split(" ", 3);
+                if (parts[0].equals("PUT") && parts.length == 3 && !parts[2].contains(" ")) {
+                    load.add("MPUT", parts[1], parts[2]);
+                } else if (parts[0].equals("DELETE") && parts.length == 2) {
+                    load.add("MDELETE", parts[1]);
+                } else {
+                    String[] lineParts = line.split(" ", 2);
+                    load.send(lineParts[0], parseArgs(lineParts[0], lineParts.length > 1 ? lineParts[1] : null), 1,
+                            lineParts.length > 1 ? Collections.singletonList(lineParts[1].split(" ", 2)[0])
+                                    : Collections.emptyList());
+                }
+            }
+            load.finish();
+        } catch (IOException e) {
+            String errorMessage = "Error reading " + file + ": " + e.getMessage();
+            printWithTimestamp(errorMessage);
+            logger.warning(errorMessage);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            printWithTimestamp("Bulk load interrupted");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        printWithTimestamp(String.format("Loaded %d commands in %d requests (%d failed) in %.2f s, %.0f commands/s",
+                load.commands.get(), load.requests.get(), load.failed.get(), seconds, load.commands.get() / seconds));
+    }
+
+    /**
+     * Runs a SCAN or PREFIX command page by page, following the continuation token at the
+     * end of every page until the range ends, and prints each page as it arrives. Only one
+     * page is held at a time, however large the range is.
+     * 
+     * @param proposer The proposer object that handles the commands.
+     * @param command SCAN or PREFIX.
+     * @param args The arguments of the command as the user typed them.
+     * @throws RemoteException If a page cannot be read.
+     */
+    private static void streamRange(Proposer proposer, String command, String[] args) throws RemoteException {
+        int keyArgs = command.equals("PREFIX") ? 1 : 2;
+        if (args.length < keyArgs || args.length > keyArgs + 2) {
+            printWithTimestamp("Server response: " + proposer.propose(command, args));
+            return;
+        }
+        String[] pageArgs = Arrays.copyOf(args, keyArgs + 2);
+        if (args.length == keyArgs) {
+            pageArgs[keyArgs] = Integer.toString(PaxosConfig.SCAN_PAGE_KEYS);
+        }
+        String[] request = args.length == keyArgs + 2 ? pageArgs : Arrays.copyOf(pageArgs, keyArgs + 1);
+        long keys = 0;
+        int pages = 0;
+        while (true) {
+            String response = proposer.propose(command, request);
+            ScanPage page;
+            try {
+                page = ScanPage.parse(response);
+            } catch (IllegalArgumentException e) {
+                printWithTimestamp("Server response: " + response);
+                return;
+            }
+            pages++;
+            keys += page.getEntries().size();
+            printWithTimestamp("Server response (page " + pages + "): " + response);
+            if (page.isComplete()) {
+                break;
+            }
+            pageArgs[keyArgs + 1] = RangeQuery.encodeToken(page.getEntries().lastKey());
+            request = pageArgs;
+        }
+        printWithTimestamp("Scanned " + keys + " keys in " + pages + " pages");
+    }
+
+    /**
+     * Splits the arguments of a command typed by the user. Multi-key commands take any
+     * number of space-separated arguments; for every other command, everything after the
+     * key is a single argument, so PUT values may contain spaces.
+     * 
+     * @param command The command.
+     * @param rest Everything after the command, or null if there is nothing.
+     * @return The arguments of the command.
+     */
+    private static String[] parseArgs(String command, String rest) {
+        if (rest == null) {
+            return new String[]{};
+        }
+        if (command.equals("MGET") || command.equals("MPUT") || command.equals("MDELETE") || command.equals("SCAN")
+                || command.equals("PREFIX")) {
+            return rest.split(" +");
+        }
+        return rest.split(" ", 2);
+    }
+
+    /**
+     * The state of a bulk load: the MPUT or MDELETE request being filled and the keys of the
+     * requests that are still outstanding.
+     */
+    private static final class BulkLoad {
+        private final AsyncProposer async;
+        private final Map<String, CompletableFuture<String>> outstandingKeys;
+        private final List<CompletableFuture<String>> outstanding;
+        private final List<String> pendingArgs;
+        private final List<String> pendingKeys;
+        private final AtomicLong commands;
+        private final AtomicLong requests;
+        private final AtomicLong failed;
+        private String pendingCommand;
+
+        private BulkLoad(Proposer proposer) {
+            this.async = new AsyncProposer(proposer, PaxosConfig.CLIENT_MAX_OUTSTANDING);
+            this.outstandingKeys = new ConcurrentHashMap<>();
+            this.outstanding = new ArrayList<>();
+            this.pendingArgs = new ArrayList<>();
+            this.pendingKeys = new ArrayList<>();
+            this.commands = new AtomicLong();
+            this.requests = new AtomicLong();
+            this.failed = new AtomicLong();
+        }
+
+        /**
+         * Adds a key, and its value for MPUT, to the request being filled, sending the
+         * request first if it is of another command or full.
+         * 
+         * @param command MPUT or MDELETE.
+         * @param args The key, followed by its value for MPUT.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        private void add(String command, String... args) throws InterruptedException {
+            if (!command.equals(pendingCommand) || pendingKeys.size() >= PaxosConfig.LOAD_BATCH_KEYS) {
+                flush();
+            }
+            pendingCommand = command;
+            pendingKeys.add(args[0]);
+            pendingArgs.addAll(Arrays.asList(args));
+        }
+
+        /**
+         * Sends the request being filled, if there is one.
+         * 
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        private void flush() throws InterruptedException {
+            if (pendingKeys.isEmpty()) {
+                return;
+            }
+            send(pendingCommand, pendingArgs.toArray(new String[0]), pendingKeys.size(), new ArrayList<>(pendingKeys));
+            pendingArgs.clear();
+            pendingKeys.clear();
+        }
+
+        /**
+         * Sends a request once the outstanding requests on the same keys have completed.
+         * 
+         * @param command The command of the request.
+         * @param args The arguments of the request.
+         * @param count How many commands of the file the request carries.
+         * @param keys The keys the request touches.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        private void send(String command, String[] args, int count, List<String> keys) throws InterruptedException {
+            flushIfOther(command);
+            for (String key : keys) {
+                CompletableFuture<String> previous = outstandingKeys.get(key);
+                if (previous != null) {
+                    previous.handle((result, failure) -> null).join();
+                }
+            }
+            CompletableFuture<String> response = async.submit(command, args);
+            requests.incrementAndGet();
+            commands.addAndGet(count);
+            for (String key : keys) {
+                outstandingKeys.put(key, response);
+            }
+            response.whenComplete((result, failure) -> {
+                for (String key : keys) {
+                    outstandingKeys.remove(key, response);
+                }
+                boolean isWrite = !command.equals("GET") && !command.equals("MGET") && !command.equals("STATS");
+                if (failure != null || (isWrite && !result.equals("Operation successful."))) {
+                    failed.addAndGet(count);
+                    logger.warning("Request " + command + " failed: " + (failure != null ? failure.getMessage() : result));
+                }
+            });
+            outstanding.add(response);
+            if (outstanding.size() > 2 * PaxosConfig.CLIENT_MAX_OUTSTANDING) {
+                outstanding.removeIf(CompletableFuture::isDone);
+            }
+        }
+
+        /**
+         * Sends the request being filled before a command that does not belong to it.
+         * 
+         * @param command The command about to be sent.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        private void flushIfOther(String command) throws InterruptedException {
+            if (!command.equals(pendingCommand) && !pendingKeys.isEmpty()) {
+                flush();
+            }
+        }
+
+        /**
+         * Sends the last request and waits for every outstanding request.
+         * 
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        private void finish() throws InterruptedException {
+            flush();
+            CompletableFuture.allOf(outstanding.toArray(new CompletableFuture<?>[0])).handle((result, failure) -> null).join();
+            async.close();
+        }
+    }
+
     /**
      * Helper method to print the message with a timestamp.
      * 
@@ -1,21 +1,33 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.rmi.Remote;
 
 /**
  * The RMIServer class is responsible for starting the RMI Server, creating and registering 
  * Proposer, Acceptor and Learner objects and starting the FailureSimulator to simulate random
- * failures and restarting the PAXOS entities.
+ * failures and restarting the PAXOS entities. With -Dpaxos.shards=N it starts N independent
+ * PAXOS groups and registers a ShardRouter as the Proposer clients talk to.
+ * 
+ * Every thread pool the server creates for client requests is bounded by
+ * paxos.requestThreads, so a burst of requests cannot start an unbounded number of threads.
  */
 public class RMIServer {
     /**
      * Main method for the RMI Server.
      * 
      * @param args Command Line Arguments to run the server: port number of the server to run.
+     *             With -Dpaxos.transport=NIO the proposer is also served over NIO on the next port.
      */
     public static void main(String[] args) {
         if (args.length != 1) {
@@ -25,47 +37,90 @@ public class RMIServer {
 
         int port = Integer.parseInt(args[0]);
         try {
-            ExecutorService executor = Executors.newCachedThreadPool();
-            Map<Integer, Acceptor> acceptors = new HashMap<>();
-            Map<Integer, Learner> learners = new HashMap<>();
-            Map<String, String> keyValueStore = new HashMap<>();
-
-            for (int i = 1; i <= 3; i++) {
-                acceptors.put(i, new AcceptorImpl());
-                learners.put(i, new LearnerImpl(keyValueStore));
+            Map<String, Remote> remoteObjects = new HashMap<>();
+            List<Proposer> shards = new ArrayList<>();
+            for (int shard = 0; shard < PaxosConfig.SHARDS; shard++) {
+                shards.add(startShard(shard, remoteObjects));
             }
-
-            ProposerImpl proposer = new ProposerImpl(executor, acceptors, learners);
+            // Multi-key commands run their last parts on the caller once every thread is busy.
+            Proposer proposer = shards.size() == 1 ? shards.get(0) : new ShardRouter(shards,
+                    new ThreadPoolExecutor(0, PaxosConfig.REQUEST_THREADS, 60, TimeUnit.SECONDS,
+                            new SynchronousQueue<>(), new ThreadPoolExecutor.CallerRunsPolicy()));
+            remoteObjects.put("Proposer", proposer);
 
             Registry registry = LocateRegistry.createRegistry(port);
-            registry.bind("Proposer", proposer);
-
-            for (Map.Entry<Integer, Acceptor> entry : acceptors.entrySet()) {
-                registry.bind("Acceptor" + entry.getKey(), entry.getValue());
+            for (Map.Entry<String, Remote> entry : remoteObjects.entrySet()) {
+                registry.bind(entry.getKey(), entry.getValue());
             }
 
-            for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
-                registry.bind("Learner" + entry.getKey(), entry.getValue());
+            if (PaxosConfig.TRANSPORT == Transport.NIO) {
+                new NioServer(port + 1, request -> ProposerFrames.handle(proposer, request), nioExecutor());
             }
 
             System.out.println("Server is ready.");
 
-            Map<String, Remote> remoteObjects = new HashMap<>();
-            remoteObjects.put("Proposer", proposer);
-
-            for (Map.Entry<Integer, Acceptor> entry : acceptors.entrySet()) {
-                remoteObjects.put("Acceptor" + entry.getKey(), entry.getValue());
+            if (PaxosConfig.SIMULATE_FAILURES) {
+                FailureSimulator simulator = new FailureSimulator(remoteObjects, registry);
+                simulator.start();
             }
-
-            for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
-                remoteObjects.put("Learner" + entry.getKey(), entry.getValue());
-            }
-
-            FailureSimulator simulator = new FailureSimulator(remoteObjects, registry);
-            simulator.start();
         } catch (Exception e) {
             System.err.println("Server exception: " + e.toString());
             e.printStackTrace();
         }
     }
+
+    /**
+     * Creates the pool NIO requests are handled on: paxos.requestThreads threads and a queue
+     * of paxos.maxQueuedRequests, beyond which requests are answered as busy right away.
+     * 
+     * @return The executor.
+     */
+    private static ExecutorService nioExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PaxosConfig.REQUEST_THREADS, PaxosConfig.REQUEST_THREADS,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(PaxosConfig.MAX_QUEUED_REQUESTS));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates the acceptors, learners and proposer of one PAXOS group. With a single shard
+     * the roles keep their data directly in the data directory and are registered under
+     * their plain names; otherwise both are prefixed with the shard.
+     * 
+     * @param shard The index of the shard.
+     * @param remoteObjects The map the roles are added to under their registry names.
+     * @return The proposer of the shard.
+     * @throws Exception If a role cannot be created.
+     */
+    private static ProposerImpl startShard(int shard, Map<String, Remote> remoteObjects) throws Exception {
+        Path dataDir = PaxosConfig.SHARDS == 1 ? Paths.get(PaxosConfig.DATA_DIR)
+                : Paths.get(PaxosConfig.DATA_DIR, "shard" + shard);
+        String prefix = PaxosConfig.SHARDS == 1 ? "" : "Shard" + shard + "-";
+
+        Map<Integer, Acceptor> acceptors = new HashMap<>();
+        Map<Integer, Learner> learners = new HashMap<>();
+        for (int i = 1; i <= 3; i++) {
+            acceptors.put(i, new AcceptorImpl(dataDir.resolve("acceptor" + i)));
+            learners.put(i, new LearnerImpl(dataDir.resolve("learner" + i)));
+        }
+
+        for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
+            Map<Integer, Learner> peers = new HashMap<>(learners);
+            peers.remove(entry.getKey());
+            ((LearnerImpl) entry.getValue()).setPeers(peers);
+            ((LearnerImpl) entry.getValue()).setAcceptors(acceptors);
+        }
+
+        ProposerImpl proposer = new ProposerImpl(acceptors, learners);
+        if (PaxosConfig.SHARDS > 1) {
+            remoteObjects.put(prefix + "Proposer", proposer);
+        }
+        for (Map.Entry<Integer, Acceptor> entry : acceptors.entrySet()) {
+            remoteObjects.put(prefix + "Acceptor" + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
+            remoteObjects.put(prefix + "Learner" + entry.getKey(), entry.getValue());
+        }
+        return proposer;
+    }
 }
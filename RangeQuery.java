@@ -0,0 +1,173 @@
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * RangeQuery is a SCAN or PREFIX command parsed from its arguments: the keys from a start
+ * key, inclusive, up to an end key, exclusive, in the order of String.compareTo, read one
+ * page of at most a given number of keys at a time.
+ * 
+ * <pre>
+ * SCAN &lt;from&gt; &lt;to&gt; [&lt;limit&gt; [&lt;token&gt;]]
+ * PREFIX &lt;prefix&gt; [&lt;limit&gt; [&lt;token&gt;]]
+ * </pre>
+ * 
+ * A from or to of * leaves that end of the range open. The token is the continuation token
+ * at the end of the previous page: the last key it returned, in URL-safe Base64, so the next
+ * page starts right after that key. It is the same for every shard and does not hold the
+ * server to anything, so a range can be paged through for as long as the client likes, but
+ * pages read at different times may reflect different writes.
+ */
+public final class RangeQuery implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String from;
+    private final String to;
+    private final int limit;
+
+    /**
+     * Constructs a RangeQuery.
+     * 
+     * @param from The first key of the page, inclusive.
+     * @param to The end of the range, exclusive, or null if it is open.
+     * @param limit The maximum number of keys on the page.
+     */
+    public RangeQuery(String from, String to, int limit) {
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+    }
+
+    /**
+     * Parses the arguments of a SCAN or PREFIX command.
+     * 
+     * @param command SCAN or PREFIX.
+     * @param args The arguments of the command.
+     * @return The query for the page the arguments ask for, or null if they are invalid.
+     */
+    public static RangeQuery parse(String command, String[] args) {
+        int keyArgs = command.equals("PREFIX") ? 1 : 2;
+        if (args.length < keyArgs || args.length > keyArgs + 2) {
+            return null;
+        }
+        String from;
+        String to;
+        if (keyArgs == 1) {
+            from = args[0];
+            to = prefixEnd(args[0]);
+        } else {
+            from = args[0].equals("*") ? "" : args[0];
+            to = args[1].equals("*") ? null : args[1];
+        }
+        int limit = PaxosConfig.SCAN_PAGE_KEYS;
+        if (args.length > keyArgs) {
+            try {
+                limit = Integer.parseInt(args[keyArgs]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (limit <= 0) {
+                return null;
+            }
+        }
+        if (args.length > keyArgs + 1) {
+            String last = decodeToken(args[keyArgs + 1]);
+            if (last == null) {
+                return null;
+            }
+            // The smallest key after the last one returned is that key followed by \0.
+            from = last + '\0';
+        }
+        return new RangeQuery(from, to, limit);
+    }
+
+    /**
+     * Returns how to use a SCAN or PREFIX command.
+     * 
+     * @param command SCAN or PREFIX.
+     * @return The usage of the command.
+     */
+    public static String usage(String command) {
+        return command.equals("PREFIX") ? "Example Usage: PREFIX <prefix> [<limit> [<token>]]"
+                : "Example Usage: SCAN <from|*> <to|*> [<limit> [<token>]]";
+    }
+
+    /**
+     * Returns the first key of the page, inclusive.
+     * 
+     * @return The first key.
+     */
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * Returns the end of the range, exclusive.
+     * 
+     * @return The end of the range, or null if it is open.
+     */
+    public String getTo() {
+        return to;
+    }
+
+    /**
+     * Returns the maximum number of keys on the page.
+     * 
+     * @return The limit.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns whether the page is empty before it is read, because it starts at or after the
+     * end of the range.
+     * 
+     * @return Whether no key can be on the page.
+     */
+    public boolean isEmpty() {
+        return to != null && from.compareTo(to) >= 0;
+    }
+
+    /**
+     * Encodes the continuation token of a page.
+     * 
+     * @param lastKey The last key on the page.
+     * @return The token.
+     */
+    public static String encodeToken(String lastKey) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(lastKey.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a continuation token.
+     * 
+     * @param token The token.
+     * @return The last key of the page the token ended, or null if it is not a token.
+     */
+    private static String decodeToken(String token) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the smallest key that is greater than every key starting with the prefix: the
+     * prefix without its trailing U+FFFF characters, with its last character incremented.
+     * 
+     * @param prefix The prefix.
+     * @return The end of the range of keys with the prefix, or null if it is open.
+     */
+    private static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * ReadMode decides how the proposer makes sure a GET served by a learner is up to date.
+ */
+public enum ReadMode {
+
+    /**
+     * Reads are linearizable. While the leader holds a lease from a majority of acceptors it
+     * reads at the highest decided slot without contacting them; once the lease has run out
+     * it confirms its leadership like READ_INDEX, which renews the lease.
+     */
+    LEASE,
+
+    /**
+     * Reads are linearizable. Every read confirms with a majority of acceptors that the
+     * leader still holds the highest ballot and then reads at the highest slot decided
+     * before the confirmation.
+     */
+    READ_INDEX,
+
+    /**
+     * Reads may be stale, but see every write that was acknowledged more than
+     * paxos.maxStalenessMs before the read. No acceptor is contacted.
+     */
+    STALE
+}
@@ -0,0 +1,136 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReplicatedLog holds the values decided for each log slot and applies them strictly in slot
+ * order. Values that are decided out of order are buffered until every slot before them has
+ * been applied.
+ */
+public class ReplicatedLog {
+
+    /** The value a leader proposes to fill a slot that no client command ended up in: an empty batch. */
+    public static final byte[] NOOP = new byte[0];
+
+    /**
+     * Applies decided values to the state machine.
+     */
+    public interface Applier {
+
+        /**
+         * Applies the value decided for a slot. Called for one slot at a time, in slot order,
+         * including slots filled with NOOP.
+         * 
+         * @param slot The slot the value was decided for.
+         * @param value The decided value.
+         */
+        void apply(long slot, byte[] value);
+    }
+
+    private final Applier applier;
+    private final TreeMap<Long, byte[]> pending;
+    private long nextSlotToApply;
+
+    /**
+     * Constructs an empty ReplicatedLog.
+     * 
+     * @param applier Applies a decided value to the state machine.
+     * @param firstSlot The first slot to apply, e.g. the slot after a restored snapshot.
+     */
+    public ReplicatedLog(Applier applier, long firstSlot) {
+        this.applier = applier;
+        this.pending = new TreeMap<>();
+        this.nextSlotToApply = firstSlot;
+    }
+
+    /**
+     * Records the value decided for a slot and applies every value that is now contiguous.
+     * Values for slots that have already been applied or buffered are ignored.
+     * 
+     * @param slot The slot the value was decided for.
+     * @param value The decided value.
+     */
+    public synchronized void decided(long slot, byte[] value) {
+        if (slot < nextSlotToApply || pending.containsKey(slot)) {
+            return;
+        }
+        pending.put(slot, value);
+        applyContiguous();
+    }
+
+    /**
+     * Replaces the state machine with a snapshot and moves the log forward to the slot after
+     * it without applying the slots before it. No slot is applied while the snapshot is
+     * being restored.
+     * 
+     * @param firstSlot The next slot to apply.
+     * @param restore Replaces the state of the state machine with the snapshot.
+     * @return true if the snapshot was restored, false if the log was already past it.
+     */
+    public synchronized boolean resetTo(long firstSlot, Runnable restore) {
+        if (firstSlot <= nextSlotToApply) {
+            return false;
+        }
+        restore.run();
+        pending.headMap(firstSlot).clear();
+        nextSlotToApply = firstSlot;
+        applyContiguous();
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Applies every buffered value that directly follows the last applied slot.
+     */
+    private void applyContiguous() {
+        boolean applied = false;
+        Map.Entry<Long, byte[]> next;
+        while ((next = pending.firstEntry()) != null && next.getKey() == nextSlotToApply) {
+            pending.pollFirstEntry();
+            applier.apply(next.getKey(), next.getValue());
+            nextSlotToApply++;
+            applied = true;
+        }
+        if (applied) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the given slot has been applied.
+     * 
+     * @param slot The slot to wait for.
+     * @param timeoutMs How long to wait at most, in milliseconds.
+     * @return true if the slot has been applied, false if the wait timed out.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized boolean awaitApplied(long slot, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (nextSlotToApply <= slot) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the highest slot up to which every value has been applied.
+     * 
+     * @return The highest contiguous applied slot, or -1 if nothing has been applied.
+     */
+    public synchronized long getAppliedUpTo() {
+        return nextSlotToApply - 1;
+    }
+
+    /**
+     * Returns the number of decided values waiting for an earlier slot.
+     * 
+     * @return The number of buffered values.
+     */
+    public synchronized int getBufferedCount() {
+        return pending.size();
+    }
+}
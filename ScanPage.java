@@ -0,0 +1,185 @@
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * ScanPage is one page of the keys a SCAN or PREFIX command asks for, in order, together with
+ * whether the range ends with it. A learner returns at most the number of keys the query
+ * allows and about paxos.scanPageChars characters of keys and values, but always at least one
+ * key if there is one, so that paging always makes progress.
+ * 
+ * Clients get the page as one line per key, "key: value", followed by a last line that is
+ * either "Next page: token" or "End of range.". Backslashes and line breaks in keys and
+ * values are escaped as \\, \n and \r, and a ": " in a key as \: , so that every key takes
+ * exactly one line and ends at the first unescaped ": ".
+ */
+public final class ScanPage implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String END = "End of range.";
+    private static final String NEXT = "Next page: ";
+
+    private final SortedMap<String, String> entries;
+    private final boolean complete;
+
+    /**
+     * Constructs a ScanPage.
+     * 
+     * @param entries The keys on the page and their values.
+     * @param complete Whether the range has no keys after those on the page.
+     */
+    public ScanPage(SortedMap<String, String> entries, boolean complete) {
+        this.entries = entries;
+        this.complete = complete;
+    }
+
+    /**
+     * Returns the keys on the page and their values.
+     * 
+     * @return The entries of the page, in key order.
+     */
+    public SortedMap<String, String> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns whether the range has no keys after those on the page.
+     * 
+     * @return Whether this is the last page.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Formats the page for the client, one line per key followed by the continuation token
+     * or the end of the range.
+     * 
+     * @return The formatted page.
+     */
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            escape(entry.getKey(), true, sb);
+            sb.append(": ");
+            escape(entry.getValue(), false, sb);
+            sb.append('\n');
+        }
+        if (complete || entries.isEmpty()) {
+            return sb.append(END).toString();
+        }
+        return sb.append(NEXT).append(RangeQuery.encodeToken(entries.lastKey())).toString();
+    }
+
+    /**
+     * Parses a page formatted by format.
+     * 
+     * @param formatted The formatted page.
+     * @return The page.
+     * @throws IllegalArgumentException If the text is not a formatted page.
+     */
+    public static ScanPage parse(String formatted) {
+        String[] lines = formatted.split("\n", -1);
+        String trailer = lines[lines.length - 1];
+        if (!trailer.equals(END) && !trailer.startsWith(NEXT)) {
+            throw new IllegalArgumentException("Not a page of keys: " + trailer);
+        }
+        SortedMap<String, String> entries = new TreeMap<>();
+        for (int i = 0; i < lines.length - 1; i++) {
+            StringBuilder key = new StringBuilder();
+            int separator = unescape(lines[i], 0, true, key);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Not a key and value: " + lines[i]);
+            }
+            StringBuilder value = new StringBuilder();
+            unescape(lines[i], separator + 2, false, value);
+            entries.put(key.toString(), value.toString());
+        }
+        return new ScanPage(entries, trailer.equals(END));
+    }
+
+    /**
+     * Merges the pages the shards returned for the same query into one page. A shard whose
+     * page is not its last may still have keys after its last one, so the merged page stops
+     * at the smallest such key; it then holds every key of every shard up to it.
+     * 
+     * @param pages The page of every shard.
+     * @param limit The maximum number of keys on the merged page.
+     * @return The merged page.
+     */
+    public static ScanPage merge(List<ScanPage> pages, int limit) {
+        SortedMap<String, String> all = new TreeMap<>();
+        String bound = null;
+        for (ScanPage page : pages) {
+            all.putAll(page.entries);
+            if (!page.complete && !page.entries.isEmpty()
+                    && (bound == null || page.entries.lastKey().compareTo(bound) < 0)) {
+                bound = page.entries.lastKey();
+            }
+        }
+        SortedMap<String, String> merged = new TreeMap<>();
+        long chars = 0;
+        Iterator<Map.Entry<String, String>> it = all.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, String> entry = it.next();
+            if ((bound != null && entry.getKey().compareTo(bound) > 0) || merged.size() >= limit
+                    || (chars >= PaxosConfig.SCAN_PAGE_CHARS && !merged.isEmpty())) {
+                return new ScanPage(merged, false);
+            }
+            merged.put(entry.getKey(), entry.getValue());
+            chars += entry.getKey().length() + entry.getValue().length();
+        }
+        return new ScanPage(merged, bound == null);
+    }
+
+    /**
+     * Escapes backslashes and line breaks, and in a key every ": ", so that the text fits on
+     * one line of a page.
+     * 
+     * @param text The key or value.
+     * @param key Whether the text is a key.
+     * @param sb The builder the escaped text is appended to.
+     */
+    private static void escape(String text, boolean key, StringBuilder sb) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else if (key && c == ':' && i + 1 < text.length() && text.charAt(i + 1) == ' ') {
+                sb.append("\\:");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Unescapes a key or value of a line.
+     * 
+     * @param line The line.
+     * @param start Where the key or value starts.
+     * @param key Whether to stop at the first unescaped ": ", which ends a key.
+     * @param sb The builder the unescaped text is appended to.
+     * @return Where the key ends, or -1 for a value or a line without ": ".
+     */
+    private static int unescape(String line, int start, boolean key, StringBuilder sb) {
+        for (int i = start; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char escaped = line.charAt(++i);
+                sb.append(escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+            } else if (key && c == ':' && i + 1 < line.length() && line.charAt(i + 1) == ' ') {
+                return i;
+            } else {
+                sb.append(c);
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,19 @@
+import java.rmi.RemoteException;
+
+/**
+ * ServerBusyException is thrown when the server turns a request away because it already has
+ * as many requests in progress and waiting as it admits. The request has not been run, so
+ * the client may retry it after backing off.
+ */
+public class ServerBusyException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a ServerBusyException.
+     * 
+     * @param message Why the request was turned away.
+     */
+    public ServerBusyException(String message) {
+        super(message);
+    }
+}
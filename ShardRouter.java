@@ -0,0 +1,180 @@
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * ShardRouter is the Proposer clients talk to when the key space is split across several
+ * independent PAXOS groups. Each group has its own proposer, acceptors and learners and
+ * decides its own log, so writes to different shards never wait for each other. The router
+ * sends every command to the shard its key hashes to. Multi-key commands are split by shard
+ * and sent to the shards in parallel; they are atomic within each shard but not across shards.
+ * SCAN and PREFIX go to every shard in parallel, and the pages of the shards are merged into
+ * one page in key order.
+ */
+public class ShardRouter extends UnicastRemoteObject implements Proposer {
+    private static final long serialVersionUID = 1L;
+    private final List<Proposer> shards;
+    private final ExecutorService executor;
+
+    /**
+     * Constructs a ShardRouter over the proposers of the shards.
+     * 
+     * @param shards The proposer of every shard, indexed by shard.
+     * @param executor The executor multi-key commands are sent to the shards on.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    protected ShardRouter(List<Proposer> shards, ExecutorService executor) throws RemoteException {
+        super();
+        this.shards = shards;
+        this.executor = executor;
+    }
+
+    /**
+     * Sends the command to the shard that owns its key. STATS is sent to every shard and
+     * returns one line per shard; commands without a key go to the first shard.
+     * 
+     * @param command The command that has been proposed (Example: 'GET', 'PUT', 'DELETE')
+     * @param args Arguments for the command, if any.
+     * @return A String depicting the result of execution of the command proposed.
+     * @throws RemoteException If an error occurs during remote communication.
+     */
+    @Override
+    public String propose(String command, String[] args) throws RemoteException {
+        if (command.equals("STATS")) {
+            StringBuilder stats = new StringBuilder();
+            for (int shard = 0; shard < shards.size(); shard++) {
+                if (shard > 0) {
+                    stats.append('\n');
+                }
+                stats.append("shard").append(shard).append(": ").append(shards.get(shard).propose(command, args));
+            }
+            return stats.toString();
+        }
+        if (args.length == 0) {
+            return shards.get(0).propose(command, args);
+        }
+        switch (command) {
+            case "MGET":
+            case "MDELETE":
+                return proposeSplit(command, args, 1);
+            case "MPUT":
+                return args.length % 2 == 0 ? proposeSplit(command, args, 2) : shards.get(0).propose(command, args);
+            case "SCAN":
+            case "PREFIX":
+                return scanShards(command, args);
+            default:
+                return shards.get(shardOf(args[0], shards.size())).propose(command, args);
+        }
+    }
+
+    /**
+     * Splits a multi-key command by shard, sends the parts to their shards in parallel and
+     * combines the results. MGET returns one line per key in the order of the keys; writes
+     * succeed only if they succeed on every shard.
+     * 
+     * @param command The multi-key command.
+     * @param args The arguments of the command, a key followed by its values per entry.
+     * @param argsPerKey How many arguments make up one entry.
+     * @return The combined result of the shards.
+     * @throws RemoteException If a shard fails.
+     */
+    private String proposeSplit(String command, String[] args, int argsPerKey) throws RemoteException {
+        Map<Integer, List<Integer>> entriesByShard = new TreeMap<>();
+        for (int entry = 0; entry < args.length / argsPerKey; entry++) {
+            int shard = shardOf(args[entry * argsPerKey], shards.size());
+            entriesByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(entry);
+        }
+
+        Map<Integer, Future<String>> results = new HashMap<>();
+        for (Map.Entry<Integer, List<Integer>> part : entriesByShard.entrySet()) {
+            List<String> partArgs = new ArrayList<>();
+            for (int entry : part.getValue()) {
+                partArgs.addAll(Arrays.asList(args).subList(entry * argsPerKey, (entry + 1) * argsPerKey));
+            }
+            Proposer shard = shards.get(part.getKey());
+            results.put(part.getKey(), executor.submit(() -> shard.propose(command, partArgs.toArray(new String[0]))));
+        }
+
+        String[] lines = new String[args.length / argsPerKey];
+        boolean failed = false;
+        for (Map.Entry<Integer, List<Integer>> part : entriesByShard.entrySet()) {
+            String result;
+            try {
+                result = results.get(part.getKey()).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while waiting for shard " + part.getKey(), e);
+            } catch (ExecutionException e) {
+                throw new RemoteException("Shard " + part.getKey() + " failed", e.getCause());
+            }
+            if (!command.equals("MGET")) {
+                failed |= !result.equals("Operation successful.");
+                continue;
+            }
+            String[] partLines = result.split("\n", -1);
+            for (int i = 0; i < partLines.length && i < part.getValue().size(); i++) {
+                lines[part.getValue().get(i)] = partLines[i];
+            }
+        }
+        if (!command.equals("MGET")) {
+            return failed ? "Operation failed." : "Operation successful.";
+        }
+        return String.join("\n", lines);
+    }
+
+    /**
+     * Sends a SCAN or PREFIX command to every shard in parallel and merges their pages. Every
+     * shard gets the same arguments, since a continuation token means the same on every
+     * shard: continue after this key. The merged page only goes up to the smallest key at
+     * which a shard's page ended early, so no key of any shard is skipped.
+     * 
+     * @param command SCAN or PREFIX.
+     * @param args The arguments of the command.
+     * @return The merged page, formatted for the client.
+     * @throws RemoteException If a shard fails.
+     */
+    private String scanShards(String command, String[] args) throws RemoteException {
+        RangeQuery query = RangeQuery.parse(command, args);
+        if (query == null) {
+            return RangeQuery.usage(command);
+        }
+        List<Future<String>> results = new ArrayList<>();
+        for (Proposer shard : shards) {
+            results.add(executor.submit(() -> shard.propose(command, args)));
+        }
+        List<ScanPage> pages = new ArrayList<>();
+        for (int shard = 0; shard < results.size(); shard++) {
+            try {
+                pages.add(ScanPage.parse(results.get(shard).get()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while waiting for shard " + shard, e);
+            } catch (ExecutionException e) {
+                throw new RemoteException("Shard " + shard + " failed", e.getCause());
+            } catch (IllegalArgumentException e) {
+                throw new RemoteException("Shard " + shard + " returned no page", e);
+            }
+        }
+        return ScanPage.merge(pages, query.getLimit()).format();
+    }
+
+    /**
+     * Returns the shard a key belongs to. The hash code is scrambled first, so that keys
+     * that differ only in their last characters still spread over all shards.
+     * 
+     * @param key The key.
+     * @param shardCount The number of shards.
+     * @return The index of the shard.
+     */
+    public static int shardOf(String key, int shardCount) {
+        return Math.floorMod(key.hashCode() * 0x9E3779B9, shardCount);
+    }
+}
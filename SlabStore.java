@@ -0,0 +1,501 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+
+/**
+ * SlabStore keeps the key-value pairs as UTF-8 bytes in large byte arrays, the slabs, instead
+ * of as a String key, a String value and a VersionedValue per entry, and finds them through
+ * an open-addressing hash table of longs. An entry costs the bytes of its key and value, a
+ * 16-byte record header and a slot of the table, so a store of many small entries takes a
+ * fraction of the heap a ConcurrentHashMap does and gives the garbage collector far fewer
+ * objects to trace.
+ * 
+ * Every record, [key length][value length][version][key][value], is appended to the current
+ * slab of 1 MiB; a record that does not fit into a slab gets a slab of its own. Records are
+ * never changed: writing a key appends a new record and points the key's slot at it, and the
+ * old record becomes garbage. Once the garbage outweighs the live records, the live records
+ * are copied into fresh slabs and the old ones are left to the garbage collector.
+ * 
+ * A slot of the table holds the address of a record, the slab and the offset in it, together
+ * with 19 bits of the key's hash, so that most slots of other keys are skipped without
+ * reading their key. Removing a key leaves a tombstone in its slot rather than moving other
+ * keys, and the table is rebuilt once live keys and tombstones fill 60% of it.
+ * 
+ * Writers are serialised; the learner only writes from one thread at a time. Readers take no
+ * lock: a slot is published with a volatile write after its record is complete, and a
+ * rebuilt table or compacted arena replaces the old ones as a whole, which are never changed
+ * again, so a reader that still holds them sees a consistent, if slightly older, store.
+ */
+public class SlabStore implements KeyValueStore {
+    private static final int OFFSET_BITS = 20;
+    private static final int SLAB_BYTES = 1 << OFFSET_BITS;
+    private static final int ADDRESS_BITS = 44;
+    private static final long ADDRESS_MASK = (1L << ADDRESS_BITS) - 1;
+    private static final int HEADER_BYTES = 16;
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = -1;
+    private static final int MIN_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.6;
+    // Compacting a small store would copy it again and again for little gain.
+    private static final long MIN_GARBAGE_BYTES = 4L * SLAB_BYTES;
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private volatile State state;
+    private volatile int liveKeys;
+    private int usedSlots;
+    private long liveBytes;
+    private long garbageBytes;
+
+    /**
+     * Constructs an empty SlabStore.
+     */
+    public SlabStore() {
+        this.state = new State(new AtomicLongArray(MIN_CAPACITY), new Arena());
+    }
+
+    /**
+     * Looks up a key without locking.
+     * 
+     * @param key The key.
+     * @return The value of the key with its version, or null if the key does not exist.
+     */
+    @Override
+    public VersionedValue get(String key) {
+        State current = state;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long entry = find(current, keyBytes, hash(keyBytes));
+        if (entry == EMPTY) {
+            return null;
+        }
+        return current.arena.readValue(entry & ADDRESS_MASK);
+    }
+
+    /**
+     * Appends a record for the key and points its slot at it.
+     * 
+     * @param key The key.
+     * @param value The value with its version.
+     * @return The value the key had before, or null if it did not exist.
+     */
+    @Override
+    public synchronized VersionedValue put(String key, VersionedValue value) {
+        State current = state;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getValue().getBytes(StandardCharsets.UTF_8);
+        long hash = hash(keyBytes);
+        long address = current.arena.append(keyBytes, valueBytes, value.getVersion());
+        long entry = tagOf(hash) << ADDRESS_BITS | address;
+        long size = HEADER_BYTES + keyBytes.length + valueBytes.length;
+        liveBytes += size;
+
+        int slot = slotOf(current, keyBytes, hash);
+        if (slot >= 0) {
+            long oldAddress = current.table.get(slot) & ADDRESS_MASK;
+            VersionedValue old = current.arena.readValue(oldAddress);
+            current.table.set(slot, entry);
+            discard(current.arena.recordBytes(oldAddress));
+            compactIfWasteful();
+            return old;
+        }
+        slot = freeSlot(current.table, hash);
+        if (current.table.get(slot) == EMPTY) {
+            usedSlots++;
+        }
+        current.table.set(slot, entry);
+        liveKeys++;
+        if (usedSlots > MAX_LOAD * current.table.length()) {
+            rebuild(false);
+        }
+        return null;
+    }
+
+    /**
+     * Leaves a tombstone in the slot of the key.
+     * 
+     * @param key The key.
+     * @return The value the key had, or null if it did not exist.
+     */
+    @Override
+    public synchronized VersionedValue remove(String key) {
+        State current = state;
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int slot = slotOf(current, keyBytes, hash(keyBytes));
+        if (slot < 0) {
+            return null;
+        }
+        long address = current.table.get(slot) & ADDRESS_MASK;
+        VersionedValue old = current.arena.readValue(address);
+        current.table.set(slot, TOMBSTONE);
+        liveKeys--;
+        discard(current.arena.recordBytes(address));
+        compactIfWasteful();
+        return old;
+    }
+
+    /**
+     * Returns the number of keys in the store.
+     * 
+     * @return The number of keys.
+     */
+    @Override
+    public int size() {
+        return liveKeys;
+    }
+
+    /**
+     * Walks the slots of the table and calls the action for every key in it. A key keeps its
+     * slot for as long as it exists, and a table that is rebuilt meanwhile is no longer
+     * changed, so every key that exists throughout the walk is visited exactly once.
+     * 
+     * @param action The action to call.
+     */
+    @Override
+    public void forEach(BiConsumer<String, VersionedValue> action) {
+        State current = state;
+        for (int slot = 0; slot < current.table.length(); slot++) {
+            long entry = current.table.get(slot);
+            if (entry != EMPTY && entry != TOMBSTONE) {
+                long address = entry & ADDRESS_MASK;
+                action.accept(current.arena.readKey(address), current.arena.readValue(address));
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes taken by the table and the slabs, including the garbage in them.
+     * 
+     * @return The size of the store in bytes.
+     */
+    @Override
+    public long memoryBytes() {
+        State current = state;
+        return 8L * current.table.length() + current.arena.allocatedBytes;
+    }
+
+    /**
+     * Finds the entry of a key. The entry is read from its slot only once, so that a reader
+     * racing with the writer either sees the record the slot pointed at or misses the key, but
+     * never follows a tombstone or the entry of another key that took the slot meanwhile.
+     * 
+     * @param current The table and arena to look in.
+     * @param keyBytes The key, in UTF-8.
+     * @param hash The hash of the key.
+     * @return The entry, tag and address, or EMPTY if the key does not exist.
+     */
+    private static long find(State current, byte[] keyBytes, long hash) {
+        AtomicLongArray table = current.table;
+        int mask = table.length() - 1;
+        long tag = tagOf(hash);
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = table.get(slot);
+            if (entry == EMPTY) {
+                return EMPTY;
+            }
+            if (entry != TOMBSTONE && entry >>> ADDRESS_BITS == tag
+                    && current.arena.keyEquals(entry & ADDRESS_MASK, keyBytes)) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Finds the slot of a key. Only the writer, which holds the lock, may use the slot.
+     * 
+     * @param current The table and arena to look in.
+     * @param keyBytes The key, in UTF-8.
+     * @param hash The hash of the key.
+     * @return The slot, or -1 if the key does not exist.
+     */
+    private static int slotOf(State current, byte[] keyBytes, long hash) {
+        AtomicLongArray table = current.table;
+        int mask = table.length() - 1;
+        long tag = tagOf(hash);
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+            long entry = table.get(slot);
+            if (entry == EMPTY) {
+                return -1;
+            }
+            if (entry != TOMBSTONE && entry >>> ADDRESS_BITS == tag
+                    && current.arena.keyEquals(entry & ADDRESS_MASK, keyBytes)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Finds the slot a new key goes into: the first tombstone or empty slot on its probe
+     * sequence.
+     * 
+     * @param table The table.
+     * @param hash The hash of the key.
+     * @return The slot.
+     */
+    private static int freeSlot(AtomicLongArray table, long hash) {
+        int mask = table.length() - 1;
+        int slot = (int) hash & mask;
+        while (table.get(slot) != EMPTY && table.get(slot) != TOMBSTONE) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Counts a record that is no longer referenced as garbage.
+     * 
+     * @param size The size of the record, in bytes.
+     */
+    private void discard(long size) {
+        liveBytes -= size;
+        garbageBytes += size;
+    }
+
+    /**
+     * Copies the live records into fresh slabs once the garbage outweighs them.
+     */
+    private void compactIfWasteful() {
+        if (garbageBytes >= MIN_GARBAGE_BYTES && garbageBytes > liveBytes) {
+            rebuild(true);
+        }
+    }
+
+    /**
+     * Builds a new table sized for the live keys, without tombstones, and publishes it.
+     * 
+     * @param compact Whether the live records are copied into a new arena as well.
+     */
+    private void rebuild(boolean compact) {
+        State current = state;
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < 2.0 * liveKeys) {
+            capacity <<= 1;
+        }
+        AtomicLongArray table = new AtomicLongArray(capacity);
+        Arena arena = compact ? new Arena() : current.arena;
+        for (int i = 0; i < current.table.length(); i++) {
+            long entry = current.table.get(i);
+            if (entry == EMPTY || entry == TOMBSTONE) {
+                continue;
+            }
+            long address = entry & ADDRESS_MASK;
+            byte[] keyBytes = current.arena.keyBytes(address);
+            long hash = hash(keyBytes);
+            if (compact) {
+                address = arena.copy(current.arena, address, keyBytes);
+            }
+            table.set(freeSlot(table, hash), tagOf(hash) << ADDRESS_BITS | address);
+        }
+        usedSlots = liveKeys;
+        if (compact) {
+            garbageBytes = 0;
+        }
+        state = new State(table, arena);
+    }
+
+    /**
+     * Hashes a key with 64-bit FNV-1a and spreads the bits, so that both the slot, from the
+     * low bits, and the tag, from the high bits, are well distributed.
+     * 
+     * @param keyBytes The key, in UTF-8.
+     * @return The hash.
+     */
+    private static long hash(byte[] keyBytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : keyBytes) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Returns the tag a slot keeps of the hash: its top 19 bits, but never 0, so that no
+     * slot in use looks empty.
+     * 
+     * @param hash The hash of the key.
+     * @return The tag, between 1 and 2^19 - 1.
+     */
+    private static long tagOf(long hash) {
+        long tag = hash >>> (ADDRESS_BITS + 1);
+        return tag != 0 ? tag : 1;
+    }
+
+    /**
+     * State is a table together with the arena its addresses point into, published as one.
+     */
+    private static final class State {
+        private final AtomicLongArray table;
+        private final Arena arena;
+
+        /**
+         * Constructs a State.
+         * 
+         * @param table The table.
+         * @param arena The arena.
+         */
+        private State(AtomicLongArray table, Arena arena) {
+            this.table = table;
+            this.arena = arena;
+        }
+    }
+
+    /**
+     * Arena is the list of slabs records are appended to. Only the writer appends; the list
+     * of slabs is replaced by a longer copy when it runs out of room, so readers never see a
+     * slab missing.
+     */
+    private static final class Arena {
+        private volatile byte[][] slabs = new byte[4][];
+        private int slabCount;
+        private int current = -1;
+        private int offset = SLAB_BYTES;
+        private volatile long allocatedBytes;
+
+        /**
+         * Appends a record.
+         * 
+         * @param keyBytes The key, in UTF-8.
+         * @param valueBytes The value, in UTF-8.
+         * @param version The version of the value.
+         * @return The address of the record.
+         */
+        private long append(byte[] keyBytes, byte[] valueBytes, long version) {
+            int size = HEADER_BYTES + keyBytes.length + valueBytes.length;
+            long address = allocate(size);
+            byte[] slab = slabs[(int) (address >>> OFFSET_BITS)];
+            int at = (int) (address & (SLAB_BYTES - 1));
+            INT.set(slab, at, keyBytes.length);
+            INT.set(slab, at + 4, valueBytes.length);
+            LONG.set(slab, at + 8, version);
+            System.arraycopy(keyBytes, 0, slab, at + HEADER_BYTES, keyBytes.length);
+            System.arraycopy(valueBytes, 0, slab, at + HEADER_BYTES + keyBytes.length, valueBytes.length);
+            return address;
+        }
+
+        /**
+         * Copies a record from another arena.
+         * 
+         * @param from The arena the record is in.
+         * @param address The address of the record there.
+         * @param keyBytes The key of the record, already read.
+         * @return The address of the copy.
+         */
+        private long copy(Arena from, long address, byte[] keyBytes) {
+            int size = (int) from.recordBytes(address);
+            long copy = allocate(size);
+            System.arraycopy(from.slabs[(int) (address >>> OFFSET_BITS)], (int) (address & (SLAB_BYTES - 1)),
+                    slabs[(int) (copy >>> OFFSET_BITS)], (int) (copy & (SLAB_BYTES - 1)), size);
+            return copy;
+        }
+
+        /**
+         * Makes room for a record: at the end of the current slab, in a new slab if it does
+         * not fit, or in a slab of its own if it is larger than a slab.
+         * 
+         * @param size The size of the record, in bytes.
+         * @return The address of the room.
+         */
+        private long allocate(int size) {
+            if (size > SLAB_BYTES) {
+                return (long) addSlab(new byte[size]) << OFFSET_BITS;
+            }
+            if (offset + size > SLAB_BYTES) {
+                current = addSlab(new byte[SLAB_BYTES]);
+                offset = 0;
+            }
+            long address = (long) current << OFFSET_BITS | offset;
+            offset += size;
+            return address;
+        }
+
+        /**
+         * Adds a slab, replacing the list of slabs with a longer copy if it is full.
+         * 
+         * @param slab The slab.
+         * @return The index of the slab.
+         */
+        private int addSlab(byte[] slab) {
+            byte[][] list = slabs;
+            if (slabCount == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+            }
+            list[slabCount] = slab;
+            slabs = list;
+            allocatedBytes += slab.length;
+            return slabCount++;
+        }
+
+        /**
+         * Returns the size of a record.
+         * 
+         * @param address The address of the record.
+         * @return The size, including its header, in bytes.
+         */
+        private long recordBytes(long address) {
+            byte[] slab = slabs[(int) (address >>> OFFSET_BITS)];
+            int at = (int) (address & (SLAB_BYTES - 1));
+            return HEADER_BYTES + (int) INT.get(slab, at) + (int) INT.get(slab, at + 4);
+        }
+
+        /**
+         * Compares the key of a record with a key.
+         * 
+         * @param address The address of the record.
+         * @param keyBytes The key, in UTF-8.
+         * @return Whether the record is for the key.
+         */
+        private boolean keyEquals(long address, byte[] keyBytes) {
+            byte[] slab = slabs[(int) (address >>> OFFSET_BITS)];
+            int at = (int) (address & (SLAB_BYTES - 1));
+            int length = (int) INT.get(slab, at);
+            return length == keyBytes.length && Arrays.equals(slab, at + HEADER_BYTES, at + HEADER_BYTES + length,
+                    keyBytes, 0, keyBytes.length);
+        }
+
+        /**
+         * Reads the key of a record as bytes.
+         * 
+         * @param address The address of the record.
+         * @return The key, in UTF-8.
+         */
+        private byte[] keyBytes(long address) {
+            byte[] slab = slabs[(int) (address >>> OFFSET_BITS)];
+            int at = (int) (address & (SLAB_BYTES - 1));
+            return Arrays.copyOfRange(slab, at + HEADER_BYTES, at + HEADER_BYTES + (int) INT.get(slab, at));
+        }
+
+        /**
+         * Reads the key of a record.
+         * 
+         * @param address The address of the record.
+         * @return The key.
+         */
+        private String readKey(long address) {
+            byte[] slab = slabs[(int) (address >>> OFFSET_BITS)];
+            int at = (int) (address & (SLAB_BYTES - 1));
+            return new String(slab, at + HEADER_BYTES, (int) INT.get(slab, at), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Reads the value of a record.
+         * 
+         * @param address The address of the record.
+         * @return The value with its version.
+         */
+        private VersionedValue readValue(long address) {
+            byte[] slab = slabs[(int) (address >>> OFFSET_BITS)];
+            int at = (int) (address & (SLAB_BYTES - 1));
+            int keyLength = (int) INT.get(slab, at);
+            int valueLength = (int) INT.get(slab, at + 4);
+            long version = (long) LONG.get(slab, at + 8);
+            String value = new String(slab, at + HEADER_BYTES + keyLength, valueLength, StandardCharsets.UTF_8);
+            return new VersionedValue(value, version);
+        }
+    }
+}
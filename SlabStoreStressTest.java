@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * SlabStoreStressTest checks that lock-free reads of a SlabStore stay consistent while a
+ * writer puts and removes keys, rebuilds the table and compacts the slabs underneath them.
+ * Every value names its key and its version, so a reader that follows a tombstone or the slot
+ * of another key is caught. It exits with status 1 on the first inconsistency.
+ */
+public class SlabStoreStressTest {
+
+    /**
+     * Main method for the stress test.
+     * 
+     * @param args Optional arguments: number of reader threads, seconds and number of keys.
+     */
+    public static void main(String[] args) throws Exception {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int keys = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        SlabStore store = new SlabStore();
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long version = 0;
+            try {
+                while (System.nanoTime() < deadline && failure.get() == null) {
+                    String key = "key" + random.nextInt(keys);
+                    if (random.nextInt(3) == 0) {
+                        store.remove(key);
+                    } else {
+                        version++;
+                        // Values of varying size make the writer fill slabs and compact them.
+                        store.put(key, new VersionedValue(valueOf(key, version, random.nextInt(200)), version));
+                    }
+                    writes.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, "writer: " + e);
+            }
+        }));
+        for (int i = 0; i < readers; i++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (System.nanoTime() < deadline && failure.get() == null) {
+                        String key = "key" + random.nextInt(keys);
+                        VersionedValue value = store.get(key);
+                        if (value != null && !value.getValue().startsWith(key + "@" + value.getVersion() + ":")) {
+                            failure.compareAndSet(null, "get(" + key + ") returned " + value.getValue());
+                        }
+                        reads.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, "reader: " + e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.println("readers=" + readers + " reads=" + reads.get() + " writes=" + writes.get()
+                + " keys=" + store.size() + " bytes=" + store.memoryBytes());
+        if (failure.get() != null) {
+            System.out.println("FAILED: " + failure.get());
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Builds a value that names its key and version.
+     * 
+     * @param key The key.
+     * @param version The version.
+     * @param padding The number of padding characters.
+     * @return The value.
+     */
+    private static String valueOf(String key, long version, int padding) {
+        return key + "@" + version + ":" + "x".repeat(padding);
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * StoreEngine decides which KeyValueStore a learner keeps its key-value pairs in.
+ */
+public enum StoreEngine {
+
+    /** A ConcurrentHashMap of String keys and VersionedValue objects. */
+    HEAP,
+
+    /**
+     * A SlabStore: keys and values are kept as UTF-8 bytes in large byte arrays behind an
+     * open-addressing index, which takes a fraction of the memory for many small entries.
+     */
+    SLAB;
+
+    /**
+     * Creates an empty store of this engine.
+     * 
+     * @return The store.
+     */
+    public KeyValueStore newStore() {
+        switch (this) {
+            case SLAB:
+                return new SlabStore();
+            case HEAP:
+            default:
+                return new HeapStore();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Transport decides how clients reach the proposer.
+ */
+public enum Transport {
+
+    /** Java RMI through the registry, one serialized call per request. */
+    RMI,
+
+    /**
+     * Length-prefixed binary frames over a persistent socket, with many requests in flight
+     * on one connection at once. The server listens on the port after the registry's.
+     */
+    NIO
+}
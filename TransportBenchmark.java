@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * TransportBenchmark compares the round-trip latency and the messages per second of the RMI
+ * and NIO transports on loopback. Both serve the same proposer, which echoes its arguments
+ * back without running PAXOS, so only the cost of the transport is measured.
+ */
+public class TransportBenchmark {
+
+    /**
+     * A proposer that returns its first argument.
+     */
+    private static final class EchoProposer implements Proposer {
+
+        @Override
+        public String propose(String command, String[] args) throws RemoteException {
+            return args.length > 0 ? args[0] : command;
+        }
+    }
+
+    /**
+     * Main method for the benchmark.
+     * 
+     * @param args Optional arguments: number of threads, seconds per transport, payload size in
+     *             bytes and the port to use (the NIO endpoint uses the next one).
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int payloadSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 31099;
+        String payload = "x".repeat(payloadSize);
+
+        EchoProposer echo = new EchoProposer();
+        Registry registry = LocateRegistry.createRegistry(port);
+        registry.bind("Proposer", UnicastRemoteObject.exportObject(echo, 0));
+        ExecutorService handlers = Executors.newCachedThreadPool();
+        NioServer nioServer = new NioServer(port + 1, request -> ProposerFrames.handle(echo, request), handlers);
+
+        System.out.println("threads=" + threads + " seconds=" + seconds + " payloadSize=" + payloadSize);
+        Proposer rmi = (Proposer) LocateRegistry.getRegistry("localhost", port).lookup("Proposer");
+        report("RMI", run(rmi, threads, seconds, payload), seconds);
+        try (NioProposerStub nio = new NioProposerStub("localhost", port + 1)) {
+            report("NIO", run(nio, threads, seconds, payload), seconds);
+        }
+
+        nioServer.close();
+        handlers.shutdown();
+        UnicastRemoteObject.unexportObject(echo, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+    }
+
+    /**
+     * Runs the benchmark for a single transport after a short warm-up.
+     * 
+     * @param proposer The proposer stub of the transport.
+     * @param threads The number of calling threads.
+     * @param seconds How long to run.
+     * @param payload The argument sent and echoed in every call.
+     * @return The round-trip latencies of every call, in nanoseconds.
+     */
+    private static long[] run(Proposer proposer, int threads, int seconds, String payload) throws Exception {
+        measure(proposer, threads, 1, payload);
+        return measure(proposer, threads, seconds, payload);
+    }
+
+    /**
+     * Calls the proposer from a number of threads and records the latency of every call.
+     * 
+     * @param proposer The proposer stub of the transport.
+     * @param threads The number of calling threads.
+     * @param seconds How long to run.
+     * @param payload The argument sent and echoed in every call.
+     * @return The round-trip latencies of every call, in nanoseconds.
+     */
+    private static long[] measure(Proposer proposer, int threads, int seconds, String payload) throws Exception {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long[][] results = new long[threads][];
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int worker = i;
+            Thread thread = new Thread(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                String[] callArgs = {payload};
+                try {
+                    long start;
+                    while ((start = System.nanoTime()) < deadline) {
+                        proposer.propose("GET", callArgs);
+                        if (count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = System.nanoTime() - start;
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                results[worker] = Arrays.copyOf(latencies, count);
+            });
+            thread.start();
+            workers.add(thread);
+        }
+        for (Thread thread : workers) {
+            thread.join();
+        }
+        long[] all = Arrays.stream(results).flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(all);
+        return all;
+    }
+
+    /**
+     * Prints the throughput and latency percentiles of a transport.
+     * 
+     * @param transport The name of the transport.
+     * @param latencies The sorted round-trip latencies of every call, in nanoseconds.
+     * @param seconds How long the benchmark ran.
+     */
+    private static void report(String transport, long[] latencies, int seconds) {
+        System.out.printf("%-4s %10.0f msgs/s  p50=%6.1fus  p99=%7.1fus  p99.9=%7.1fus%n", transport,
+                (double) latencies.length / seconds, percentile(latencies, 0.50), percentile(latencies, 0.99),
+                percentile(latencies, 0.999));
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, (long) (quantile * sorted.length))] / 1000.0;
+    }
+}
@@ -0,0 +1,70 @@
+import java.io.Serializable;
+
+/**
+ * VersionedValue is a value in the key-value store together with its version. The version
+ * of a key starts at 1 when the key is created and goes up by one with every write to it, so
+ * a client can make a write conditional on the key not having changed since it read it. A
+ * missing key has version 0.
+ */
+public final class VersionedValue implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String value;
+    private final long version;
+
+    /**
+     * Constructs a VersionedValue.
+     * 
+     * @param value The value.
+     * @param version The version of the key the value was written at.
+     */
+    public VersionedValue(String value, long version) {
+        this.value = value;
+        this.version = version;
+    }
+
+    /**
+     * Returns the value.
+     * 
+     * @return The value.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the version of the key the value was written at.
+     * 
+     * @return The version, at least 1.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the value that replaces this one when the key is written again.
+     * 
+     * @param newValue The new value.
+     * @return The new value, one version up.
+     */
+    public VersionedValue next(String newValue) {
+        return new VersionedValue(newValue, version + 1);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof VersionedValue)) return false;
+        VersionedValue versioned = (VersionedValue) other;
+        return version == versioned.version && value.equals(versioned.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * value.hashCode() + Long.hashCode(version);
+    }
+
+    @Override
+    public String toString() {
+        return value + " (version " + version + ")";
+    }
+}
@@ -0,0 +1,147 @@
+import java.nio.file.Path;
+import java.rmi.Remote;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bench.Roles;
+
+/**
+ * BenchmarkRoles starts the PAXOS roles in-process for the JMH benchmarks, which cannot refer
+ * to classes in the unnamed package themselves. The roles are exported as usual but never
+ * bound to a registry, and talk to each other through plain method calls.
+ * 
+ * The role loggers, and the console echo of client requests, are set to the level in the
+ * bench.logLevel system property, WARNING by default, so that the benchmarks do not mostly
+ * measure logging.
+ */
+public class BenchmarkRoles implements Roles {
+    // Held so that the loggers, and with them their levels, are not garbage collected.
+    private final List<Logger> loggers = new ArrayList<>();
+
+    /**
+     * Constructs a BenchmarkRoles and sets the level of the role loggers.
+     */
+    public BenchmarkRoles() {
+        Level level = Level.parse(System.getProperty("bench.logLevel", "WARNING"));
+        for (String name : new String[]{"Proposer", "Acceptor", "Learner", "Transport"}) {
+            loggers.add(LoggerConfig.createLogger(name));
+        }
+        loggers.add(LoggerConfig.createConsoleLogger("Requests"));
+        for (Logger logger : loggers) {
+            logger.setLevel(level);
+        }
+    }
+
+    /**
+     * Starts an acceptor that keeps its write-ahead log in the given directory.
+     * 
+     * @param dataDir The directory of the write-ahead log.
+     * @return The acceptor.
+     * @throws Exception If the acceptor cannot be started.
+     */
+    @Override
+    public AcceptorRole acceptor(Path dataDir) throws Exception {
+        AcceptorImpl acceptor = new AcceptorImpl(dataDir);
+        return new AcceptorRole() {
+            @Override
+            public boolean prepare(long round, long fromSlot) throws Exception {
+                return acceptor.prepare(new Ballot(round, PaxosConfig.PROPOSER_ID), fromSlot).isGranted();
+            }
+
+            @Override
+            public boolean accept(long round, long slot, byte[] value) throws Exception {
+                return acceptor.accept(new Ballot(round, PaxosConfig.PROPOSER_ID), slot, value) == AcceptResult.ACCEPTED;
+            }
+
+            @Override
+            public void truncate(long upToSlot) throws Exception {
+                acceptor.truncate(upToSlot);
+            }
+
+            @Override
+            public void close() throws Exception {
+                UnicastRemoteObject.unexportObject(acceptor, true);
+            }
+        };
+    }
+
+    /**
+     * Starts a learner that keeps its snapshots in the given directory.
+     * 
+     * @param dataDir The directory of the snapshots.
+     * @return The learner.
+     * @throws Exception If the learner cannot be started.
+     */
+    @Override
+    public LearnerRole learner(Path dataDir) throws Exception {
+        LearnerImpl learner = new LearnerImpl(dataDir);
+        return new LearnerRole() {
+            @Override
+            public void learn(long slot, byte[] value) throws Exception {
+                learner.learn(slot, value);
+            }
+
+            @Override
+            public byte[] encodePuts(String[] keys, String value) {
+                List<Command> commands = new ArrayList<>(keys.length);
+                for (int i = 0; i < keys.length; i++) {
+                    commands.add(new Command(Opcode.PUT, keys[i], value, PaxosConfig.PROPOSER_ID, i));
+                }
+                return Command.encodeBatch(commands);
+            }
+
+            @Override
+            public void close() throws Exception {
+                UnicastRemoteObject.unexportObject(learner, true);
+            }
+        };
+    }
+
+    /**
+     * Starts a proposer with the given number of acceptors and as many learners, wired up the
+     * way RMIServer wires up a shard.
+     * 
+     * @param acceptorCount How many acceptors and learners to start.
+     * @param dataDir The directory the acceptors and learners keep their data in.
+     * @return The cluster.
+     * @throws Exception If a role cannot be started.
+     */
+    @Override
+    public ClusterRole cluster(int acceptorCount, Path dataDir) throws Exception {
+        Map<Integer, Acceptor> acceptors = new HashMap<>();
+        Map<Integer, Learner> learners = new HashMap<>();
+        for (int i = 1; i <= acceptorCount; i++) {
+            acceptors.put(i, new AcceptorImpl(dataDir.resolve("acceptor" + i)));
+            learners.put(i, new LearnerImpl(dataDir.resolve("learner" + i)));
+        }
+        for (Map.Entry<Integer, Learner> entry : learners.entrySet()) {
+            Map<Integer, Learner> peers = new HashMap<>(learners);
+            peers.remove(entry.getKey());
+            ((LearnerImpl) entry.getValue()).setPeers(peers);
+            ((LearnerImpl) entry.getValue()).setAcceptors(acceptors);
+        }
+        ProposerImpl proposer = new ProposerImpl(acceptors, learners);
+
+        return new ClusterRole() {
+            @Override
+            public String propose(String command, String... args) throws Exception {
+                return proposer.propose(command, args);
+            }
+
+            @Override
+            public void close() throws Exception {
+                List<Remote> roles = new ArrayList<>(acceptors.values());
+                roles.addAll(learners.values());
+                roles.add(proposer);
+                for (Remote role : roles) {
+                    UnicastRemoteObject.unexportObject(role, true);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AcceptorBenchmark measures Phase 1 and Phase 2 at a single acceptor, including the record
+ * each of them appends to the write-ahead log. The log is not forced to disk on every record
+ * (paxos.fsyncPolicy=PERIODIC), so the benchmark measures the acceptor rather than the disk;
+ * AcceptorLogBenchmark compares the fsync policies.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dpaxos.fsyncPolicy=PERIODIC")
+public class AcceptorBenchmark {
+
+    /** The size of every accepted value, in bytes. */
+    @Param({"100", "4096"})
+    public int valueSize;
+
+    private final AtomicLong nextSlot = new AtomicLong();
+    private final AtomicLong nextRound = new AtomicLong(1);
+    private Path dataDir;
+    private Roles.AcceptorRole acceptor;
+    private byte[] value;
+
+    /**
+     * Starts an acceptor in a fresh directory and promises it the first ballot.
+     * 
+     * @throws Exception If the acceptor cannot be started.
+     */
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        dataDir = Files.createTempDirectory("acceptor-bench");
+        acceptor = Roles.load().acceptor(dataDir);
+        value = new byte[valueSize];
+        acceptor.prepare(1, 0);
+    }
+
+    /**
+     * Discards the slots accepted in earlier iterations, as the proposer would once the
+     * learners have applied them, so that memory does not grow across iterations.
+     * 
+     * @throws Exception If the acceptor fails.
+     */
+    @Setup(Level.Iteration)
+    public void truncate() throws Exception {
+        acceptor.truncate(nextSlot.get() - 1);
+    }
+
+    /**
+     * Stops the acceptor and deletes its directory.
+     * 
+     * @throws Exception If the acceptor cannot be stopped.
+     */
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        acceptor.close();
+        Roles.delete(dataDir);
+    }
+
+    /**
+     * Accepts a value in the next slot under the promised ballot.
+     * 
+     * @return Whether the value was accepted.
+     * @throws Exception If the acceptor fails.
+     */
+    @Benchmark
+    public boolean accept() throws Exception {
+        return acceptor.accept(1, nextSlot.getAndIncrement(), value);
+    }
+
+    /**
+     * Promises the next higher ballot.
+     * 
+     * @return Whether the ballot was promised.
+     * @throws Exception If the acceptor fails.
+     */
+    @Benchmark
+    public boolean prepare() throws Exception {
+        return acceptor.prepare(nextRound.incrementAndGet(), 0);
+    }
+}
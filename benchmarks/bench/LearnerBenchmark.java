@@ -0,0 +1,99 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LearnerBenchmark measures how fast a learner applies decided batches of PUTs to its
+ * key-value store, including the snapshots it writes in the background every
+ * paxos.snapshotEverySlots slots. Threads hand in consecutive slots, so with more than one
+ * thread some slots arrive early and are buffered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LearnerBenchmark {
+    private static final int DISTINCT_BATCHES = 64;
+
+    /** How many distinct keys the PUTs write to. */
+    @Param({"1000", "100000"})
+    public int keys;
+
+    /** The size of every value, in bytes. */
+    @Param({"100", "4096"})
+    public int valueSize;
+
+    /** How many PUTs are decided in each slot. */
+    @Param({"1", "32"})
+    public int batchSize;
+
+    private final AtomicLong nextSlot = new AtomicLong();
+    private Path dataDir;
+    private Roles.LearnerRole learner;
+    private byte[][] batches;
+
+    /**
+     * Starts a learner in a fresh directory and encodes batches of PUTs on random keys.
+     * 
+     * @throws Exception If the learner cannot be started.
+     */
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        dataDir = Files.createTempDirectory("learner-bench");
+        learner = Roles.load().learner(dataDir);
+        char[] value = new char[valueSize];
+        Arrays.fill(value, 'v');
+        Random random = new Random(42);
+        batches = new byte[DISTINCT_BATCHES][];
+        for (int i = 0; i < batches.length; i++) {
+            String[] batchKeys = new String[batchSize];
+            for (int j = 0; j < batchSize; j++) {
+                batchKeys[j] = "key" + random.nextInt(keys);
+            }
+            batches[i] = learner.encodePuts(batchKeys, new String(value));
+        }
+    }
+
+    /**
+     * Stops the learner and deletes its directory.
+     * 
+     * @throws Exception If the learner cannot be stopped.
+     */
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        learner.close();
+        Roles.delete(dataDir);
+    }
+
+    /**
+     * Hands the learner the batch decided for the next slot.
+     * 
+     * @throws Exception If the learner fails.
+     */
+    @Benchmark
+    public void learn() throws Exception {
+        long slot = nextSlot.getAndIncrement();
+        learner.learn(slot, batches[(int) (slot % DISTINCT_BATCHES)]);
+    }
+}
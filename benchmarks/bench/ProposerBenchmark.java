@@ -0,0 +1,112 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ProposerBenchmark measures the whole path of a client request through ProposerImpl.propose:
+ * batching, consensus at the acceptors and the learners applying the batch for PUT, and the
+ * read at a learner for GET. Every role runs in this JVM, so the network is left out. A single
+ * thread mostly measures latency, since a PUT waits for its batch window; run with -t to
+ * measure throughput with concurrent clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dpaxos.fsyncPolicy=PERIODIC")
+public class ProposerBenchmark {
+
+    /** How many acceptors, and as many learners, the proposer runs with. */
+    @Param({"3", "5"})
+    public int acceptors;
+
+    /** How many distinct keys are read and written. */
+    @Param({"1000"})
+    public int keys;
+
+    /** The size of every value, in bytes. */
+    @Param({"100", "4096"})
+    public int valueSize;
+
+    private Path dataDir;
+    private Roles.ClusterRole cluster;
+    private String value;
+
+    /**
+     * Starts the cluster in a fresh directory and stores a value under every key, so that
+     * every GET finds one.
+     * 
+     * @throws Exception If the cluster cannot be started.
+     */
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        dataDir = Files.createTempDirectory("proposer-bench");
+        cluster = Roles.load().cluster(acceptors, dataDir);
+        char[] chars = new char[valueSize];
+        Arrays.fill(chars, 'v');
+        value = new String(chars);
+        List<String> args = new ArrayList<>();
+        for (int key = 0; key < keys; key++) {
+            args.add("key" + key);
+            args.add(value);
+            if (args.size() == 200 || key == keys - 1) {
+                cluster.propose("MPUT", args.toArray(new String[0]));
+                args.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops the cluster and deletes its directory.
+     * 
+     * @throws Exception If the cluster cannot be stopped.
+     */
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        cluster.close();
+        Roles.delete(dataDir);
+    }
+
+    /**
+     * Writes a random key.
+     * 
+     * @return The response of the proposer.
+     * @throws Exception If the proposer fails.
+     */
+    @Benchmark
+    public String put() throws Exception {
+        return cluster.propose("PUT", "key" + ThreadLocalRandom.current().nextInt(keys), value);
+    }
+
+    /**
+     * Reads a random key.
+     * 
+     * @return The response of the proposer.
+     * @throws Exception If the proposer fails.
+     */
+    @Benchmark
+    public String get() throws Exception {
+        return cluster.propose("GET", "key" + ThreadLocalRandom.current().nextInt(keys));
+    }
+}
@@ -0,0 +1,142 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Roles gives the benchmarks in-process access to the PAXOS roles, without an RMI registry.
+ * The roles live in the unnamed package, which classes in a named package cannot refer to,
+ * while JMH does not allow benchmarks in the unnamed package. BenchmarkRoles, in the unnamed
+ * package, implements this interface and is loaded by name, so the benchmarks only ever call
+ * the roles through it.
+ */
+public interface Roles {
+
+    /**
+     * A single acceptor with its write-ahead log.
+     */
+    interface AcceptorRole extends AutoCloseable {
+
+        /**
+         * Runs Phase 1 at the acceptor.
+         * 
+         * @param round The round of the ballot to prepare.
+         * @param fromSlot The first slot the proposer does not know to be chosen.
+         * @return true if the acceptor promised the ballot.
+         * @throws Exception If the acceptor fails.
+         */
+        boolean prepare(long round, long fromSlot) throws Exception;
+
+        /**
+         * Runs Phase 2 at the acceptor.
+         * 
+         * @param round The round of the ballot the value is proposed with.
+         * @param slot The slot to accept the value in.
+         * @param value The value to accept.
+         * @return true if the acceptor accepted the value.
+         * @throws Exception If the acceptor fails.
+         */
+        boolean accept(long round, long slot, byte[] value) throws Exception;
+
+        /**
+         * Discards the accepted slots up to the given slot from memory.
+         * 
+         * @param upToSlot The last slot to discard.
+         * @throws Exception If the acceptor fails.
+         */
+        void truncate(long upToSlot) throws Exception;
+    }
+
+    /**
+     * A single learner with its key-value store.
+     */
+    interface LearnerRole extends AutoCloseable {
+
+        /**
+         * Hands the learner a value decided for a slot.
+         * 
+         * @param slot The slot the value was decided for.
+         * @param value The encoded batch of commands.
+         * @throws Exception If the learner fails.
+         */
+        void learn(long slot, byte[] value) throws Exception;
+
+        /**
+         * Encodes a batch of PUT commands the way the proposer does.
+         * 
+         * @param keys The keys of the commands.
+         * @param value The value every key is set to.
+         * @return The encoded batch.
+         */
+        byte[] encodePuts(String[] keys, String value);
+    }
+
+    /**
+     * A proposer with its own acceptors and learners.
+     */
+    interface ClusterRole extends AutoCloseable {
+
+        /**
+         * Proposes a command as a client would.
+         * 
+         * @param command The command, e.g. GET or PUT.
+         * @param args The arguments of the command.
+         * @return The response of the proposer.
+         * @throws Exception If the proposer fails.
+         */
+        String propose(String command, String... args) throws Exception;
+    }
+
+    /**
+     * Loads the implementation in the unnamed package.
+     * 
+     * @return The roles.
+     * @throws ReflectiveOperationException If BenchmarkRoles is not on the class path.
+     */
+    static Roles load() throws ReflectiveOperationException {
+        return (Roles) Class.forName("BenchmarkRoles").getDeclaredConstructor().newInstance();
+    }
+
+    /**
+     * Starts an acceptor that keeps its write-ahead log in the given directory.
+     * 
+     * @param dataDir The directory of the write-ahead log.
+     * @return The acceptor.
+     * @throws Exception If the acceptor cannot be started.
+     */
+    AcceptorRole acceptor(Path dataDir) throws Exception;
+
+    /**
+     * Starts a learner that keeps its snapshots in the given directory.
+     * 
+     * @param dataDir The directory of the snapshots.
+     * @return The learner.
+     * @throws Exception If the learner cannot be started.
+     */
+    LearnerRole learner(Path dataDir) throws Exception;
+
+    /**
+     * Starts a proposer with the given number of acceptors and as many learners.
+     * 
+     * @param acceptors How many acceptors and learners to start.
+     * @param dataDir The directory the acceptors and learners keep their data in.
+     * @return The cluster.
+     * @throws Exception If a role cannot be started.
+     */
+    ClusterRole cluster(int acceptors, Path dataDir) throws Exception;
+
+    /**
+     * Deletes a directory and everything in it.
+     * 
+     * @param directory The directory to delete.
+     * @throws IOException If the directory cannot be listed.
+     */
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}